@@ -114,7 +114,7 @@ public class FullCacheStrategy
         }
         else
         {
-           ResultsNavigator nav = super.dataManager.executeQuery(sql);
+           ResultsNavigator nav = super.dataManager.executeReadQuery(sql);
            /**
             * The CacheStrategyHelper class is used to navigate through the
             * query results and place objects in the cache
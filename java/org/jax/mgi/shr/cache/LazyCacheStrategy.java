@@ -69,7 +69,7 @@ public class LazyCacheStrategy
         if (super.debug)
             super.logger.logDebug("initializing cache with the following " +
                                   "sql:\n" + sql);
-        ResultsNavigator nav = super.dataManager.executeQuery(sql);
+        ResultsNavigator nav = super.dataManager.executeReadQuery(sql);
         /**
          * The CacheStrategyHelper class is used to navigate through the
          * query results and place objects in the cache
@@ -288,6 +288,104 @@ public class BCPManagerCfg extends Configurator {
     return value;
   }
 
+  /**
+   * get the value of the option which designates whether to load bcp files
+   * by streaming them over the existing JDBC connection with the Postgres
+   * COPY command rather than running the external bcp command. The
+   * parameter name read from the configuration file for setting this
+   * option is BCP_USE_COPY and its default is false.
+   * @return true or false
+   * @throws ConfigException throws if configuration value does not represent
+   * a boolean
+   */
+  public Boolean getUseCopy() throws ConfigException {
+    return getConfigBoolean("BCP_USE_COPY", new Boolean(false));
+  }
+
+  /**
+   * get the maximum number of tables which the BCPManager will load at the
+   * same time, each on its own database connection. The parameter name
+   * read from the configuration file for setting this option is
+   * BCP_MAX_PARALLEL and its default is 1, which loads the tables one
+   * after another on the connection of each table.
+   * @return the maximum number of tables to load at once
+   * @throws ConfigException throws if configuration value does not represent
+   * an integer
+   */
+  public Integer getMaxParallel() throws ConfigException {
+    return getConfigInteger("BCP_MAX_PARALLEL", new Integer(1));
+  }
+
+  /**
+   * get the number of rows after which a BCPWriter closes its bcp file and
+   * starts a new one so that the completed file can be loaded while
+   * writing continues. The parameter name read from the configuration file
+   * for setting this option is BCP_SEGMENT_ROWS and its default is 0,
+   * which means no limit.
+   * @return the number of rows per segment
+   * @throws ConfigException throws if configuration value does not represent
+   * an integer
+   */
+  public Integer getSegmentRows() throws ConfigException {
+    return getConfigInteger("BCP_SEGMENT_ROWS", new Integer(0));
+  }
+
+  /**
+   * get the number of characters after which a BCPWriter closes its bcp
+   * file and starts a new one so that the completed file can be loaded
+   * while writing continues. The parameter name read from the
+   * configuration file for setting this option is BCP_SEGMENT_BYTES and
+   * its default is 0, which means no limit.
+   * @return the number of characters per segment
+   * @throws ConfigException throws if configuration value does not represent
+   * an integer
+   */
+  public Integer getSegmentBytes() throws ConfigException {
+    return getConfigInteger("BCP_SEGMENT_BYTES", new Integer(0));
+  }
+
+  /**
+   * get the value of the option which designates whether BCPWriters write
+   * their files in the Postgres binary COPY format rather than as delimited
+   * text. Binary files can only be loaded with the COPY command. The
+   * parameter name read from the configuration file for setting this
+   * option is BCP_BINARY_FORMAT and its default is false.
+   * @return true or false
+   * @throws ConfigException throws if configuration value does not represent
+   * a boolean
+   */
+  public Boolean getBinaryFormat() throws ConfigException {
+    return getConfigBoolean("BCP_BINARY_FORMAT", new Boolean(false));
+  }
+
+  /**
+   * get the number of indexes which are created at the same time, each on
+   * its own database connection, when the indexes of a table are recreated
+   * after loading. The parameter name read from the configuration file for
+   * setting this option is BCP_INDEX_CONCURRENCY and its default is 1,
+   * which creates them one after another.
+   * @return the number of indexes to create at once
+   * @throws ConfigException throws if configuration value does not represent
+   * an integer
+   */
+  public Integer getIndexConcurrency() throws ConfigException {
+    return getConfigInteger("BCP_INDEX_CONCURRENCY", new Integer(1));
+  }
+
+  /**
+   * get the value of the option which designates whether indexes are
+   * recreated after loading with the Postgres create index concurrently
+   * command, which does not lock the table against writes. The parameter
+   * name read from the configuration file for setting this option is
+   * BCP_CONCURRENT_INDEXES and its default is false.
+   * @return true or false
+   * @throws ConfigException throws if configuration value does not represent
+   * a boolean
+   */
+  public Boolean getConcurrentIndexes() throws ConfigException {
+    return getConfigBoolean("BCP_CONCURRENT_INDEXES", new Boolean(false));
+  }
+
   public String getBcpCommand() {
 	String dbutilities = getConfigString("PG_DBUTILS", null);
 	return dbutilities + "/bin/bcpin.csh";
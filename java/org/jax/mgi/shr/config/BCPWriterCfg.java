@@ -169,6 +169,20 @@ public class BCPWriterCfg
                                 new Boolean(false));
     }
 
+    /**
+     * get the value of the option which designates whether to skip the
+     * validation of rows against the table metadata before writing them.
+     * This is meant for trusted producers whose rows are known to be
+     * valid. The parameter name read from the configuration file for
+     * setting this option is BCP_SKIP_VALIDATION and its default is false.
+     * @return true if validation should be skipped, false otherwise
+     * @throws ConfigException thrown if configuration value does not represent
+     * a boolean
+     */
+    public Boolean getOkToSkipValidation() throws ConfigException {
+        return getConfigBoolean("BCP_SKIP_VALIDATION", new Boolean(false));
+    }
+
     /**
      * get the value of the option which designates whether to automatically
      * flush a buffer after each bcp write. The
@@ -175,6 +175,160 @@ public class DatabaseCfg
                                    new Integer(DEFAULT_MAX_INCLAUSE));
   }
 
+  /**
+   * get the number of milliseconds above which a sql statement is logged
+   * as a slow query. The parameter name read from the configuration file
+   * or system properties is DB_SLOW_QUERY_MS. The default value is 0 which
+   * turns the slow query log off.
+   * @return the threshold in milliseconds
+   * @throws ConfigException thrown if the paramater value has some format
+   * errors
+   */
+  public Integer getSlowQueryThreshold() throws ConfigException
+  {
+      return this.getConfigInteger("DB_SLOW_QUERY_MS", new Integer(0));
+  }
+
+  /**
+   * get the number of seconds between logging summaries of the sql
+   * statement statistics. The parameter name read from the configuration
+   * file or system properties is DB_METRICS_INTERVAL. The default value is
+   * 0 which turns the regular summary off.
+   * @return the interval in seconds
+   * @throws ConfigException thrown if the paramater value has some format
+   * errors
+   */
+  public Integer getMetricsInterval() throws ConfigException
+  {
+      return this.getConfigInteger("DB_METRICS_INTERVAL", new Integer(0));
+  }
+
+  /**
+   * get the total number of attempts for a sql statement which fails with
+   * a transient error. The parameter name read from the configuration file
+   * or system properties is DB_RETRY_ATTEMPTS. The default value is 1 which
+   * turns retrying off.
+   * @return the number of attempts including the first
+   * @throws ConfigException thrown if the paramater value has some format
+   * errors
+   */
+  public Integer getRetryAttempts() throws ConfigException
+  {
+      return this.getConfigInteger("DB_RETRY_ATTEMPTS", new Integer(1));
+  }
+
+  /**
+   * get the limit in milliseconds of the random delay before the first
+   * retry, which doubles for each later retry. The parameter name read from
+   * the configuration file or system properties is DB_RETRY_DELAY_MS. The
+   * default value is 100.
+   * @return the delay limit in milliseconds
+   * @throws ConfigException thrown if the paramater value has some format
+   * errors
+   */
+  public Integer getRetryDelay() throws ConfigException
+  {
+      return this.getConfigInteger("DB_RETRY_DELAY_MS", new Integer(100));
+  }
+
+  /**
+   * get the largest limit in milliseconds of the random delay before a
+   * retry. The parameter name read from the configuration file or system
+   * properties is DB_RETRY_MAX_DELAY_MS. The default value is 10000.
+   * @return the largest delay limit in milliseconds
+   * @throws ConfigException thrown if the paramater value has some format
+   * errors
+   */
+  public Integer getRetryMaxDelay() throws ConfigException
+  {
+      return this.getConfigInteger("DB_RETRY_MAX_DELAY_MS",
+                                   new Integer(10000));
+  }
+
+  /**
+   * get whether statements other than queries are retried. These should
+   * only be retried when they are safe to run twice, since a statement
+   * whose connection was lost may already have been committed. The
+   * parameter name read from the configuration file or system properties
+   * is DB_RETRY_WRITES. The default value is false.
+   * @return true if statements other than queries are retried
+   * @throws ConfigException thrown if the paramater value has some format
+   * errors
+   */
+  public Boolean getRetryWrites() throws ConfigException
+  {
+      return this.getConfigBoolean("DB_RETRY_WRITES", new Boolean(false));
+  }
+
+  /**
+   * get the number of rows of query results held in memory when results
+   * are materialized for navigation, after which older rows are written to
+   * a temporary file. The parameter name read from the configuration file
+   * or system properties is DB_MATERIALIZE_ROWS. The default value is 0
+   * which leaves navigation to the JDBC ResultSet.
+   * @return the number of rows held in memory
+   * @throws ConfigException thrown if the paramater value has some format
+   * errors
+   */
+  public Integer getMaterializeRows() throws ConfigException
+  {
+      return this.getConfigInteger("DB_MATERIALIZE_ROWS", new Integer(0));
+  }
+
+  /**
+   * get the JDBC urls of the read replicas to which read only queries,
+   * such as those which load a full cache, are sent. The parameter name
+   * read from the configuration file or system properties is
+   * DB_REPLICA_URLS and its value is a comma separated list. The default
+   * value is null which sends all statements to the primary database.
+   * @return the replica urls or null if there are none
+   */
+  public String[] getReplicaUrls()
+  {
+      return this.getConfigStringArrayNull("DB_REPLICA_URLS");
+  }
+
+  /**
+   * get the policy for choosing among the read replicas, which is one of
+   * round_robin, random or ordered. The parameter name read from the
+   * configuration file or system properties is DB_REPLICA_POLICY. The
+   * default value is round_robin.
+   * @return the policy name
+   */
+  public String getReplicaPolicy()
+  {
+      return this.getConfigString("DB_REPLICA_POLICY", "round_robin");
+  }
+
+  /**
+   * get the largest replication lag in seconds for a read replica to be
+   * used. The parameter name read from the configuration file or system
+   * properties is DB_REPLICA_MAX_LAG. The default value is 30. A value of
+   * 0 turns off the lag check.
+   * @return the lag limit in seconds
+   * @throws ConfigException thrown if the paramater value has some format
+   * errors
+   */
+  public Integer getReplicaMaxLag() throws ConfigException
+  {
+      return this.getConfigInteger("DB_REPLICA_MAX_LAG", new Integer(30));
+  }
+
+  /**
+   * get the number of seconds between checks of the lag of a read replica
+   * or of whether a replica which could not be reached is back. The
+   * parameter name read from the configuration file or system properties
+   * is DB_REPLICA_CHECK_INTERVAL. The default value is 10.
+   * @return the check interval in seconds
+   * @throws ConfigException thrown if the paramater value has some format
+   * errors
+   */
+  public Integer getReplicaCheckInterval() throws ConfigException
+  {
+      return this.getConfigInteger("DB_REPLICA_CHECK_INTERVAL",
+                                   new Integer(10));
+  }
+
 
 
 
@@ -225,4 +225,37 @@ public class ScriptWriterCfg
         return getConfigBoolean("SCP_OK_TO_AUTOFLUSH", new Boolean(false));
     }
 
+    /**
+     * get the value of the option which designates whether to run scripts
+     * over the JDBC connection of the SQLDataManager, sending the
+     * statements in batches as they are written, rather than writing a
+     * script file and running it with psql. The parameter name read from
+     * the configuration file or system properties is SCP_USE_JDBC. The
+     * value can be yes, no, true or false and the case of the letters are
+     * ignored. The default value is false.
+     * @return true if scripts are run over JDBC or false otherwise
+     * @throws ConfigException throws if configuration value does not represent
+     * a boolean
+     */
+    public Boolean getUseJdbc()
+        throws ConfigException
+    {
+        return getConfigBoolean("SCP_USE_JDBC", new Boolean(false));
+    }
+
+    /**
+     * get the number of statements sent to the database at once when
+     * scripts are run over JDBC. The parameter name read from the
+     * configuration file or system properties is SCP_BATCH_SIZE. The
+     * default value is 100.
+     * @return the number of statements in a batch
+     * @throws ConfigException throws if configuration value does not represent
+     * an integer
+     */
+    public Integer getBatchSize()
+        throws ConfigException
+    {
+        return getConfigInteger("SCP_BATCH_SIZE", new Integer(100));
+    }
+
 }
\ No newline at end of file
@@ -14,7 +14,13 @@ import org.jax.mgi.shr.exception.MGIException;
  * A class for handling jdbc batch execution
  * @has a Statement class
  * @does stores a batch of sql statements and executes them all with one
- * network call to the database
+ * network call to the database. Optionally, a flush threshold can be set
+ * by statement count or by the size of the sql in characters, in which case
+ * the batch is sent to the database in chunks as the threshold is reached.
+ * The update counts and failures of each chunk are accumulated so that the
+ * final call to executeBatch() reports on all statements added. If
+ * pipelining is turned on then each chunk is executed in the background
+ * while the next chunk is being added.
  * @company The Jackson Laboratory
  * @author M Walker
  */
@@ -26,12 +32,17 @@ public class BatchProcessor
      * the Statement class which is used for performing batch
      */
     private Statement statement = null;
+    /**
+     * a second Statement class used to collect the next chunk of sql while
+     * the previous chunk is executing when pipelining is on
+     */
+    private Statement spareStatement = null;
     /**
      * indicator of whether or not resources have been closed
      */
     private boolean isClosed = false;
     /**
-     * the collection of sql statements being executed
+     * the collection of sql statements in the current chunk
      */
     private Vector history = new Vector();
 
@@ -40,11 +51,55 @@ public class BatchProcessor
      */
     private Logger logger = null;
 
+    /**
+     * the number of statements at which the current chunk is executed.
+     * A value of zero means there is no limit.
+     */
+    private int maxBatchCount = 0;
+    /**
+     * the number of sql characters at which the current chunk is executed.
+     * A value of zero means there is no limit.
+     */
+    private long maxBatchBytes = 0;
+    /**
+     * the number of sql characters in the current chunk
+     */
+    private long pendingBytes = 0;
+    /**
+     * indicator of whether to execute chunks in the background
+     */
+    private boolean pipelined = false;
+    /**
+     * the chunk currently executing in the background
+     */
+    private ChunkExecutor inFlight = null;
+
+    /**
+     * the update counts accumulated across all executed chunks
+     */
+    private int[] updateCounts = new int[64];
+    /**
+     * the number of valid entries in the updateCounts array
+     */
+    private int totalCount = 0;
+    /**
+     * the number of statements which failed across all executed chunks
+     */
+    private int failedCount = 0;
+    /**
+     * the first batch failure seen across all executed chunks
+     */
+    private BatchUpdateException batchFailure = null;
+    /**
+     * the first non batch related failure seen across all executed chunks
+     */
+    private SQLException fatalFailure = null;
+
     /*
      * the following constant definitions are exceptions thrown by this class
      */
     private static String BatchNotSupported =
-        BatchExceptionFactory.BatchNotSupported;
+        DBExceptionFactory.BatchNotSupported;
     private static String BatchCommandFailed =
         BatchExceptionFactory.BatchCommandFailed;
     private static String BatchComplete =
@@ -53,6 +108,8 @@ public class BatchProcessor
         BatchExceptionFactory.AddBatchErr;
     private static String CloseErr =
         BatchExceptionFactory.CloseErr;
+    private static String UnexpectedCondition =
+        DBExceptionFactory.UnexpectedCondition;
     private static String FileIO =
         BatchExceptionFactory.FileIO;
 
@@ -80,10 +137,52 @@ public class BatchProcessor
         this.logger = logger;
     }
 
+    /**
+     * set the number of statements at which the batch is automatically
+     * sent to the database. The default is zero which means the batch is
+     * only sent on the call to executeBatch().
+     * @assumes nothing
+     * @effects subsequent calls to addBatch() may execute the batch
+     * @param count the number of statements per chunk or zero for no limit
+     */
+    public void setMaxBatchCount(int count)
+    {
+        this.maxBatchCount = count;
+    }
+
+    /**
+     * set the total number of sql characters at which the batch is
+     * automatically sent to the database. The default is zero which means
+     * the batch is only sent on the call to executeBatch().
+     * @assumes nothing
+     * @effects subsequent calls to addBatch() may execute the batch
+     * @param bytes the number of sql characters per chunk or zero for no
+     * limit
+     */
+    public void setMaxBatchBytes(long bytes)
+    {
+        this.maxBatchBytes = bytes;
+    }
+
+    /**
+     * set whether or not to execute each chunk in the background while the
+     * next chunk is being added. This only has an effect when a flush
+     * threshold has been set.
+     * @assumes the JDBC driver allows a Statement to be added to while
+     * another Statement on the same connection is executing
+     * @effects chunks will be executed on a separate thread
+     * @param bool true if chunks should be pipelined, false otherwise
+     */
+    public void setPipelined(boolean bool)
+    {
+        this.pipelined = bool;
+    }
+
     /**
      * add a sql string to the batch
      * @assumes nothing
-     * @effects adds the given string the batch of sql statements
+     * @effects adds the given string the batch of sql statements and
+     * executes the current chunk if the flush threshold has been reached
      * @param sql the sql string
      * @throws BatchException thrown if there is a database processing error
      */
@@ -110,6 +209,9 @@ public class BatchProcessor
             throw e2;
         }
         history.add(sql);
+        pendingBytes += sql.length();
+        if (isFlushRequired())
+            flush();
     }
 
     /**
@@ -143,6 +245,9 @@ public class BatchProcessor
                 String sql = (String)it.next();
                 statement.addBatch(sql);
                 history.add(sql);
+                pendingBytes += sql.length();
+                if (isFlushRequired())
+                    executeChunk();
             }
         }
         catch (MGIException e)
@@ -164,12 +269,15 @@ public class BatchProcessor
     }
 
     /**
-     * execute the batch of sql
+     * execute the batch of sql. If a flush threshold was set then any
+     * remaining statements are executed and the results of all chunks
+     * executed since the last call to this method are reported.
      * @assumes nothing
-     * @effects nothing
+     * @effects the accumulated update counts are reset
      * @return the array of counts for each update from the batch
      * @throws DBException thrown if there is an error in the database
-     * @throws BatchException thrown if there is a batch exception
+     * @throws BatchException thrown if there is a batch exception. The
+     * update counts on the exception cover all statements from all chunks.
      */
     public int[] executeBatch()
         throws DBException, BatchException
@@ -183,58 +291,60 @@ public class BatchProcessor
         }
         try
         {
-            int[] results = statement.executeBatch();
-            if (logger != null)
+            try
             {
-                logger.logInfo("The Batch Processor completed sucessfully");
-                logger.logInfo(history.size() +
-                               " sql statements were run\n0 failed");
+                if (!history.isEmpty())
+                    executeChunk();
             }
-            return results;
+            catch (SQLException e)
+            {
+                if (fatalFailure == null)
+                    fatalFailure = e;
+            }
+            waitForChunk();
+        }
+        catch (DBException e)
+        {
+            // a chunk did not complete so the results are not reported
+            resetCounts();
+            throw e;
+        }
+
+        int[] results = new int[totalCount];
+        System.arraycopy(updateCounts, 0, results, 0, totalCount);
+        int failed = failedCount;
+        BatchUpdateException batchErr = batchFailure;
+        SQLException fatalErr = fatalFailure;
+        resetCounts();
+
+        if (fatalErr != null)
+        {
+            DBExceptionFactory eFactory = new DBExceptionFactory();
+            DBException e2 = (DBException)
+                eFactory.getException(BatchNotSupported, fatalErr);
+            throw e2;
         }
-        catch (BatchUpdateException e)
+        if (batchErr != null)
         {
             BatchExceptionFactory eFactory = new BatchExceptionFactory();
             BatchException e2 = (BatchException)
-                eFactory.getException(BatchCommandFailed, e);
-            int[] updateCounts = e.getUpdateCounts();
-            e2.setUpdateCounts(updateCounts);
-            int failedCount = 0;
-            int totalCount = updateCounts.length;
-            if (logger != null)
-            {
-                logger.logError(
-                    "The following is a list of all sql statements that " +
-                    "failed for this run");
-            }
-            for (int i = 0; i < totalCount; i++)
-            {
-                switch (updateCounts[i])
-                {
-                    case BatchException.ERROR:
-                        if (logger != null)
-                        {
-                            logger.logError((String)history.get(i));
-                        }
-                        failedCount++;
-                }
-            }
+                eFactory.getException(BatchCommandFailed, batchErr);
+            e2.setUpdateCounts(results);
             if (logger != null)
             {
                 logger.logInfo("The Batch Processor completed sucessfully");
-                logger.logError(totalCount + " sql statements were run\n" +
-                                failedCount + " failed");
+                logger.logError(results.length + " sql statements were run\n" +
+                                failed + " failed");
             }
             throw e2;
         }
-        catch (SQLException e)
+        if (logger != null)
         {
-            DBExceptionFactory eFactory = new DBExceptionFactory();
-            DBException e2 = (DBException)
-                eFactory.getException(BatchNotSupported, e);
-            throw e2;
+            logger.logInfo("The Batch Processor completed sucessfully");
+            logger.logInfo(results.length +
+                           " sql statements were run\n0 failed");
         }
-
+        return results;
     }
 
     /**
@@ -247,9 +357,21 @@ public class BatchProcessor
     public void close()
         throws BatchException
     {
+        DBException chunkFailure = null;
+        try
+        {
+            waitForChunk();
+        }
+        catch (DBException e)
+        {
+            // the statements are still closed
+            chunkFailure = e;
+        }
         try
         {
             this.statement.close();
+            if (this.spareStatement != null)
+                this.spareStatement.close();
         }
         catch (SQLException e)
         {
@@ -258,8 +380,292 @@ public class BatchProcessor
                 eFactory.getException(CloseErr, e);
             throw e2;
         }
-        history = null;
-        isClosed = true;
+        finally
+        {
+            history = null;
+            isClosed = true;
+        }
+        if (chunkFailure != null)
+        {
+            BatchExceptionFactory eFactory = new BatchExceptionFactory();
+            BatchException e2 = (BatchException)
+                eFactory.getException(BatchCommandFailed, chunkFailure);
+            throw e2;
+        }
+    }
+
+    /**
+     * see if the current chunk has reached either of the flush thresholds
+     * @assumes nothing
+     * @effects nothing
+     * @return true if the current chunk should be executed, false otherwise
+     */
+    private boolean isFlushRequired()
+    {
+        if (maxBatchCount > 0 && history.size() >= maxBatchCount)
+            return true;
+        if (maxBatchBytes > 0 && pendingBytes >= maxBatchBytes)
+            return true;
+        return false;
+    }
+
+    /**
+     * execute the current chunk and translate any non batch related error
+     * into a BatchException
+     * @assumes nothing
+     * @effects the current chunk will be sent to the database
+     * @throws BatchException thrown if the chunk could not be executed
+     */
+    private void flush() throws BatchException
+    {
+        try
+        {
+            executeChunk();
+        }
+        catch (SQLException e)
+        {
+            BatchExceptionFactory eFactory = new BatchExceptionFactory();
+            BatchException e2 = (BatchException)
+                eFactory.getException(BatchCommandFailed, e);
+            throw e2;
+        }
+        catch (DBException e)
+        {
+            BatchExceptionFactory eFactory = new BatchExceptionFactory();
+            BatchException e2 = (BatchException)
+                eFactory.getException(BatchCommandFailed, e);
+            throw e2;
+        }
+    }
+
+    /**
+     * send the current chunk to the database, either on this thread or in
+     * the background if pipelining is on
+     * @assumes nothing
+     * @effects a new chunk is started and the update counts of the executed
+     * chunk are accumulated
+     * @throws SQLException thrown if a new Statement could not be created
+     * for the next chunk when pipelining
+     * @throws DBException thrown if the chunk, or the chunk still executing
+     * in the background, ended with an unexpected error
+     */
+    private void executeChunk() throws SQLException, DBException
+    {
+        // only one chunk is allowed in flight at a time. This is done first
+        // so that the current chunk is kept if the previous one failed.
+        if (pipelined)
+            waitForChunk();
+        ChunkExecutor chunk = new ChunkExecutor(statement, history);
+        history = new Vector();
+        pendingBytes = 0;
+        if (pipelined)
+        {
+            if (spareStatement == null)
+                spareStatement = statement.getConnection().createStatement();
+            statement = spareStatement;
+            spareStatement = null;
+            inFlight = chunk;
+            chunk.start();
+        }
+        else
+        {
+            chunk.run();
+            collect(chunk);
+        }
+    }
+
+    /**
+     * wait for any chunk executing in the background to complete and
+     * accumulate its results
+     * @assumes nothing
+     * @effects the background Statement becomes available for reuse
+     * @throws DBException thrown if the chunk ended with an unexpected error
+     */
+    private void waitForChunk() throws DBException
+    {
+        if (inFlight == null)
+            return;
+        ChunkExecutor chunk = inFlight;
+        inFlight = null;
+        chunk.finish();
+        spareStatement = chunk.statement;
+        collect(chunk);
+    }
+
+    /**
+     * accumulate the update counts and errors of an executed chunk. If the
+     * driver stopped processing the chunk on the first error then the
+     * statements which were not run are counted as failed so that the
+     * accumulated update counts stay aligned with the statements added.
+     * @assumes nothing
+     * @effects the accumulated update counts will be extended
+     * @param chunk the executed chunk
+     * @throws DBException thrown if the chunk ended with an unexpected
+     * error, after its statements have been counted as failed
+     */
+    private void collect(ChunkExecutor chunk) throws DBException
+    {
+        int size = chunk.sql.size();
+        ensureCapacity(totalCount + size);
+        int[] counts = chunk.results;
+        boolean loggedHeader = false;
+        for (int i = 0; i < size; i++)
+        {
+            int count = BatchException.ERROR;
+            if (counts != null && i < counts.length)
+                count = counts[i];
+            updateCounts[totalCount++] = count;
+            if (count == BatchException.ERROR &&
+                (chunk.batchError != null || chunk.threadError != null))
+            {
+                failedCount++;
+                if (logger != null)
+                {
+                    if (!loggedHeader)
+                    {
+                        logger.logError(
+                            "The following is a list of all sql statements " +
+                            "that failed for this run");
+                        loggedHeader = true;
+                    }
+                    logger.logError((String)chunk.sql.get(i));
+                }
+            }
+        }
+        if (chunk.batchError != null && batchFailure == null)
+            batchFailure = chunk.batchError;
+        if (chunk.fatalError != null && fatalFailure == null)
+            fatalFailure = chunk.fatalError;
+        if (chunk.threadError != null)
+        {
+            Exception cause = null;
+            if (chunk.threadError instanceof Exception)
+                cause = (Exception)chunk.threadError;
+            else
+                cause = new RuntimeException(chunk.threadError);
+            DBExceptionFactory eFactory = new DBExceptionFactory();
+            DBException e = (DBException)
+                eFactory.getException(UnexpectedCondition, cause);
+            e.bind("execute a chunk of batched sql");
+            throw e;
+        }
+    }
+
+    /**
+     * grow the accumulated update count array to hold the given size
+     * @assumes nothing
+     * @effects the internal array may be reallocated
+     * @param size the required size
+     */
+    private void ensureCapacity(int size)
+    {
+        if (size <= updateCounts.length)
+            return;
+        int newSize = updateCounts.length * 2;
+        if (newSize < size)
+            newSize = size;
+        int[] newCounts = new int[newSize];
+        System.arraycopy(updateCounts, 0, newCounts, 0, totalCount);
+        updateCounts = newCounts;
+    }
+
+    /**
+     * clear the accumulated update counts and errors
+     * @assumes nothing
+     * @effects the accumulated results are reset
+     */
+    private void resetCounts()
+    {
+        updateCounts = new int[64];
+        totalCount = 0;
+        failedCount = 0;
+        batchFailure = null;
+        fatalFailure = null;
+    }
+
+    /**
+     * executes one chunk of batched sql on a given Statement, either on the
+     * calling thread or in the background
+     * @has a Statement holding the batched sql and the sql strings
+     * @does executes the batch and holds on to the results
+     */
+    private static class ChunkExecutor implements Runnable
+    {
+        private Statement statement = null;
+        private Vector sql = null;
+        private int[] results = null;
+        private BatchUpdateException batchError = null;
+        private SQLException fatalError = null;
+        // any other error, which leaves the chunk without results
+        private Throwable threadError = null;
+        private Thread thread = null;
+
+        private ChunkExecutor(Statement statement, Vector sql)
+        {
+            this.statement = statement;
+            this.sql = sql;
+        }
+
+        /**
+         * execute the batch and store the results or errors
+         */
+        public void run()
+        {
+            try
+            {
+                results = statement.executeBatch();
+            }
+            catch (BatchUpdateException e)
+            {
+                results = e.getUpdateCounts();
+                batchError = e;
+            }
+            catch (SQLException e)
+            {
+                fatalError = e;
+            }
+            catch (RuntimeException e)
+            {
+                threadError = e;
+            }
+            catch (Error e)
+            {
+                threadError = e;
+                // let a background thread end with the Error as well
+                if (thread != null)
+                    throw e;
+            }
+        }
+
+        /**
+         * execute the batch on a new thread
+         */
+        private void start()
+        {
+            thread = new Thread(this, "BatchProcessor");
+            thread.start();
+        }
+
+        /**
+         * wait for the background thread to complete
+         */
+        private void finish()
+        {
+            boolean interrupted = false;
+            while (thread != null && thread.isAlive())
+            {
+                try
+                {
+                    thread.join();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
     }
 
 }
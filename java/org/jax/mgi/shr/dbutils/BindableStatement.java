@@ -19,8 +19,8 @@ import org.jax.mgi.shr.timing.Stopwatch;
  * A proxy class for the JDBC PreparedStatement which integrates with
  * other in-house packages for exception handling and logging.
  * @has PreparedStatement handle and a SQLDataManager and the sql string
- * @does binds and executes PreparedStatements. Data binding is limited
- * to the following data types:
+ * @does binds and executes PreparedStatements, singly or in batch. Data
+ * binding is limited to the following data types:
  * Integer, Double, Timestamp, String and Boolean.
  * @company Jackson Laboratory
  * @author M. Walker
@@ -33,6 +33,7 @@ public class BindableStatement {
   private String sql;
   private Vector bindVariables = null;
   private int bindCount = 0;
+  private int batchCount = 0;
   private DBExceptionFactory dbExceptionFactory = new DBExceptionFactory();
   private Logger logger = null;
   private Stopwatch timer = new Stopwatch();
@@ -281,6 +282,75 @@ public class BindableStatement {
     return executeUpdate();
   }
 
+  /**
+   * binds the provided vector to the PreparedStatement and adds the
+   * bound parameter set to the batch of commands for this statement.
+   * See the class description for a list of acceptable data types.
+   * @assumes nothing
+   * @effects a set of parameters will be added to the batch for this
+   * statement
+   * @param v the vector storing data to be bound
+   * @throws DBException thrown if there is an error binding the data or
+   * adding it to the batch
+   */
+  public void addBatch(Vector v) throws DBException {
+    bind(v);
+    try {
+      preparedStatement.addBatch();
+    }
+    catch (SQLException e) {
+      throw getJDBCException("add to batch " + getSQLMessage(), e);
+    }
+    batchCount++;
+  }
+
+  /**
+   * get the number of parameter sets added to the batch since the last
+   * call to executeBatch()
+   * @assumes nothing
+   * @effects nothing
+   * @return the number of batched parameter sets
+   */
+  public int getBatchCount() {
+    return batchCount;
+  }
+
+  /**
+   * executes all the parameter sets which have been added to the batch
+   * through the addBatch(Vector) method
+   * @assumes nothing
+   * @effects the batched commands will be executed in the database
+   * @return the update counts for each of the batched parameter sets
+   * @throws DBException thrown if there is an error executing the batch
+   */
+  public int[] executeBatch() throws DBException {
+    int[] rtn;
+    if (dataManager.isDebug())
+    {
+        timer.reset();
+        timer.start();
+        logger.logDebug("execute batch of " + batchCount +
+                        " parameter sets for the following sql:\n" + sql);
+    }
+    try {
+      rtn = preparedStatement.executeBatch();
+    }
+    catch (SQLException e) {
+      throw getJDBCException("execute batch of " + batchCount +
+                             " parameter sets for sql string '" +
+                             sql + "'", e);
+    }
+    finally {
+      batchCount = 0;
+    }
+    if (dataManager.isDebug())
+    {
+        timer.stop();
+        logger.logDebug("batch took " + timer.time() + " seconds");
+    }
+    return rtn;
+  }
+
   /**
    * Executes the PreparedStatement as a query
    * @assumes nothing
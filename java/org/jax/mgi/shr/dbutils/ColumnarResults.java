@@ -0,0 +1,909 @@
+package org.jax.mgi.shr.dbutils;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Vector;
+
+/**
+ * A read only copy of a complete set of query results held column by
+ * column in primitive arrays, for results which are scanned or searched
+ * many times such as lookup caches. Integer columns are held in an int
+ * array, bigint columns in a long array, numeric and floating point
+ * columns in a double array, bit columns in a bitmap, and date and time
+ * columns as milliseconds in a long array. All other columns are held as
+ * their string values, each distinct string stored once in a dictionary
+ * and each row holding the int code of its string. Nulls are recorded in
+ * a bitmap for each column which has any.
+ * <p>Rows and columns are numbered from 0 and 1 respectively, as with
+ * arrays and the JDBC ResultSet. The column arrays can be obtained
+ * directly for tight loops over a column, in which case they must not be
+ * modified. Lookups by key are made through an index which is built for a
+ * column the first time it is searched.
+ * @has the column names and kinds, an array of values for each column,
+ * the string dictionaries, null bitmaps and key indexes
+ * @does copies query results and provides scanning, filtering and lookup
+ * operations over them
+ * @company The Jackson Laboratory
+ * @author M Walker
+ */
+
+public class ColumnarResults {
+
+  /**
+   * the column is held in an int array
+   */
+  public static final int INT = 0;
+  /**
+   * the column is held in a long array
+   */
+  public static final int LONG = 1;
+  /**
+   * the column is held in a double array
+   */
+  public static final int DOUBLE = 2;
+  /**
+   * the column is held in a bitmap
+   */
+  public static final int BOOLEAN = 3;
+  /**
+   * the column is held as milliseconds in a long array
+   */
+  public static final int TIMESTAMP = 4;
+  /**
+   * the column is held as codes into a string dictionary
+   */
+  public static final int STRING = 5;
+
+  /*
+   * the names of the column kinds for error messages
+   */
+  private static final String[] KIND_NAMES =
+      {"INT", "LONG", "DOUBLE", "BOOLEAN", "TIMESTAMP", "STRING"};
+
+  // the following constant definitions are exceptions thrown by this class
+  private static final String ColumnKindErr =
+      DBExceptionFactory.ColumnKindErr;
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private int rowCount = 0;
+  private int capacity = INITIAL_CAPACITY;
+  private String[] names = null;
+  private int[] kinds = null;
+  // the column indexes keyed by lower case column label
+  private HashMap indexes = new HashMap();
+  // the values of each column, one of int[], long[] or double[], or a
+  // long[] bitmap for BOOLEAN columns, or int[] codes for STRING columns
+  private Object[] columns = null;
+  // the null bitmap of each column, or null if the column has no nulls
+  private long[][] nulls = null;
+  // the dictionary of each STRING column as a Vector while loading and
+  // as a String[] afterwards
+  private Object[] dictionaries = null;
+  // the dictionary codes of each STRING column keyed by string while
+  // loading
+  private HashMap[] codes = null;
+  // the key index of each column, sorted pairs of key and row packed in
+  // longs, built when first needed
+  private long[][] keyIndexes = null;
+
+  /**
+   * constructor which copies the remaining rows of the given navigator and
+   * then closes it
+   * @assumes nothing
+   * @effects the navigator will be read to the end and closed
+   * @param nav the query results
+   * @throws DBException thrown if the results cannot be read
+   */
+  public ColumnarResults(ResultsNavigator nav) throws DBException {
+    try {
+      load(nav);
+    }
+    finally {
+      nav.close();
+    }
+  }
+
+  /**
+   * constructor which runs the given query and copies its results
+   * @assumes nothing
+   * @effects a query will be run against the database
+   * @param sqlMgr the SQLDataManager to run the query with
+   * @param sql the query
+   * @throws DBException thrown if the query fails or the results cannot
+   * be read
+   */
+  public ColumnarResults(SQLDataManager sqlMgr, String sql)
+      throws DBException {
+    this(sqlMgr.executeQuery(sql));
+  }
+
+  /**
+   * get the number of rows
+   * @assumes nothing
+   * @effects nothing
+   * @return the number of rows
+   */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * get the number of columns
+   * @assumes nothing
+   * @effects nothing
+   * @return the number of columns
+   */
+  public int getColumnCount() {
+    return names.length;
+  }
+
+  /**
+   * get the name of a column
+   * @assumes nothing
+   * @effects nothing
+   * @param column the column index
+   * @return the column name
+   */
+  public String getColumnName(int column) {
+    return names[column - 1];
+  }
+
+  /**
+   * get how a column is held, which is one of INT, LONG, DOUBLE, BOOLEAN,
+   * TIMESTAMP or STRING
+   * @assumes nothing
+   * @effects nothing
+   * @param column the column index
+   * @return the column kind
+   */
+  public int getColumnKind(int column) {
+    return kinds[column - 1];
+  }
+
+  /**
+   * get the index of the column with the given name, matched without
+   * regard to case
+   * @assumes nothing
+   * @effects nothing
+   * @param columnName the column name
+   * @return the column index
+   * @throws DBException thrown if there is no such column
+   */
+  public int findColumn(String columnName) throws DBException {
+    Integer index = (Integer)indexes.get(columnName.toLowerCase());
+    if (index == null)
+      throw dbException("find column " + columnName,
+          new SQLException("The column name " + columnName +
+                           " was not found in the results"));
+    return index.intValue();
+  }
+
+  /**
+   * determine whether a value is null
+   * @assumes nothing
+   * @effects nothing
+   * @param row the row number
+   * @param column the column index
+   * @return true if the value is null
+   */
+  public boolean isNull(int row, int column) {
+    long[] bits = nulls[column - 1];
+    return bits != null && isSet(bits, row);
+  }
+
+  /**
+   * get a value as an int. Nulls are returned as 0.
+   * @assumes the column is not a STRING or TIMESTAMP column
+   * @effects nothing
+   * @param row the row number
+   * @param column the column index
+   * @return the value
+   */
+  public int getInt(int row, int column) {
+    if (kinds[column - 1] == INT)
+      return ((int[])columns[column - 1])[row];
+    return (int)getDouble(row, column);
+  }
+
+  /**
+   * get a value as a long. Nulls are returned as 0.
+   * @assumes the column is not a STRING column
+   * @effects nothing
+   * @param row the row number
+   * @param column the column index
+   * @return the value, which is milliseconds for TIMESTAMP columns
+   */
+  public long getLong(int row, int column) {
+    int kind = kinds[column - 1];
+    if (kind == LONG || kind == TIMESTAMP)
+      return ((long[])columns[column - 1])[row];
+    return (long)getDouble(row, column);
+  }
+
+  /**
+   * get a value as a double. Nulls are returned as 0.
+   * @assumes the value of a STRING column is a number
+   * @effects nothing
+   * @param row the row number
+   * @param column the column index
+   * @return the value
+   * @throws NumberFormatException thrown if the value of a STRING column
+   * is not a number
+   */
+  public double getDouble(int row, int column) {
+    Object values = columns[column - 1];
+    switch (kinds[column - 1]) {
+      case INT:
+        return ((int[])values)[row];
+      case DOUBLE:
+        return ((double[])values)[row];
+      case LONG:
+      case TIMESTAMP:
+        return ((long[])values)[row];
+      case BOOLEAN:
+        return isSet((long[])values, row) ? 1 : 0;
+      default:
+        String s = getString(row, column);
+        return s == null ? 0 : Double.parseDouble(s.trim());
+    }
+  }
+
+  /**
+   * get a value as a boolean. Nulls are returned as false.
+   * @assumes the column is not a STRING or TIMESTAMP column
+   * @effects nothing
+   * @param row the row number
+   * @param column the column index
+   * @return the value
+   */
+  public boolean getBoolean(int row, int column) {
+    if (kinds[column - 1] == BOOLEAN)
+      return isSet((long[])columns[column - 1], row);
+    return getDouble(row, column) != 0;
+  }
+
+  /**
+   * get a value as a string
+   * @assumes nothing
+   * @effects nothing
+   * @param row the row number
+   * @param column the column index
+   * @return the value or null
+   */
+  public String getString(int row, int column) {
+    if (isNull(row, column))
+      return null;
+    if (kinds[column - 1] == STRING)
+      return getDictionary(column)[((int[])columns[column - 1])[row]];
+    return getObject(row, column).toString();
+  }
+
+  /**
+   * get a value as a Timestamp
+   * @assumes the column is a TIMESTAMP column
+   * @effects nothing
+   * @param row the row number
+   * @param column the column index
+   * @return the value or null
+   */
+  public Timestamp getTimestamp(int row, int column) {
+    if (isNull(row, column))
+      return null;
+    return new Timestamp(getLong(row, column));
+  }
+
+  /**
+   * get a value as an object of the class for the kind of its column,
+   * which is Integer, Long, Double, Boolean, Timestamp or String
+   * @assumes nothing
+   * @effects nothing
+   * @param row the row number
+   * @param column the column index
+   * @return the value or null
+   */
+  public Object getObject(int row, int column) {
+    if (isNull(row, column))
+      return null;
+    switch (kinds[column - 1]) {
+      case INT:
+        return new Integer(getInt(row, column));
+      case LONG:
+        return new Long(getLong(row, column));
+      case DOUBLE:
+        return new Double(getDouble(row, column));
+      case BOOLEAN:
+        return Boolean.valueOf(getBoolean(row, column));
+      case TIMESTAMP:
+        return getTimestamp(row, column);
+      default:
+        return getString(row, column);
+    }
+  }
+
+  /**
+   * get the values of an INT column or the codes of a STRING column
+   * @assumes the array will not be modified
+   * @effects nothing
+   * @param column the column index
+   * @return the array which has one element for each row
+   */
+  public int[] getIntColumn(int column) {
+    return (int[])columns[column - 1];
+  }
+
+  /**
+   * get the values of a LONG or TIMESTAMP column
+   * @assumes the array will not be modified
+   * @effects nothing
+   * @param column the column index
+   * @return the array which has one element for each row
+   */
+  public long[] getLongColumn(int column) {
+    return (long[])columns[column - 1];
+  }
+
+  /**
+   * get the values of a DOUBLE column
+   * @assumes the array will not be modified
+   * @effects nothing
+   * @param column the column index
+   * @return the array which has one element for each row
+   */
+  public double[] getDoubleColumn(int column) {
+    return (double[])columns[column - 1];
+  }
+
+  /**
+   * get the dictionary of a STRING column, in which the codes returned by
+   * getIntColumn() are the positions of the strings
+   * @assumes the array will not be modified
+   * @effects nothing
+   * @param column the column index
+   * @return the distinct strings of the column
+   */
+  public String[] getDictionary(int column) {
+    return (String[])dictionaries[column - 1];
+  }
+
+  /**
+   * get the sum of the non-null values of a column
+   * @assumes the column is numeric or the values of a STRING column are
+   * numbers
+   * @effects nothing
+   * @param column the column index
+   * @return the sum
+   */
+  public double sum(int column) {
+    double sum = 0;
+    Object values = columns[column - 1];
+    // nulls are held as zero so they do not need to be skipped
+    switch (kinds[column - 1]) {
+      case INT:
+        int[] ints = (int[])values;
+        for (int i = 0; i < rowCount; i++)
+          sum += ints[i];
+        break;
+      case LONG:
+        long[] longs = (long[])values;
+        for (int i = 0; i < rowCount; i++)
+          sum += longs[i];
+        break;
+      case DOUBLE:
+        double[] doubles = (double[])values;
+        for (int i = 0; i < rowCount; i++)
+          sum += doubles[i];
+        break;
+      default:
+        for (int i = 0; i < rowCount; i++) {
+          if (!isNull(i, column))
+            sum += getDouble(i, column);
+        }
+        break;
+    }
+    return sum;
+  }
+
+  /**
+   * get the rows in which a column has the given value
+   * @assumes the column is not a STRING column
+   * @effects nothing
+   * @param column the column index
+   * @param value the value
+   * @return the row numbers in order
+   */
+  public int[] selectEquals(int column, long value) {
+    if (kinds[column - 1] == INT) {
+      if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+        return new int[0];
+      int[] values = (int[])columns[column - 1];
+      int v = (int)value;
+      int[] rows = new int[rowCount];
+      int n = 0;
+      for (int i = 0; i < rowCount; i++) {
+        if (values[i] == v)
+          rows[n++] = i;
+      }
+      return withoutNulls(column, rows, n);
+    }
+    return selectRange(column, value, value);
+  }
+
+  /**
+   * get the rows in which a STRING column has the given value
+   * @assumes the column is a STRING column
+   * @effects nothing
+   * @param column the column index
+   * @param value the value
+   * @return the row numbers in order
+   * @throws DBException thrown if the column is not a STRING column
+   */
+  public int[] selectEquals(int column, String value) throws DBException {
+    checkKind(column, STRING, "select a string value");
+    int code = getCode(column, value);
+    if (code < 0)
+      return new int[0];
+    int[] values = (int[])columns[column - 1];
+    int[] rows = new int[rowCount];
+    int n = 0;
+    for (int i = 0; i < rowCount; i++) {
+      if (values[i] == code)
+        rows[n++] = i;
+    }
+    return withoutNulls(column, rows, n);
+  }
+
+  /**
+   * get the rows in which a numeric column has a value within the given
+   * range, including its ends
+   * @assumes the column is not a STRING column
+   * @effects nothing
+   * @param column the column index
+   * @param min the lowest value
+   * @param max the highest value
+   * @return the row numbers in order
+   */
+  public int[] selectRange(int column, double min, double max) {
+    int[] rows = new int[rowCount];
+    int n = 0;
+    Object values = columns[column - 1];
+    switch (kinds[column - 1]) {
+      case INT:
+        int[] ints = (int[])values;
+        for (int i = 0; i < rowCount; i++) {
+          if (ints[i] >= min && ints[i] <= max)
+            rows[n++] = i;
+        }
+        break;
+      case LONG:
+      case TIMESTAMP:
+        long[] longs = (long[])values;
+        for (int i = 0; i < rowCount; i++) {
+          if (longs[i] >= min && longs[i] <= max)
+            rows[n++] = i;
+        }
+        break;
+      case DOUBLE:
+        double[] doubles = (double[])values;
+        for (int i = 0; i < rowCount; i++) {
+          if (doubles[i] >= min && doubles[i] <= max)
+            rows[n++] = i;
+        }
+        break;
+      default:
+        for (int i = 0; i < rowCount; i++) {
+          double d = getDouble(i, column);
+          if (d >= min && d <= max)
+            rows[n++] = i;
+        }
+        break;
+    }
+    return withoutNulls(column, rows, n);
+  }
+
+  /**
+   * get the rows in which a column is null
+   * @assumes nothing
+   * @effects nothing
+   * @param column the column index
+   * @return the row numbers in order
+   */
+  public int[] selectNull(int column) {
+    long[] bits = nulls[column - 1];
+    if (bits == null)
+      return new int[0];
+    int[] rows = new int[rowCount];
+    int n = 0;
+    for (int i = 0; i < rowCount; i++) {
+      if (isSet(bits, i))
+        rows[n++] = i;
+    }
+    return trim(rows, n);
+  }
+
+  /**
+   * get the first row in which an INT column has the given value. An index
+   * of the column is built on the first call.
+   * @assumes the column is an INT column
+   * @effects the index of the column may be built
+   * @param column the column index
+   * @param key the value to find
+   * @return the row number or -1 if no row has the value
+   * @throws DBException thrown if the column is not an INT column
+   */
+  public int lookup(int column, int key) throws DBException {
+    checkKind(column, INT, "look up an int key");
+    return find(column, key);
+  }
+
+  /**
+   * get the first row in which a STRING column has the given value. An
+   * index of the column is built on the first call.
+   * @assumes the column is a STRING column
+   * @effects the index of the column may be built
+   * @param column the column index
+   * @param key the value to find
+   * @return the row number or -1 if no row has the value
+   * @throws DBException thrown if the column is not a STRING column
+   */
+  public int lookup(int column, String key) throws DBException {
+    checkKind(column, STRING, "look up a string key");
+    int code = getCode(column, key);
+    if (code < 0)
+      return -1;
+    return find(column, code);
+  }
+
+  /**
+   * find the first row in which an INT column or the codes of a STRING
+   * column have the given value
+   * @param column the column index
+   * @param key the value or code to find
+   * @return the row number or -1 if no row has the value
+   */
+  private int find(int column, int key) {
+    long[] index = getKeyIndex(column);
+    // the index is sorted by key and then by row
+    int i = Arrays.binarySearch(index, (long)key << 32);
+    if (i < 0)
+      i = -i - 1;
+    if (i < index.length && (int)(index[i] >> 32) == key)
+      return (int)index[i];
+    return -1;
+  }
+
+  /**
+   * read the rows
+   * @param nav the query results
+   * @throws DBException thrown if the results cannot be read
+   */
+  private void load(ResultsNavigator nav) throws DBException {
+    RowReference row = nav.getRowReference();
+    ResultSetMetaData meta = row.getMetaData();
+    int count = 0;
+    try {
+      count = meta.getColumnCount();
+      names = new String[count];
+      kinds = new int[count];
+      for (int i = count; i > 0; i--) {
+        names[i - 1] = meta.getColumnName(i);
+        // the first of any duplicate names is used, as with findColumn
+        indexes.put(meta.getColumnLabel(i).toLowerCase(), new Integer(i));
+        kinds[i - 1] = getKind(meta.getColumnType(i));
+      }
+    }
+    catch (SQLException e) {
+      throw dbException("get metadata from ResultSet", e);
+    }
+    columns = new Object[count];
+    nulls = new long[count][];
+    dictionaries = new Object[count];
+    codes = new HashMap[count];
+    keyIndexes = new long[count][];
+    for (int c = 0; c < count; c++) {
+      columns[c] = newArray(kinds[c], capacity);
+      if (kinds[c] == STRING) {
+        dictionaries[c] = new Vector();
+        codes[c] = new HashMap();
+      }
+    }
+    while (nav.next()) {
+      if (rowCount == capacity)
+        grow();
+      row = nav.getRowReference();
+      for (int c = 0; c < count; c++)
+        readValue(row, c);
+      rowCount++;
+    }
+    // trim the arrays and fix the dictionaries
+    capacity = rowCount;
+    for (int c = 0; c < count; c++) {
+      columns[c] = resize(columns[c], kinds[c], rowCount);
+      if (nulls[c] != null)
+        nulls[c] = resizeBits(nulls[c], rowCount);
+      if (kinds[c] == STRING) {
+        Vector v = (Vector)dictionaries[c];
+        dictionaries[c] = (String[])v.toArray(new String[v.size()]);
+      }
+    }
+  }
+
+  /**
+   * copy a value of the current row into the current position of a column
+   * @param row the RowReference of the current row
+   * @param c the zero based column index
+   * @throws DBException thrown if the value cannot be read
+   */
+  private void readValue(RowReference row, int c) throws DBException {
+    int i = c + 1;
+    Object values = columns[c];
+    boolean isNull = false;
+    switch (kinds[c]) {
+      case INT:
+        ((int[])values)[rowCount] = row.getIntValue(i);
+        isNull = row.wasNull();
+        break;
+      case LONG:
+        ((long[])values)[rowCount] = row.getLongValue(i);
+        isNull = row.wasNull();
+        break;
+      case DOUBLE:
+        ((double[])values)[rowCount] = row.getDoubleValue(i);
+        isNull = row.wasNull();
+        break;
+      case BOOLEAN:
+        if (row.getBooleanValue(i))
+          set((long[])values, rowCount);
+        isNull = row.wasNull();
+        break;
+      case TIMESTAMP:
+        Timestamp t = row.getTimestamp(i);
+        if (t == null)
+          isNull = true;
+        else
+          ((long[])values)[rowCount] = t.getTime();
+        break;
+      default:
+        String s = row.getString(i);
+        if (s == null)
+          isNull = true;
+        else
+          ((int[])values)[rowCount] = encode(c, s);
+        break;
+    }
+    if (isNull) {
+      if (nulls[c] == null)
+        nulls[c] = new long[(capacity + 63) / 64];
+      set(nulls[c], rowCount);
+    }
+  }
+
+  /**
+   * get the dictionary code of a string, adding it to the dictionary if
+   * it is new
+   * @param c the zero based column index
+   * @param s the string
+   * @return the code
+   */
+  private int encode(int c, String s) {
+    Integer code = (Integer)codes[c].get(s);
+    if (code == null) {
+      Vector dictionary = (Vector)dictionaries[c];
+      code = new Integer(dictionary.size());
+      dictionary.add(s);
+      codes[c].put(s, code);
+    }
+    return code.intValue();
+  }
+
+  /**
+   * check that a column is of the kind an operation requires
+   * @param column the column index
+   * @param kind the required kind
+   * @param action the operation for the error message
+   * @throws DBException thrown if the column is of another kind
+   */
+  private void checkKind(int column, int kind, String action)
+      throws DBException {
+    if (kinds[column - 1] == kind)
+      return;
+    DBExceptionFactory eFactory = new DBExceptionFactory();
+    DBException e = (DBException)eFactory.getException(ColumnKindErr);
+    e.bind(action);
+    e.bind(names[column - 1]);
+    e.bind(KIND_NAMES[kinds[column - 1]]);
+    throw e;
+  }
+
+  /**
+   * get the dictionary code of a string
+   * @param column the column index
+   * @param s the string
+   * @return the code or -1 if the string is not in the dictionary
+   */
+  private int getCode(int column, String s) {
+    Integer code = (Integer)codes[column - 1].get(s);
+    return code == null ? -1 : code.intValue();
+  }
+
+  /**
+   * get the key index of a column, building it if necessary. Each entry
+   * holds a key in its upper 32 bits and a row in its lower 32 bits so
+   * that sorting the entries sorts them by key and then by row. Null
+   * values are left out.
+   * @param column the column index
+   * @return the index
+   */
+  private synchronized long[] getKeyIndex(int column) {
+    long[] index = keyIndexes[column - 1];
+    if (index != null)
+      return index;
+    int[] keys = (int[])columns[column - 1];
+    long[] bits = nulls[column - 1];
+    index = new long[rowCount];
+    int n = 0;
+    for (int i = 0; i < rowCount; i++) {
+      if (bits == null || !isSet(bits, i))
+        index[n++] = ((long)keys[i] << 32) | i;
+    }
+    if (n < rowCount) {
+      long[] trimmed = new long[n];
+      System.arraycopy(index, 0, trimmed, 0, n);
+      index = trimmed;
+    }
+    Arrays.sort(index);
+    keyIndexes[column - 1] = index;
+    return index;
+  }
+
+  /**
+   * double the capacity of all columns
+   */
+  private void grow() {
+    capacity = capacity * 2;
+    for (int c = 0; c < columns.length; c++) {
+      columns[c] = resize(columns[c], kinds[c], capacity);
+      if (nulls[c] != null)
+        nulls[c] = resizeBits(nulls[c], capacity);
+    }
+  }
+
+  /**
+   * remove the rows which are null in the given column from a selection
+   * @param column the column index
+   * @param rows the selected rows
+   * @param n the number of selected rows
+   * @return the selected rows which are not null
+   */
+  private int[] withoutNulls(int column, int[] rows, int n) {
+    long[] bits = nulls[column - 1];
+    if (bits != null) {
+      int m = 0;
+      for (int i = 0; i < n; i++) {
+        if (!isSet(bits, rows[i]))
+          rows[m++] = rows[i];
+      }
+      n = m;
+    }
+    return trim(rows, n);
+  }
+
+  /**
+   * get the first elements of an array
+   * @param rows the array
+   * @param n the number of elements
+   * @return an array of the first n elements
+   */
+  private static int[] trim(int[] rows, int n) {
+    int[] result = new int[n];
+    System.arraycopy(rows, 0, result, 0, n);
+    return result;
+  }
+
+  /**
+   * create the array for a kind of column
+   * @param kind the column kind
+   * @param size the number of rows
+   * @return the array
+   */
+  private static Object newArray(int kind, int size) {
+    switch (kind) {
+      case LONG:
+      case TIMESTAMP:
+        return new long[size];
+      case DOUBLE:
+        return new double[size];
+      case BOOLEAN:
+        return new long[(size + 63) / 64];
+      default:
+        return new int[size];
+    }
+  }
+
+  /**
+   * copy the array of a column into an array of a new size
+   * @param values the array
+   * @param kind the column kind
+   * @param size the new number of rows
+   * @return the new array
+   */
+  private static Object resize(Object values, int kind, int size) {
+    if (kind == BOOLEAN)
+      return resizeBits((long[])values, size);
+    Object result = newArray(kind, size);
+    int length = java.lang.reflect.Array.getLength(values);
+    System.arraycopy(values, 0, result, 0, Math.min(length, size));
+    return result;
+  }
+
+  /**
+   * copy a bitmap into a bitmap for a new number of rows
+   * @param bits the bitmap
+   * @param size the new number of rows
+   * @return the new bitmap
+   */
+  private static long[] resizeBits(long[] bits, int size) {
+    long[] result = new long[(size + 63) / 64];
+    System.arraycopy(bits, 0, result, 0,
+                     Math.min(bits.length, result.length));
+    return result;
+  }
+
+  private static boolean isSet(long[] bits, int i) {
+    return (bits[i >> 6] & (1L << (i & 63))) != 0;
+  }
+
+  private static void set(long[] bits, int i) {
+    bits[i >> 6] |= 1L << (i & 63);
+  }
+
+  /**
+   * get the kind of column for a column type
+   * @param type the column type from java.sql.Types
+   * @return the column kind
+   */
+  private static int getKind(int type) {
+    switch (type) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+        return INT;
+      case Types.BIGINT:
+        return LONG;
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+      case Types.NUMERIC:
+      case Types.DECIMAL:
+        return DOUBLE;
+      case Types.BIT:
+      case Types.BOOLEAN:
+        return BOOLEAN;
+      case Types.DATE:
+      case Types.TIME:
+      case Types.TIMESTAMP:
+        return TIMESTAMP;
+      default:
+        return STRING;
+    }
+  }
+
+  /**
+   * get a DBException with name DBExceptionFactory.JDBCException and
+   * bind the given string to it
+   * @param s the string to bind to the exception message
+   * @param e the cause
+   * @return the DBException
+   */
+  private static DBException dbException(String s, Exception e) {
+    DBExceptionFactory eFactory = new DBExceptionFactory();
+    DBException e2 = (DBException)
+        eFactory.getException(DBExceptionFactory.JDBCException, e);
+    e2.bind(s);
+    return e2;
+  }
+}
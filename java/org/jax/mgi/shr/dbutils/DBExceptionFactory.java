@@ -371,6 +371,135 @@ public class DBExceptionFactory
         "Error executing pre or post sql", false));
   }
 
+  /**
+   * the writer thread of a concurrent SQLStream failed
+   */
+  public static final String StreamWriterErr =
+      "org.jax.mgi.shr.dbutils.StreamWriterErr";
+  static {
+    exceptionsMap.put(StreamWriterErr, new DBException(
+        "The writer thread of the concurrent SQLStream failed while " +
+        "writing a ?? object. See following exception message:", false));
+  }
+
+  /**
+   * an operation was submitted to a SQLStream after it was closed
+   */
+  public static final String StreamClosedErr =
+      "org.jax.mgi.shr.dbutils.StreamClosedErr";
+  static {
+    exceptionsMap.put(StreamClosedErr, new DBException(
+        "The SQLStream ?? has already been closed", false));
+  }
+
+  /**
+   * a rejected statement could not be written to the reject file
+   */
+  public static final String RejectFileErr =
+      "org.jax.mgi.shr.dbutils.RejectFileErr";
+  static {
+    exceptionsMap.put(RejectFileErr, new DBException(
+        "Could not write a rejected statement to the reject file ??",
+        false));
+  }
+
+  /**
+   * staged rows could not be upserted into a table
+   */
+  public static final String UpsertErr =
+      "org.jax.mgi.shr.dbutils.UpsertErr";
+  static {
+    exceptionsMap.put(UpsertErr, new DBException(
+        "Could not upsert the staged rows into table ??", false));
+  }
+
+  /**
+   * a table has no primary key to upsert on
+   */
+  public static final String UpsertKeyErr =
+      "org.jax.mgi.shr.dbutils.UpsertKeyErr";
+  static {
+    exceptionsMap.put(UpsertKeyErr, new DBException(
+        "The table ?? has no primary key on which to upsert", false));
+  }
+
+  /**
+   * a row for upsert does not have the same number of values as earlier
+   * rows for the same table
+   */
+  public static final String UpsertColumnErr =
+      "org.jax.mgi.shr.dbutils.UpsertColumnErr";
+  static {
+    exceptionsMap.put(UpsertColumnErr, new DBException(
+        "A row for table ?? has ?? values but earlier rows had ??",
+        false));
+  }
+
+  /**
+   * a thread of a parallel row iterator failed
+   */
+  public static final String ParallelIteratorErr =
+      "org.jax.mgi.shr.dbutils.ParallelIteratorErr";
+  static {
+    exceptionsMap.put(ParallelIteratorErr, new DBException(
+        "The ?? thread of the parallel row iterator failed. " +
+        "See following exception message:", false));
+  }
+
+  /**
+   * an input of a merge join was not in key order
+   */
+  public static final String MergeJoinOrderErr =
+      "org.jax.mgi.shr.dbutils.MergeJoinOrderErr";
+  static {
+    exceptionsMap.put(MergeJoinOrderErr, new DBException(
+        "The ?? input of the merge join is not ordered by key: " +
+        "the key ?? follows the key ??", false));
+  }
+
+  /**
+   * two keys of a merge join could not be compared
+   */
+  public static final String MergeJoinKeyErr =
+      "org.jax.mgi.shr.dbutils.MergeJoinKeyErr";
+  static {
+    exceptionsMap.put(MergeJoinKeyErr, new DBException(
+        "The merge join can not compare the key ?? of type ?? with the " +
+        "key ?? of type ??", false));
+  }
+
+  /**
+   * the temporary file holding query results could not be used
+   */
+  public static final String SpillFileErr =
+      "org.jax.mgi.shr.dbutils.SpillFileErr";
+  static {
+    exceptionsMap.put(SpillFileErr, new DBException(
+        "An error occurred while trying to ?? the temporary file for " +
+        "query results", false));
+  }
+
+  /**
+   * the connection was lost while a transaction was open
+   */
+  public static final String ConnectionLostErr =
+      "org.jax.mgi.shr.dbutils.ConnectionLostErr";
+  static {
+    exceptionsMap.put(ConnectionLostErr, new DBException(
+        "The connection to database ?? on server ?? was lost while auto " +
+        "commit was off. The open transaction can not be recovered", false));
+  }
+
+  /**
+   * an operation on columnar results was given a column of the wrong kind
+   */
+  public static final String ColumnKindErr =
+      "org.jax.mgi.shr.dbutils.ColumnKindErr";
+  static {
+    exceptionsMap.put(ColumnKindErr, new DBException(
+        "Can not ?? in column ?? which is a ?? column", false));
+  }
+
 
 
 }
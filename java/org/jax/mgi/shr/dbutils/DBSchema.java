@@ -7,7 +7,11 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.Vector;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.HashMap;
+import java.util.Map;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.FileNotFoundException;
@@ -95,6 +99,35 @@ public class DBSchema
      */
     private static final Pattern quoteConflictPattern =
         Pattern.compile(REGEX_QUOTE_CONFLICT);
+    /**
+     * compiled regex pattern for locating the start of a create index
+     * command so that the concurrently keyword can be added
+     */
+    private static final Pattern createIndexPattern =
+        Pattern.compile("^(\\s*create\\s+(unique\\s+)?index\\s+)",
+                        Pattern.CASE_INSENSITIVE);
+
+    /*
+     * the commands parsed from dbschema files, shared by all instances and
+     * keyed by file name and search pattern
+     */
+    private static HashMap commandCache = new HashMap();
+
+    /*
+     * the number of create index commands to run at the same time, each on
+     * its own connection
+     */
+    private int indexConcurrency = 1;
+    /*
+     * whether create index commands are run with the concurrently option
+     * so that the table is not locked against writes
+     */
+    private boolean useConcurrentIndexes = false;
+    /*
+     * the elapsed milliseconds of each create index command run by the
+     * last call to createIndexes(), keyed by command
+     */
+    private LinkedHashMap indexTimings = new LinkedHashMap();
 
     /*
      * the exception factory for DBScemaExceptions
@@ -117,6 +150,8 @@ public class DBSchema
         DBSchemaExceptionFactory.UnexpectedString;
     private static String NestedQuotesErr =
         DBSchemaExceptionFactory.NestedQuotesErr;
+    private static String ParallelIndexErr =
+        DBSchemaExceptionFactory.ParallelIndexErr;
 
     /**
      * constructor which sets the database configuartion
@@ -138,6 +173,63 @@ public class DBSchema
         return this.sqlmanager;
     }
 
+    /**
+     * set the number of create index commands which createIndexes() runs
+     * at the same time. When greater than one each command is run on a
+     * new connection made from the SQLDataManager of this instance, unless
+     * auto-commit is off, in which case the commands are run one after
+     * another on the current connection.
+     * @assumes the create index commands for a table do not depend on one
+     * another
+     * @effects nothing
+     * @param count the number of indexes to create at once, where 1 creates
+     * them one after another on the current connection
+     */
+    public void setIndexConcurrency(int count)
+    {
+        this.indexConcurrency = Math.max(count, 1);
+    }
+
+    /**
+     * get the number of create index commands which createIndexes() runs
+     * at the same time
+     * @assumes nothing
+     * @effects nothing
+     * @return the number of indexes to create at once
+     */
+    public int getIndexConcurrency()
+    {
+        return this.indexConcurrency;
+    }
+
+    /**
+     * set whether createIndexes() builds indexes with the concurrently
+     * option, which does not lock the table against writes but takes
+     * longer. This is ignored for Sybase databases and for a connection
+     * which is not in auto-commit mode since the option cannot be used
+     * within a transaction.
+     * @assumes nothing
+     * @effects nothing
+     * @param bool true to build indexes concurrently
+     */
+    public void setUseConcurrentIndexes(boolean bool)
+    {
+        this.useConcurrentIndexes = bool;
+    }
+
+    /**
+     * get the elapsed time of each create index command run by the last
+     * call to createIndexes(), in the order the commands finished
+     * @assumes nothing
+     * @effects nothing
+     * @return a map of the elapsed milliseconds as Longs keyed by the
+     * create index command
+     */
+    public Map getIndexTimings()
+    {
+        return this.indexTimings;
+    }
+
     /**
      * locates the drop index commands from the dbschema product for the
      * given table and executes them in the database and if there are
@@ -170,6 +262,9 @@ public class DBSchema
      * locates the create index commands from the dbschema product for the
      * given table and executes them in the db and if there are partitions
      * defined for the given table then they need to be created in advance.
+     * The commands are run as set by setIndexConcurrency() and
+     * setUseConcurrentIndexes() and the time taken by each is logged and
+     * can be obtained from getIndexTimings().
      * @assumes nothing
      * @effects indexes will be created for the given table
      * @param pTablename table name
@@ -190,7 +285,25 @@ public class DBSchema
         {}
         if (sqlPartition != null)
             sqlmanager.executeUpdate(sqlPartition);
-        executeSqlVector(sqlIndex);
+        // the commands are only run on new connections when auto-commit is
+        // on, since an open transaction on this connection may hold locks
+        // on the table which the new connections would wait on forever
+        boolean parallel = indexConcurrency > 1 && sqlIndex.size() > 1 &&
+            sqlmanager.getAutoCommit();
+        if (useConcurrentIndexes && !sqlmanager.isSybase() &&
+            sqlmanager.getAutoCommit())
+            sqlIndex = addConcurrently(sqlIndex);
+        indexTimings = new LinkedHashMap();
+        long start = System.currentTimeMillis();
+        if (parallel)
+            executeIndexesParallel(sqlIndex);
+        else
+        {
+            for (Iterator it = sqlIndex.iterator(); it.hasNext(); )
+                executeIndex(sqlmanager, (String)it.next());
+        }
+        log(pTablename + ": Created " + sqlIndex.size() + " indexes in " +
+            (System.currentTimeMillis() - start) + " ms");
     }
 
     /**
@@ -611,9 +724,10 @@ public class DBSchema
 
     /**
      * search the given file and extract any create commands ('create table',
-     * 'create trigger', 'create procedure') from it.
+     * 'create trigger', 'create procedure') from it. The file is only parsed
+     * if it has not been parsed before or has changed since.
      * @assumes nothing
-     * @effects nothing
+     * @effects the commands found may be cached
      * @param targetObject the target object of the create command such as
      * 'table', 'trigger', etc.
      * @param pTablename the name of the table
@@ -628,6 +742,52 @@ public class DBSchema
     {
         String filename = calculateFilename(targetObject, "create",
                                             pTablename);
+        String key = filename + "\t" + goCommandPattern.pattern();
+        // the file is checked before it is read so that a change made
+        // while it is being read is picked up next time
+        CachedCommands current = checkFile(new File(filename));
+        Vector commands = getCachedCommands(key, current);
+        if (commands == null)
+        {
+            commands = readCreateCommands(targetObject, pTablename, filename);
+            cacheCommands(key, current, commands);
+        }
+        return commands;
+    }
+
+    /**
+     * clear the commands which have been parsed from dbschema files. The
+     * cache checks the modification time of each file before using the
+     * commands parsed from it, so this is only needed to free memory or if
+     * a file may have been replaced within the resolution of the file
+     * system clock.
+     * @assumes nothing
+     * @effects the dbschema files will be parsed again when next used
+     */
+    public static void clearCache()
+    {
+        synchronized (commandCache)
+        {
+            commandCache.clear();
+        }
+    }
+
+    /**
+     * parse the dbschema file for creating the given object on the given
+     * table, where each command ends with a go command
+     * @assumes nothing
+     * @effects nothing
+     * @param targetObject the object to create, such as table or trigger
+     * @param pTablename the given table name
+     * @param filename the name of the file to parse
+     * @return a vector of sql commands from the dbschema file
+     * @throws DBSchemaException thrown if the create commands could
+     * not be obtained fron the dbschema product
+     */
+    private Vector readCreateCommands(String targetObject, String pTablename,
+                                      String filename)
+        throws DBSchemaException
+    {
         String line = null;
         Vector allCommands = new Vector();
         StringBuffer command = new StringBuffer();
@@ -767,6 +927,105 @@ public class DBSchema
         return (String)v.get(0);
     }
 
+    /**
+     * get the lines of a file which match the given regular expression,
+     * searching the file only if it has not been searched before or has
+     * changed since
+     * @assumes nothing
+     * @effects the lines found may be cached
+     * @param pFilename the file to search
+     * @param pRegex the regular expression to match on
+     * @return the vector of lines which matched the regular expression
+     * @throws DBSchemaException thrown if there is an error accessing the
+     * dbschema files
+     */
+    private Vector getCommands(String pFilename, Pattern pRegex)
+        throws DBSchemaException
+    {
+        String key = pFilename + "\t" + pRegex.pattern();
+        // the file is checked before it is read so that a change made
+        // while it is being read is picked up next time
+        CachedCommands current = checkFile(new File(pFilename));
+        Vector commands = getCachedCommands(key, current);
+        if (commands == null)
+        {
+            commands = readCommands(pFilename, pRegex);
+            cacheCommands(key, current, commands);
+        }
+        return commands;
+    }
+
+    /**
+     * get the current modification time and length of a dbschema file
+     * @assumes nothing
+     * @effects nothing
+     * @param file the file the commands are parsed from
+     * @return a CachedCommands without commands holding the modification
+     * time and length
+     * @throws DBSchemaException thrown if the file does not exist
+     */
+    private CachedCommands checkFile(File file)
+        throws DBSchemaException
+    {
+        CachedCommands current = new CachedCommands();
+        current.modified = file.lastModified();
+        current.length = file.length();
+        if (current.modified == 0 && !file.exists())
+        {
+            DBSchemaException e = (DBSchemaException)
+                exceptionFactory.getException(FileNotFoundErr);
+            e.bind(file.getPath());
+            throw e;
+        }
+        return current;
+    }
+
+    /**
+     * get a copy of the commands cached for the given key if the file they
+     * were parsed from has not changed since
+     * @assumes nothing
+     * @effects nothing
+     * @param key the cache key
+     * @param current the modification time and length of the file from
+     * checkFile()
+     * @return the commands or null if they are not cached or are out of
+     * date
+     */
+    private Vector getCachedCommands(String key, CachedCommands current)
+    {
+        CachedCommands cached = null;
+        synchronized (commandCache)
+        {
+            cached = (CachedCommands)commandCache.get(key);
+        }
+        if (cached == null || cached.modified != current.modified ||
+            cached.length != current.length)
+            return null;
+        return new Vector(cached.commands);
+    }
+
+    /**
+     * store a copy of the commands parsed from a file
+     * @assumes nothing
+     * @effects the commands will be cached
+     * @param key the cache key
+     * @param current the modification time and length of the file from
+     * checkFile() before it was read
+     * @param commands the commands
+     */
+    private void cacheCommands(String key, CachedCommands current,
+                               Vector commands)
+    {
+        CachedCommands cached = new CachedCommands();
+        cached.modified = current.modified;
+        cached.length = current.length;
+        cached.commands = new Vector(commands);
+        synchronized (commandCache)
+        {
+            commandCache.put(key, cached);
+        }
+    }
+
     /**
      * searches a file and extracts lines which match the given regular
      * expression
@@ -778,7 +1037,7 @@ public class DBSchema
      * @throws DBSchemaException thrown if there is an error accessing the
      * dbschema files
      */
-    private Vector getCommands(String pFilename, Pattern pRegex)
+    private Vector readCommands(String pFilename, Pattern pRegex)
         throws DBSchemaException
     {
         String filename = pFilename;
@@ -877,6 +1136,112 @@ public class DBSchema
         }
     }
 
+    /**
+     * add the concurrently keyword to each create index command
+     * @assumes the commands will be run in auto-commit mode
+     * @effects nothing
+     * @param pCommands the create index commands
+     * @return the revised commands
+     */
+    private Vector addConcurrently(Vector pCommands)
+    {
+        Vector v = new Vector();
+        for (Iterator it = pCommands.iterator(); it.hasNext(); )
+        {
+            String command = (String)it.next();
+            Matcher m = createIndexPattern.matcher(command);
+            if (m.find())
+                command = m.replaceFirst("$1concurrently ");
+            v.add(command);
+        }
+        return v;
+    }
+
+    /**
+     * run a create index command and record the time it took
+     * @assumes nothing
+     * @effects an index will be created within the database
+     * @param manager the SQLDataManager to run the command with
+     * @param command the create index command
+     * @throws DBException thrown if there is an error with the database
+     */
+    private void executeIndex(SQLDataManager manager, String command)
+        throws DBException
+    {
+        long start = System.currentTimeMillis();
+        manager.executeUpdate(command);
+        Long elapsed = new Long(System.currentTimeMillis() - start);
+        synchronized (indexTimings)
+        {
+            indexTimings.put(command, elapsed);
+        }
+        log("Created index in " + elapsed + " ms: " + command);
+    }
+
+    /**
+     * run the given create index commands using up to indexConcurrency
+     * threads, each with its own connection. After the first failure no
+     * more commands are started and the failure is thrown once the
+     * running commands have finished.
+     * @assumes nothing
+     * @effects indexes will be created within the database
+     * @param pCommands the create index commands
+     * @throws DBException thrown if a command failed or a new connection
+     * could not be made
+     * @throws DBSchemaException thrown if a worker failed for any other
+     * reason, including an Error which ended its thread
+     */
+    private void executeIndexesParallel(Vector pCommands)
+        throws DBException, DBSchemaException
+    {
+        IndexQueue queue = new IndexQueue(pCommands);
+        int count = Math.min(indexConcurrency, pCommands.size());
+        Thread[] threads = new Thread[count];
+        for (int i = 0; i < count; i++)
+        {
+            threads[i] = new Thread(new IndexWorker(queue),
+                                    "DBSchema-index-" + (i + 1));
+            threads[i].start();
+        }
+        for (int i = 0; i < count; i++)
+        {
+            boolean joined = false;
+            while (!joined)
+            {
+                try
+                {
+                    threads[i].join();
+                    joined = true;
+                }
+                catch (InterruptedException e)
+                {
+                    // keep waiting so no index is left building unattended
+                }
+            }
+        }
+        Exception failure = queue.getFailure();
+        if (failure == null)
+            return;
+        if (failure instanceof DBException)
+            throw (DBException)failure;
+        DBSchemaException e2 = (DBSchemaException)
+            exceptionFactory.getException(ParallelIndexErr, failure);
+        e2.bind(queue.getFailedCommand());
+        throw e2;
+    }
+
+    /**
+     * log a message to the logger of the SQLDataManager if there is one
+     * @assumes nothing
+     * @effects a message may be logged
+     * @param message the message
+     */
+    private void log(String message)
+    {
+        if (sqlmanager.getLogger() != null)
+            sqlmanager.getLogger().logInfo(message);
+    }
+
     /**
      * convert create database command to use Oracle datatypes
      * @assumes nothing
@@ -894,6 +1259,147 @@ public class DBSchema
         return newsql;
     }
 
+    /**
+     * The commands parsed from a dbschema file along with the modification
+     * time and length of the file when it was parsed
+     * @has the commands, modification time and length
+     * @does nothing
+     * @company The Jackson Laboratory
+     * @author M Walker
+     */
+    private static class CachedCommands
+    {
+        private long modified = 0;
+        private long length = 0;
+        private Vector commands = null;
+    }
+
+    /**
+     * An object which hands out create index commands to the worker
+     * threads of a parallel index build
+     * @has the commands waiting to be run and the first failure
+     * @does gives each worker the next command until the commands run out
+     * or a failure has been recorded
+     * @company The Jackson Laboratory
+     * @author M Walker
+     */
+    private class IndexQueue
+    {
+        private Vector commands = null;
+        private int next = 0;
+        private Exception failure = null;
+        private String failedCommand = null;
+
+        /**
+         * constructor
+         * @param pCommands the create index commands
+         */
+        protected IndexQueue(Vector pCommands)
+        {
+            this.commands = pCommands;
+        }
+
+        /**
+         * get the next command to run
+         * @return the next command or null if there are no more or a
+         * failure has occurred
+         */
+        protected synchronized String next()
+        {
+            if (failure != null || next >= commands.size())
+                return null;
+            return (String)commands.get(next++);
+        }
+
+        /**
+         * record a failure, keeping only the first
+         * @param command the command which failed or null if the failure
+         * occurred before a command was run
+         * @param e the failure
+         */
+        protected synchronized void fail(String command, Exception e)
+        {
+            if (failure != null)
+                return;
+            failure = e;
+            failedCommand = command;
+        }
+
+        protected synchronized Exception getFailure()
+        {
+            return failure;
+        }
+
+        protected synchronized String getFailedCommand()
+        {
+            return failedCommand;
+        }
+    }
+
+    /**
+     * A Runnable which creates indexes on its own connection
+     * @has an IndexQueue and a connection
+     * @does runs create index commands from the queue until it is empty
+     * and closes its connection
+     * @company The Jackson Laboratory
+     * @author M Walker
+     */
+    private class IndexWorker implements Runnable
+    {
+        private IndexQueue queue = null;
+
+        /**
+         * constructor
+         * @param queue the queue to obtain commands from
+         */
+        protected IndexWorker(IndexQueue queue)
+        {
+            this.queue = queue;
+        }
+
+        public void run()
+        {
+            String command = queue.next();
+            if (command == null)
+                return;
+            SQLDataManager manager = null;
+            try
+            {
+                manager = sqlmanager.newConnection();
+                manager.setLogger(sqlmanager.getLogger());
+                while (command != null)
+                {
+                    executeIndex(manager, command);
+                    command = queue.next();
+                }
+            }
+            catch (Exception e)
+            {
+                queue.fail(command, e);
+            }
+            catch (Error e)
+            {
+                // stop the other workers and fail executeIndexesParallel
+                queue.fail(command, new RuntimeException(e));
+                throw e;
+            }
+            finally
+            {
+                if (manager != null)
+                {
+                    try
+                    {
+                        manager.closeResources();
+                    }
+                    catch (DBException e)
+                    {
+                        log("Could not close index connection: " +
+                            e.getMessage());
+                    }
+                }
+            }
+        }
+    }
 
 }
 // $Log$
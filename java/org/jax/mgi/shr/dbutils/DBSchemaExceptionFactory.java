@@ -71,6 +71,16 @@ public class DBSchemaExceptionFactory extends ExceptionFactory {
         "using two single quotes instead of one and create encompassing " +
         "quotations using single quotes: \n??", false));
   }
+  /**
+   * A worker thread of a parallel index build failed
+   */
+  public static final String ParallelIndexErr =
+      "org.jax.mgi.shr.dbschema.ParallelIndexErr";
+  static {
+    exceptionsMap.put(ParallelIndexErr, new DBSchemaException(
+        "An error occured while creating indexes in parallel. The " +
+        "failing command was: ??", false));
+  }
 
 
 
@@ -0,0 +1,56 @@
+package org.jax.mgi.shr.dbutils;
+
+import java.util.Vector;
+
+/**
+ * An interface which defines an object that can join the objects from two
+ * DataIterators which are ordered by the same key. It is used by a
+ * MergeJoinIterator.
+ * @has nothing
+ * @does provides methods to get the key of an object from either input and
+ * to create a java data object from an object of the left input and the
+ * matching objects of the right input.
+ * @company The Jackson Laboratory
+ * @author M Walker
+ */
+
+public interface MergeJoinInterpreter
+{
+  /**
+   * returns the key of an object from the left input
+   * @assumes nothing
+   * @effects nothing
+   * @param left the object from the left input
+   * @return the key, which should be Comparable, or null if the object
+   * has no key
+   * @throws InterpretException thrown if the key cannot be interpreted
+   */
+  public Object interpretLeftKey(Object left) throws InterpretException;
+
+  /**
+   * returns the key of an object from the right input
+   * @assumes nothing
+   * @effects nothing
+   * @param right the object from the right input
+   * @return the key, which should be Comparable, or null if the object
+   * has no key
+   * @throws InterpretException thrown if the key cannot be interpreted
+   */
+  public Object interpretRightKey(Object right) throws InterpretException;
+
+  /**
+   * create a new java object from an object of the left input and the
+   * objects of the right input which have the same key
+   * @assumes the Vector is not changed, since it is passed again for
+   * following left objects with the same key
+   * @effects nothing
+   * @param left the object from the left input
+   * @param rights the objects from the right input with the same key in
+   * the order they were read, which is empty for a left object without a
+   * match in an outer join
+   * @return the new java object
+   * @throws InterpretException thrown if the objects cannot be joined
+   */
+  public Object interpretJoin(Object left, Vector rights)
+      throws InterpretException;
+}
@@ -0,0 +1,392 @@
+package org.jax.mgi.shr.dbutils;
+
+import java.math.BigDecimal;
+import java.util.Vector;
+
+import org.jax.mgi.shr.exception.MGIException;
+
+/**
+ * An object which joins two DataIterators that return their objects in
+ * ascending order of the same key, reading each of them once in a forward
+ * direction. Only the objects of the right input which share the current
+ * key are held in memory, so two large query results can be joined
+ * without caching either of them in full. Query results can be joined by
+ * wrapping each ResultsNavigator in a RowDataIterator.
+ * Numeric keys are compared by their values whatever their classes, such
+ * as an Integer from an int4 column and a Long from an int8 column. Other
+ * keys are compared with compareTo() and must be Comparable and of the
+ * same class, so the queries must be ordered in the same way. Integer keys
+ * are safest since string ordering in the database depends on its
+ * collation. Objects without a key never match.
+ * @has a left and a right DataIterator and a MergeJoinInterpreter
+ * @does returns one object, created by the MergeJoinInterpreter, for each
+ * object of the left input together with the matching objects of the right
+ * input. For an inner join the left objects without a match are skipped,
+ * and for an outer join they are joined with an empty Vector. An error is
+ * thrown if either input is found to be out of order or if two keys can
+ * not be compared.
+ * @company The Jackson Laboratory
+ * @author M Walker
+ */
+
+public class MergeJoinIterator implements DataIterator
+{
+  /**
+   * the left input
+   */
+  private DataIterator left = null;
+
+  /**
+   * the right input
+   */
+  private DataIterator right = null;
+
+  /**
+   * the MergeJoinInterpreter for getting keys and joining objects
+   */
+  private MergeJoinInterpreter interp = null;
+
+  /**
+   * whether left objects without a match are returned
+   */
+  private boolean outerJoin = false;
+
+  /*
+   * the next unread object of the right input and its key
+   */
+  private Object rightObject = null;
+  private Object rightKey = null;
+  private boolean rightDone = false;
+
+  /*
+   * the last key read from each input, for checking the order
+   */
+  private Object lastLeftKey = null;
+  private Object lastRightKey = null;
+
+  /*
+   * the right objects for the current key
+   */
+  private Vector group = new Vector();
+  private Object groupKey = null;
+
+  /*
+   * the next object to return
+   */
+  private Object nextObject = null;
+  private boolean done = false;
+
+  /*
+   * the following constant definitions are exceptions thrown by this class
+   */
+  private static final String PastEndOfResultSet =
+      DBExceptionFactory.PastEndOfResultSet;
+  private static final String MergeJoinOrderErr =
+      DBExceptionFactory.MergeJoinOrderErr;
+  private static final String InterpretErr =
+      DBExceptionFactory.InterpretErr;
+  private static final String MergeJoinKeyErr =
+      DBExceptionFactory.MergeJoinKeyErr;
+
+  /**
+   * constructor for an inner join
+   * @assumes both inputs are in ascending order of the key
+   * @effects the first object of each input will be read
+   * @param left the left input
+   * @param right the right input
+   * @param interp the MergeJoinInterpreter
+   * @throws MGIException thrown if there is an error reading the inputs or
+   * joining the first objects
+   */
+  public MergeJoinIterator(DataIterator left,
+                           DataIterator right,
+                           MergeJoinInterpreter interp)
+  throws MGIException
+  {
+    this(left, right, interp, false);
+  }
+
+  /**
+   * constructor
+   * @assumes both inputs are in ascending order of the key
+   * @effects the first object of each input will be read
+   * @param left the left input
+   * @param right the right input
+   * @param interp the MergeJoinInterpreter
+   * @param outerJoin true if left objects without a match should be
+   * returned, false if they should be skipped
+   * @throws MGIException thrown if there is an error reading the inputs or
+   * joining the first objects
+   */
+  public MergeJoinIterator(DataIterator left,
+                           DataIterator right,
+                           MergeJoinInterpreter interp,
+                           boolean outerJoin)
+  throws MGIException
+  {
+    this.left = left;
+    this.right = right;
+    this.interp = interp;
+    this.outerJoin = outerJoin;
+    advanceRight();
+    nextObject = join();
+  }
+
+  /**
+   * return an indicator of whether or not there are any more joined
+   * objects
+   * @assumes nothing
+   * @effects nothing
+   * @return true if there are more joined objects, false otherwise
+   */
+  public boolean hasNext()
+  {
+    return !done;
+  }
+
+  /**
+   * returns the next joined object
+   * @assumes nothing
+   * @effects the inputs will be read up to the following joined object
+   * @return the joined object
+   * @throws MGIException thrown if there are no more joined objects or if
+   * there is an error reading the inputs or joining the objects
+   */
+  public Object next() throws MGIException
+  {
+    if (done)
+    {
+      DBExceptionFactory factory = new DBExceptionFactory();
+      DBException e =
+          (DBException)factory.getException(PastEndOfResultSet);
+      throw e;
+    }
+    Object o = nextObject;
+    nextObject = join();
+    return o;
+  }
+
+  /**
+   * close both inputs
+   * @assumes nothing
+   * @effects both inputs will be closed
+   * @throws MGIException thrown if either input cannot be closed
+   */
+  public void close() throws MGIException
+  {
+    try
+    {
+      left.close();
+    }
+    finally
+    {
+      right.close();
+    }
+  }
+
+  /**
+   * read the inputs up to the next joined object
+   * @return the joined object, or null with the done flag set if there are
+   * no more
+   * @throws MGIException thrown if there is an error reading the inputs or
+   * joining the objects
+   */
+  private Object join() throws MGIException
+  {
+    while (left.hasNext())
+    {
+      Object leftObject = left.next();
+      Object leftKey = null;
+      try
+      {
+        leftKey = interp.interpretLeftKey(leftObject);
+      }
+      catch (InterpretException e)
+      {
+        throw getInterpretErr(e);
+      }
+      if (leftKey == null)
+      {
+        if (outerJoin)
+          return joinRows(leftObject, new Vector());
+        continue;
+      }
+      checkOrder("left", lastLeftKey, leftKey);
+      lastLeftKey = leftKey;
+
+      if (groupKey == null || compare(groupKey, leftKey) != 0)
+      {
+        // skip the right objects with lower keys and collect the matches
+        while (!rightDone && compare(rightKey, leftKey) < 0)
+          advanceRight();
+        group = new Vector();
+        groupKey = leftKey;
+        while (!rightDone && compare(rightKey, leftKey) == 0)
+        {
+          group.add(rightObject);
+          advanceRight();
+        }
+      }
+      if (!group.isEmpty() || outerJoin)
+        return joinRows(leftObject, group);
+    }
+    done = true;
+    return null;
+  }
+
+  /**
+   * read the next object with a key from the right input
+   * @throws MGIException thrown if there is an error reading the input or
+   * if it is out of order
+   */
+  private void advanceRight() throws MGIException
+  {
+    while (right.hasNext())
+    {
+      Object o = right.next();
+      Object key = null;
+      try
+      {
+        key = interp.interpretRightKey(o);
+      }
+      catch (InterpretException e)
+      {
+        throw getInterpretErr(e);
+      }
+      if (key == null)
+        continue;
+      checkOrder("right", lastRightKey, key);
+      lastRightKey = key;
+      rightObject = o;
+      rightKey = key;
+      return;
+    }
+    rightObject = null;
+    rightKey = null;
+    rightDone = true;
+  }
+
+  /**
+   * call the interpreter to join the objects
+   * @param leftObject the left object
+   * @param rights the matching right objects
+   * @return the joined object
+   * @throws DBException thrown if the objects cannot be joined
+   */
+  private Object joinRows(Object leftObject, Vector rights)
+  throws DBException
+  {
+    try
+    {
+      return interp.interpretJoin(leftObject, rights);
+    }
+    catch (InterpretException e)
+    {
+      throw getInterpretErr(e);
+    }
+  }
+
+  /**
+   * check that a key is not lower than the previous key from the same input
+   * @param input the name of the input
+   * @param previous the previous key or null if there was none
+   * @param key the key
+   * @throws DBException thrown if the key is out of order
+   */
+  private void checkOrder(String input, Object previous, Object key)
+  throws DBException
+  {
+    if (previous != null && compare(previous, key) > 0)
+    {
+      DBExceptionFactory eFactory = new DBExceptionFactory();
+      DBException e = (DBException)
+          eFactory.getException(MergeJoinOrderErr);
+      e.bind(input);
+      e.bind(key.toString());
+      e.bind(previous.toString());
+      throw e;
+    }
+  }
+
+  /**
+   * compare two keys
+   * @param key1 the first key
+   * @param key2 the second key
+   * @return a negative number, zero or a positive number as the first key
+   * is less than, equal to or greater than the second
+   * @throws DBException thrown if the keys can not be compared
+   */
+  private static int compare(Object key1, Object key2)
+  throws DBException
+  {
+    if (key1 instanceof Integer && key2 instanceof Integer)
+    {
+      int i1 = ((Integer)key1).intValue();
+      int i2 = ((Integer)key2).intValue();
+      return i1 < i2 ? -1 : (i1 == i2 ? 0 : 1);
+    }
+    if (key1 instanceof Number && key2 instanceof Number)
+      return compareNumbers((Number)key1, (Number)key2);
+    if (key1 instanceof Comparable &&
+        key1.getClass() == key2.getClass())
+      return ((Comparable)key1).compareTo(key2);
+    DBExceptionFactory eFactory = new DBExceptionFactory();
+    DBException e = (DBException)eFactory.getException(MergeJoinKeyErr);
+    e.bind(key1.toString());
+    e.bind(key1.getClass().getName());
+    e.bind(key2.toString());
+    e.bind(key2.getClass().getName());
+    throw e;
+  }
+
+  /**
+   * compare two numbers by their values
+   * @param n1 the first number
+   * @param n2 the second number
+   * @return a negative number, zero or a positive number as the first
+   * number is less than, equal to or greater than the second
+   */
+  private static int compareNumbers(Number n1, Number n2)
+  {
+    if (isIntegral(n1) && isIntegral(n2))
+    {
+      long l1 = n1.longValue();
+      long l2 = n2.longValue();
+      return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+    }
+    try
+    {
+      return new BigDecimal(n1.toString()).compareTo(
+          new BigDecimal(n2.toString()));
+    }
+    catch (NumberFormatException e)
+    {
+      // such as NaN or infinity
+      return Double.compare(n1.doubleValue(), n2.doubleValue());
+    }
+  }
+
+  /**
+   * determine whether a number is of a class which holds a long value
+   * @param n the number
+   * @return true if the number is a Byte, Short, Integer or Long
+   */
+  private static boolean isIntegral(Number n)
+  {
+    return n instanceof Integer || n instanceof Long ||
+        n instanceof Short || n instanceof Byte;
+  }
+
+  /**
+   * get a DBException for an InterpretException
+   * @param e the InterpretException
+   * @return the DBException
+   */
+  private static DBException getInterpretErr(InterpretException e)
+  {
+    DBExceptionFactory eFactory = new DBExceptionFactory();
+    DBException e2 = (DBException)
+        eFactory.getException(InterpretErr, e);
+    return e2;
+  }
+}
@@ -11,7 +11,12 @@ import java.util.Vector;
  * key value and will create a java data object based on that group of rows.
  * The getNext() method is provided for iterating through the results which
  * is iteratively called, returning the next object, until the call to
- * hasNext() returns false.
+ * hasNext() returns false. Keys are compared with equals(), or by value
+ * for Integer keys, unless the class of the key does not override
+ * equals() in which case their string values are compared. The Vector
+ * passed to interpretRows() can optionally be reused for each group, and
+ * the groups can optionally be interpreted on a pool of worker threads
+ * once all of their rows have been read.
  * @author M Walker
  */
 
@@ -41,6 +46,29 @@ public class MultiRowIterator implements DataIterator
    */
   private static String InterpretErr = DBExceptionFactory.InterpretErr;
 
+  /**
+   * whether the Vector passed to interpretRows() is reused for each group
+   */
+  private boolean reuseGroupBuffer = false;
+
+  /**
+   * the Vector used for the current group
+   */
+  private Vector group = null;
+
+  /*
+   * the class of the first key seen and whether that class overrides
+   * equals(), which decides how the keys are compared
+   */
+  private Class keyClass = null;
+  private boolean keyUsesEquals = false;
+
+  /**
+   * the iterator which interprets the groups on worker threads when
+   * running in parallel, otherwise null
+   */
+  private ParallelRowDataIterator parallel = null;
+
 
   /**
    * the constructor
@@ -62,6 +90,48 @@ public class MultiRowIterator implements DataIterator
       done = true;
   }
 
+  /**
+   * constructor for interpreting the groups of rows on a pool of worker
+   * threads. The rows are read and grouped by key on a fetch thread,
+   * which copies each row so that a group can be handed to a worker
+   * as soon as the first row of the next group is read. The worker calls
+   * interpret() on each row of the group and then interpretRows().
+   * @assumes the interpreter can be called from more than one thread
+   * @effects the fetch and worker threads will be started
+   * @param nav the query results through which to iterate
+   * @param interp the MultiRowDataInterpreter used for creating java data
+   * objects based on the rows of query results
+   * @param workers the number of worker threads
+   * @param ordered true if the objects should be returned in the order
+   * of the query results, false if they may be returned in the order
+   * they are completed
+   */
+  public MultiRowIterator(ResultsNavigator nav,
+                          MultiRowInterpreter interp,
+                          int workers,
+                          boolean ordered)
+  {
+    this.nav = nav;
+    this.interp = interp;
+    this.parallel = new ParallelRowDataIterator(
+        nav, new GroupWork(), workers, ordered,
+        Math.max(workers, 1) * 4);
+  }
+
+  /**
+   * set whether the Vector passed to interpretRows() is reused for each
+   * group rather than a new one being created. This should only be set
+   * when the interpreter does not keep a reference to the Vector. It has
+   * no effect when the groups are interpreted in parallel.
+   * @assumes nothing
+   * @effects later groups will be collected into the same Vector
+   * @param bool true if the Vector should be reused
+   */
+  public void setReuseGroupBuffer(boolean bool)
+  {
+    this.reuseGroupBuffer = bool;
+  }
+
   /**
    * return an indicator of whether or not there are any more results to
    * process
@@ -69,6 +139,8 @@ public class MultiRowIterator implements DataIterator
    */
   public boolean hasNext()
   {
+      if (parallel != null)
+          return parallel.hasNext();
       return !done;
   }
 
@@ -80,7 +152,10 @@ public class MultiRowIterator implements DataIterator
    */
   public void close() throws DBException
   {
-    nav.close();
+    if (parallel != null)
+      parallel.close();
+    else
+      nav.close();
   }
 
   /**
@@ -88,44 +163,37 @@ public class MultiRowIterator implements DataIterator
    * which share the same key value
    * @assumes nothing
    * @effects nothing
-   * @return the created java data object
+   * @return the created java data object, or null if there are no more
+   * rows
    * @throws DBException thrown if there is an error within the database
    */
   public Object next() throws DBException
   {
-    /**
-     * the object that will get created based on the rows
-     */
-    Object nextObject = null;
+    if (parallel != null)
+    {
+      if (!parallel.hasNext())
+        return null;
+      return parallel.next();
+    }
+
+    if (done) // there are no more rows left in the ResultsNavigator
+      return null;
 
     /**
      * the vector which will hold the grouped rows sharing the same key
      */
-    Vector v = new Vector();
-
-    if (done) // there are no more rows left in the ResultsNavigator
-      return null;
+    if (group == null || !reuseGroupBuffer)
+      group = new Vector();
+    else
+      group.clear();
 
     /**
-     * get the current row and add it to the vector
+     * get the current row and add it to the vector. The RowReference
+     * follows the ResultsNavigator so it is only obtained once.
      */
-    RowReference initialRef = (RowReference)nav.getCurrent();
-    Object initialObject = null;
-    Object initialKey = null;
-    try
-    {
-        initialObject = interp.interpret(initialRef);
-        initialKey = interp.interpretKey(initialRef);
-    }
-    catch (InterpretException e)
-    {
-        DBExceptionFactory eFactory = new DBExceptionFactory();
-        DBException e2 = (DBException)
-            eFactory.getException(InterpretErr, e);
-        throw e2;
-    }
-    if (initialObject != null)
-        v.add(initialObject);
+    RowReference ref = nav.getRowReference();
+    Object initialKey = interpretKey(ref);
+    addRow(group, ref);
 
     /**
      * get all the remainning rows which share the same key as the initial
@@ -133,56 +201,12 @@ public class MultiRowIterator implements DataIterator
      */
     while (nav.next())
     {
-      RowReference thisRef = (RowReference)nav.getCurrent();
-      Object thisObject = null;
-      Object thisKey = null;
-      try
-      {
-          thisKey = interp.interpretKey(thisRef);
-      }
-      catch (InterpretException e)
-      {
-          DBExceptionFactory eFactory = new DBExceptionFactory();
-          DBException e2 = (DBException)
-              eFactory.getException(InterpretErr, e);
-          throw e2;
-      }
-      if (thisKey.toString().equals(initialKey.toString()))
+      if (!isSameKey(initialKey, interpretKey(ref)))
       {
-          try
-          {
-              thisObject = interp.interpret(thisRef);
-          }
-          catch (InterpretException e)
-          {
-              DBExceptionFactory eFactory = new DBExceptionFactory();
-              DBException e2 = (DBException)
-                  eFactory.getException(InterpretErr, e);
-              throw e2;
-          }
-
-          if (thisObject != null)
-              v.add(thisObject);
-      }
-      else // the keys dont match so this indicates we are done
-      {
-        /**
-         * call the interpretRows() method and return the created
-         * object to the caller
-         */
-        try
-        {
-            nextObject = interp.interpretRows(v);
-        }
-        catch (InterpretException e)
-        {
-            DBExceptionFactory eFactory = new DBExceptionFactory();
-            DBException e2 = (DBException)
-                eFactory.getException(InterpretErr, e);
-            throw e2;
-        }
-        return nextObject;
+        // the keys dont match so this indicates we are done
+        return interpretRows(group);
       }
+      addRow(group, ref);
     }
     /**
      * there are no more rows in the ResultsNavigator, so set the done
@@ -190,19 +214,172 @@ public class MultiRowIterator implements DataIterator
      * created object to the caller
      */
     done = true;
+    return interpretRows(group);
+  }
+
+  /**
+   * compare two keys
+   * @assumes nothing
+   * @effects the way keys are compared is decided from the first key
+   * @param key1 the first key
+   * @param key2 the second key
+   * @return true if the keys are the same, false otherwise
+   */
+  private boolean isSameKey(Object key1, Object key2)
+  {
+    if (key1 == key2)
+      return true;
+    if (key1 == null || key2 == null)
+      return false;
+    if (key1 instanceof Integer && key2 instanceof Integer)
+      return ((Integer)key1).intValue() == ((Integer)key2).intValue();
+    Class c = key1.getClass();
+    if (c != keyClass)
+    {
+      keyClass = c;
+      try
+      {
+        keyUsesEquals = c.getMethod("equals", new Class[] {Object.class})
+            .getDeclaringClass() != Object.class;
+      }
+      catch (NoSuchMethodException e)
+      {
+        keyUsesEquals = false;
+      }
+    }
+    if (keyUsesEquals && c == key2.getClass())
+      return key1.equals(key2);
+    return key1.toString().equals(key2.toString());
+  }
+
+  /**
+   * interpret a row and add the object to the group if it is not null
+   * @param v the group
+   * @param ref the row
+   * @throws DBException thrown if the row cannot be interpreted
+   */
+  private void addRow(Vector v, RowReference ref) throws DBException
+  {
+    Object o = null;
+    try
+    {
+      o = interp.interpret(ref);
+    }
+    catch (InterpretException e)
+    {
+      throw getInterpretErr(e);
+    }
+    if (o != null)
+      v.add(o);
+  }
+
+  /**
+   * get the key of a row
+   * @param ref the row
+   * @return the key
+   * @throws DBException thrown if the key cannot be interpreted
+   */
+  private Object interpretKey(RowReference ref) throws DBException
+  {
     try
     {
-        nextObject = interp.interpretRows(v);
+      return interp.interpretKey(ref);
     }
     catch (InterpretException e)
     {
-        DBExceptionFactory eFactory = new DBExceptionFactory();
-        DBException e2 = (DBException)
-            eFactory.getException(InterpretErr, e);
-        throw e2;
+      throw getInterpretErr(e);
     }
+  }
 
-    return nextObject;
+  /**
+   * create the object for a group
+   * @param v the group
+   * @return the object
+   * @throws DBException thrown if the group cannot be interpreted
+   */
+  private Object interpretRows(Vector v) throws DBException
+  {
+    try
+    {
+      return interp.interpretRows(v);
+    }
+    catch (InterpretException e)
+    {
+      throw getInterpretErr(e);
+    }
+  }
+
+  /**
+   * get a DBException for an InterpretException
+   * @param e the InterpretException
+   * @return the DBException
+   */
+  private DBException getInterpretErr(InterpretException e)
+  {
+    DBExceptionFactory eFactory = new DBExceptionFactory();
+    DBException e2 = (DBException)
+        eFactory.getException(InterpretErr, e);
+    return e2;
+  }
+
+  /**
+   * The Work for interpreting groups of rows in parallel.
+   * @has the first row and key of the next group
+   * @does reads the rows of a group on the fetch thread, copying each
+   * one, and interprets the copies on a worker thread
+   * @company The Jackson Laboratory
+   * @author M Walker
+   */
+  private class GroupWork implements ParallelRowDataIterator.Work
+  {
+    private SnapshotRowReference.Layout layout = null;
+    // the first row of the next group and its key
+    private RowReference first = null;
+    private Object firstKey = null;
+    private boolean ended = false;
+
+    public Object fetch() throws DBException
+    {
+      if (ended)
+        return null;
+      if (first == null)
+      {
+        if (!nav.next())
+        {
+          ended = true;
+          return null;
+        }
+        RowReference ref = nav.getRowReference();
+        layout = new SnapshotRowReference.Layout(ref);
+        firstKey = interpretKey(ref);
+        first = layout.snapshot(ref);
+      }
+      Vector rows = new Vector();
+      rows.add(first);
+      RowReference ref = nav.getRowReference();
+      while (nav.next())
+      {
+        Object key = interpretKey(ref);
+        if (!isSameKey(firstKey, key))
+        {
+          first = layout.snapshot(ref);
+          firstKey = key;
+          return rows;
+        }
+        rows.add(layout.snapshot(ref));
+      }
+      ended = true;
+      return rows;
+    }
+
+    public Object process(Object item) throws DBException
+    {
+      Vector rows = (Vector)item;
+      Vector v = new Vector(rows.size());
+      for (int i = 0; i < rows.size(); i++)
+        addRow(v, (RowReference)rows.get(i));
+      return interpretRows(v);
+    }
   }
 
-}
\ No newline at end of file
+}
@@ -6,6 +6,13 @@ public abstract class ObjectQuery implements InterpretedQuery {
 
     protected SQLDataManager sqlMgr = null;
 
+    // the number of threads which interpret rows, or zero to interpret
+    // them on the calling thread
+    private int parallelWorkers = 0;
+
+    // whether parallel results are returned in the order of the query
+    private boolean preserveOrder = true;
+
     // the following constant defintions are exceptions thrown by this class
     private static final String PrePostSQLErr =
         DBExceptionFactory.PrePostSQLErr;
@@ -16,6 +23,26 @@ public abstract class ObjectQuery implements InterpretedQuery {
         this.sqlMgr = sqlMgr;
     }
 
+    /**
+     * set the number of worker threads used to interpret the rows. When
+     * more than zero the rows are fetched on one thread and interpreted on
+     * the workers by a ParallelRowDataIterator, so the RowDataInterpreter
+     * must be safe to call from more than one thread. For a
+     * MultiRowInterpreter the rows are grouped on one thread and each
+     * group is interpreted on a worker.
+     * @assumes nothing
+     * @effects later calls to execute() will use the given settings
+     * @param workers the number of worker threads, or zero to interpret
+     * the rows on the calling thread
+     * @param preserveOrder true if the objects should be returned in the
+     * order of the query results
+     */
+    public void setParallelInterpretation(int workers, boolean preserveOrder)
+    {
+        this.parallelWorkers = workers;
+        this.preserveOrder = preserveOrder;
+    }
+
     public DataIterator execute()
     throws DBException
     {
@@ -38,7 +65,17 @@ public abstract class ObjectQuery implements InterpretedQuery {
         {
             MultiRowInterpreter mri =
                 (MultiRowInterpreter)interpreter;
-            iterator = new MultiRowIterator(nav, mri);
+            if (parallelWorkers > 0)
+                iterator = new MultiRowIterator(nav, mri, parallelWorkers,
+                                                preserveOrder);
+            else
+                iterator = new MultiRowIterator(nav, mri);
+        }
+        else if (parallelWorkers > 0 && interpreter != null)
+        {
+            iterator = new ParallelRowDataIterator(nav, interpreter,
+                                                   parallelWorkers,
+                                                   preserveOrder);
         }
         else
         {
@@ -0,0 +1,552 @@
+package org.jax.mgi.shr.dbutils;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * An object which iterates in a forward direction through a given set
+ * of query results and returns java objects based on the data from each
+ * row, running the RowDataInterpreter on a pool of worker threads. A
+ * fetch thread reads the rows from the ResultsNavigator and copies each
+ * one into a SnapshotRowReference, so the database is read while earlier
+ * rows are being interpreted. The objects are returned either in the
+ * order of the query results or in the order they are completed.
+ * @has a ResultsNavigator for parsing through the query results, a
+ * RowDataInterpreter for creating objects, a fetch thread and a pool of
+ * worker threads
+ * @does fetches and copies rows on one thread, interprets them on the
+ * worker threads and returns the objects through the DataIterator
+ * interface. The number of rows waiting to be interpreted and the number
+ * of objects waiting to be returned are both bounded. If a thread fails
+ * then the error is thrown from the next call to next().
+ * The RowDataInterpreter must be safe to call from more than one thread
+ * at the same time.
+ * @company The Jackson Laboratory
+ * @author M Walker
+ */
+
+public class ParallelRowDataIterator implements DataIterator
+{
+    /*
+     * the default number of rows which can be waiting for each worker
+     */
+    private static final int DEFAULT_CAPACITY_PER_WORKER = 64;
+
+    /*
+     * stands in for a null object in the results map
+     */
+    private static final Object NULL_RESULT = new Object();
+
+    /**
+     * the ResultsNavigator used for iterating through the query results
+     */
+    private ResultsNavigator nav = null;
+
+    /**
+     * the source of the work items and the work done on each one
+     */
+    private Work work = null;
+
+    /**
+     * whether objects are returned in the order of the query results
+     */
+    private boolean ordered = true;
+
+    /**
+     * the number of rows which can wait to be interpreted and the number
+     * of objects which can wait to be returned
+     */
+    private int capacity = 0;
+
+    /*
+     * the state shared by the threads. Access is synchronized on this
+     * object.
+     */
+    // work items fetched and not yet taken by a worker, which are copies
+    // of rows unless another kind of Work is used
+    private LinkedList rows = new LinkedList();
+    // interpreted objects keyed by the position they are returned in
+    private HashMap results = new HashMap();
+    // the number of work items fetched
+    private long fetched = 0;
+    // the number of work items taken by the workers
+    private long taken = 0;
+    // the number of work items processed
+    private long completed = 0;
+    // the position of the next object to return
+    private long nextOut = 0;
+    private boolean fetchDone = false;
+    private boolean closed = false;
+    // the error which stopped a thread, if any
+    private DBException failure = null;
+
+    /*
+     * the fetch thread
+     */
+    private Thread fetcher = null;
+
+    /*
+     * the following constant definitions are exceptions thrown by this class
+     */
+    private static final String PastEndOfResultSet =
+        DBExceptionFactory.PastEndOfResultSet;
+    private static final String ParallelIteratorErr =
+        DBExceptionFactory.ParallelIteratorErr;
+
+    /**
+     * constructor which uses the default capacity
+     * @assumes the interpreter can be called from more than one thread
+     * @effects the fetch and worker threads will be started
+     * @param nav the query results through which to iterate
+     * @param interpreter the RowDataInterpreter used for creating java
+     * data objects based on the rows of query results
+     * @param workers the number of worker threads
+     * @param ordered true if the objects should be returned in the order
+     * of the query results, false if they may be returned in the order
+     * they are completed
+     */
+    public ParallelRowDataIterator(ResultsNavigator nav,
+                                   RowDataInterpreter interpreter,
+                                   int workers,
+                                   boolean ordered)
+    {
+        this(nav, interpreter, workers, ordered,
+             Math.max(workers, 1) * DEFAULT_CAPACITY_PER_WORKER);
+    }
+
+    /**
+     * constructor
+     * @assumes the interpreter can be called from more than one thread
+     * @effects the fetch and worker threads will be started
+     * @param nav the query results through which to iterate
+     * @param interpreter the RowDataInterpreter used for creating java
+     * data objects based on the rows of query results
+     * @param workers the number of worker threads
+     * @param ordered true if the objects should be returned in the order
+     * of the query results, false if they may be returned in the order
+     * they are completed
+     * @param capacity the number of rows which can wait to be interpreted
+     * and the number of objects which can wait to be returned
+     */
+    public ParallelRowDataIterator(ResultsNavigator nav,
+                                   RowDataInterpreter interpreter,
+                                   int workers,
+                                   boolean ordered,
+                                   int capacity)
+    {
+        this(nav, new RowWork(nav, interpreter), workers, ordered, capacity);
+    }
+
+    /**
+     * constructor for iterating over work items other than single rows
+     * @assumes the work can be processed from more than one thread
+     * @effects the fetch and worker threads will be started
+     * @param nav the query results which will be closed by close()
+     * @param work the source of the work items
+     * @param workers the number of worker threads
+     * @param ordered true if the objects should be returned in the order
+     * the work items were fetched
+     * @param capacity the number of work items which can wait to be
+     * processed and the number of objects which can wait to be returned
+     */
+    ParallelRowDataIterator(ResultsNavigator nav,
+                            Work work,
+                            int workers,
+                            boolean ordered,
+                            int capacity)
+    {
+        this.nav = nav;
+        this.work = work;
+        this.ordered = ordered;
+        if (workers < 1)
+            workers = 1;
+        if (capacity < 1)
+            capacity = 1;
+        this.capacity = capacity;
+        nav.setInterpreter(null);
+        this.fetcher = new Thread(new Fetcher(),
+                                  "ParallelRowDataIterator fetcher");
+        this.fetcher.setDaemon(true);
+        this.fetcher.start();
+        for (int i = 0; i < workers; i++)
+        {
+            Thread worker = new Thread(new Worker(),
+                                       "ParallelRowDataIterator worker " + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * return an indicator of whether or not there are any more results to
+     * process. This waits until the next object has been interpreted or
+     * the query results have been used up.
+     * @assumes nothing
+     * @effects nothing
+     * @return true if there are more results to process or if a thread has
+     * failed, false otherwise
+     */
+    public synchronized boolean hasNext()
+    {
+        Long key = Long.valueOf(nextOut);
+        while (failure == null && !results.containsKey(key))
+        {
+            if (closed || (fetchDone && nextOut == fetched))
+                return false;
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * returns the next java data object
+     * @assumes nothing
+     * @effects nothing
+     * @return the created java data object
+     * @throws DBException thrown if a thread has failed, if there are no
+     * more results or if the thread is interrupted while waiting
+     */
+    public synchronized Object next() throws DBException
+    {
+        if (!hasNext())
+        {
+            DBExceptionFactory factory = new DBExceptionFactory();
+            DBException e =
+                (DBException)factory.getException(PastEndOfResultSet);
+            throw e;
+        }
+        if (failure != null)
+            throw failure;
+        Object o = results.remove(Long.valueOf(nextOut));
+        if (o == null)
+        {
+            // hasNext() was interrupted before the object was ready
+            DBExceptionFactory eFactory = new DBExceptionFactory();
+            DBException e = (DBException)
+                eFactory.getException(ParallelIteratorErr,
+                                      new InterruptedException());
+            e.bind("calling");
+            throw e;
+        }
+        nextOut++;
+        notifyAll();
+        return o == NULL_RESULT ? null : o;
+    }
+
+    /**
+     * stop the threads and close the ResultsNavigator
+     * @assumes nothing
+     * @effects the threads will be stopped, waiting for the fetch thread
+     * to finish reading the current row, and the ResultsNavigator will be
+     * closed
+     * @throws DBException thrown if the ResultsNavigator cannot be closed
+     */
+    public void close() throws DBException
+    {
+        synchronized (this)
+        {
+            closed = true;
+            rows.clear();
+            results.clear();
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while (fetcher.isAlive())
+        {
+            try
+            {
+                fetcher.join();
+            }
+            catch (InterruptedException e)
+            {
+                // the fetch thread must finish before the results are closed
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        nav.close();
+    }
+
+    /**
+     * record the error which stopped a thread and release the waiting
+     * threads
+     * @param e the error
+     */
+    private synchronized void fail(DBException e)
+    {
+        if (failure == null)
+            failure = e;
+        rows.clear();
+        notifyAll();
+    }
+
+    /**
+     * wrap an unexpected exception from a thread
+     * @param thread the name of the kind of thread
+     * @param e the exception
+     * @return the DBException
+     */
+    private static DBException wrap(String thread, Exception e)
+    {
+        DBExceptionFactory eFactory = new DBExceptionFactory();
+        DBException e2 = (DBException)
+            eFactory.getException(ParallelIteratorErr, e);
+        e2.bind(thread);
+        return e2;
+    }
+
+    /**
+     * The work done by the threads of a ParallelRowDataIterator.
+     * @has nothing
+     * @does fetches work items on the fetch thread and processes them on
+     * the worker threads
+     * @company The Jackson Laboratory
+     * @author M Walker
+     */
+    interface Work
+    {
+        /**
+         * get the next work item. This is only called from the fetch
+         * thread.
+         * @return the work item, or null if there are no more
+         * @throws DBException thrown if the item cannot be fetched
+         */
+        Object fetch() throws DBException;
+
+        /**
+         * create the object for a work item. This is called from the
+         * worker threads.
+         * @param item the work item
+         * @return the object, which may be null
+         * @throws DBException thrown if the object cannot be created
+         */
+        Object process(Object item) throws DBException;
+    }
+
+    /**
+     * The Work for single rows. An InterpretException gives a null object
+     * as it does from ResultsNavigator.getCurrent().
+     * @has the ResultsNavigator and the RowDataInterpreter
+     * @does copies each row and interprets the copy
+     * @company The Jackson Laboratory
+     * @author M Walker
+     */
+    private static class RowWork implements Work
+    {
+        private ResultsNavigator nav = null;
+        private RowDataInterpreter interpreter = null;
+        private SnapshotRowReference.Layout layout = null;
+
+        RowWork(ResultsNavigator nav, RowDataInterpreter interpreter)
+        {
+            this.nav = nav;
+            this.interpreter = interpreter;
+        }
+
+        public Object fetch() throws DBException
+        {
+            if (!nav.next())
+                return null;
+            RowReference row = nav.getRowReference();
+            if (layout == null)
+                layout = new SnapshotRowReference.Layout(row);
+            return layout.snapshot(row);
+        }
+
+        public Object process(Object item) throws DBException
+        {
+            try
+            {
+                return interpreter.interpret((RowReference)item);
+            }
+            catch (InterpretException e)
+            {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * the body of the fetch thread
+     * @has nothing
+     * @does fetches each work item and adds it to the items waiting to be
+     * processed, waiting while too many items are waiting
+     * @company The Jackson Laboratory
+     * @author M Walker
+     */
+    private class Fetcher implements Runnable
+    {
+        public void run()
+        {
+            ParallelRowDataIterator outer = ParallelRowDataIterator.this;
+            try
+            {
+                Object item = null;
+                while ((item = work.fetch()) != null)
+                {
+                    synchronized (outer)
+                    {
+                        while (rows.size() >= capacity &&
+                               !closed && failure == null)
+                        {
+                            try
+                            {
+                                outer.wait();
+                            }
+                            catch (InterruptedException e)
+                            {
+                                // keep waiting until closed
+                            }
+                        }
+                        if (closed || failure != null)
+                            return;
+                        rows.addLast(item);
+                        fetched++;
+                        outer.notifyAll();
+                    }
+                }
+            }
+            catch (DBException e)
+            {
+                fail(e);
+            }
+            catch (RuntimeException e)
+            {
+                fail(wrap("fetch", e));
+            }
+            catch (Error e)
+            {
+                // release the threads waiting on this one
+                fail(wrap("fetch", new RuntimeException(e)));
+                throw e;
+            }
+            finally
+            {
+                synchronized (outer)
+                {
+                    fetchDone = true;
+                    outer.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * the body of a worker thread
+     * @has nothing
+     * @does takes work items in the order they were fetched, processes
+     * them and adds the objects to the results, waiting while too many
+     * objects are waiting to be returned
+     * @company The Jackson Laboratory
+     * @author M Walker
+     */
+    private class Worker implements Runnable
+    {
+        public void run()
+        {
+            ParallelRowDataIterator outer = ParallelRowDataIterator.this;
+            while (true)
+            {
+                Object item = null;
+                long sequence = 0;
+                synchronized (outer)
+                {
+                    while (rows.isEmpty() && !fetchDone &&
+                           !closed && failure == null)
+                    {
+                        try
+                        {
+                            outer.wait();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            // keep waiting until closed
+                        }
+                    }
+                    if (rows.isEmpty() || closed || failure != null)
+                        return;
+                    item = rows.removeFirst();
+                    sequence = taken++;
+                    outer.notifyAll();
+                }
+                Object o = null;
+                try
+                {
+                    o = work.process(item);
+                }
+                catch (DBException e)
+                {
+                    fail(e);
+                    return;
+                }
+                catch (RuntimeException e)
+                {
+                    fail(wrap("worker", e));
+                    return;
+                }
+                catch (Error e)
+                {
+                    // release the threads waiting on this one
+                    fail(wrap("worker", new RuntimeException(e)));
+                    throw e;
+                }
+                synchronized (outer)
+                {
+                    // the worker holding the next object to return never
+                    // waits, so the others are always released
+                    while ((ordered ? sequence : completed) >=
+                           nextOut + capacity && !closed && failure == null)
+                    {
+                        try
+                        {
+                            outer.wait();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            // keep waiting until closed
+                        }
+                    }
+                    if (closed || failure != null)
+                        return;
+                    long position = ordered ? sequence : completed;
+                    results.put(Long.valueOf(position),
+                                o == null ? NULL_RESULT : o);
+                    completed++;
+                    outer.notifyAll();
+                }
+            }
+        }
+    }
+}
+
+/**************************************************************************
+*
+* Warranty Disclaimer and Copyright Notice
+*
+*  THE JACKSON LABORATORY MAKES NO REPRESENTATION ABOUT THE SUITABILITY OR
+*  ACCURACY OF THIS SOFTWARE OR DATA FOR ANY PURPOSE, AND MAKES NO WARRANTIES,
+*  EITHER EXPRESS OR IMPLIED, INCLUDING MERCHANTABILITY AND FITNESS FOR A
+*  PARTICULAR PURPOSE OR THAT THE USE OF THIS SOFTWARE OR DATA WILL NOT
+*  INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, TRADEMARKS, OR OTHER RIGHTS.
+*  THE SOFTWARE AND DATA ARE PROVIDED "AS IS".
+*
+*  This software and data are provided to enhance knowledge and encourage
+*  progress in the scientific community and are to be used only for research
+*  and educational purposes.  Any reproduction or use for commercial purpose
+*  is prohibited without the prior express written permission of The Jackson
+*  Laboratory.
+*
+* Copyright \251 1996, 1999, 2002 by The Jackson Laboratory
+*
+* All Rights Reserved
+*
+**************************************************************************/
@@ -0,0 +1,342 @@
+package org.jax.mgi.shr.dbutils;
+
+import java.util.Random;
+
+import org.jax.mgi.shr.config.ConfigException;
+import org.jax.mgi.shr.config.ConfigExceptionFactory;
+import org.jax.mgi.shr.config.DatabaseCfg;
+
+/**
+ * An object which chooses a read replica for queries so that read heavy
+ * work, such as cache initialization and reports, does not compete with
+ * writes on the primary database. Replicas are given by their JDBC urls
+ * and share the database name, user and password of the primary. A
+ * connection to each replica is opened the first time it is chosen. A
+ * replica which cannot be reached, or whose replication lag is more than
+ * the configured limit, is left out until it is checked again after the
+ * check interval. When no replica is available queries go to the primary.
+ * @has the SQLDataManager for the primary, the replica urls and their
+ * SQLDataManagers, a load balancing policy, a lag limit and a check
+ * interval
+ * @does chooses a SQLDataManager for running a query
+ * @company The Jackson Laboratory
+ * @author M Walker
+ */
+
+public class ReplicaRouter
+{
+    /**
+     * choose the replicas in turn
+     */
+    public static final int ROUND_ROBIN = 0;
+
+    /**
+     * choose a replica at random
+     */
+    public static final int RANDOM = 1;
+
+    /**
+     * choose the first available replica in the order they are given
+     */
+    public static final int ORDERED = 2;
+
+    /*
+     * the query for the replication lag in seconds on a postgres standby,
+     * which is 0 when all received changes have been applied
+     */
+    private static final String LAG_QUERY =
+        "select case when pg_last_wal_receive_lsn() = " +
+        "pg_last_wal_replay_lsn() then 0 else extract(epoch from now() - " +
+        "pg_last_xact_replay_timestamp()) end";
+
+    private static final Random random = new Random();
+
+    private SQLDataManager primary = null;
+    private String[] urls = null;
+    private SQLDataManager[] replicas = null;
+    // the time of the last check of each replica and whether it passed
+    private long[] lastCheck = null;
+    private boolean[] available = null;
+    private int policy = ROUND_ROBIN;
+    private int next = 0;
+    // the lag limit in seconds, or 0 for no limit
+    private int maxLag = 30;
+    // the check interval in milliseconds
+    private long checkInterval = 10000;
+
+    /**
+     * constructor
+     * @assumes the replicas accept the user and password of the primary
+     * @effects nothing
+     * @param primary the SQLDataManager for the primary database
+     * @param urls the JDBC urls of the replicas
+     */
+    public ReplicaRouter(SQLDataManager primary, String[] urls)
+    {
+        this.primary = primary;
+        this.urls = new String[urls.length];
+        for (int i = 0; i < urls.length; i++)
+            this.urls[i] = urls[i].trim();
+        this.replicas = new SQLDataManager[urls.length];
+        this.lastCheck = new long[urls.length];
+        this.available = new boolean[urls.length];
+    }
+
+    /**
+     * constructor which reads the replica urls and settings from the
+     * configuration. See DatabaseCfg for the parameter names and default
+     * values.
+     * @assumes DB_REPLICA_URLS is set in the configuration
+     * @effects nothing
+     * @param primary the SQLDataManager for the primary database
+     * @param cfg the database configuration
+     * @throws ConfigException thrown if there is an error reading the
+     * configuration or the policy name is not recognized
+     */
+    public ReplicaRouter(SQLDataManager primary, DatabaseCfg cfg)
+        throws ConfigException
+    {
+        this(primary, cfg.getReplicaUrls());
+        setPolicy(parsePolicy(cfg.getReplicaPolicy()));
+        setMaxLag(cfg.getReplicaMaxLag().intValue());
+        setCheckInterval(cfg.getReplicaCheckInterval().intValue());
+    }
+
+    /**
+     * set the load balancing policy
+     * @assumes nothing
+     * @effects nothing
+     * @param policy one of ROUND_ROBIN, RANDOM or ORDERED
+     */
+    public void setPolicy(int policy)
+    {
+        this.policy = policy;
+    }
+
+    /**
+     * get the load balancing policy
+     * @assumes nothing
+     * @effects nothing
+     * @return one of ROUND_ROBIN, RANDOM or ORDERED
+     */
+    public int getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * set the largest replication lag allowed for a replica to be used
+     * @assumes nothing
+     * @effects nothing
+     * @param seconds the lag limit in seconds, or 0 to not check the lag
+     */
+    public void setMaxLag(int seconds)
+    {
+        this.maxLag = Math.max(seconds, 0);
+    }
+
+    /**
+     * get the largest replication lag allowed for a replica to be used
+     * @assumes nothing
+     * @effects nothing
+     * @return the lag limit in seconds, or 0 if the lag is not checked
+     */
+    public int getMaxLag()
+    {
+        return maxLag;
+    }
+
+    /**
+     * set how often each replica is checked for its lag or, if it could
+     * not be reached, tried again
+     * @assumes nothing
+     * @effects nothing
+     * @param seconds the check interval in seconds
+     */
+    public void setCheckInterval(int seconds)
+    {
+        this.checkInterval = Math.max(seconds, 0) * 1000L;
+    }
+
+    /**
+     * get the replica urls
+     * @assumes nothing
+     * @effects nothing
+     * @return the JDBC urls of the replicas
+     */
+    public String[] getUrls()
+    {
+        return (String[])urls.clone();
+    }
+
+    /**
+     * choose the SQLDataManager for a query
+     * @assumes nothing
+     * @effects a connection to a replica may be opened and its lag may be
+     * queried
+     * @return the SQLDataManager for an available replica or null if none
+     * is available and the primary should be used
+     */
+    public synchronized SQLDataManager getReader()
+    {
+        int count = urls.length;
+        if (count == 0)
+            return null;
+        int start = 0;
+        if (policy == ROUND_ROBIN)
+        {
+            start = next;
+            next = (next + 1) % count;
+        }
+        else if (policy == RANDOM)
+            start = random.nextInt(count);
+        for (int i = 0; i < count; i++)
+        {
+            int index = (start + i) % count;
+            if (check(index))
+                return replicas[index];
+        }
+        return null;
+    }
+
+    /**
+     * close the connections to the replicas
+     * @assumes nothing
+     * @effects the replica connections will be closed
+     * @throws DBException thrown if a connection could not be closed
+     */
+    public synchronized void close() throws DBException
+    {
+        DBException error = null;
+        for (int i = 0; i < replicas.length; i++)
+        {
+            if (replicas[i] == null)
+                continue;
+            try
+            {
+                replicas[i].closeResources();
+            }
+            catch (DBException e)
+            {
+                error = e;
+            }
+            replicas[i] = null;
+            lastCheck[i] = 0;
+            available[i] = false;
+        }
+        if (error != null)
+            throw error;
+    }
+
+    /**
+     * convert a policy name from the configuration
+     * @assumes nothing
+     * @effects nothing
+     * @param name round_robin, random or ordered, in any case
+     * @return the policy
+     * @throws ConfigException thrown if the name is not recognized
+     */
+    public static int parsePolicy(String name) throws ConfigException
+    {
+        if (name.equalsIgnoreCase("round_robin"))
+            return ROUND_ROBIN;
+        if (name.equalsIgnoreCase("random"))
+            return RANDOM;
+        if (name.equalsIgnoreCase("ordered"))
+            return ORDERED;
+        ConfigExceptionFactory eFactory = new ConfigExceptionFactory();
+        ConfigException e = (ConfigException)
+            eFactory.getException(ConfigExceptionFactory.ParameterTypeError);
+        e.bind("DB_REPLICA_POLICY");
+        e.bind("replica policy");
+        e.bind(name);
+        throw e;
+    }
+
+    /**
+     * decide whether a replica can be used, connecting to it and checking
+     * its lag when the check interval has passed since it was last checked
+     * @assumes nothing
+     * @effects a connection may be opened or closed
+     * @param index the index of the replica
+     * @return true if the replica is available
+     */
+    private boolean check(int index)
+    {
+        long now = System.currentTimeMillis();
+        if (lastCheck[index] != 0 && now - lastCheck[index] < checkInterval)
+            return available[index];
+        lastCheck[index] = now;
+        available[index] = false;
+        try
+        {
+            if (replicas[index] == null)
+                replicas[index] = primary.newReplicaConnection(urls[index]);
+            else
+                replicas[index].reconnect();
+            double lag = getLag(replicas[index]);
+            if (maxLag > 0 && lag > maxLag)
+            {
+                log("replica " + urls[index] + " is " + lag +
+                    " seconds behind and will not be used");
+                return false;
+            }
+            available[index] = true;
+        }
+        catch (Exception e)
+        {
+            log("replica " + urls[index] + " will not be used: " +
+                e.getMessage());
+            if (replicas[index] != null)
+            {
+                try
+                {
+                    replicas[index].closeResources();
+                }
+                catch (DBException e2)
+                {
+                    // the connection is being discarded
+                }
+            }
+        }
+        return available[index];
+    }
+
+    /**
+     * query the replication lag of a replica
+     * @assumes nothing
+     * @effects a query is run on the replica
+     * @param replica the SQLDataManager for the replica
+     * @return the lag in seconds
+     * @throws DBException thrown if the lag could not be queried
+     */
+    private double getLag(SQLDataManager replica) throws DBException
+    {
+        if (maxLag == 0)
+            return 0;
+        ResultsNavigator nav = replica.executeQuery(LAG_QUERY);
+        try
+        {
+            if (!nav.next())
+                return 0;
+            Double lag = nav.getRowReference().getDouble(1);
+            return lag == null ? 0 : lag.doubleValue();
+        }
+        finally
+        {
+            nav.close();
+        }
+    }
+
+    /**
+     * write a message to the logger of the primary
+     * @assumes nothing
+     * @effects the message is logged
+     * @param msg the message
+     */
+    private void log(String msg)
+    {
+        if (primary.getLogger() != null)
+            primary.getLogger().logInfo(msg);
+    }
+}
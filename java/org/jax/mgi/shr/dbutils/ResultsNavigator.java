@@ -10,7 +10,15 @@ import java.sql.Statement;
 
 /**
  * An object used to navigate through the results of a database query in both
- * a forward and backward direction.
+ * a forward and backward direction. Navigation is normally done by the
+ * JDBC ResultSet, which must then be scrollable for any movement other than
+ * next(). Alternatively the rows can be materialized: the ResultSet is only
+ * read forward, as far as navigation requires, and the rows read are kept
+ * in a SpillingRowStore which holds a bounded number of rows in memory and
+ * writes older rows to a temporary file. The rows may also be read in
+ * batches from a server side cursor so that the driver never holds more
+ * than one batch. The RowReference of materialized results holds a copy of
+ * the current row and follows the navigator as it moves.
  * @has A JDBC ResultSet and a RowDataInterpreter
  * @does Iterates through the result set and returns a java data
  * object for each row. If no RowDataInterpreter has been defined then a
@@ -31,6 +39,26 @@ public class ResultsNavigator {
   private RowReference rowref = null;
   // the Statement class used to generate this ResultSet
   private Statement statement = null;
+  // the statistics to which the number of rows read is added on close
+  private SQLMetrics metrics = null;
+  private SQLMetrics.Shape shape = null;
+  private long rowCount = 0;
+  // the rows read so far when the results are materialized
+  private SpillingRowStore store = null;
+  // the RowReference for the current row of the ResultSet, which rowref
+  // no longer refers to once rows are materialized
+  private RowReference source = null;
+  // the copy of the current materialized row, which rowref refers to
+  private SnapshotRowReference current = null;
+  // the name of the server side cursor the rows are fetched from, if any,
+  // and the number of rows read from the last batch fetched
+  private String cursor = null;
+  private int fetched = 0;
+  // the position within the materialized rows where 0 is before the first
+  // row and a position after the last row read is after the last row
+  private int position = 0;
+  // whether all the rows have been read into the store
+  private boolean exhausted = false;
 
   // the following constant definitions are exceptions thrown by this class
   private static final String JDBCException =
@@ -71,8 +99,19 @@ public class ResultsNavigator {
    * @throws DBException thrown if there is a JDBC Exception
    */
   public void close() throws DBException {
+    if (metrics != null) {
+      metrics.addRows(shape, rowCount);
+      metrics = null;
+    }
+    if (store != null) {
+      store.close();
+      if (exhausted)
+        return;
+    }
     try {
       rs.close();
+      if (cursor != null)
+        statement.execute("CLOSE " + cursor);
       if (statement != null)
           statement.close();
     }
@@ -94,6 +133,127 @@ public class ResultsNavigator {
     interpreter = in;
   }
 
+  /**
+   * set the statistics to which the number of rows read is added when
+   * this instance is closed
+   * @assumes nothing
+   * @effects the rows read will be counted
+   * @param metrics the SQLMetrics
+   * @param shape the statistics for the query
+   */
+  void setMetrics(SQLMetrics metrics, SQLMetrics.Shape shape) {
+    this.metrics = metrics;
+    this.shape = shape;
+  }
+
+  /**
+   * materialize the results so that they can be navigated in any direction
+   * without a scrollable ResultSet. Rows are read from the ResultSet only
+   * as navigation requires them and once all rows have been read the
+   * ResultSet and Statement are closed.
+   * @assumes no rows have been read yet
+   * @effects rows will be copied as they are read
+   * @param memoryRows the number of rows to hold in memory before older
+   * rows are written to a temporary file
+   * @throws DBException thrown if the metadata cannot be read
+   */
+  void materialize(int memoryRows) throws DBException {
+    source = rowref;
+    SnapshotRowReference.Layout layout =
+        new SnapshotRowReference.Layout(source);
+    store = new SpillingRowStore(layout, memoryRows);
+    current = layout.restore(new Object[layout.getColumnCount()], null);
+    rowref = current;
+  }
+
+  /**
+   * materialize the results which are read in batches from a server side
+   * cursor. The ResultSet must be the first batch fetched from the cursor
+   * and the Statement is used to fetch the later batches and to close the
+   * cursor once all rows have been read or this instance is closed.
+   * @assumes the cursor is open and the ResultSet holds its first batch of
+   * SpillingRowStore.BLOCK_ROWS rows
+   * @effects rows will be copied as they are read
+   * @param memoryRows the number of rows to hold in memory before older
+   * rows are written to a temporary file
+   * @param cursorName the name of the cursor
+   * @throws DBException thrown if the metadata cannot be read
+   */
+  void materialize(int memoryRows, String cursorName) throws DBException {
+    materialize(memoryRows);
+    cursor = cursorName;
+  }
+
+  /**
+   * read rows from the ResultSet into the store until it holds the given
+   * number of rows or there are no more rows
+   * @param rows the number of rows required, or -1 for all rows
+   * @return true if the store holds at least the given number of rows
+   * @throws DBException thrown if there is a JDBC exception
+   */
+  private boolean fetchTo(int rows) throws DBException {
+    while (!exhausted && (rows < 0 || store.size() < rows)) {
+      try {
+        if (rs.next()) {
+          rowCount++;
+          fetched++;
+          store.add(source);
+          continue;
+        }
+        if (cursor != null && fetched == SpillingRowStore.BLOCK_ROWS) {
+          // the batch was full so there may be more rows to fetch
+          rs.close();
+          rs = statement.executeQuery("FETCH FORWARD " +
+              SpillingRowStore.BLOCK_ROWS + " FROM " + cursor);
+          source = new RowReference(rs);
+          fetched = 0;
+          continue;
+        }
+      }
+      catch (SQLException e) {
+        throw dbException("move to the next row of a result set", e);
+      }
+      exhausted = true;
+      if (meta == null)
+        setMetaData();
+      try {
+        rs.close();
+        if (cursor != null)
+          statement.execute("CLOSE " + cursor);
+        if (statement != null)
+          statement.close();
+      }
+      catch (SQLException e) {
+        DBExceptionFactory eFactory = new DBExceptionFactory();
+        DBException e2 = (DBException)
+            eFactory.getException(CloseErr, e);
+        throw e2;
+      }
+    }
+    return rows >= 0 && store.size() >= rows;
+  }
+
+  /**
+   * move to a position within the materialized rows
+   * @param row the position where 0 is before the first row
+   * @return true if the position is on a row
+   * @throws DBException thrown if there is a JDBC exception or the rows
+   * cannot be read back
+   */
+  private boolean moveTo(int row) throws DBException {
+    if (row <= 0) {
+      position = 0;
+      return false;
+    }
+    if (!fetchTo(row)) {
+      position = store.size() + 1;
+      return false;
+    }
+    position = row;
+    store.read(row - 1, current);
+    return true;
+  }
+
   /**
    * moves the navigator cursor to the next sequential position and
    * returns a boolean value to designate whether there are more rows left
@@ -104,8 +264,14 @@ public class ResultsNavigator {
    * @throws DBException thrown if there is a JDBC Exception
    */
   public boolean next() throws DBException {
+    if (store != null)
+      return moveTo(position + 1);
     try {
-      return rs.next();
+      if (rs.next()) {
+        rowCount++;
+        return true;
+      }
+      return false;
     }
     catch (SQLException e) {
       throw dbException("move to the next row of a result set", e);
@@ -165,6 +331,8 @@ public class ResultsNavigator {
    * @throws DBException thrown if a JDBC error occurs
    */
   public boolean first() throws DBException {
+    if (store != null)
+      return moveTo(1);
     try {
       return rs.first();
     }
@@ -183,6 +351,10 @@ public class ResultsNavigator {
    * @throws DBException thrown if a JDBC error occurs
    */
   public boolean last() throws DBException {
+    if (store != null) {
+      fetchTo(-1);
+      return moveTo(store.size());
+    }
     try {
       return rs.last();
     }
@@ -200,6 +372,11 @@ public class ResultsNavigator {
    * @throws DBException thrown if a JDBC error occurs
    */
   public void afterLast() throws DBException {
+    if (store != null) {
+      fetchTo(-1);
+      position = store.size() + 1;
+      return;
+    }
     try {
       rs.afterLast();
     }
@@ -217,6 +394,10 @@ public class ResultsNavigator {
    * @throws DBException thrown if a JDBC error occurs
    */
   public void beforeFirst() throws DBException {
+    if (store != null) {
+      position = 0;
+      return;
+    }
     try {
       rs.beforeFirst();
     }
@@ -234,6 +415,13 @@ public class ResultsNavigator {
    * @throws DBException thrown if a JDBC error occurs
    */
   public boolean absolute(int row) throws DBException {
+    if (store != null) {
+      if (row >= 0)
+        return moveTo(row);
+      // negative positions count back from the end
+      fetchTo(-1);
+      return moveTo(store.size() + 1 + row);
+    }
     try {
       return rs.absolute(row);
     }
@@ -253,6 +441,8 @@ public class ResultsNavigator {
    * @throws DBException thrown if a JDBC error occurs
    */
   public boolean relative(int row) throws DBException {
+    if (store != null)
+      return moveTo(position + row);
     try {
       return rs.relative(row);
     }
@@ -270,6 +460,8 @@ public class ResultsNavigator {
    * @throws DBException thrown if a JDBC error occurs
    */
   public boolean previous() throws DBException {
+    if (store != null)
+      return moveTo(position - 1);
     try {
       return rs.previous();
     }
@@ -287,6 +479,8 @@ public class ResultsNavigator {
    * @throws DBException thrown if a JDBC error occurs
    */
   public boolean isFirst() throws DBException {
+    if (store != null)
+      return position == 1;
     try {
       return rs.isFirst();
     }
@@ -305,6 +499,9 @@ public class ResultsNavigator {
    * @throws DBException thrown if a JDBC error occurs
    */
   public boolean isLast() throws DBException {
+    if (store != null)
+      return position >= 1 && !fetchTo(position + 1) &&
+          position == store.size();
     try {
       return rs.isLast();
     }
@@ -323,6 +520,8 @@ public class ResultsNavigator {
    * @throws DBException thrown if a JDBC error occurs
    */
   public boolean isAfterLast() throws DBException {
+    if (store != null)
+      return store.size() > 0 && position > store.size();
     try {
       return rs.isAfterLast();
     }
@@ -341,6 +540,8 @@ public class ResultsNavigator {
    * @throws DBException thrown if a JDBC error occurs
    */
   public boolean isBeforeFirst() throws DBException {
+    if (store != null)
+      return position == 0 && fetchTo(1);
     try {
       return rs.isBeforeFirst();
     }
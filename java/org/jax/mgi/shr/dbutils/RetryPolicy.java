@@ -0,0 +1,223 @@
+package org.jax.mgi.shr.dbutils;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Random;
+
+import org.jax.mgi.shr.config.ConfigException;
+import org.jax.mgi.shr.config.DatabaseCfg;
+
+/**
+ * An object which decides whether a failed sql statement should be run
+ * again and how long to wait first. Failures are classified by their
+ * SQLState as fatal, as transient failures which can be retried on the same
+ * connection, such as serialization failures and deadlocks, or as failures
+ * of the connection which require a new connection before retrying. The
+ * wait before each retry grows exponentially up to a maximum and is chosen
+ * at random below that limit so that many clients failing at once do not
+ * retry at the same time. Queries are retried when the number of attempts
+ * allows it, while other statements are only retried when that has been
+ * turned on, since a statement whose connection was lost may have been
+ * committed before the failure was reported.
+ * @has the number of attempts, the initial and maximum delays and whether
+ * writes are retried
+ * @does classifies SQLExceptions and calculates the delays between
+ * attempts
+ * @company The Jackson Laboratory
+ * @author M Walker
+ */
+
+public class RetryPolicy
+{
+    /**
+     * the failure cannot be helped by retrying
+     */
+    public static final int FATAL = 0;
+
+    /**
+     * the statement can be retried on the same connection
+     */
+    public static final int RETRY = 1;
+
+    /**
+     * the statement can be retried on a new connection
+     */
+    public static final int RECONNECT = 2;
+
+    private static final Random random = new Random();
+
+    // the total number of attempts including the first
+    private int maxAttempts = 1;
+    // the delay limit in milliseconds before the first retry
+    private long initialDelay = 100;
+    // the largest delay limit in milliseconds
+    private long maxDelay = 10000;
+    // whether statements other than queries are retried
+    private boolean retryWrites = false;
+
+    /**
+     * constructor for a policy which does not retry
+     * @assumes nothing
+     * @effects nothing
+     */
+    public RetryPolicy()
+    {
+    }
+
+    /**
+     * constructor which reads the policy from the configuration. See
+     * DatabaseCfg for the parameter names and default values.
+     * @assumes nothing
+     * @effects nothing
+     * @param cfg the database configuration
+     * @throws ConfigException thrown if there is an error reading the
+     * configuration
+     */
+    public RetryPolicy(DatabaseCfg cfg) throws ConfigException
+    {
+        setMaxAttempts(cfg.getRetryAttempts().intValue());
+        setDelays(cfg.getRetryDelay().intValue(),
+                  cfg.getRetryMaxDelay().intValue());
+        setRetryWrites(cfg.getRetryWrites().booleanValue());
+    }
+
+    /**
+     * set the total number of attempts for a statement
+     * @assumes nothing
+     * @effects nothing
+     * @param attempts the number of attempts including the first, where 1
+     * turns retrying off
+     */
+    public void setMaxAttempts(int attempts)
+    {
+        this.maxAttempts = Math.max(attempts, 1);
+    }
+
+    /**
+     * get the total number of attempts for a statement
+     * @assumes nothing
+     * @effects nothing
+     * @return the number of attempts including the first
+     */
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+
+    /**
+     * set the delay limits. The limit doubles for each retry after the
+     * first until it reaches the maximum.
+     * @assumes nothing
+     * @effects nothing
+     * @param initial the delay limit in milliseconds for the first retry
+     * @param maximum the largest delay limit in milliseconds
+     */
+    public void setDelays(long initial, long maximum)
+    {
+        this.initialDelay = Math.max(initial, 1);
+        this.maxDelay = Math.max(maximum, this.initialDelay);
+    }
+
+    /**
+     * set whether statements other than queries are retried
+     * @assumes the statements are safe to run more than once
+     * @effects nothing
+     * @param bool true if they are retried
+     */
+    public void setRetryWrites(boolean bool)
+    {
+        this.retryWrites = bool;
+    }
+
+    /**
+     * get whether statements other than queries are retried
+     * @assumes nothing
+     * @effects nothing
+     * @return true if they are retried
+     */
+    public boolean getRetryWrites()
+    {
+        return retryWrites;
+    }
+
+    /**
+     * classify a failure by the SQLState of the exception or of the first
+     * chained exception which has one
+     * @assumes nothing
+     * @effects nothing
+     * @param e the exception
+     * @return FATAL, RETRY or RECONNECT
+     */
+    public int classify(SQLException e)
+    {
+        for (SQLException next = e; next != null;
+             next = next.getNextException())
+        {
+            String state = next.getSQLState();
+            if (state != null && state.length() == 5)
+                return classify(state);
+            if (next.getCause() instanceof IOException)
+                return RECONNECT;
+        }
+        return FATAL;
+    }
+
+    /**
+     * decide whether a failed statement should be run again
+     * @assumes nothing
+     * @effects nothing
+     * @param kind the classification of the failure
+     * @param attempt the number of attempts made so far
+     * @param isWrite true if the statement is not a query
+     * @return true if the statement should be retried
+     */
+    public boolean shouldRetry(int kind, int attempt, boolean isWrite)
+    {
+        if (kind == FATAL || attempt >= maxAttempts)
+            return false;
+        return !isWrite || retryWrites;
+    }
+
+    /**
+     * get the time to wait before a retry, which is chosen at random up to
+     * a limit that doubles with each attempt
+     * @assumes nothing
+     * @effects nothing
+     * @param attempt the number of attempts made so far
+     * @return the delay in milliseconds
+     */
+    public long getDelay(int attempt)
+    {
+        long limit = initialDelay;
+        for (int i = 1; i < attempt && limit < maxDelay; i++)
+            limit = limit * 2;
+        limit = Math.min(limit, maxDelay);
+        return 1 + (long)(random.nextDouble() * limit);
+    }
+
+    /**
+     * classify a five character SQLState
+     * @param state the SQLState
+     * @return FATAL, RETRY or RECONNECT
+     */
+    private static int classify(String state)
+    {
+        // connection exceptions
+        if (state.startsWith("08"))
+            return RECONNECT;
+        // serialization failure and deadlock
+        if (state.equals("40001") || state.equals("40P01"))
+            return RETRY;
+        // lock not available
+        if (state.equals("55P03"))
+            return RETRY;
+        // too many connections
+        if (state.equals("53300"))
+            return RECONNECT;
+        // server shutdown, crash or startup
+        if (state.equals("57P01") || state.equals("57P02") ||
+            state.equals("57P03"))
+            return RECONNECT;
+        return FATAL;
+    }
+}
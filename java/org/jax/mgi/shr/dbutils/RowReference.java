@@ -7,6 +7,7 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Calendar;
 import java.io.PrintStream;
@@ -21,7 +22,11 @@ import org.jax.mgi.shr.log.Logger;
  * @does provides controlled access to the current row of data of a
  * ResultSet. Only direct access to the following data types are provided:
  * Integer, Double, String, Timestamp and Boolean. All other types can be
- * accessed indirectly through the getObject methods.
+ * accessed indirectly through the getObject methods. Primitive accessors
+ * such as getIntValue() read values without creating objects, and column
+ * names are resolved to column indexes once from the ResultSet metadata
+ * and cached, so the methods which take a column name do not search for
+ * the column on every row.
  * @company Jackson Laboratory
  * @author M. Walker
  */
@@ -31,6 +36,8 @@ public class RowReference
 {
   private ResultSet rs = null;
   private ResultSetMetaData meta = null;
+  // the column indexes keyed by column name, built on first use
+  private HashMap columnIndexes = null;
 
   // the following constant definitions are exceptions thrown by this class
   private static final String JDBCException =
@@ -54,7 +61,7 @@ public class RowReference
       if (rs.wasNull())
         return null;
       else
-        return new Boolean(b);
+        return Boolean.valueOf(b);
     }
     catch (SQLException e) {
       throw getJDBCException(
@@ -68,11 +75,11 @@ public class RowReference
    */
   public Boolean getBoolean(String columnName) throws DBException {
     try {
-      boolean b = rs.getBoolean(columnName);
+      boolean b = rs.getBoolean(findIndex(columnName));
       if (rs.wasNull())
         return null;
       else
-        return new Boolean(b);
+        return Boolean.valueOf(b);
     }
     catch (SQLException e) {
       throw getJDBCException(
@@ -90,7 +97,7 @@ public class RowReference
       if (rs.wasNull())
         return null;
       else
-        return new Double(f);
+        return Double.valueOf(f);
     }
     catch (SQLException e) {
       throw getJDBCException(
@@ -104,11 +111,11 @@ public class RowReference
    */
   public Double getDouble(String columnName) throws DBException {
     try {
-      double f = rs.getDouble(columnName);
+      double f = rs.getDouble(findIndex(columnName));
       if (rs.wasNull())
         return null;
       else
-        return new Double(f);
+        return Double.valueOf(f);
     }
     catch (SQLException e) {
       throw getJDBCException(
@@ -126,7 +133,7 @@ public class RowReference
       if (rs.wasNull())
         return null;
       else
-        return new Integer(i);
+        return Integer.valueOf(i);
     }
     catch (SQLException e) {
       throw getJDBCException(
@@ -140,11 +147,11 @@ public class RowReference
    */
   public Integer getInt(String columnName) throws DBException {
     try {
-      int i = rs.getInt(columnName);
+      int i = rs.getInt(findIndex(columnName));
       if (rs.wasNull())
         return null;
       else
-        return new Integer(i);
+        return Integer.valueOf(i);
     }
     catch (SQLException e) {
       throw getJDBCException(
@@ -186,7 +193,7 @@ public class RowReference
    */
   public Object getObject(String columnName) throws DBException {
     try {
-      return rs.getObject(columnName);
+      return rs.getObject(findIndex(columnName));
     }
     catch (SQLException e) {
       throw getJDBCException(
@@ -200,7 +207,7 @@ public class RowReference
    */
   public Object getObject(String columnName, Map map) throws DBException {
     try {
-      return rs.getObject(columnName, map);
+      return rs.getObject(findIndex(columnName), map);
     }
     catch (SQLException e) {
       throw getJDBCException(
@@ -228,7 +235,7 @@ public class RowReference
    */
   public String getString(String columnName) throws DBException {
     try {
-      return rs.getString(columnName);
+      return rs.getString(findIndex(columnName));
     }
     catch (SQLException e) {
       throw getJDBCException(
@@ -271,7 +278,7 @@ public class RowReference
    */
   public Timestamp getTimestamp(String columnName) throws DBException {
     try {
-      return rs.getTimestamp(columnName);
+      return rs.getTimestamp(findIndex(columnName));
     }
     catch (SQLException e) {
       throw getJDBCException(
@@ -286,7 +293,7 @@ public class RowReference
   public Timestamp getTimestamp(String columnName, Calendar cal)
       throws DBException {
     try {
-      return rs.getTimestamp(columnName, cal);
+      return rs.getTimestamp(findIndex(columnName), cal);
     }
     catch (SQLException e) {
       throw getJDBCException(
@@ -294,6 +301,214 @@ public class RowReference
     }
   }
 
+  /**
+   * get the value of a column as an int without creating an object. A
+   * null value is returned as zero; call wasNull() to tell it apart.
+   * @param columnIndex the column index
+   * @return the value
+   * @throws DBException thrown if there is an error with the database
+   */
+  public int getIntValue(int columnIndex) throws DBException {
+    try {
+      return rs.getInt(columnIndex);
+    }
+    catch (SQLException e) {
+      throw getJDBCException(
+          "get int value from column index " + columnIndex, e);
+    }
+  }
+
+  /**
+   * get the value of a column as an int without creating an object. A
+   * null value is returned as zero; call wasNull() to tell it apart.
+   * @param columnName the column name
+   * @return the value
+   * @throws DBException thrown if there is an error with the database
+   */
+  public int getIntValue(String columnName) throws DBException {
+    try {
+      return rs.getInt(findIndex(columnName));
+    }
+    catch (SQLException e) {
+      throw getJDBCException(
+          "get int value from column name " + columnName, e);
+    }
+  }
+
+  /**
+   * get the value of a column as a long without creating an object. A
+   * null value is returned as zero; call wasNull() to tell it apart.
+   * @param columnIndex the column index
+   * @return the value
+   * @throws DBException thrown if there is an error with the database
+   */
+  public long getLongValue(int columnIndex) throws DBException {
+    try {
+      return rs.getLong(columnIndex);
+    }
+    catch (SQLException e) {
+      throw getJDBCException(
+          "get long value from column index " + columnIndex, e);
+    }
+  }
+
+  /**
+   * get the value of a column as a long without creating an object. A
+   * null value is returned as zero; call wasNull() to tell it apart.
+   * @param columnName the column name
+   * @return the value
+   * @throws DBException thrown if there is an error with the database
+   */
+  public long getLongValue(String columnName) throws DBException {
+    try {
+      return rs.getLong(findIndex(columnName));
+    }
+    catch (SQLException e) {
+      throw getJDBCException(
+          "get long value from column name " + columnName, e);
+    }
+  }
+
+  /**
+   * get the value of a column as a double without creating an object. A
+   * null value is returned as zero; call wasNull() to tell it apart.
+   * @param columnIndex the column index
+   * @return the value
+   * @throws DBException thrown if there is an error with the database
+   */
+  public double getDoubleValue(int columnIndex) throws DBException {
+    try {
+      return rs.getDouble(columnIndex);
+    }
+    catch (SQLException e) {
+      throw getJDBCException(
+          "get double value from column index " + columnIndex, e);
+    }
+  }
+
+  /**
+   * get the value of a column as a double without creating an object. A
+   * null value is returned as zero; call wasNull() to tell it apart.
+   * @param columnName the column name
+   * @return the value
+   * @throws DBException thrown if there is an error with the database
+   */
+  public double getDoubleValue(String columnName) throws DBException {
+    try {
+      return rs.getDouble(findIndex(columnName));
+    }
+    catch (SQLException e) {
+      throw getJDBCException(
+          "get double value from column name " + columnName, e);
+    }
+  }
+
+  /**
+   * get the value of a column as a boolean without creating an object. A
+   * null value is returned as false; call wasNull() to tell it apart.
+   * @param columnIndex the column index
+   * @return the value
+   * @throws DBException thrown if there is an error with the database
+   */
+  public boolean getBooleanValue(int columnIndex) throws DBException {
+    try {
+      return rs.getBoolean(columnIndex);
+    }
+    catch (SQLException e) {
+      throw getJDBCException(
+          "get boolean value from column index " + columnIndex, e);
+    }
+  }
+
+  /**
+   * get the value of a column as a boolean without creating an object. A
+   * null value is returned as false; call wasNull() to tell it apart.
+   * @param columnName the column name
+   * @return the value
+   * @throws DBException thrown if there is an error with the database
+   */
+  public boolean getBooleanValue(String columnName) throws DBException {
+    try {
+      return rs.getBoolean(findIndex(columnName));
+    }
+    catch (SQLException e) {
+      throw getJDBCException(
+          "get boolean value from column name " + columnName, e);
+    }
+  }
+
+  /**
+   * return whether the last value read from this row was null
+   * @assumes a value has been read from the current row
+   * @effects nothing
+   * @return true if the last value read was null, false otherwise
+   * @throws DBException thrown if there is an error with the database
+   */
+  public boolean wasNull() throws DBException {
+    try {
+      return rs.wasNull();
+    }
+    catch (SQLException e) {
+      throw getJDBCException("check for null value", e);
+    }
+  }
+
+  /**
+   * return whether the value of a column is null. This reads the value as
+   * an object, so when the value is also needed it is cheaper to read it
+   * with a primitive accessor and then call wasNull().
+   * @param columnIndex the column index
+   * @return true if the value is null, false otherwise
+   * @throws DBException thrown if there is an error with the database
+   */
+  public boolean isNull(int columnIndex) throws DBException {
+    try {
+      return rs.getObject(columnIndex) == null;
+    }
+    catch (SQLException e) {
+      throw getJDBCException(
+          "get object value from column index " + columnIndex, e);
+    }
+  }
+
+  /**
+   * return whether the value of a column is null. This reads the value as
+   * an object, so when the value is also needed it is cheaper to read it
+   * with a primitive accessor and then call wasNull().
+   * @param columnName the column name
+   * @return true if the value is null, false otherwise
+   * @throws DBException thrown if there is an error with the database
+   */
+  public boolean isNull(String columnName) throws DBException {
+    try {
+      return rs.getObject(findIndex(columnName)) == null;
+    }
+    catch (SQLException e) {
+      throw getJDBCException(
+          "get object value from column name " + columnName, e);
+    }
+  }
+
+  /**
+   * get the index of the column with the given name. The names are read
+   * from the metadata the first time this is called and matched without
+   * regard to case.
+   * @assumes nothing
+   * @effects the column index cache may be built
+   * @param columnName the column name
+   * @return the column index
+   * @throws DBException thrown if there is no such column or if there is
+   * an error with the database
+   */
+  public int findColumn(String columnName) throws DBException {
+    try {
+      return findIndex(columnName);
+    }
+    catch (SQLException e) {
+      throw getJDBCException("find column " + columnName, e);
+    }
+  }
+
   /**
    * get the row metadata
    * @assumes nothing
@@ -381,6 +596,35 @@ public class RowReference
     }
   }
 
+  /**
+   * resolve a column name to its index through the cache, adding the
+   * name as given to the cache when it differs only in case from the
+   * name in the metadata
+   * @param columnName the column name
+   * @return the column index
+   * @throws SQLException thrown if there is no such column or if there is
+   * an error reading the metadata
+   */
+  private int findIndex(String columnName) throws SQLException {
+    if (columnIndexes == null) {
+      ResultSetMetaData md = rs.getMetaData();
+      int count = md.getColumnCount();
+      HashMap map = new HashMap();
+      // the first of any duplicate names is used, as with findColumn
+      for (int i = count; i > 0; i--)
+        map.put(md.getColumnLabel(i).toLowerCase(), Integer.valueOf(i));
+      columnIndexes = map;
+    }
+    Integer index = (Integer)columnIndexes.get(columnName);
+    if (index == null) {
+      index = (Integer)columnIndexes.get(columnName.toLowerCase());
+      if (index == null)
+        return rs.findColumn(columnName);
+      columnIndexes.put(columnName, index);
+    }
+    return index.intValue();
+  }
+
   /**
    * get a DBException with message defined by ExceptionFactory.JDBCException
    * @assumes nothing
@@ -390,7 +634,8 @@ public class RowReference
    * @param pException the JDBC exception that was thrown
    * @return DBException the exception with a completed message
    */
-  private DBException getJDBCException(String pBind, Exception pException) {
+  protected DBException getJDBCException(String pBind,
+                                         Exception pException) {
     DBExceptionFactory eFactory = new DBExceptionFactory();
     DBException e = (DBException)
         eFactory.getException(JDBCException, pException);
@@ -0,0 +1,200 @@
+package org.jax.mgi.shr.dbutils;
+
+import java.sql.Timestamp;
+import java.util.Vector;
+
+import org.jax.mgi.shr.dbutils.types.TypeValidator;
+
+/**
+ * An object which validates rows for a table against the column
+ * definitions of that table. It is built once from the table metadata and
+ * compiles each column into a check which handles the common combinations
+ * of java type and column type, such as a String for a varchar column or an
+ * Integer for an int column, without creating any objects. All other
+ * combinations, and any value which fails a check, are passed to the
+ * TypeValidator for the column which is also created once, so the
+ * validation results and exceptions are the same as validating each field
+ * with its TypeValidator.
+ * @has the compiled checks and a TypeValidator for each column
+ * @does validates a Vector of objects corresponding to a row of the table
+ * @company The Jackson Laboratory
+ * @author M Walker
+ */
+
+class RowValidator
+{
+    /*
+     * the kinds of compiled checks
+     */
+    private static final int OTHER = 0;
+    private static final int SIZED_STRING = 1;
+    private static final int TEXT = 2;
+    private static final int INTEGER = 3;
+    private static final int DOUBLE = 4;
+    private static final int DATETIME = 5;
+    private static final int BIT = 6;
+
+    private String tableName = null;
+    private int[] kinds = null;
+    private int[] sizes = null;
+    private boolean[] nullable = null;
+    private TypeValidator[] validators = null;
+
+    /*
+     * the execption factory for storing and retrieving DBExceptions
+     */
+    private DBExceptionFactory dbExceptionFactory =
+        new DBExceptionFactory();
+
+    private static final String ValidationErr =
+        DBExceptionFactory.ValidationErr;
+
+    /**
+     * constructor
+     * @assumes nothing
+     * @effects nothing
+     * @param tableName the name of the table used in error messages
+     * @param columns the ColumnDef objects for the table in column order
+     */
+    protected RowValidator(String tableName, Vector columns)
+    {
+        this.tableName = tableName;
+        int count = columns.size();
+        kinds = new int[count];
+        sizes = new int[count];
+        nullable = new boolean[count];
+        validators = new TypeValidator[count];
+        for (int i = 0; i < count; i++)
+        {
+            ColumnDef c = (ColumnDef)columns.get(i);
+            kinds[i] = getKind(c.getType());
+            sizes[i] = c.getSize();
+            nullable[i] = c.isNullable();
+            validators[i] = c.getTypeValidator();
+        }
+    }
+
+    /**
+     * validate a row
+     * @assumes the Vector has no more elements than the table has columns
+     * @effects nothing
+     * @param v the Vector of objects to validate
+     * @throws DBException thrown if a field is invalid
+     */
+    protected void validate(Vector v) throws DBException
+    {
+        int size = v.size();
+        for (int i = 0; i < size; i++)
+        {
+            Object o = v.get(i);
+            if (!isValid(o, i))
+            {
+                try
+                {
+                    validators[i].validate(o);
+                }
+                catch (DataException e)
+                {
+                    DBException e2 = (DBException)
+                        dbExceptionFactory.getException(ValidationErr, e);
+                    e2.bind(tableName);
+                    throw e2;
+                }
+            }
+        }
+    }
+
+    /**
+     * check a value with the compiled check for its column
+     * @param o the value
+     * @param col the column index
+     * @return true if the value is known to be valid, or false if it must
+     * be passed to the TypeValidator
+     */
+    private boolean isValid(Object o, int col)
+    {
+        if (o == null)
+            return nullable[col];
+        switch (kinds[col])
+        {
+            case SIZED_STRING:
+                if (o instanceof String)
+                {
+                    int length = ((String)o).length();
+                    return (length > 0 || nullable[col]) &&
+                        length <= sizes[col];
+                }
+                return false;
+            case TEXT:
+                if (o instanceof String)
+                    return ((String)o).length() > 0 || nullable[col];
+                return false;
+            case INTEGER:
+                if (o instanceof Integer)
+                    return true;
+                if (o instanceof String)
+                    return isSmallInteger((String)o);
+                return false;
+            case DOUBLE:
+                return o instanceof Integer || o instanceof Double;
+            case DATETIME:
+                return o instanceof Timestamp;
+            case BIT:
+                return o instanceof Boolean;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * determine whether a string is an optional sign followed by between
+     * one and nine digits, which is always a valid int
+     * @param s the string
+     * @return true if the string is a valid int of that form
+     */
+    private static boolean isSmallInteger(String s)
+    {
+        int length = s.length();
+        int start = 0;
+        if (length > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+'))
+            start = 1;
+        if (length == start || length - start > 9)
+            return false;
+        for (int i = start; i < length; i++)
+        {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * get the kind of compiled check for a column type
+     * @param type the column type from java.sql.Types
+     * @return the kind of check
+     */
+    private static int getKind(int type)
+    {
+        switch (type)
+        {
+            case DBTypeConstants.DB_CHAR:
+            case DBTypeConstants.DB_VARCHAR:
+                return SIZED_STRING;
+            case DBTypeConstants.DB_TEXT:
+                return TEXT;
+            case DBTypeConstants.DB_INTEGER:
+                return INTEGER;
+            case DBTypeConstants.DB_DOUBLE:
+            case DBTypeConstants.DB_NUMERIC:
+                return DOUBLE;
+            case DBTypeConstants.DB_DATETIME:
+                return DATETIME;
+            case DBTypeConstants.DB_BIT:
+            case 5:
+                return BIT;
+            default:
+                return OTHER;
+        }
+    }
+}
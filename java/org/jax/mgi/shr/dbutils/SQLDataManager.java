@@ -11,12 +11,17 @@ import java.sql.CallableStatement;
 import java.sql.Statement;
 import java.sql.PreparedStatement;
 import java.sql.DatabaseMetaData;
+import java.sql.Savepoint;
 import java.io.FileReader;
+import java.io.Reader;
+import java.io.InputStream;
 import java.io.BufferedReader;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.lang.reflect.Method;
+import java.lang.reflect.InvocationTargetException;
 
 import org.jax.mgi.shr.config.DatabaseCfg;
 import org.jax.mgi.shr.config.DatabaseConfigurator;
@@ -98,6 +103,16 @@ public class SQLDataManager {
    * ResultSet.TYPE_FORWARD_ONLY and ResultSet.TYPE_SCROLL_INSENSITIVE
    */
   private int scrollable = ResultSet.TYPE_FORWARD_ONLY;
+  /**
+   * the number of rows held in memory when query results are materialized
+   * for navigation, or 0 if they are not materialized
+   */
+  private int materializeRows = 0;
+  /**
+   * the number of server side cursors declared for materialized results,
+   * used to give each a unique name
+   */
+  private int cursorCount = 0;
   /**
    * the name of the ConnectionManager class used for instantiating a
    * ConnectionManager
@@ -120,6 +135,22 @@ public class SQLDataManager {
    */
   private Stopwatch timer = new Stopwatch();
 
+  /**
+   * the statistics for the statements run by this instance
+   */
+  private SQLMetrics metrics = new SQLMetrics(null);
+
+  /**
+   * the policy for retrying statements after transient failures
+   */
+  private RetryPolicy retryPolicy = new RetryPolicy();
+
+  /**
+   * the router which chooses a read replica for executeReadQuery(), or null
+   * if all statements go to this connection
+   */
+  private ReplicaRouter replicaRouter = null;
+
   private String SYBASE_CM = "org.jax.mgi.shr.dbutils.MGIDriverManager";
   private String ORACLE_CM = "org.jax.mgi.shr.dbutils.OrclConnection";
   private String MYSQL_CM = "org.jax.mgi.shr.dbutils.MySqlConnection";
@@ -129,6 +160,21 @@ public class SQLDataManager {
    */
   private int maxcount = 400;
 
+  /**
+   * the time of the last check that the connection is still usable and
+   * the number of seconds to wait for the check
+   */
+  private long lastLivenessCheck = 0;
+  private static final int LIVENESS_TIMEOUT = 5;
+
+  /**
+   * the postgres driver classes used for the COPY api
+   */
+  private static final String PG_CONNECTION_CLASS =
+      "org.postgresql.PGConnection";
+  private static final String PG_COPY_MANAGER_CLASS =
+      "org.postgresql.copy.CopyManager";
+
   // the following constant definitions are exceptions thrown by this class
   private static final String JDBCException =
       DBExceptionFactory.JDBCException;
@@ -150,6 +196,8 @@ public class SQLDataManager {
         DBExceptionFactory.JDBCWarning;
   private static final String UnhandledDataType =
         DBExceptionFactory.UnhandledDataType;
+  private static final String ConnectionLostErr =
+        DBExceptionFactory.ConnectionLostErr;
 
   /**
    * constructer which uses a DatabaseCfg object for obtaining
@@ -269,6 +317,7 @@ public class SQLDataManager {
     user = pUser;
     password = pPassword;
     logger = new ConsoleLogger();
+    metrics.setLogger(logger);
     connectionManager = pConnectionManager;
     connect();
   }
@@ -348,6 +397,7 @@ public class SQLDataManager {
    */
   public void setLogger(Logger pLogger) {
     logger = pLogger;
+    metrics.setLogger(pLogger);
   }
 
   /**
@@ -517,6 +567,91 @@ public class SQLDataManager {
     return logger;
   }
 
+  /**
+   * get the statistics for the statements run by this instance, which
+   * can be used to set the slow query threshold and to log a summary
+   * @assumes nothing
+   * @effects nothing
+   * @return the SQLMetrics
+   */
+  public SQLMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * set the policy for retrying statements after transient failures
+   * @assumes nothing
+   * @effects later statements will be retried as the policy allows
+   * @param policy the RetryPolicy
+   */
+  public void setRetryPolicy(RetryPolicy policy) {
+    retryPolicy = policy;
+  }
+
+  /**
+   * get the policy for retrying statements after transient failures
+   * @assumes nothing
+   * @effects nothing
+   * @return the RetryPolicy
+   */
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * set whether future query results from executeQuery() are materialized
+   * so that they can be navigated in any direction without a scrollable
+   * cursor. The query is run with a forward only cursor and the rows are
+   * copied as they are read, holding up to the given number of rows in
+   * memory and writing older rows to a temporary file. This overrides
+   * setScrollable() for executeQuery(). The Postgres driver only reads
+   * the rows in batches rather than all at once when auto commit is off, so
+   * when auto commit is on a Postgres query is run through a server side
+   * cursor declared WITH HOLD and its rows are fetched in batches.
+   * @assumes nothing
+   * @effects nothing
+   * @param memoryRows the number of rows to hold in memory, or 0 to turn
+   * materializing off
+   */
+  public void setMaterializeRows(int memoryRows) {
+    materializeRows = Math.max(memoryRows, 0);
+  }
+
+  /**
+   * get the number of rows held in memory when query results are
+   * materialized
+   * @assumes nothing
+   * @effects nothing
+   * @return the number of rows, or 0 if results are not materialized
+   */
+  public int getMaterializeRows() {
+    return materializeRows;
+  }
+
+  /**
+   * set the router which chooses a read replica for queries run with
+   * executeReadQuery() while auto commit is on. All other statements,
+   * including queries run with executeQuery(), and queries within a
+   * transaction are run on this connection.
+   * @assumes nothing
+   * @effects later queries may be run on a replica
+   * @param router the ReplicaRouter, or null to run all queries on this
+   * connection
+   */
+  public void setReplicaRouter(ReplicaRouter router) {
+    replicaRouter = router;
+  }
+
+  /**
+   * get the router which chooses a read replica for queries
+   * @assumes nothing
+   * @effects nothing
+   * @return the ReplicaRouter or null if there is none
+   */
+  public ReplicaRouter getReplicaRouter() {
+    return replicaRouter;
+  }
+
   /**
    * gets the boolean value for whether future query results will be
    * created with scrollable cursers. By default this is false, but can
@@ -659,6 +794,60 @@ public class SQLDataManager {
 
 
 
+  /**
+   * set a savepoint within the current transaction
+   * @assumes auto commit is off
+   * @effects a savepoint will be set
+   * @return the Savepoint
+   * @throws DBException thrown if the connection is closed or if there is
+   * a JDBC exception thrown from the database
+   */
+  public Savepoint setSavepoint() throws DBException {
+    this.checkConnection("set savepoint");
+    try {
+      return conn.setSavepoint();
+    }
+    catch (SQLException e) {
+      throw this.getJDBCException("set savepoint", e);
+    }
+  }
+
+  /**
+   * rollback the current transaction to the given savepoint
+   * @assumes the savepoint was set within the current transaction
+   * @effects changes made after the savepoint will be undone
+   * @param savepoint the Savepoint
+   * @throws DBException thrown if the connection is closed or if there is
+   * a JDBC exception thrown from the database
+   */
+  public void rollback(Savepoint savepoint) throws DBException {
+    this.checkConnection("rollback to savepoint");
+    try {
+      conn.rollback(savepoint);
+    }
+    catch (SQLException e) {
+      throw this.getJDBCException("rollback to savepoint", e);
+    }
+  }
+
+  /**
+   * release the given savepoint
+   * @assumes the savepoint was set within the current transaction
+   * @effects the savepoint will be released
+   * @param savepoint the Savepoint
+   * @throws DBException thrown if the connection is closed or if there is
+   * a JDBC exception thrown from the database
+   */
+  public void releaseSavepoint(Savepoint savepoint) throws DBException {
+    this.checkConnection("release savepoint");
+    try {
+      conn.releaseSavepoint(savepoint);
+    }
+    catch (SQLException e) {
+      throw this.getJDBCException("release savepoint", e);
+    }
+  }
+
   /**
    * close the database connection and JDBC resources. All results
    * previously obtained would become invalid.
@@ -668,6 +857,8 @@ public class SQLDataManager {
    * closed
    */
   public void closeResources() throws DBException {
+    if (replicaRouter != null)
+      replicaRouter.close();
     if (conn != null) {
       try {
         conn.close();
@@ -697,6 +888,60 @@ public class SQLDataManager {
     }
   }
 
+  /**
+   * reconnect to the database if the connection has been closed or, at
+   * most once within the given interval, if the database reports that the
+   * connection is no longer usable. This allows callers which obtain the
+   * same resources many times, such as Table.getInstance(), to detect lost
+   * connections without checking with the database on every call. A lost
+   * connection is only replaced when auto commit is on, since otherwise the
+   * work of the open transaction would be silently discarded.
+   * @assumes nothing
+   * @effects a new connection to the database may be established and the
+   * replacement is logged
+   * @param interval the number of milliseconds to allow between checks
+   * with the database
+   * @throws DBException thrown if there is a database access error or if
+   * the connection was lost while auto commit is off
+   */
+  public synchronized void checkLiveness(long interval)
+      throws DBException {
+    if (conn == null) {
+      connect();
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (now - lastLivenessCheck < interval)
+      return;
+    lastLivenessCheck = now;
+    boolean alive = false;
+    try {
+      alive = conn.isValid(LIVENESS_TIMEOUT);
+    }
+    catch (SQLException e) {
+      // treat the connection as lost
+    }
+    if (!alive) {
+      if (!autoCommit) {
+        DBExceptionFactory eFactory = new DBExceptionFactory();
+        DBException e = (DBException)eFactory.getException(ConnectionLostErr);
+        e.bind(database);
+        e.bind(server);
+        throw e;
+      }
+      logger.logInfo("Replacing the lost connection to database " +
+                     database + " on server " + server);
+      try {
+        conn.close();
+      }
+      catch (SQLException e) {
+        // the connection is being replaced
+      }
+      conn = null;
+      connect();
+    }
+  }
+
   public SQLDataManager tempDB() throws ConfigException, DBException {
     return new SQLDataManager(this.getServer(), "tempdb", this.getUser(),
                               this.getPasswordFile(), this.getUrl());
@@ -711,6 +956,66 @@ public class SQLDataManager {
    * @throws org.jax.mgi.shr.dbutils.DBException
    */
   public ResultsNavigator executeQuery(String sql) throws DBException {
+    return runQuery(sql, false);
+  }
+
+  /**
+   * execute a read only query which may be run on a read replica when a
+   * ReplicaRouter has been set and auto commit is on. A replica may be
+   * behind this connection by up to the lag limit of the router, so this
+   * is only for queries which do not need to see recent changes, such as
+   * loading a full cache. Queries which generate keys or must see changes
+   * made on this connection should use executeQuery().
+   * @assumes the query does not modify data
+   * @effects a query will be executed against the database or a replica
+   * @param sql the query statement
+   * @return a ResultsNavigator for the query results
+   * @throws DBException thrown if there is an error executing the query
+   */
+  public ResultsNavigator executeReadQuery(String sql) throws DBException {
+    SQLDataManager reader = getReader();
+    if (reader != null)
+      return reader.executeQuery(sql);
+    return runQuery(sql, false);
+  }
+
+  /**
+   * execute a statement which modifies data and returns rows, such as an
+   * insert with a returning clause. Unlike executeQuery() the statement is
+   * only retried after a failure if the RetryPolicy allows writes to be
+   * retried.
+   * @assumes nothing
+   * @effects data will be modified within the database
+   * @param sql the statement
+   * @return a ResultsNavigator for the returned rows
+   * @throws DBException thrown if there is an error executing the statement
+   */
+  public ResultsNavigator executeUpdateQuery(String sql) throws DBException {
+    return runQuery(sql, true);
+  }
+
+  /**
+   * determine whether the connection is to a postgres database
+   * @assumes the connection is open
+   * @effects nothing
+   * @return true if the database is postgres
+   * @throws SQLException thrown if the metadata cannot be read
+   */
+  private boolean isPostgres() throws SQLException {
+    return "PostgreSQL".equals(conn.getMetaData().getDatabaseProductName());
+  }
+
+  /**
+   * execute a statement which returns rows on this connection
+   * @assumes nothing
+   * @effects the statement will be executed against the database
+   * @param sql the statement
+   * @param isWrite true if the statement modifies data
+   * @return a ResultsNavigator for the results
+   * @throws DBException thrown if there is an error executing the statement
+   */
+  private ResultsNavigator runQuery(String sql, boolean isWrite)
+      throws DBException {
     ResultSet rs = null;
     if (this.isDebug())
     {
@@ -718,20 +1023,55 @@ public class SQLDataManager {
         timer.start();
     }
     this.checkConnection("execute query");
+    long start = System.nanoTime();
     Statement statement = null;
-    try {
-      statement = conn.createStatement(scrollable,
-                                       ResultSet.CONCUR_READ_ONLY);
-      rs = statement.executeQuery(sql);
-    }
-    catch (SQLException e) {
-        if (!isOnlyWarning(e))
-        {
-            String msg = "execute query on the following sql string\n" + sql;
-            throw this.getJDBCException(msg, e);
+    String cursor = null;
+    for (int attempt = 1; ; attempt++) {
+      try {
+        if (materializeRows > 0) {
+          statement = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                                           ResultSet.CONCUR_READ_ONLY);
+          statement.setFetchSize(SpillingRowStore.BLOCK_ROWS);
+          if (autoCommit && isPostgres()) {
+            String name = "results_" + (++cursorCount);
+            statement.execute("DECLARE " + name +
+                              " NO SCROLL CURSOR WITH HOLD FOR " + sql);
+            cursor = name;
+            rs = statement.executeQuery("FETCH FORWARD " +
+                SpillingRowStore.BLOCK_ROWS + " FROM " + cursor);
+            break;
+          }
+        }
+        else
+          statement = conn.createStatement(scrollable,
+                                           ResultSet.CONCUR_READ_ONLY);
+        rs = statement.executeQuery(sql);
+        break;
+      }
+      catch (SQLException e) {
+        if (isOnlyWarning(e))
+          break;
+        // a cursor declared WITH HOLD outlives its statement
+        closeCursor(statement, cursor);
+        cursor = null;
+        closeStatement(statement);
+        int used = retryAfter(e, attempt, isWrite);
+        if (used > 0) {
+          attempt = used;
+          continue;
         }
+        metrics.record(sql, System.nanoTime() - start, 0, true);
+        String msg = "execute query on the following sql string\n" + sql;
+        throw this.getJDBCException(msg, e);
+      }
     }
     ResultsNavigator iterator = new ResultsNavigator(rs, statement);
+    if (cursor != null)
+      iterator.materialize(materializeRows, cursor);
+    else if (materializeRows > 0)
+      iterator.materialize(materializeRows);
+    iterator.setMetrics(metrics,
+        metrics.record(sql, System.nanoTime() - start, 0, false));
     if (this.isDebug())
     {
         timer.stop();
@@ -749,19 +1089,31 @@ public class SQLDataManager {
         timer.start();
     }
     this.checkConnection("execute query");
+    long start = System.nanoTime();
+    int results = 0;
     Statement statement = null;
-    try {
-      statement = conn.createStatement(scrollable,
-                                       ResultSet.CONCUR_READ_ONLY);
-      statement.executeUpdate(sql);
-    }
-    catch (SQLException e) {
-        if (!isOnlyWarning(e))
-        {
-            String msg = "execute query on the following sql string\n" + sql;
-            throw this.getJDBCException(msg, e);
+    for (int attempt = 1; ; attempt++) {
+      try {
+        statement = conn.createStatement(scrollable,
+                                         ResultSet.CONCUR_READ_ONLY);
+        results = statement.executeUpdate(sql);
+        break;
+      }
+      catch (SQLException e) {
+        if (isOnlyWarning(e))
+          break;
+        closeStatement(statement);
+        int used = retryAfter(e, attempt, true);
+        if (used > 0) {
+          attempt = used;
+          continue;
         }
+        metrics.record(sql, System.nanoTime() - start, 0, true);
+        String msg = "execute query on the following sql string\n" + sql;
+        throw this.getJDBCException(msg, e);
+      }
     }
+    metrics.record(sql, System.nanoTime() - start, results, false);
   }
 
   /**
@@ -811,22 +1163,148 @@ public class SQLDataManager {
         timer.start();
     }
     this.checkConnection("execute update");
+    long start = System.nanoTime();
+    Statement statement = null;
+    for (int attempt = 1; ; attempt++) {
+      try {
+        statement = conn.createStatement();
+        results = statement.executeUpdate(sql);
+        break;
+      }
+      catch (SQLException e) {
+        if (isOnlyWarning(e))
+          break;
+        closeStatement(statement);
+        int used = retryAfter(e, attempt, true);
+        if (used > 0) {
+          attempt = used;
+          continue;
+        }
+        metrics.record(sql, System.nanoTime() - start, 0, true);
+        String msg = "execute update on the following sql string\n" +
+            sql;
+        throw this.getJDBCException(msg, e);
+      }
+    }
+    if (this.isDebug())
+    {
+        timer.stop();
+        logger.logDebug(sql + " : " + timer.time() + " seconds");
+    }
+    metrics.record(sql, System.nanoTime() - start, results, false);
+    return results;
+  }
+
+  /**
+   * execute a postgres COPY ... FROM STDIN statement on the connection
+   * held by this instance, streaming the data from the given reader.
+   * The postgres CopyManager api is obtained through reflection so that
+   * the postgres driver is only required at runtime when this method is
+   * called.
+   * @assumes the connection is to a postgres database
+   * @effects data will be loaded into the database
+   * @param sql the COPY ... FROM STDIN statement
+   * @param reader the source of the data to copy
+   * @return the number of rows copied as reported by the server
+   * @throws DBException thrown if the postgres driver is not available or
+   * if there is an error executing the copy
+   */
+  public long executeCopyIn(String sql, Reader reader) throws DBException {
+    return executeCopyIn(sql, Reader.class, reader);
+  }
+
+  /**
+   * execute a postgres COPY ... FROM STDIN statement on the connection
+   * held by this instance, streaming the data from the given input stream.
+   * This is used for the binary COPY format.
+   * @assumes the connection is to a postgres database
+   * @effects data will be loaded into the database
+   * @param sql the COPY ... FROM STDIN statement
+   * @param in the source of the data to copy
+   * @return the number of rows copied as reported by the server
+   * @throws DBException thrown if the postgres driver is not available or
+   * if there is an error executing the copy
+   */
+  public long executeCopyIn(String sql, InputStream in) throws DBException {
+    return executeCopyIn(sql, InputStream.class, in);
+  }
+
+  /**
+   * execute a postgres COPY ... FROM STDIN statement through the
+   * CopyManager copyIn method which accepts the given source type
+   * @assumes the connection is to a postgres database
+   * @effects data will be loaded into the database
+   * @param sql the COPY ... FROM STDIN statement
+   * @param sourceType either Reader or InputStream
+   * @param source the source of the data to copy
+   * @return the number of rows copied as reported by the server
+   * @throws DBException thrown if the postgres driver is not available or
+   * if there is an error executing the copy
+   */
+  private long executeCopyIn(String sql, Class sourceType, Object source)
+      throws DBException {
+    long results = 0;
+    if (this.isDebug())
+    {
+        timer.reset();
+        timer.start();
+    }
+    this.checkConnection("execute copy");
+    String msg = "execute copy on the following sql string\n" + sql;
+    long start = System.nanoTime();
+    boolean failed = true;
     try {
-      Statement statement = conn.createStatement();
-      results = statement.executeUpdate(sql);
+      Class pgConnectionClass = Class.forName(PG_CONNECTION_CLASS);
+      Class copyManagerClass = Class.forName(PG_COPY_MANAGER_CLASS);
+      Object pgConn = conn.unwrap(pgConnectionClass);
+      Object copyManager = pgConnectionClass.getMethod(
+          "getCopyAPI", new Class[0]).invoke(pgConn, new Object[0]);
+      Method copyIn = copyManagerClass.getMethod(
+          "copyIn", new Class[] {String.class, sourceType});
+      Object count = copyIn.invoke(copyManager, new Object[] {sql, source});
+      results = ((Long)count).longValue();
+      failed = false;
+    }
+    catch (ClassNotFoundException e) {
+      DBExceptionFactory eFactory = new DBExceptionFactory();
+      DBException e2 = (DBException)
+          eFactory.getException(ClassFornameErr, e);
+      e2.bind(PG_COPY_MANAGER_CLASS);
+      throw e2;
+    }
+    catch (NoSuchMethodException e) {
+      DBExceptionFactory eFactory = new DBExceptionFactory();
+      DBException e2 = (DBException)
+          eFactory.getException(ClassFornameErr, e);
+      e2.bind(PG_COPY_MANAGER_CLASS);
+      throw e2;
+    }
+    catch (IllegalAccessException e) {
+      DBExceptionFactory eFactory = new DBExceptionFactory();
+      DBException e2 = (DBException)
+          eFactory.getException(ClassFornameErr, e);
+      e2.bind(PG_COPY_MANAGER_CLASS);
+      throw e2;
+    }
+    catch (InvocationTargetException e) {
+      // the nested exception is the SQLException or IOException thrown
+      // from within the driver
+      Throwable t = e.getTargetException();
+      if (t instanceof Exception)
+        throw this.getJDBCException(msg, (Exception)t);
+      throw this.getJDBCException(msg, e);
     }
     catch (SQLException e) {
-        if (!isOnlyWarning(e))
-        {
-            String msg = "execute update on the following sql string\n" +
-                sql;
-            throw this.getJDBCException(msg, e);
-        }
+      throw this.getJDBCException(msg, e);
+    }
+    finally {
+      metrics.record(sql, System.nanoTime() - start, results, failed);
     }
     if (this.isDebug())
     {
         timer.stop();
-        logger.logDebug(sql + " : " + timer.time() + " seconds");
+        logger.logDebug(sql + " : " + results + " rows in " +
+                        timer.time() + " seconds");
     }
     return results;
   }
@@ -847,18 +1325,28 @@ public class SQLDataManager {
           timer.start();
       }
     this.checkConnection("execute sql");
+    long start = System.nanoTime();
     Statement statement = null;
     boolean isResultSet = false;
-    try {
-      statement = conn.createStatement();
-      // execute which may return multiple results
-      isResultSet = statement.execute(sql);
-    }
-    catch (SQLException e) {
-      if (!isOnlyWarning(e))
-      {
-          String msg = "execute the following sql string\n" + sql;
-          throw this.getJDBCException(msg, e);
+    for (int attempt = 1; ; attempt++) {
+      try {
+        statement = conn.createStatement();
+        // execute which may return multiple results
+        isResultSet = statement.execute(sql);
+        break;
+      }
+      catch (SQLException e) {
+        if (isOnlyWarning(e))
+          break;
+        closeStatement(statement);
+        int used = retryAfter(e, attempt, true);
+        if (used > 0) {
+          attempt = used;
+          continue;
+        }
+        metrics.record(sql, System.nanoTime() - start, 0, true);
+        String msg = "execute the following sql string\n" + sql;
+        throw this.getJDBCException(msg, e);
       }
     }
     if (this.isDebug())
@@ -866,6 +1354,7 @@ public class SQLDataManager {
         timer.stop();
         logger.logDebug(sql + " : "  + timer.time() + " seconds");
     }
+    metrics.record(sql, System.nanoTime() - start, 0, false);
     return new MultipleResults(statement, isResultSet, sql);
   }
 
@@ -881,24 +1370,36 @@ public class SQLDataManager {
    */
   public int executeSimpleProc(String pSPCallString) throws DBException {
     int returnValue = 0;
-    try {
-      this.checkConnection("execute a stored procedure");
-      String sql = "{? = call " + pSPCallString + "}";
-      CallableStatement cs = conn.prepareCall(sql);
-      cs.registerOutParameter(1, java.sql.Types.INTEGER);
-      cs.execute();
-      returnValue = cs.getInt(1);
-    }
-    catch (SQLException e) {
-        if (!isOnlyWarning(e))
-        {
-            DBExceptionFactory eFactory = new DBExceptionFactory();
-            DBException e2 = (DBException)
-                eFactory.getException(StoredProcedureErr, e);
-            e2.bind(pSPCallString);
-            throw e2;
+    String sql = "{? = call " + pSPCallString + "}";
+    long start = System.nanoTime();
+    this.checkConnection("execute a stored procedure");
+    CallableStatement cs = null;
+    for (int attempt = 1; ; attempt++) {
+      try {
+        cs = conn.prepareCall(sql);
+        cs.registerOutParameter(1, java.sql.Types.INTEGER);
+        cs.execute();
+        returnValue = cs.getInt(1);
+        break;
+      }
+      catch (SQLException e) {
+        if (isOnlyWarning(e))
+          break;
+        closeStatement(cs);
+        int used = retryAfter(e, attempt, true);
+        if (used > 0) {
+          attempt = used;
+          continue;
         }
+        metrics.record(sql, System.nanoTime() - start, 0, true);
+        DBExceptionFactory eFactory = new DBExceptionFactory();
+        DBException e2 = (DBException)
+            eFactory.getException(StoredProcedureErr, e);
+        e2.bind(pSPCallString);
+        throw e2;
+      }
     }
+    metrics.record(sql, System.nanoTime() - start, 0, false);
     return returnValue;
   }
 
@@ -1154,6 +1655,7 @@ public class SQLDataManager {
 
     System.out.println("server = " + server);
     logger = new ConsoleLogger();
+    metrics.setLogger(logger);
   }
 
   /**
@@ -1176,9 +1678,18 @@ public class SQLDataManager {
     loggerFactory = logCfg.getLoggerFactory();
     if (loggerFactory != null) {
       logger = loggerFactory.getLogger();
+      metrics.setLogger(logger);
     }
+    retryPolicy = new RetryPolicy(pConfig);
+    metrics.setSlowQueryThreshold(
+        pConfig.getSlowQueryThreshold().intValue());
+    metrics.setDumpInterval(
+        pConfig.getMetricsInterval().intValue() * 1000L);
     this.isDebug = pConfig.getDebug().booleanValue();
     this.maxcount = pConfig.getMaxInClause().intValue();
+    this.materializeRows = pConfig.getMaterializeRows().intValue();
+    if (pConfig.getReplicaUrls() != null)
+      this.replicaRouter = new ReplicaRouter(this, pConfig);
   }
 
 
@@ -1223,7 +1734,9 @@ public class SQLDataManager {
         Class c = Class.forName(connectionManagerClass);
         connectionManager = (ConnectionManager) c.newInstance();
       }
+      long start = System.nanoTime();
       conn = connectionManager.getConnection(database, user, password, url);
+      metrics.recordConnect(System.nanoTime() - start);
     }
     catch (SQLException e) {
       DBExceptionFactory eFactory = new DBExceptionFactory();
@@ -1269,6 +1782,63 @@ public class SQLDataManager {
 
   }
 
+  /**
+   * get a new instance of this class connected to a read replica of this
+   * database. The new instance uses the same database name, user, password,
+   * logger and statistics as this one and its connection is set to read
+   * only.
+   * @assumes the replica accepts the user and password of this instance
+   * @effects a new connection will be made to the replica
+   * @param replicaUrl the JDBC url of the replica
+   * @return the SQLDataManager for the replica
+   * @throws DBException thrown if there is an error connecting
+   * @throws ConfigException thrown if there is an error accessing the
+   * configuration
+   */
+  SQLDataManager newReplicaConnection(String replicaUrl)
+  throws DBException, ConfigException
+  {
+      if (password == null)
+          connect();
+      SQLDataManager replica =
+          new SQLDataManager(connectionManager, server, database, user,
+                             password, replicaUrl);
+      replica.logger = this.logger;
+      replica.metrics = this.metrics;
+      replica.retryPolicy = this.retryPolicy;
+      replica.dbSchemaDir = this.dbSchemaDir;
+      replica.isDebug = this.isDebug;
+      replica.maxcount = this.maxcount;
+      try {
+          replica.conn.setReadOnly(true);
+      }
+      catch (SQLException e) {
+          // the driver may not support read only connections
+      }
+      return replica;
+  }
+
+  /**
+   * get the instance to run a query on, which is a read replica when a
+   * ReplicaRouter has been set, auto commit is on and a replica is
+   * available. The query settings of this instance are copied to the
+   * replica.
+   * @assumes nothing
+   * @effects a connection to a replica may be opened
+   * @return the SQLDataManager for the replica or null if the query should
+   * run on this connection
+   */
+  private SQLDataManager getReader() {
+    if (replicaRouter == null || !autoCommit)
+      return null;
+    SQLDataManager reader = replicaRouter.getReader();
+    if (reader != null) {
+      reader.scrollable = this.scrollable;
+      reader.materializeRows = this.materializeRows;
+    }
+    return reader;
+  }
+
   protected InClauseFormatter getInClauseFormatterInstance()
   throws ConfigException
   {
@@ -1282,6 +1852,119 @@ public class SQLDataManager {
   }
 
 
+  /**
+   * decide whether a failed statement should be run again and, if so, wait
+   * and make a new connection if the failure requires one. Statements are
+   * only retried when auto-commit is on since a new connection would lose
+   * the work of an open transaction and a transaction which has failed
+   * cannot continue on the same connection.
+   * @assumes nothing
+   * @effects the thread may sleep and a new connection may be made
+   * @param e the failure
+   * @param attempt the number of attempts made so far
+   * @param isWrite true if the statement is not a query
+   * @return the number of attempts used so far, including any failed
+   * attempts to make a new connection, or 0 if the statement should not be
+   * run again
+   * @throws DBException thrown if a new connection could not be made
+   */
+  private int retryAfter(SQLException e, int attempt, boolean isWrite)
+      throws DBException {
+    if (retryPolicy.getMaxAttempts() < 2)
+      return 0;
+    int kind = retryPolicy.classify(e);
+    if (!autoCommit || !retryPolicy.shouldRetry(kind, attempt, isWrite)) {
+      if (attempt > 1)
+        metrics.recordRetryFailure();
+      return 0;
+    }
+    boolean reconnect = (kind == RetryPolicy.RECONNECT);
+    metrics.recordRetry(reconnect);
+    logger.logInfo("Retrying sql after attempt " + attempt +
+                   " failed with SQLState " + e.getSQLState() +
+                   (reconnect ? " on a new connection" : "") + " : " +
+                   e.getMessage());
+    if (!sleep(retryPolicy.getDelay(attempt)))
+      return 0;
+    if (reconnect) {
+      if (conn != null) {
+        try {
+          conn.close();
+        }
+        catch (SQLException e2) {
+          // the connection is being replaced
+        }
+        conn = null;
+      }
+      // failed connection attempts use up the remaining attempts and the
+      // statement is run again as the attempt which connected
+      for (int i = attempt + 1; ; i++) {
+        try {
+          connect();
+          return i - 1;
+        }
+        catch (DBException e2) {
+          if (i >= retryPolicy.getMaxAttempts()) {
+            metrics.recordRetryFailure();
+            throw e2;
+          }
+          metrics.recordRetry(true);
+          if (!sleep(retryPolicy.getDelay(i)))
+            throw e2;
+        }
+      }
+    }
+    return attempt;
+  }
+
+  /**
+   * sleep before a retry
+   * @param millis the time to sleep
+   * @return false if the thread was interrupted
+   */
+  private static boolean sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+      return true;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * close a server side cursor from a failed attempt, ignoring any error
+   * @param statement the statement the cursor was declared on, which may
+   * be null
+   * @param cursor the name of the cursor, or null if none was declared
+   */
+  private static void closeCursor(Statement statement, String cursor) {
+    if (statement == null || cursor == null)
+      return;
+    try {
+      statement.execute("CLOSE " + cursor);
+    }
+    catch (SQLException e) {
+      // the cursor is being discarded or went with the connection
+    }
+  }
+
+  /**
+   * close a statement from a failed attempt, ignoring any error
+   * @param statement the statement, which may be null
+   */
+  private static void closeStatement(Statement statement) {
+    if (statement == null)
+      return;
+    try {
+      statement.close();
+    }
+    catch (SQLException e) {
+      // the statement is being discarded
+    }
+  }
+
   /**
    * throw a DBException if the database connection is closed. This method
    * is called by all methods that require database access
@@ -0,0 +1,541 @@
+package org.jax.mgi.shr.dbutils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.jax.mgi.shr.log.Logger;
+
+/**
+ * An object which collects timing statistics for the sql statements run
+ * by a SQLDataManager. Statements are grouped by their shape, which is the
+ * sql with literal values replaced by ? and lists of values collapsed, so
+ * that statements which differ only in their values are counted together.
+ * For each shape the number of executions and errors, the rows returned or
+ * affected, the total and maximum time and a histogram of times are kept.
+ * The time spent obtaining database connections is kept separately.
+ * Statements which take longer than the slow query threshold are logged
+ * as they finish, and a summary of all shapes can be logged on demand or
+ * at a regular interval.
+ * @has the statistics for each statement shape, a slow query threshold, a
+ * dump interval and a Logger
+ * @does records statement times, logs slow statements and formats a summary
+ * of the statistics. All methods are synchronized so one instance can be
+ * shared by threads.
+ * @company The Jackson Laboratory
+ * @author M Walker
+ */
+
+public class SQLMetrics
+{
+    /*
+     * the upper limits in milliseconds of the histogram buckets. There is
+     * one more bucket for longer times.
+     */
+    private static final long[] BUCKET_LIMITS =
+        {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000,
+         30000, 60000};
+
+    /*
+     * the most shapes kept, after which further shapes are counted
+     * together, and the longest shape kept
+     */
+    private static final int MAX_SHAPES = 1000;
+    private static final int MAX_SHAPE_LENGTH = 500;
+    private static final String OTHER_SHAPE = "(other statements)";
+
+    /*
+     * the longest statement written to the slow query log
+     */
+    private static final int MAX_LOGGED_LENGTH = 2000;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    // the statistics keyed by shape
+    private HashMap shapes = new HashMap();
+    // the number of connections made and the time spent making them
+    private long connectCount = 0;
+    private long connectNanos = 0;
+    // the number of retries, of those which needed a new connection and
+    // of statements which failed after being retried
+    private long retryCount = 0;
+    private long reconnectCount = 0;
+    private long retryFailureCount = 0;
+    // the slow query threshold in milliseconds, or zero for none
+    private long slowQueryThreshold = 0;
+    // the interval in milliseconds between summaries, or zero for none
+    private long dumpInterval = 0;
+    private long lastDump = System.currentTimeMillis();
+    private Logger logger = null;
+
+    /**
+     * constructor
+     * @assumes nothing
+     * @effects nothing
+     * @param logger the Logger for slow queries and summaries
+     */
+    public SQLMetrics(Logger logger)
+    {
+        this.logger = logger;
+    }
+
+    /**
+     * set the Logger for slow queries and summaries
+     * @assumes nothing
+     * @effects the Logger will be used for later messages
+     * @param logger the Logger
+     */
+    public synchronized void setLogger(Logger logger)
+    {
+        this.logger = logger;
+    }
+
+    /**
+     * set the time above which statements are logged as they finish
+     * @assumes nothing
+     * @effects later slow statements will be logged
+     * @param millis the threshold in milliseconds, or zero for no slow
+     * query log
+     */
+    public synchronized void setSlowQueryThreshold(long millis)
+    {
+        this.slowQueryThreshold = millis;
+    }
+
+    /**
+     * get the time above which statements are logged as they finish
+     * @assumes nothing
+     * @effects nothing
+     * @return the threshold in milliseconds, or zero for no slow query log
+     */
+    public synchronized long getSlowQueryThreshold()
+    {
+        return slowQueryThreshold;
+    }
+
+    /**
+     * set the interval at which a summary is logged. The summary is logged
+     * when a statement finishes after the interval has passed since the
+     * last summary.
+     * @assumes nothing
+     * @effects summaries will be logged at the given interval
+     * @param millis the interval in milliseconds, or zero for no regular
+     * summary
+     */
+    public synchronized void setDumpInterval(long millis)
+    {
+        this.dumpInterval = millis;
+    }
+
+    /**
+     * record a statement
+     * @assumes nothing
+     * @effects the statistics for the shape of the statement will be
+     * updated and the statement may be logged as a slow query
+     * @param sql the statement
+     * @param nanos the time taken in nanoseconds
+     * @param rows the number of rows affected, or zero for queries whose
+     * rows are added as they are read
+     * @param failed true if the statement failed
+     * @return the statistics for the shape of the statement
+     */
+    synchronized Shape record(String sql, long nanos, long rows,
+                              boolean failed)
+    {
+        Shape shape = getShape(sql);
+        shape.count++;
+        if (failed)
+            shape.errors++;
+        shape.rows += rows;
+        shape.totalNanos += nanos;
+        if (nanos > shape.maxNanos)
+            shape.maxNanos = nanos;
+        long millis = nanos / NANOS_PER_MILLI;
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS.length &&
+               millis > BUCKET_LIMITS[bucket])
+            bucket++;
+        shape.buckets[bucket]++;
+        if (logger != null)
+        {
+            if (slowQueryThreshold > 0 && millis >= slowQueryThreshold)
+            {
+                String s = sql.length() > MAX_LOGGED_LENGTH ?
+                    sql.substring(0, MAX_LOGGED_LENGTH) + "..." : sql;
+                logger.logInfo("Slow sql (" + millis + " ms" +
+                               (failed ? ", failed" : "") + ") : " + s);
+            }
+            if (dumpInterval > 0)
+            {
+                long now = System.currentTimeMillis();
+                if (now - lastDump >= dumpInterval)
+                {
+                    lastDump = now;
+                    logger.logInfo(getSummary());
+                }
+            }
+        }
+        return shape;
+    }
+
+    /**
+     * add rows read from query results to the statistics for a shape
+     * @assumes nothing
+     * @effects the row count will be updated
+     * @param shape the statistics returned when the query was recorded
+     * @param rows the number of rows read
+     */
+    synchronized void addRows(Shape shape, long rows)
+    {
+        shape.rows += rows;
+    }
+
+    /**
+     * record the time taken to obtain a database connection
+     * @assumes nothing
+     * @effects the connection statistics will be updated
+     * @param nanos the time taken in nanoseconds
+     */
+    synchronized void recordConnect(long nanos)
+    {
+        connectCount++;
+        connectNanos += nanos;
+    }
+
+    /**
+     * record a retry of a failed statement
+     * @assumes nothing
+     * @effects the retry statistics will be updated
+     * @param reconnect true if a new connection was needed
+     */
+    synchronized void recordRetry(boolean reconnect)
+    {
+        retryCount++;
+        if (reconnect)
+            reconnectCount++;
+    }
+
+    /**
+     * record a statement which failed after being retried
+     * @assumes nothing
+     * @effects the retry statistics will be updated
+     */
+    synchronized void recordRetryFailure()
+    {
+        retryFailureCount++;
+    }
+
+    /**
+     * get the number of retries of failed statements
+     * @assumes nothing
+     * @effects nothing
+     * @return the number of retries
+     */
+    public synchronized long getRetryCount()
+    {
+        return retryCount;
+    }
+
+    /**
+     * get the number of retries which needed a new connection
+     * @assumes nothing
+     * @effects nothing
+     * @return the number of retries
+     */
+    public synchronized long getReconnectCount()
+    {
+        return reconnectCount;
+    }
+
+    /**
+     * get the number of statements which failed after being retried
+     * @assumes nothing
+     * @effects nothing
+     * @return the number of statements
+     */
+    public synchronized long getRetryFailureCount()
+    {
+        return retryFailureCount;
+    }
+
+    /**
+     * clear the statistics
+     * @assumes nothing
+     * @effects all statistics will be cleared
+     */
+    public synchronized void reset()
+    {
+        shapes.clear();
+        connectCount = 0;
+        connectNanos = 0;
+        retryCount = 0;
+        reconnectCount = 0;
+        retryFailureCount = 0;
+    }
+
+    /**
+     * log a summary of the statistics
+     * @assumes nothing
+     * @effects a summary will be sent to the Logger
+     */
+    public synchronized void dump()
+    {
+        lastDump = System.currentTimeMillis();
+        if (logger != null)
+            logger.logInfo(getSummary());
+    }
+
+    /**
+     * get a summary of the statistics. The shapes are listed in order of
+     * their total time with the largest first. The percentiles are the
+     * upper limits of the histogram buckets they fall in.
+     * @assumes nothing
+     * @effects nothing
+     * @return the summary
+     */
+    public synchronized String getSummary()
+    {
+        ArrayList list = new ArrayList(shapes.values());
+        Collections.sort(list, new Comparator() {
+            public int compare(Object o1, Object o2)
+            {
+                long t1 = ((Shape)o1).totalNanos;
+                long t2 = ((Shape)o2).totalNanos;
+                return t1 > t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+        long count = 0;
+        long nanos = 0;
+        for (Iterator i = list.iterator(); i.hasNext();)
+        {
+            Shape shape = (Shape)i.next();
+            count += shape.count;
+            nanos += shape.totalNanos;
+        }
+        StringBuffer s = new StringBuffer();
+        s.append("SQL metrics: " + count + " statements in " +
+                 millis(nanos) + " ms; " + connectCount +
+                 " connections in " + millis(connectNanos) + " ms; " +
+                 retryCount + " retries (" + reconnectCount +
+                 " reconnecting, " + retryFailureCount + " failed)\n");
+        for (Iterator i = list.iterator(); i.hasNext();)
+        {
+            Shape shape = (Shape)i.next();
+            s.append("count=" + shape.count);
+            s.append(" errors=" + shape.errors);
+            s.append(" rows=" + shape.rows);
+            s.append(" total=" + millis(shape.totalNanos) + "ms");
+            s.append(" mean=" +
+                     millis(shape.totalNanos / shape.count) + "ms");
+            s.append(" max=" + millis(shape.maxNanos) + "ms");
+            s.append(" p50<=" + percentile(shape, 50));
+            s.append(" p95<=" + percentile(shape, 95));
+            s.append(" p99<=" + percentile(shape, 99));
+            s.append(" : " + shape.sql + "\n");
+            s.append("    histogram:");
+            for (int b = 0; b < shape.buckets.length; b++)
+            {
+                if (shape.buckets[b] > 0)
+                    s.append(" " + bucketName(b) + "=" + shape.buckets[b]);
+            }
+            s.append("\n");
+        }
+        return s.toString();
+    }
+
+    /**
+     * get the shape of a statement, which is the statement with string
+     * and numeric literals replaced by ?, runs of whitespace replaced by a
+     * single space and lists of two or more values written as ?, ...
+     * @assumes nothing
+     * @effects nothing
+     * @param sql the statement
+     * @return the shape
+     */
+    public static String normalize(String sql)
+    {
+        int length = sql.length();
+        StringBuffer out =
+            new StringBuffer(Math.min(length, MAX_SHAPE_LENGTH) + 8);
+        // whether the last token written was a value
+        boolean afterValue = false;
+        // the length of the output before a comma which follows a value
+        int listStart = -1;
+        boolean space = false;
+        for (int i = 0; i < length && out.length() < MAX_SHAPE_LENGTH; i++)
+        {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c))
+            {
+                space = true;
+                continue;
+            }
+            boolean value = false;
+            if (c == '\'')
+            {
+                // skip the string literal including any doubled quotes
+                i++;
+                while (i < length)
+                {
+                    if (sql.charAt(i) == '\'')
+                    {
+                        if (i + 1 < length && sql.charAt(i + 1) == '\'')
+                            i++;
+                        else
+                            break;
+                    }
+                    i++;
+                }
+                value = true;
+            }
+            else if (c >= '0' && c <= '9' &&
+                     (i == 0 || !isWordChar(sql.charAt(i - 1))))
+            {
+                while (i + 1 < length &&
+                       (isWordChar(sql.charAt(i + 1)) ||
+                        sql.charAt(i + 1) == '.'))
+                    i++;
+                value = true;
+            }
+            else if (c == '?')
+                value = true;
+
+            if (value)
+            {
+                if (afterValue && listStart >= 0)
+                {
+                    out.setLength(listStart);
+                    if (!endsWithEllipsis(out))
+                        out.append(", ...");
+                }
+                else
+                {
+                    if (space && out.length() > 0)
+                        out.append(' ');
+                    out.append('?');
+                }
+                afterValue = true;
+                listStart = -1;
+                space = false;
+                continue;
+            }
+            if (c == ',' && afterValue)
+                listStart = out.length();
+            else
+            {
+                afterValue = false;
+                listStart = -1;
+            }
+            if (space && out.length() > 0)
+                out.append(' ');
+            space = false;
+            out.append(c);
+        }
+        return out.toString();
+    }
+
+    /**
+     * get the statistics for the shape of a statement, creating them if
+     * needed
+     * @param sql the statement
+     * @return the statistics
+     */
+    private Shape getShape(String sql)
+    {
+        String key = normalize(sql);
+        Shape shape = (Shape)shapes.get(key);
+        if (shape == null)
+        {
+            if (shapes.size() >= MAX_SHAPES)
+            {
+                key = OTHER_SHAPE;
+                shape = (Shape)shapes.get(key);
+            }
+            if (shape == null)
+            {
+                shape = new Shape(key);
+                shapes.put(key, shape);
+            }
+        }
+        return shape;
+    }
+
+    /**
+     * get the upper limit of the histogram bucket which holds the given
+     * percentile of the executions of a shape
+     * @param shape the statistics
+     * @param percent the percentile
+     * @return the upper limit of the bucket
+     */
+    private static String percentile(Shape shape, int percent)
+    {
+        long target = (shape.count * percent + 99) / 100;
+        long seen = 0;
+        for (int b = 0; b < shape.buckets.length; b++)
+        {
+            seen += shape.buckets[b];
+            if (seen >= target)
+                return bucketName(b);
+        }
+        return bucketName(shape.buckets.length - 1);
+    }
+
+    /**
+     * get the name of a histogram bucket
+     * @param bucket the bucket index
+     * @return the name
+     */
+    private static String bucketName(int bucket)
+    {
+        if (bucket < BUCKET_LIMITS.length)
+            return BUCKET_LIMITS[bucket] + "ms";
+        return ">" + BUCKET_LIMITS[BUCKET_LIMITS.length - 1] + "ms";
+    }
+
+    /**
+     * convert nanoseconds to milliseconds with one decimal place
+     * @param nanos the nanoseconds
+     * @return the milliseconds
+     */
+    private static String millis(long nanos)
+    {
+        return String.valueOf(Math.round(nanos / 100000.0) / 10.0);
+    }
+
+    private static boolean endsWithEllipsis(StringBuffer s)
+    {
+        int length = s.length();
+        return length >= 3 && s.charAt(length - 1) == '.' &&
+            s.charAt(length - 2) == '.' && s.charAt(length - 3) == '.';
+    }
+
+    private static boolean isWordChar(char c)
+    {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    /**
+     * The statistics for one statement shape.
+     * @has the counts, times and histogram for the shape
+     * @does nothing
+     * @company The Jackson Laboratory
+     * @author M Walker
+     */
+    static class Shape
+    {
+        private String sql = null;
+        private long count = 0;
+        private long errors = 0;
+        private long rows = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+        private long[] buckets = new long[BUCKET_LIMITS.length + 1];
+
+        Shape(String sql)
+        {
+            this.sql = sql;
+        }
+    }
+}
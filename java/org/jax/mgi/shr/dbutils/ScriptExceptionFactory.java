@@ -106,6 +106,28 @@ public class ScriptExceptionFactory extends ExceptionFactory {
         "Could not access script out file: ??", false));
   }
 
+  /**
+   * Statements failed when the script was run over JDBC
+   */
+  public static final String ScriptStatementErr =
+      "org.jax.mgi.shr.script.ScriptStatementErr";
+  static {
+    exceptionsMap.put(ScriptStatementErr, new ScriptException(
+        "?? of the ?? statements of the script failed. The first failure " +
+        "was statement ??: ??", false));
+  }
+
+  /**
+   * An error with the connection when running the script over JDBC
+   */
+  public static final String ScriptJdbcErr =
+      "org.jax.mgi.shr.script.ScriptJdbcErr";
+  static {
+    exceptionsMap.put(ScriptJdbcErr, new ScriptException(
+        "A database error occurred while sending a batch of script " +
+        "statements starting at statement ??", false));
+  }
+
 
 
 }
\ No newline at end of file
@@ -4,11 +4,16 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
 import java.util.Properties;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Vector;
 
 import org.jax.mgi.shr.config.ScriptWriterCfg;
 import org.jax.mgi.shr.config.ConfigException;
@@ -24,7 +29,13 @@ import org.jax.mgi.shr.exception.MGIException;
 
 /**
  * A class which creates and executes sql scripts within the Postgres
- * database
+ * database. By default the script is written to a file which is run with
+ * psql. Alternatively the statements can be sent over the connection of the
+ * SQLDataManager in batches as they are written, in which case no file is
+ * written and the errors are collected as StatementError objects. Each
+ * batch is run as a unit and if it fails it is rolled back and its
+ * statements are run one at a time so that, as with psql, every statement
+ * which can succeed does and each failure is recorded.
  * @has a configuration object for configuring
  * @does provides methods for creating and executing sql scripts
  * @company The Jackson Laboratory
@@ -106,6 +117,35 @@ public class ScriptWriter
      * indicator that the script file has been created
      */
     private boolean fileCreated = false;
+    /*
+     * option to send the statements over the JDBC connection instead of
+     * running a script file with psql
+     */
+    private boolean useJdbc;
+    /*
+     * the number of statements sent to the database at once over JDBC
+     */
+    private int batchSize = 100;
+    /*
+     * the statement currently being written when using JDBC
+     */
+    private StringBuffer statement = null;
+    /*
+     * the completed statements waiting to be sent when using JDBC
+     */
+    private Vector batch = new Vector();
+    /*
+     * the number of statements completed since the last execute
+     */
+    private int statementCount = 0;
+    /*
+     * the failures of statements sent since the last execute
+     */
+    private Vector errors = new Vector();
+    /*
+     * the failures of statements sent during the last execute
+     */
+    private Vector executedErrors = new Vector();
     /*
      * the following constant definitions are exceptions thrown by this class
      */
@@ -127,6 +167,10 @@ public class ScriptWriter
         ScriptExceptionFactory.ScriptOutFileErr;
     private static String ScriptErrorOutput =
         ScriptExceptionFactory.ScriptErrorOutput;
+    private static String ScriptStatementErr =
+        ScriptExceptionFactory.ScriptStatementErr;
+    private static String ScriptJdbcErr =
+        ScriptExceptionFactory.ScriptJdbcErr;
 
     /**
      * default constructor which reads the configuration from a
@@ -271,6 +315,45 @@ public class ScriptWriter
         this.removeAfterExecute = bool;
     }
 
+    /**
+     * set the value of the option which designates whether to send the
+     * statements over the connection of the SQLDataManager in batches as
+     * they are written rather than writing a script file which is run with
+     * psql. This has no effect when execution is prevented, in which case
+     * the script file is written.
+     * @assumes the script does not contain psql commands
+     * @effects nothing
+     * @param bool true to run the statements over JDBC
+     */
+    public void setUseJdbc(boolean bool)
+    {
+        this.useJdbc = bool;
+    }
+
+    /**
+     * set the number of statements sent to the database at once when
+     * running the statements over JDBC
+     * @assumes nothing
+     * @effects nothing
+     * @param size the number of statements in a batch
+     */
+    public void setBatchSize(int size)
+    {
+        this.batchSize = Math.max(size, 1);
+    }
+
+    /**
+     * get the failures of the statements sent over JDBC during the last
+     * call to execute()
+     * @assumes nothing
+     * @effects nothing
+     * @return a Vector of StatementError objects in statement order
+     */
+    public Vector getErrors()
+    {
+        return this.executedErrors;
+    }
+
     /**
      * get the directory name for the script file.
      * @return the directory name for the script file.
@@ -391,6 +474,11 @@ public class ScriptWriter
      */
     public void write(String s) throws ScriptException
     {
+        if (isJdbc())
+        {
+            appendLine(s);
+            return;
+        }
         if (!this.fileCreated)
             createScriptFile();
         try
@@ -416,6 +504,12 @@ public class ScriptWriter
      */
     public void writeGo(String s) throws ScriptException
     {
+        if (isJdbc())
+        {
+            appendLine(s);
+            endStatement();
+            return;
+        }
         if (!this.fileCreated)
             createScriptFile();
         try
@@ -441,6 +535,11 @@ public class ScriptWriter
      */
     public void go() throws ScriptException
     {
+        if (isJdbc())
+        {
+            endStatement();
+            return;
+        }
         if (!this.fileCreated)
             createScriptFile();
         try
@@ -465,6 +564,11 @@ public class ScriptWriter
      */
     public void execute() throws ScriptException
     {
+        if (isJdbc())
+        {
+            executeJdbc();
+            return;
+        }
         if (!this.fileCreated)
             return;
         String server = sqlMgr.getServer();
@@ -598,6 +702,15 @@ public class ScriptWriter
      */
     public void abort() throws ScriptException
     {
+        if (isJdbc())
+        {
+            // batches which have already been sent cannot be undone
+            statement = null;
+            batch.clear();
+            statementCount = 0;
+            errors = new Vector();
+            return;
+        }
         if (!this.fileCreated)
             return;
         try
@@ -634,6 +747,8 @@ public class ScriptWriter
         okToOverwrite = config.getOkToOverwrite().booleanValue();
         useTempFile = config.getUseTempFile().booleanValue();
         removeAfterExecute = config.getRemoveAfterExecute().booleanValue();
+        useJdbc = config.getUseJdbc().booleanValue();
+        setBatchSize(config.getBatchSize().intValue());
         LogCfg cfg = new LogCfg();
         LoggerFactory logFactory = cfg.getLoggerFactory();
         this.logger = logFactory.getLogger();
@@ -718,6 +833,275 @@ public class ScriptWriter
         }
     }
 
+    /**
+     * determine whether the statements are sent over JDBC
+     * @return true if JDBC is configured and execution is not prevented
+     */
+    private boolean isJdbc()
+    {
+        return this.useJdbc && !this.preventExecute;
+    }
+
+    /**
+     * add a line to the statement currently being written
+     * @param s the line
+     */
+    private void appendLine(String s)
+    {
+        if (statement == null)
+            statement = new StringBuffer();
+        statement.append(s).append("\n");
+    }
+
+    /**
+     * complete the statement currently being written and send the batch
+     * if it is full
+     * @throws ScriptException thrown if there is an error with the
+     * connection
+     */
+    private void endStatement() throws ScriptException
+    {
+        if (statement == null)
+            return;
+        String sql = statement.toString().trim();
+        statement = null;
+        if (sql.length() == 0)
+            return;
+        batch.add(sql);
+        statementCount++;
+        if (batch.size() >= batchSize)
+            executeBatch();
+    }
+
+    /**
+     * send any remaining statements and report the failures
+     * @throws ScriptException thrown if any statements failed or if there
+     * is an error with the connection
+     */
+    private void executeJdbc() throws ScriptException
+    {
+        // a final statement need not be terminated, as with psql
+        endStatement();
+        executeBatch();
+        int count = statementCount;
+        executedErrors = errors;
+        errors = new Vector();
+        statementCount = 0;
+        if (logger != null)
+            logger.logInfo("executed " + count + " script statements " +
+                           "with " + executedErrors.size() + " failures");
+        if (executedErrors.size() == 0)
+            return;
+        if (logger != null)
+            logger.logError(summarize(executedErrors, count));
+        StatementError first = (StatementError)executedErrors.get(0);
+        ScriptExceptionFactory eFactory = new ScriptExceptionFactory();
+        ScriptException e = (ScriptException)
+            eFactory.getException(ScriptStatementErr);
+        e.bind(executedErrors.size());
+        e.bind(count);
+        e.bind(first.statement);
+        e.bind(first.message);
+        throw e;
+    }
+
+    /**
+     * send the waiting statements to the database
+     * @throws ScriptException thrown if there is an error with the
+     * connection
+     */
+    private void executeBatch() throws ScriptException
+    {
+        if (batch.size() == 0)
+            return;
+        int first = statementCount - batch.size() + 1;
+        try
+        {
+            Connection conn = sqlMgr.getConnection();
+            if (batch.size() == 1 || !runBatch(conn))
+            {
+                for (int i = 0; i < batch.size(); i++)
+                    runStatement(conn, first + i, (String)batch.get(i));
+            }
+        }
+        catch (Exception e)
+        {
+            ScriptExceptionFactory eFactory = new ScriptExceptionFactory();
+            ScriptException e2 = (ScriptException)
+                eFactory.getException(ScriptJdbcErr, e);
+            e2.bind(first);
+            throw e2;
+        }
+        finally
+        {
+            batch.clear();
+        }
+    }
+
+    /**
+     * run the waiting statements as a single unit which is committed, or
+     * released if the connection is within a transaction, if all the
+     * statements succeed and is rolled back otherwise
+     * @param conn the connection
+     * @return true if the statements succeeded or false if they were
+     * rolled back
+     * @throws SQLException thrown if the unit could not be committed or
+     * rolled back
+     */
+    private boolean runBatch(Connection conn) throws SQLException
+    {
+        boolean autoCommit = conn.getAutoCommit();
+        Savepoint savepoint = null;
+        if (autoCommit)
+            conn.setAutoCommit(false);
+        else
+            savepoint = conn.setSavepoint();
+        Statement stmt = null;
+        try
+        {
+            stmt = conn.createStatement();
+            for (int i = 0; i < batch.size(); i++)
+                stmt.addBatch((String)batch.get(i));
+            stmt.executeBatch();
+            if (autoCommit)
+                conn.commit();
+            else
+                conn.releaseSavepoint(savepoint);
+            return true;
+        }
+        catch (SQLException e)
+        {
+            if (autoCommit)
+                conn.rollback();
+            else
+                conn.rollback(savepoint);
+            return false;
+        }
+        finally
+        {
+            closeStatement(stmt);
+            if (autoCommit)
+                conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * run a single statement and record its failure, rolling back to a
+     * savepoint if the connection is within a transaction so that the
+     * transaction can continue
+     * @param conn the connection
+     * @param number the number of the statement within the script
+     * @param sql the statement
+     * @throws SQLException thrown if the savepoint could not be set or
+     * rolled back
+     */
+    private void runStatement(Connection conn, int number, String sql)
+        throws SQLException
+    {
+        Savepoint savepoint = null;
+        if (!conn.getAutoCommit())
+            savepoint = conn.setSavepoint();
+        Statement stmt = null;
+        try
+        {
+            stmt = conn.createStatement();
+            stmt.execute(sql);
+            if (savepoint != null)
+                conn.releaseSavepoint(savepoint);
+        }
+        catch (SQLException e)
+        {
+            if (savepoint != null)
+                conn.rollback(savepoint);
+            errors.add(new StatementError(number, sql, e));
+        }
+        finally
+        {
+            closeStatement(stmt);
+        }
+    }
+
+    /**
+     * close a statement ignoring any error
+     * @param stmt the statement which can be null
+     */
+    private void closeStatement(Statement stmt)
+    {
+        if (stmt == null)
+            return;
+        try
+        {
+            stmt.close();
+        }
+        catch (SQLException e)
+        {
+            // nothing more can be done with the statement
+        }
+    }
+
+    /**
+     * create a summary of the given failures grouped by SQLState and
+     * message
+     * @param errs the StatementError objects
+     * @param count the number of statements run
+     * @return the summary
+     */
+    private static String summarize(Vector errs, int count)
+    {
+        String sep = System.getProperty("line.separator");
+        Hashtable counts = new Hashtable();
+        ArrayList order = new ArrayList();
+        for (Iterator it = errs.iterator(); it.hasNext(); )
+        {
+            StatementError err = (StatementError)it.next();
+            String key = err.sqlState + ": " + err.message;
+            Integer n = (Integer)counts.get(key);
+            if (n == null)
+            {
+                order.add(key);
+                n = new Integer(0);
+            }
+            counts.put(key, new Integer(n.intValue() + 1));
+        }
+        StringBuffer summary = new StringBuffer();
+        for (Iterator it = order.iterator(); it.hasNext(); )
+        {
+            String key = (String)it.next();
+            summary.append("The following error occurred " +
+                           counts.get(key) + " out of " + count +
+                           " statements" + sep);
+            summary.append(key);
+            summary.append(sep);
+        }
+        return summary.toString();
+    }
+
+    /**
+     * is an object used to store the failure of a statement which was
+     * sent over JDBC
+     * @has the number of the statement within the script, the statement
+     * and the SQLState, vendor error code and message of the failure
+     * @does nothing
+     * @company The Jackson Laboratory
+     * @author M Walker
+     */
+    public static class StatementError
+    {
+        public int statement = 0;
+        public String sql = null;
+        public String sqlState = null;
+        public int errorCode = 0;
+        public String message = null;
+        public StatementError(int statement, String sql, SQLException e)
+        {
+            this.statement = statement;
+            this.sql = sql;
+            this.sqlState = e.getSQLState();
+            this.errorCode = e.getErrorCode();
+            this.message = e.getMessage();
+        }
+    }
+
     /**
      * is a an object used to store error information for a failed Postgres isql
      * error
@@ -0,0 +1,619 @@
+package org.jax.mgi.shr.dbutils;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A RowReference which holds a copy of the values of one row rather than
+ * referring to the current row of a ResultSet, so that it stays valid after
+ * the ResultSet has moved on and can be read from another thread. The
+ * values are held in an array as the objects returned by the JDBC driver.
+ * For columns which are not character or integer columns the value as a
+ * string is copied as well, so that getString() returns the same text as
+ * it would from the ResultSet.
+ * @has the values of a row and a Layout describing its columns
+ * @does provides the RowReference accessors for the copied values,
+ * converting between the java types in the same way as the JDBC driver
+ * for the common cases
+ * @company The Jackson Laboratory
+ * @author M Walker
+ */
+
+class SnapshotRowReference extends RowReference
+{
+  /*
+   * the kinds of columns
+   */
+  private static final int STRING = 0;
+  private static final int INTEGER = 1;
+  private static final int OTHER = 2;
+
+  private Layout layout = null;
+  private Object[] values = null;
+  private String[] strings = null;
+  // whether the last value read was null
+  private boolean lastNull = false;
+
+  /**
+   * constructor
+   * @param layout the column layout of the row
+   * @param values the values of the row
+   * @param strings the string values of the columns which are neither
+   * character nor integer columns, otherwise null
+   */
+  private SnapshotRowReference(Layout layout, Object[] values,
+                               String[] strings) {
+    super(null);
+    this.layout = layout;
+    this.values = values;
+    this.strings = strings;
+  }
+
+  /**
+   * see java.sql.ResultSet javadocs
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public Boolean getBoolean(int columnIndex) throws DBException {
+    boolean b = getBooleanValue(columnIndex);
+    return lastNull ? null : Boolean.valueOf(b);
+  }
+
+  /**
+   * see java.sql.ResultSet javadocs
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public Boolean getBoolean(String columnName) throws DBException {
+    return getBoolean(findColumn(columnName));
+  }
+
+  /**
+   * see java.sql.ResultSet javadocs
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public Double getDouble(int columnIndex) throws DBException {
+    double d = getDoubleValue(columnIndex);
+    return lastNull ? null : Double.valueOf(d);
+  }
+
+  /**
+   * see java.sql.ResultSet javadocs
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public Double getDouble(String columnName) throws DBException {
+    return getDouble(findColumn(columnName));
+  }
+
+  /**
+   * see java.sql.ResultSet javadocs
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public Integer getInt(int columnIndex) throws DBException {
+    int i = getIntValue(columnIndex);
+    return lastNull ? null : Integer.valueOf(i);
+  }
+
+  /**
+   * see java.sql.ResultSet javadocs
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public Integer getInt(String columnName) throws DBException {
+    return getInt(findColumn(columnName));
+  }
+
+  /**
+   * see java.sql.ResultSet javadocs
+   * @throws DBException thrown if the column index is invalid
+   */
+  public Object getObject(int columnIndex) throws DBException {
+    return value(columnIndex);
+  }
+
+  /**
+   * see java.sql.ResultSet javadocs. The type map is not used since the
+   * value was copied when the row was read.
+   * @throws DBException thrown if the column index is invalid
+   */
+  public Object getObject(int columnIndex, Map map) throws DBException {
+    return value(columnIndex);
+  }
+
+  /**
+   * see java.sql.ResultSet javadocs
+   * @throws DBException thrown if there is no such column
+   */
+  public Object getObject(String columnName) throws DBException {
+    return value(findColumn(columnName));
+  }
+
+  /**
+   * see java.sql.ResultSet javadocs. The type map is not used since the
+   * value was copied when the row was read.
+   * @throws DBException thrown if there is no such column
+   */
+  public Object getObject(String columnName, Map map) throws DBException {
+    return value(findColumn(columnName));
+  }
+
+  /**
+   * see java.sql.ResultSet javadocs
+   * @throws DBException thrown if the column index is invalid
+   */
+  public String getString(int columnIndex) throws DBException {
+    Object o = value(columnIndex);
+    if (o == null)
+      return null;
+    if (strings != null && strings[columnIndex - 1] != null)
+      return strings[columnIndex - 1];
+    return o.toString();
+  }
+
+  /**
+   * see java.sql.ResultSet javadocs
+   * @throws DBException thrown if there is no such column
+   */
+  public String getString(String columnName) throws DBException {
+    return getString(findColumn(columnName));
+  }
+
+  /**
+   * see java.sql.ResultSet javadocs
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public Timestamp getTimestamp(int columnIndex) throws DBException {
+    Object o = value(columnIndex);
+    if (o == null)
+      return null;
+    if (o instanceof Timestamp)
+      return (Timestamp)o;
+    if (o instanceof java.util.Date)
+      return new Timestamp(((java.util.Date)o).getTime());
+    try {
+      return Timestamp.valueOf(o.toString().trim());
+    }
+    catch (IllegalArgumentException e) {
+      throw getJDBCException(
+          "get timestamp value from column index " + columnIndex, e);
+    }
+  }
+
+  /**
+   * see java.sql.ResultSet javadocs. The calendar is not used since the
+   * value was copied with the default time zone when the row was read.
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public Timestamp getTimestamp(int columnIndex, Calendar cal)
+      throws DBException {
+    return getTimestamp(columnIndex);
+  }
+
+  /**
+   * see java.sql.ResultSet javadocs
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public Timestamp getTimestamp(String columnName) throws DBException {
+    return getTimestamp(findColumn(columnName));
+  }
+
+  /**
+   * see java.sql.ResultSet javadocs. The calendar is not used since the
+   * value was copied with the default time zone when the row was read.
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public Timestamp getTimestamp(String columnName, Calendar cal)
+      throws DBException {
+    return getTimestamp(findColumn(columnName));
+  }
+
+  /**
+   * get the value of a column as an int. A null value is returned as
+   * zero; call wasNull() to tell it apart.
+   * @param columnIndex the column index
+   * @return the value
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public int getIntValue(int columnIndex) throws DBException {
+    Object o = value(columnIndex);
+    if (o == null)
+      return 0;
+    if (o instanceof Number)
+      return ((Number)o).intValue();
+    if (o instanceof Boolean)
+      return ((Boolean)o).booleanValue() ? 1 : 0;
+    try {
+      return Integer.parseInt(o.toString().trim());
+    }
+    catch (NumberFormatException e) {
+      throw getJDBCException(
+          "get int value from column index " + columnIndex, e);
+    }
+  }
+
+  /**
+   * get the value of a column as an int. A null value is returned as
+   * zero; call wasNull() to tell it apart.
+   * @param columnName the column name
+   * @return the value
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public int getIntValue(String columnName) throws DBException {
+    return getIntValue(findColumn(columnName));
+  }
+
+  /**
+   * get the value of a column as a long. A null value is returned as
+   * zero; call wasNull() to tell it apart.
+   * @param columnIndex the column index
+   * @return the value
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public long getLongValue(int columnIndex) throws DBException {
+    Object o = value(columnIndex);
+    if (o == null)
+      return 0;
+    if (o instanceof Number)
+      return ((Number)o).longValue();
+    if (o instanceof Boolean)
+      return ((Boolean)o).booleanValue() ? 1 : 0;
+    try {
+      return Long.parseLong(o.toString().trim());
+    }
+    catch (NumberFormatException e) {
+      throw getJDBCException(
+          "get long value from column index " + columnIndex, e);
+    }
+  }
+
+  /**
+   * get the value of a column as a long. A null value is returned as
+   * zero; call wasNull() to tell it apart.
+   * @param columnName the column name
+   * @return the value
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public long getLongValue(String columnName) throws DBException {
+    return getLongValue(findColumn(columnName));
+  }
+
+  /**
+   * get the value of a column as a double. A null value is returned as
+   * zero; call wasNull() to tell it apart.
+   * @param columnIndex the column index
+   * @return the value
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public double getDoubleValue(int columnIndex) throws DBException {
+    Object o = value(columnIndex);
+    if (o == null)
+      return 0;
+    if (o instanceof Number)
+      return ((Number)o).doubleValue();
+    if (o instanceof Boolean)
+      return ((Boolean)o).booleanValue() ? 1 : 0;
+    try {
+      return Double.parseDouble(o.toString().trim());
+    }
+    catch (NumberFormatException e) {
+      throw getJDBCException(
+          "get double value from column index " + columnIndex, e);
+    }
+  }
+
+  /**
+   * get the value of a column as a double. A null value is returned as
+   * zero; call wasNull() to tell it apart.
+   * @param columnName the column name
+   * @return the value
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public double getDoubleValue(String columnName) throws DBException {
+    return getDoubleValue(findColumn(columnName));
+  }
+
+  /**
+   * get the value of a column as a boolean. A null value is returned as
+   * false; call wasNull() to tell it apart.
+   * @param columnIndex the column index
+   * @return the value
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public boolean getBooleanValue(int columnIndex) throws DBException {
+    Object o = value(columnIndex);
+    if (o == null)
+      return false;
+    if (o instanceof Boolean)
+      return ((Boolean)o).booleanValue();
+    if (o instanceof Number)
+      return ((Number)o).doubleValue() != 0;
+    String s = o.toString().trim().toLowerCase();
+    if (s.equals("t") || s.equals("true") || s.equals("1") ||
+        s.equals("y") || s.equals("yes") || s.equals("on"))
+      return true;
+    if (s.equals("f") || s.equals("false") || s.equals("0") ||
+        s.equals("n") || s.equals("no") || s.equals("off"))
+      return false;
+    throw getJDBCException(
+        "get boolean value from column index " + columnIndex,
+        new SQLException("Cannot convert value to boolean: " + s));
+  }
+
+  /**
+   * get the value of a column as a boolean. A null value is returned as
+   * false; call wasNull() to tell it apart.
+   * @param columnName the column name
+   * @return the value
+   * @throws DBException thrown if the value cannot be converted
+   */
+  public boolean getBooleanValue(String columnName) throws DBException {
+    return getBooleanValue(findColumn(columnName));
+  }
+
+  /**
+   * return whether the last value read from this row was null
+   * @assumes a value has been read from this row
+   * @effects nothing
+   * @return true if the last value read was null, false otherwise
+   */
+  public boolean wasNull() {
+    return lastNull;
+  }
+
+  /**
+   * return whether the value of a column is null
+   * @param columnIndex the column index
+   * @return true if the value is null, false otherwise
+   * @throws DBException thrown if the column index is invalid
+   */
+  public boolean isNull(int columnIndex) throws DBException {
+    return value(columnIndex) == null;
+  }
+
+  /**
+   * return whether the value of a column is null
+   * @param columnName the column name
+   * @return true if the value is null, false otherwise
+   * @throws DBException thrown if there is no such column
+   */
+  public boolean isNull(String columnName) throws DBException {
+    return value(findColumn(columnName)) == null;
+  }
+
+  /**
+   * get the index of the column with the given name, matched without
+   * regard to case
+   * @assumes nothing
+   * @effects nothing
+   * @param columnName the column name
+   * @return the column index
+   * @throws DBException thrown if there is no such column
+   */
+  public int findColumn(String columnName) throws DBException {
+    Integer index = (Integer)layout.indexes.get(columnName);
+    if (index == null)
+      index = (Integer)layout.indexes.get(columnName.toLowerCase());
+    if (index == null)
+      throw getJDBCException("find column " + columnName,
+          new SQLException("The column name " + columnName +
+                           " was not found in this row"));
+    return index.intValue();
+  }
+
+  /**
+   * get the metadata of the ResultSet the row was copied from. Only the
+   * column descriptions should be relied on since the ResultSet may have
+   * been closed.
+   * @assumes nothing
+   * @effects nothing
+   * @return the metadata
+   */
+  public ResultSetMetaData getMetaData() {
+    return layout.meta;
+  }
+
+  /**
+   * create a string representing the row with a format consisting of
+   * columnName = columnValue
+   * @assumes nothing
+   * @effects nothing
+   * @return a string representing the row
+   * @throws DBException not thrown since the values are held in memory
+   */
+  public String createStringFromRow() throws DBException {
+    StringBuffer s = new StringBuffer();
+    for (int i = 0; i < values.length; i++) {
+      String columnName = layout.names[i];
+      if (columnName.equals(""))
+        columnName = "NO COLUMN NAME";
+      if (values[i] == null)
+        s.append(columnName + " = null\n");
+      else
+        s.append(columnName + " = " + values[i].toString() + "\n");
+    }
+    return new String(s);
+  }
+
+  /**
+   * get the values of the row
+   * @return the values which should not be modified
+   */
+  Object[] getValues() {
+    return values;
+  }
+
+  /**
+   * get the string values of the columns which are neither character nor
+   * integer columns
+   * @return the string values, or null if there are no such columns
+   */
+  String[] getStrings() {
+    return strings;
+  }
+
+  /**
+   * replace the values with those of another row so that the same
+   * instance can follow a cursor over rows of the same layout
+   * @assumes the values were obtained from a row with the same layout
+   * @effects the values of this row will be replaced
+   * @param values the values of the row
+   * @param strings the string values as returned by getStrings()
+   */
+  void setValues(Object[] values, String[] strings) {
+    this.values = values;
+    this.strings = strings;
+    this.lastNull = false;
+  }
+
+  /**
+   * get a value and record whether it was null
+   * @param columnIndex the column index
+   * @return the value
+   * @throws DBException thrown if the column index is invalid
+   */
+  private Object value(int columnIndex) throws DBException {
+    if (columnIndex < 1 || columnIndex > values.length)
+      throw getJDBCException("get value from column index " + columnIndex,
+          new SQLException("The column index " + columnIndex +
+                           " is out of range"));
+    Object o = values[columnIndex - 1];
+    lastNull = (o == null);
+    return o;
+  }
+
+  /**
+   * The columns of a set of query results, read once from the metadata
+   * and shared by the copies of each row.
+   * @has the metadata, the column names and kinds, and the column indexes
+   * keyed by name
+   * @does copies the current row of a RowReference into a
+   * SnapshotRowReference
+   * @company The Jackson Laboratory
+   * @author M Walker
+   */
+  static class Layout
+  {
+    private ResultSetMetaData meta = null;
+    private String[] names = null;
+    private int[] kinds = null;
+    private boolean hasOther = false;
+    // read only once the layout is built so it can be shared by threads
+    private HashMap indexes = new HashMap();
+
+    /**
+     * constructor
+     * @assumes nothing
+     * @effects nothing
+     * @param row the RowReference for the query results
+     * @throws DBException thrown if the metadata cannot be read
+     */
+    Layout(RowReference row) throws DBException {
+      meta = row.getMetaData();
+      try {
+        int count = meta.getColumnCount();
+        names = new String[count];
+        kinds = new int[count];
+        for (int i = count; i > 0; i--) {
+          names[i - 1] = meta.getColumnName(i);
+          // the first of any duplicate names is used, as with findColumn
+          indexes.put(meta.getColumnLabel(i).toLowerCase(),
+                      Integer.valueOf(i));
+          kinds[i - 1] = getKind(meta.getColumnType(i));
+          if (kinds[i - 1] == OTHER)
+            hasOther = true;
+        }
+      }
+      catch (SQLException e) {
+        DBExceptionFactory eFactory = new DBExceptionFactory();
+        DBException e2 = (DBException)
+            eFactory.getException(DBExceptionFactory.JDBCException, e);
+        e2.bind("get metadata from ResultSet");
+        throw e2;
+      }
+    }
+
+    /**
+     * copy the current row of the given RowReference
+     * @assumes the RowReference is for the query results this layout was
+     * built from
+     * @effects nothing
+     * @param row the RowReference
+     * @return the copy of the row
+     * @throws DBException thrown if the values cannot be read
+     */
+    SnapshotRowReference snapshot(RowReference row) throws DBException {
+      int count = kinds.length;
+      Object[] values = new Object[count];
+      String[] strings = hasOther ? new String[count] : null;
+      for (int i = 0; i < count; i++) {
+        switch (kinds[i]) {
+          case STRING:
+            values[i] = row.getString(i + 1);
+            break;
+          case INTEGER:
+            values[i] = row.getObject(i + 1);
+            break;
+          default:
+            values[i] = row.getObject(i + 1);
+            if (values[i] != null)
+              strings[i] = row.getString(i + 1);
+            break;
+        }
+      }
+      return new SnapshotRowReference(this, values, strings);
+    }
+
+    /**
+     * get the number of columns
+     * @return the number of columns
+     */
+    int getColumnCount() {
+      return kinds.length;
+    }
+
+    /**
+     * determine whether the string value of a column is copied along with
+     * its value because it is neither a character nor an integer column
+     * @param index the zero based column index
+     * @return true if the string value is copied
+     */
+    boolean copiesString(int index) {
+      return kinds[index] == OTHER;
+    }
+
+    /**
+     * create a row from values which were copied earlier
+     * @assumes the values were obtained from a row with this layout
+     * @effects nothing
+     * @param values the values of the row
+     * @param strings the string values as returned by getStrings()
+     * @return the row
+     */
+    SnapshotRowReference restore(Object[] values, String[] strings) {
+      return new SnapshotRowReference(this, values, strings);
+    }
+
+    /**
+     * get the kind of column for a column type
+     * @param type the column type from java.sql.Types
+     * @return the kind of column
+     */
+    private static int getKind(int type) {
+      switch (type) {
+        case Types.CHAR:
+        case Types.VARCHAR:
+        case Types.LONGVARCHAR:
+          return STRING;
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+          return INTEGER;
+        default:
+          return OTHER;
+      }
+    }
+  }
+}
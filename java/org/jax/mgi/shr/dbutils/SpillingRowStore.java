@@ -0,0 +1,693 @@
+package org.jax.mgi.shr.dbutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Vector;
+
+/**
+ * A store of query result rows which can be read back in any order. Rows
+ * are held column by column in blocks of a fixed number of rows. Within a
+ * block the integer, long, double, boolean and date and time values of a
+ * column are held in arrays of primitives with a bitmap of the null rows,
+ * so that they take no more memory than their fixed width. A column whose
+ * values are of some other type, or of more than one type, holds them as
+ * objects. Once more
+ * than a given number of blocks are held in memory the oldest block in
+ * memory is encoded and written to a temporary file, from which it is read
+ * back through a memory mapping when one of its rows is needed. The most
+ * recently read block is kept decoded so that moving between nearby rows
+ * does not decode the block again.
+ * <p>Values of the common JDBC types are stored as they are. Values of any
+ * other type are stored as their string value, so getObject() returns a
+ * String for such columns.
+ * @has the column layout, the blocks of rows and the temporary file
+ * @does adds rows copied from a RowReference and returns them as
+ * SnapshotRowReferences by position
+ * @company The Jackson Laboratory
+ * @author M Walker
+ */
+
+class SpillingRowStore
+{
+    /**
+     * the number of rows in a block
+     */
+    static final int BLOCK_ROWS = 1024;
+
+    /*
+     * the tags which precede each encoded value
+     */
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte DECIMAL = 6;
+    private static final byte TIMESTAMP = 7;
+    private static final byte DATE = 8;
+    private static final byte TIME = 9;
+    private static final byte BYTES = 10;
+    private static final byte SHORT = 11;
+    private static final byte FLOAT = 12;
+    // not an encoding tag but the type of a column held as objects
+    private static final byte OBJECT = 13;
+
+    private SnapshotRowReference.Layout layout = null;
+    private int columns = 0;
+    private int maxMemoryBlocks = 0;
+    // the completed blocks in row order
+    private Vector blocks = new Vector();
+    // the number of completed blocks held in memory
+    private int memoryBlocks = 0;
+    // the block being filled
+    private Block open = null;
+    private int rowCount = 0;
+    // the temporary file, created when the first block is spilled
+    private File file = null;
+    private RandomAccessFile raf = null;
+    private FileChannel channel = null;
+    private long fileLength = 0;
+    // the spilled block most recently read back
+    private Block decoded = null;
+    private int decodedIndex = -1;
+
+    /**
+     * constructor
+     * @assumes nothing
+     * @effects nothing
+     * @param layout the column layout of the rows
+     * @param memoryRows the number of rows to hold in memory before older
+     * rows are written to the temporary file
+     */
+    SpillingRowStore(SnapshotRowReference.Layout layout, int memoryRows)
+    {
+        this.layout = layout;
+        this.columns = layout.getColumnCount();
+        this.maxMemoryBlocks = Math.max(memoryRows / BLOCK_ROWS, 1);
+    }
+
+    /**
+     * get the number of rows added
+     * @assumes nothing
+     * @effects nothing
+     * @return the number of rows
+     */
+    int size()
+    {
+        return rowCount;
+    }
+
+    /**
+     * copy the current row of the given RowReference to the end of the
+     * store
+     * @assumes the RowReference is for the query results the layout was
+     * built from
+     * @effects older blocks may be written to the temporary file
+     * @param row the RowReference
+     * @throws DBException thrown if the row cannot be read or the temporary
+     * file cannot be written
+     */
+    void add(RowReference row) throws DBException
+    {
+        SnapshotRowReference copy = layout.snapshot(row);
+        Object[] values = copy.getValues();
+        String[] strings = copy.getStrings();
+        if (open == null)
+            open = new Block(layout);
+        int r = open.rows;
+        for (int c = 0; c < columns; c++)
+        {
+            open.columns[c].set(r, storable(values[c]));
+            if (strings != null && open.strings[c] != null)
+                open.strings[c][r] = strings[c];
+        }
+        open.rows++;
+        rowCount++;
+        if (open.rows == BLOCK_ROWS)
+        {
+            blocks.add(open);
+            open = null;
+            memoryBlocks++;
+            if (memoryBlocks > maxMemoryBlocks)
+                spillOldest();
+        }
+    }
+
+    /**
+     * copy a row by position into the given SnapshotRowReference
+     * @assumes the SnapshotRowReference has the layout of this store
+     * @effects a spilled block may be read back from the temporary file
+     * @param index the zero based position of the row
+     * @param row the SnapshotRowReference to hold the values of the row
+     * @throws DBException thrown if the temporary file cannot be read
+     */
+    void read(int index, SnapshotRowReference row) throws DBException
+    {
+        int b = index / BLOCK_ROWS;
+        int r = index % BLOCK_ROWS;
+        Block block = null;
+        if (b == blocks.size())
+            block = open;
+        else
+            block = (Block)blocks.get(b);
+        if (block.columns == null)
+            block = decode(b, block);
+        Object[] values = new Object[columns];
+        String[] strings = null;
+        for (int c = 0; c < columns; c++)
+        {
+            values[c] = block.columns[c].get(r);
+            if (layout.copiesString(c) && block.strings[c][r] != null)
+            {
+                if (strings == null)
+                    strings = new String[columns];
+                strings[c] = block.strings[c][r];
+            }
+        }
+        row.setValues(values, strings);
+    }
+
+    /**
+     * release the blocks and delete the temporary file
+     * @assumes nothing
+     * @effects the temporary file will be deleted
+     * @throws DBException thrown if the temporary file cannot be closed
+     */
+    void close() throws DBException
+    {
+        blocks = new Vector();
+        open = null;
+        decoded = null;
+        if (file == null)
+            return;
+        try
+        {
+            raf.close();
+        }
+        catch (IOException e)
+        {
+            throw spillException("close", e);
+        }
+        finally
+        {
+            file.delete();
+            file = null;
+        }
+    }
+
+    /**
+     * encode the oldest block still held in memory and write it to the end
+     * of the temporary file
+     * @throws DBException thrown if the file cannot be written
+     */
+    private void spillOldest() throws DBException
+    {
+        Block block = null;
+        for (int i = 0; i < blocks.size(); i++)
+        {
+            block = (Block)blocks.get(i);
+            if (block.columns != null)
+                break;
+        }
+        try
+        {
+            if (file == null)
+            {
+                file = File.createTempFile("results", ".spill");
+                file.deleteOnExit();
+                raf = new RandomAccessFile(file, "rw");
+                channel = raf.getChannel();
+            }
+            byte[] bytes = encode(block);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long position = fileLength;
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+            block.offset = fileLength;
+            block.length = bytes.length;
+            fileLength = position;
+        }
+        catch (IOException e)
+        {
+            throw spillException("write", e);
+        }
+        block.columns = null;
+        block.strings = null;
+        memoryBlocks--;
+    }
+
+    /**
+     * read back a spilled block, reusing the last one read if it is the
+     * same block
+     * @param index the index of the block
+     * @param block the spilled block
+     * @return a block holding the decoded rows
+     * @throws DBException thrown if the file cannot be read
+     */
+    private Block decode(int index, Block block) throws DBException
+    {
+        if (decodedIndex == index)
+            return decoded;
+        Block b = new Block(layout);
+        b.rows = block.rows;
+        try
+        {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                                            block.offset, block.length);
+            for (int c = 0; c < columns; c++)
+            {
+                for (int r = 0; r < b.rows; r++)
+                    b.columns[c].set(r, readValue(buffer));
+                if (layout.copiesString(c))
+                {
+                    for (int r = 0; r < b.rows; r++)
+                        b.strings[c][r] = (String)readValue(buffer);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw spillException("read", e);
+        }
+        decoded = b;
+        decodedIndex = index;
+        return b;
+    }
+
+    /**
+     * encode a block column by column
+     * @param block the block
+     * @return the encoded block
+     * @throws IOException thrown if the values cannot be written
+     */
+    private byte[] encode(Block block) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int c = 0; c < columns; c++)
+        {
+            for (int r = 0; r < block.rows; r++)
+                writeValue(out, block.columns[c].get(r));
+            if (layout.copiesString(c))
+            {
+                for (int r = 0; r < block.rows; r++)
+                    writeValue(out, block.strings[c][r]);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * get the value to store for a value read from the ResultSet, which is
+     * its string value if it is not of a type which can be encoded
+     * @param o the value
+     * @return the value to store
+     */
+    private static Object storable(Object o)
+    {
+        if (o == null || o instanceof String || o instanceof Integer ||
+            o instanceof Long || o instanceof Double ||
+            o instanceof Boolean || o instanceof BigDecimal ||
+            o instanceof Timestamp || o instanceof java.sql.Date ||
+            o instanceof Time || o instanceof byte[] ||
+            o instanceof Short || o instanceof Float)
+            return o;
+        return o.toString();
+    }
+
+    /**
+     * write a tagged value
+     * @param out the output
+     * @param o the value
+     * @throws IOException thrown if the value cannot be written
+     */
+    private static void writeValue(DataOutputStream out, Object o)
+        throws IOException
+    {
+        if (o == null)
+            out.writeByte(NULL);
+        else if (o instanceof String)
+        {
+            out.writeByte(STRING);
+            writeBytes(out, ((String)o).getBytes("UTF-8"));
+        }
+        else if (o instanceof Integer)
+        {
+            out.writeByte(INTEGER);
+            out.writeInt(((Integer)o).intValue());
+        }
+        else if (o instanceof Long)
+        {
+            out.writeByte(LONG);
+            out.writeLong(((Long)o).longValue());
+        }
+        else if (o instanceof Double)
+        {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((Double)o).doubleValue());
+        }
+        else if (o instanceof Boolean)
+        {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean(((Boolean)o).booleanValue());
+        }
+        else if (o instanceof BigDecimal)
+        {
+            out.writeByte(DECIMAL);
+            writeBytes(out, o.toString().getBytes("UTF-8"));
+        }
+        else if (o instanceof Timestamp)
+        {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(((Timestamp)o).getTime());
+            out.writeInt(((Timestamp)o).getNanos());
+        }
+        else if (o instanceof java.sql.Date)
+        {
+            out.writeByte(DATE);
+            out.writeLong(((java.sql.Date)o).getTime());
+        }
+        else if (o instanceof Time)
+        {
+            out.writeByte(TIME);
+            out.writeLong(((Time)o).getTime());
+        }
+        else if (o instanceof byte[])
+        {
+            out.writeByte(BYTES);
+            writeBytes(out, (byte[])o);
+        }
+        else if (o instanceof Short)
+        {
+            out.writeByte(SHORT);
+            out.writeShort(((Short)o).shortValue());
+        }
+        else
+        {
+            out.writeByte(FLOAT);
+            out.writeFloat(((Float)o).floatValue());
+        }
+    }
+
+    /**
+     * write a length followed by the given bytes
+     * @param out the output
+     * @param b the bytes
+     * @throws IOException thrown if the bytes cannot be written
+     */
+    private static void writeBytes(DataOutputStream out, byte[] b)
+        throws IOException
+    {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /**
+     * read a tagged value
+     * @param in the buffer positioned at the value
+     * @return the value
+     * @throws IOException thrown if the value cannot be decoded
+     */
+    private static Object readValue(ByteBuffer in) throws IOException
+    {
+        byte tag = in.get();
+        switch (tag)
+        {
+            case NULL:
+                return null;
+            case STRING:
+                return new String(readBytes(in), "UTF-8");
+            case INTEGER:
+                return new Integer(in.getInt());
+            case LONG:
+                return new Long(in.getLong());
+            case DOUBLE:
+                return new Double(in.getDouble());
+            case BOOLEAN:
+                return Boolean.valueOf(in.get() != 0);
+            case DECIMAL:
+                return new BigDecimal(new String(readBytes(in), "UTF-8"));
+            case TIMESTAMP:
+                Timestamp t = new Timestamp(in.getLong());
+                t.setNanos(in.getInt());
+                return t;
+            case DATE:
+                return new java.sql.Date(in.getLong());
+            case TIME:
+                return new Time(in.getLong());
+            case BYTES:
+                return readBytes(in);
+            case SHORT:
+                return new Short(in.getShort());
+            case FLOAT:
+                return new Float(in.getFloat());
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    /**
+     * read a length followed by that many bytes
+     * @param in the buffer positioned at the length
+     * @return the bytes
+     */
+    private static byte[] readBytes(ByteBuffer in)
+    {
+        byte[] b = new byte[in.getInt()];
+        in.get(b);
+        return b;
+    }
+
+    /**
+     * get a DBException for an error with the temporary file
+     * @param action the action which failed
+     * @param e the cause
+     * @return the DBException
+     */
+    private static DBException spillException(String action, Exception e)
+    {
+        DBExceptionFactory eFactory = new DBExceptionFactory();
+        DBException e2 = (DBException)
+            eFactory.getException(DBExceptionFactory.SpillFileErr, e);
+        e2.bind(action);
+        return e2;
+    }
+
+    /**
+     * A block of rows held column by column
+     * @has the Column of each column, the copied string values, the number
+     * of rows and, once spilled, the position of the block in the
+     * temporary file
+     * @does nothing
+     * @company The Jackson Laboratory
+     * @author M Walker
+     */
+    private static class Block
+    {
+        private Column[] columns = null;
+        private String[][] strings = null;
+        private int rows = 0;
+        private long offset = 0;
+        private int length = 0;
+
+        /**
+         * constructor
+         * @param layout the column layout of the rows
+         */
+        private Block(SnapshotRowReference.Layout layout)
+        {
+            int count = layout.getColumnCount();
+            columns = new Column[count];
+            strings = new String[count][];
+            for (int c = 0; c < count; c++)
+            {
+                columns[c] = new Column();
+                // only allocated for the columns whose strings are copied
+                if (layout.copiesString(c))
+                    strings[c] = new String[BLOCK_ROWS];
+            }
+        }
+    }
+
+    /**
+     * The values of one column of a block. The type of the column is taken
+     * from its first value which is not null. Integer, long, double,
+     * boolean and date and time values are held as primitives, with the
+     * nanoseconds of a Timestamp held separately, and null values are
+     * recorded in a bitmap. If a value of another type is set the values
+     * are boxed and held as objects from then on.
+     * @has the type of the column, the arrays holding its values and a
+     * bitmap of the null rows
+     * @does sets and gets the value of a row
+     * @company The Jackson Laboratory
+     * @author M Walker
+     */
+    private static class Column
+    {
+        // NULL until a value which is not null is set
+        private byte type = NULL;
+        private long[] nulls = new long[(BLOCK_ROWS + 63) / 64];
+        private int[] ints = null;
+        private long[] longs = null;
+        private double[] doubles = null;
+        private Object[] objects = null;
+
+        /**
+         * set the value of a row
+         * @param r the row within the block
+         * @param o the value, which is one that storable() returns
+         */
+        private void set(int r, Object o)
+        {
+            if (o == null)
+            {
+                nulls[r >> 6] |= 1L << r;
+                return;
+            }
+            nulls[r >> 6] &= ~(1L << r);
+            byte t = typeOf(o);
+            if (type == NULL)
+                allocate(t);
+            else if (t != type && type != OBJECT)
+                box();
+            switch (type)
+            {
+                case INTEGER:
+                    ints[r] = ((Integer)o).intValue();
+                    break;
+                case LONG:
+                    longs[r] = ((Long)o).longValue();
+                    break;
+                case DATE:
+                case TIME:
+                    longs[r] = ((java.util.Date)o).getTime();
+                    break;
+                case DOUBLE:
+                    doubles[r] = ((Double)o).doubleValue();
+                    break;
+                case BOOLEAN:
+                    ints[r] = ((Boolean)o).booleanValue() ? 1 : 0;
+                    break;
+                case TIMESTAMP:
+                    longs[r] = ((Timestamp)o).getTime();
+                    ints[r] = ((Timestamp)o).getNanos();
+                    break;
+                default:
+                    objects[r] = o;
+                    break;
+            }
+        }
+
+        /**
+         * get the value of a row
+         * @param r the row within the block
+         * @return the value, or null if the row is null
+         */
+        private Object get(int r)
+        {
+            if (type == NULL || (nulls[r >> 6] & (1L << r)) != 0)
+                return null;
+            switch (type)
+            {
+                case INTEGER:
+                    return new Integer(ints[r]);
+                case LONG:
+                    return new Long(longs[r]);
+                case DOUBLE:
+                    return new Double(doubles[r]);
+                case BOOLEAN:
+                    return Boolean.valueOf(ints[r] != 0);
+                case TIMESTAMP:
+                    Timestamp t = new Timestamp(longs[r]);
+                    t.setNanos(ints[r]);
+                    return t;
+                case DATE:
+                    return new java.sql.Date(longs[r]);
+                case TIME:
+                    return new Time(longs[r]);
+                default:
+                    return objects[r];
+            }
+        }
+
+        /**
+         * allocate the arrays for the type of the first value
+         * @param t the type
+         */
+        private void allocate(byte t)
+        {
+            type = t;
+            switch (t)
+            {
+                case INTEGER:
+                case BOOLEAN:
+                    ints = new int[BLOCK_ROWS];
+                    break;
+                case LONG:
+                case DATE:
+                case TIME:
+                    longs = new long[BLOCK_ROWS];
+                    break;
+                case DOUBLE:
+                    doubles = new double[BLOCK_ROWS];
+                    break;
+                case TIMESTAMP:
+                    longs = new long[BLOCK_ROWS];
+                    ints = new int[BLOCK_ROWS];
+                    break;
+                default:
+                    objects = new Object[BLOCK_ROWS];
+                    break;
+            }
+        }
+
+        /**
+         * change the column to hold its values as objects
+         */
+        private void box()
+        {
+            Object[] boxed = new Object[BLOCK_ROWS];
+            for (int r = 0; r < BLOCK_ROWS; r++)
+                boxed[r] = get(r);
+            type = OBJECT;
+            ints = null;
+            longs = null;
+            doubles = null;
+            objects = boxed;
+        }
+
+        /**
+         * get the type of a column for a value
+         * @param o the value, which is not null
+         * @return the type
+         */
+        private static byte typeOf(Object o)
+        {
+            if (o instanceof Integer)
+                return INTEGER;
+            if (o instanceof Long)
+                return LONG;
+            if (o instanceof Double)
+                return DOUBLE;
+            if (o instanceof Boolean)
+                return BOOLEAN;
+            if (o instanceof Timestamp)
+                return TIMESTAMP;
+            if (o instanceof java.sql.Date)
+                return DATE;
+            if (o instanceof Time)
+                return TIME;
+            return OBJECT;
+        }
+    }
+}
@@ -13,9 +13,9 @@ import java.util.Vector;
 import java.util.Iterator;
 import java.util.StringTokenizer;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jax.mgi.shr.dbutils.bcp.RecordStampFactory;
-import org.jax.mgi.shr.dbutils.types.TypeValidator;
 import org.jax.mgi.shr.dbutils.DBExceptionFactory;
 import org.jax.mgi.shr.dbutils.bcp.RecordStamper;
 import org.jax.mgi.shr.config.ConfigException;
@@ -58,9 +58,27 @@ public class Table {
    */
   private RecordStamper recordStamp = null;
   /*
-   * the next key value for single valued incremental primary keys
+   * the last key value handed out for single valued incremental primary
+   * keys. It is incremented atomically so that keys can be obtained from
+   * more than one thread.
    */
-  private int cacheKey = 0;
+  private AtomicInteger cacheKey = new AtomicInteger(0);
+  /*
+   * the database sequence from which blocks of keys are reserved, or null
+   * if keys are allocated from the cached maximum key value
+   */
+  private String keySequence = null;
+  /*
+   * the number of keys to reserve from the sequence at a time
+   */
+  private int keyBlockSize = 0;
+  /*
+   * the keys reserved from the sequence and the position of the next one
+   * to hand out. Access is synchronized on the keyLock.
+   */
+  private int[] keyBlock = new int[0];
+  private int keyBlockPos = 0;
+  private Object keyLock = new Object();
   /*
    * an indicator of whether the primary key for this table is
    * single valued and incremental. That is can it be used in the
@@ -72,11 +90,27 @@ public class Table {
    */
   private SQLDataManager dataManager = null;
 
+  /*
+   * the pool of Table instances keyed by database and table name. Access
+   * is synchronized on the pool itself.
+   */
   private static HashMap tablePool = new HashMap();
+  /*
+   * the number of milliseconds between checks that the connection of a
+   * pooled Table is still usable
+   */
+  private static final long LIVENESS_INTERVAL = 60000;
   /**
-   * indicator for whether or not the metadata has been obtained
+   * indicator for whether or not the metadata has been obtained. It is
+   * only set once the metadata is complete so that it can be checked
+   * without holding the lock on this instance.
    */
-  private boolean metadataRead = false;
+  private volatile boolean metadataRead = false;
+  /*
+   * the validator compiled from the column definitions, created on the
+   * first validation
+   */
+  private RowValidator rowValidator = null;
   /*
    * the execption factory for storing and retrieving DataExceptions
    */
@@ -122,12 +156,14 @@ throws DBException, ConfigException
 {
     SQLDataManager sqlMgr = new SQLDataManager();
   String hashEntryName = sqlMgr.getDatabase() + tableName;
-  Table table = (Table) tablePool.get(hashEntryName);
-  if (table == null) {
-    table = new Table(tableName, sqlMgr);
-    tablePool.put(hashEntryName, table);
+  synchronized (tablePool) {
+    Table table = (Table) tablePool.get(hashEntryName);
+    if (table == null) {
+      table = new Table(tableName, sqlMgr);
+      tablePool.put(hashEntryName, table);
+    }
+    return table;
   }
-  return table;
 }
 
 
@@ -135,7 +171,9 @@ throws DBException, ConfigException
    * get a Table object from the instance pool for the given table name
    * @assumes nothing
    * @effects a new Table instance will be created and placed in the pool
-   * if one does not already exist.
+   * if one does not already exist. The connection of a pooled instance is
+   * reopened if it was closed, and is checked with the database at most
+   * once a minute.
    * @param tableName the name of the table
    * @param sqlMgr the SQLDataManager
    * @return the Table instance
@@ -145,17 +183,17 @@ throws DBException, ConfigException
   throws DBException
     {
     String hashEntryName = sqlMgr.getDatabase() + tableName;
-    Table table = (Table) tablePool.get(hashEntryName);
-    if (table == null) {
-      table = new Table(tableName, sqlMgr);
-      tablePool.put(hashEntryName, table);
-    }
-    else
-    {
-        // make sure connection is still open
-        SQLDataManager mgr = table.getSQLDataManager();
-        mgr.reconnect();
+    Table table = null;
+    synchronized (tablePool) {
+      table = (Table) tablePool.get(hashEntryName);
+      if (table == null) {
+        table = new Table(tableName, sqlMgr);
+        tablePool.put(hashEntryName, table);
+        return table;
+      }
     }
+    // make sure connection is still open
+    table.getSQLDataManager().checkLiveness(LIVENESS_INTERVAL);
     return table;
   }
 
@@ -248,7 +286,9 @@ throws DBException, ConfigException
    * validate a given vector containing objects corresponding to a row for
    * this table. Metadata is queried from the database and each object is
    * compared to the column definitions corresponding to the order of the
-   * vector item.
+   * vector item. The column definitions are compiled into a validator the
+   * first time this is called so that later rows are checked without
+   * reading the metadata or creating validators again.
    * @assumes nothing
    * @effects nothing
    * @param v the vector of objects for validating
@@ -260,37 +300,15 @@ throws DBException, ConfigException
    */
   public void validateFields(Vector v, boolean autoStamp)
       throws DataException, DBException {
-    // if auto-filling the user and date fields then additional
-    // fields will be added after validation. But the field count
-    // will have to be compensated for when validating.
-    if (!metadataRead)
-      getTableDefinitions();
-    getRecordStamp();
-    int additionalFields = 0;
-    if (autoStamp)
-      additionalFields = this.recordStamp.getStampFieldCount();
-    if (columnDefinitions.size() != v.size() + additionalFields) {
-      DataException e = (DataException)
-          dataExceptionFactory.getException(FieldCountErr);
-      e.bind(v.size() + additionalFields);
-      e.bind(columnDefinitions.size());
-      e.bind(tableName);
-      //throw e;
-    }
-    for (int i = 0; i < v.size(); i++) {
-      Object o = v.get(i);
-      ColumnDef c = (ColumnDef) columnDefinitions.get(i);
-      TypeValidator validator = c.getTypeValidator();
-      try {
-        validator.validate(o);
-      }
-      catch (DataException e) {
-        DBException e2 =
-            (DBException) dbExceptionFactory.getException(ValidationErr, e);
-        e2.bind(tableName);
-        throw e2;
-      }
+    if (rowValidator == null) {
+      if (!metadataRead)
+        getTableDefinitions();
+      rowValidator = new RowValidator(tableName, columnDefinitions);
     }
+    // the number of fields, including any record stamp fields added by the
+    // BCPWriter, has never been enforced here (see FieldCountErr) so it
+    // is not checked
+    rowValidator.validate(v);
   }
 
 
@@ -438,14 +456,17 @@ throws DBException, ConfigException
 
     /**
      * get the next key value for the table from cache. This value is cached
-     * and may not reflect the actual max key value in the table. This
-     * method cannot be used in a mutithreaded nonconcurrent application.
-     * @assumes that this method is not running concurrently in more than one
-     * thread
+     * and may not reflect the actual max key value in the table. The value
+     * is incremented atomically so this method may be called from more than
+     * one thread and each call will get a different key. If a key sequence
+     * has been set with setKeyReservation() then the keys are taken from
+     * blocks reserved from that sequence instead, which also keeps them
+     * distinct from keys obtained by other processes using the sequence.
+     * @assumes nothing
      * @effects the cached key value will be incremented
      * @return the cached maximum key value + 1
      * @throws DBException thrown if there is a two part key or if the key
-     * is not an integer
+     * is not an integer or if a block of keys could not be reserved
      */
     public Integer getNextKey() throws DBException {
       if (!metadataRead) getTableDefinitions();
@@ -457,17 +478,84 @@ throws DBException, ConfigException
         e.bind(dataManager.getDatabase());
         throw e;
       }
-      return new Integer(++cacheKey);
+      if (keySequence == null)
+        return new Integer(cacheKey.incrementAndGet());
+      synchronized (keyLock) {
+        if (keyBlockPos == keyBlock.length)
+          reserveKeyBlock();
+        return new Integer(keyBlock[keyBlockPos++]);
+      }
     }
 
     /**
      * set the primary key to start at 1
      * @assumes nothing
-     * @effects the call to getNextKey() will return 1
+     * @effects the call to getNextKey() will return 1 unless keys are
+     * reserved from a sequence
      */
     public void resetKey()
     {
-        this.cacheKey = 0;
+        this.cacheKey.set(0);
+    }
+
+    /**
+     * take keys from the given database sequence in blocks of the given
+     * size rather than from the cached maximum key value. This is for
+     * loads run by more than one process at the same time, where each
+     * process must use keys the others have not. Keys in a reserved block
+     * which are not used are lost. A null sequence name turns reservation
+     * off again.
+     * @assumes the sequence exists and is not behind the keys in the table
+     * @effects later calls to getNextKey() will take keys from the sequence
+     * @param sequenceName the name of the sequence or null
+     * @param blockSize the number of keys to reserve at a time
+     */
+    public void setKeyReservation(String sequenceName, int blockSize)
+    {
+        synchronized (keyLock) {
+            keySequence = sequenceName;
+            keyBlockSize = (blockSize < 1 ? 1 : blockSize);
+            keyBlock = new int[0];
+            keyBlockPos = 0;
+        }
+    }
+
+    /**
+     * reserve a block of keys from the key sequence
+     * @assumes the caller holds the keyLock
+     * @effects the sequence will be advanced by the block size
+     * @throws DBException thrown if there is an error with the database
+     */
+    private void reserveKeyBlock() throws DBException
+    {
+        String sql = "SELECT nextval('" + keySequence + "') " +
+            "FROM generate_series(1, " + keyBlockSize + ")";
+        int[] block = new int[keyBlockSize];
+        int count = 0;
+        ResultsNavigator it = dataManager.executeQuery(sql);
+        try {
+            while (it.next() && count < block.length) {
+                RowReference row = (RowReference) it.getCurrent();
+                block[count++] = row.getInt(1).intValue();
+            }
+        }
+        finally {
+            it.close();
+        }
+        if (count == 0) {
+            DBException e = (DBException)
+                dbExceptionFactory.getException(UnexpectedCondition);
+            e.bind("reserve keys from sequence " + keySequence +
+                   " for table " + tableName);
+            throw e;
+        }
+        if (count < block.length) {
+            int[] shorter = new int[count];
+            System.arraycopy(block, 0, shorter, 0, count);
+            block = shorter;
+        }
+        keyBlock = block;
+        keyBlockPos = 0;
     }
 
 
@@ -515,10 +603,10 @@ throws DBException, ConfigException
     if (it.next()) {
         RowReference row = (RowReference) it.getCurrent();
         Integer colData = row.getInt(1);
+        int max = 0;
         if (colData != null)
-            cacheKey = colData.intValue();
-        if (cacheKey < 0)
-            cacheKey = 0;
+            max = colData.intValue();
+        cacheKey.set(max < 0 ? 0 : max);
     }
   }
 
@@ -526,12 +614,19 @@ throws DBException, ConfigException
    * query the database to get the metadata associated with this table.
    * Note: Sybase does not return results with getPrimaryKeys() if the
    * the keys were created with sp_primarykey. Therefore, to get primary
-   * key information, this code uses the sp_helpkey procedure.
+   * key information, this code uses the sp_helpkey procedure. This is
+   * synchronized so that threads making their first calls at the same time
+   * read the metadata and the starting key value only once.
    * @assumes nothing
    * @effects the internal column definitions will be set
    * @throws org.jax.mgi.shr.dbutils.DBException
    */
-  private void getTableDefinitions() throws DBException {
+  private synchronized void getTableDefinitions() throws DBException {
+    if (metadataRead)
+      return;
+    // discard anything left by an earlier attempt which failed
+    columnDefinitions.clear();
+    pKeyDefinitions.clear();
     try {
       DatabaseMetaData dbmd = dataManager.getMetaData();
       // obtain the column definitions for the table
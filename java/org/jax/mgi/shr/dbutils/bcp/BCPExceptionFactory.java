@@ -183,6 +183,63 @@ public class BCPExceptionFactory extends ExceptionFactory {
         "There was a failure when trying to create a bcp vector", false));
   }
 
+  /**
+   * the row count reported by a COPY command did not match the number
+   * of rows in the bcp file
+   */
+  public static final String CopyRowCountErr =
+      "org.jax.mgi.shr.dbutils.bcp.CopyRowCountErr";
+  static {
+    exceptionsMap.put(CopyRowCountErr, new BCPException(
+        "The COPY command for table ?? loaded ?? rows but the bcp " +
+        "file contained ?? rows", false));
+  }
+
+  /**
+   * the dependencies declared between tables being loaded in parallel
+   * can never be satisfied
+   */
+  public static final String DependencyCycleErr =
+      "org.jax.mgi.shr.dbutils.bcp.DependencyCycleErr";
+  static {
+    exceptionsMap.put(DependencyCycleErr, new BCPException(
+        "The declared bcp dependencies for the following tables form " +
+        "a cycle: ??", false));
+  }
+
+  /**
+   * an unexpected error occurred while loading a table in parallel
+   */
+  public static final String ParallelExecuteErr =
+      "org.jax.mgi.shr.dbutils.bcp.ParallelExecuteErr";
+  static {
+    exceptionsMap.put(ParallelExecuteErr, new BCPException(
+        "An unexpected error occurred while executing bcp for table ??",
+        false));
+  }
+
+  /**
+   * a segment of a bcp file failed to load in the background
+   */
+  public static final String SegmentLoadErr =
+      "org.jax.mgi.shr.dbutils.bcp.SegmentLoadErr";
+  static {
+    exceptionsMap.put(SegmentLoadErr, new BCPException(
+        "Loading a bcp file segment in the background failed for " +
+        "table ??", false));
+  }
+
+  /**
+   * a value could not be written in the binary copy format
+   */
+  public static final String BinaryFormatErr =
+      "org.jax.mgi.shr.dbutils.bcp.BinaryFormatErr";
+  static {
+    exceptionsMap.put(BinaryFormatErr, new BCPException(
+        "Could not write the value ?? in binary copy format for column ?? " +
+        "of type ??", false));
+  }
+
 
 
 
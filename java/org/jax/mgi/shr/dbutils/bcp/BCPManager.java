@@ -10,12 +10,15 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Vector;
 import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
 import org.jax.mgi.shr.unix.RunCommand;
 import org.jax.mgi.shr.config.BCPManagerCfg;
 import org.jax.mgi.shr.config.BCPWriterCfg;
 import org.jax.mgi.shr.log.Logger;
 import org.jax.mgi.shr.config.ConfigException;
 import org.jax.mgi.shr.dbutils.DBException;
+import org.jax.mgi.shr.dbutils.DBExceptionFactory;
 import org.jax.mgi.shr.dbutils.DBSchema;
 import org.jax.mgi.shr.dbutils.DBSchemaException;
 import org.jax.mgi.shr.dbutils.SQLDataManager;
@@ -35,7 +38,9 @@ import org.jax.mgi.shr.dbutils.Table;
  * <LI>A logger for logging informational and debug messages
  * </UL>
  * @does obtains BCPWriters for creating bcp files and execute the bcp
- * command for each file.
+ * command for each file. Files can be loaded one after another or several
+ * at a time on separate connections (see setMaxParallel() and
+ * addDependency()).
  * @company Jackson Laboratory
  * @author M. Walker
  */
@@ -106,6 +111,45 @@ public class BCPManager {
   private String connectionClass = null;
 
   private String bcpCommand = null;
+  /**
+   * indicator of whether to load files with the COPY command over the
+   * existing connection
+   */
+  private boolean useCopy;
+
+  // indicator of whether bcp files are written in binary copy format
+  private boolean binaryFormat;
+  /*
+   * the maximum number of tables to load at the same time
+   */
+  private int maxParallel = 1;
+  /*
+   * the number of indexes to create at the same time after loading
+   */
+  private int indexConcurrency = 1;
+  /*
+   * whether indexes are created with the concurrently option
+   */
+  private boolean concurrentIndexes = false;
+  /*
+   * the names of the tables which must be loaded before a given table
+   * when loading in parallel, keyed by table name
+   */
+  private HashMap dependencies = new HashMap();
+  /*
+   * the number of rows after which a BCPWriter rolls over to a new
+   * segment file which is loaded in the background
+   */
+  private int segmentRows = 0;
+  /*
+   * the number of characters after which a BCPWriter rolls over to a new
+   * segment file which is loaded in the background
+   */
+  private int segmentBytes = 0;
+  /*
+   * the background loader for completed segments
+   */
+  private SegmentLoader segmentLoader = null;
   /*
    * bcp exception factory used to store and obtain bcp exceptions
    */
@@ -121,6 +165,14 @@ public class BCPManager {
       BCPExceptionFactory.NonZeroErr;
   private static String InvalidDelimiter =
       BCPExceptionFactory.InvalidDelimiter;
+  private static String DependencyCycleErr =
+      BCPExceptionFactory.DependencyCycleErr;
+  private static String ParallelExecuteErr =
+      BCPExceptionFactory.ParallelExecuteErr;
+  private static String SegmentLoadErr =
+      BCPExceptionFactory.SegmentLoadErr;
+  private static String ConfigErr =
+      DBExceptionFactory.ConfigErr;
   /**
    * default constructor which reads the configuration from a
    * default configuration object
@@ -392,6 +444,118 @@ public class BCPManager {
     okToDropTriggers = boolParam;
   }
 
+  /**
+   * set the option which designates whether to load bcp files with the
+   * COPY command over the existing connection, overriding the value found
+   * in the configuration file or system properties.
+   * @assumes nothing
+   * @effects the internal value of the useCopy flag will be set.
+   * @param boolParam true or false
+   */
+  public void setUseCopy(boolean boolParam) {
+    useCopy = boolParam;
+  }
+
+  /**
+   * set the option which designates whether bcp files are written in the
+   * Postgres binary COPY format, overriding the value found in the
+   * configuration file or system properties. Binary files are always
+   * loaded with the COPY command. This should be set before any
+   * BCPWriters are obtained from this BCPManager.
+   * @assumes nothing
+   * @effects the internal value of the binaryFormat flag will be set.
+   * @param boolParam true or false
+   */
+  public void setBinaryFormat(boolean boolParam) {
+    binaryFormat = boolParam;
+  }
+
+  /**
+   * set the maximum number of tables to load at the same time, overriding
+   * the value found in the configuration file or system properties. When
+   * greater than one, each table is loaded, along with its index and
+   * trigger handling, on a separate connection obtained from the
+   * SQLDataManager of its Table.
+   * @assumes nothing
+   * @effects the internal value of the maxParallel setting will be set.
+   * @param count the maximum number of tables to load at once
+   */
+  public void setMaxParallel(int count) {
+    maxParallel = count;
+  }
+
+  /**
+   * set the number of indexes to create at the same time when the indexes
+   * of a table are recreated after loading, overriding the value found in
+   * the configuration file or system properties. When greater than one,
+   * each index is created on a separate connection.
+   * @assumes nothing
+   * @effects the internal value of the indexConcurrency setting will be set
+   * @param count the number of indexes to create at once
+   */
+  public void setIndexConcurrency(int count) {
+    indexConcurrency = count;
+  }
+
+  /**
+   * set whether indexes are recreated after loading with the concurrently
+   * option, overriding the value found in the configuration file or system
+   * properties. This has no effect on Sybase databases.
+   * @assumes nothing
+   * @effects the internal value of the concurrentIndexes setting will be
+   * set
+   * @param boolParam true to create indexes concurrently
+   */
+  public void setConcurrentIndexes(boolean boolParam) {
+    concurrentIndexes = boolParam;
+  }
+
+  /**
+   * set the number of rows after which each BCPWriter closes its current
+   * file and starts a new one, overriding the value found in the
+   * configuration file or system properties. Completed files are loaded
+   * in the background while writing continues.
+   * @assumes nothing
+   * @effects the internal value of the segmentRows setting will be set.
+   * @param rows the number of rows per segment or zero for no limit
+   */
+  public void setSegmentRows(int rows) {
+    segmentRows = rows;
+  }
+
+  /**
+   * set the number of characters after which each BCPWriter closes its
+   * current file and starts a new one, overriding the value found in the
+   * configuration file or system properties. Completed files are loaded
+   * in the background while writing continues.
+   * @assumes nothing
+   * @effects the internal value of the segmentBytes setting will be set.
+   * @param bytes the number of characters per segment or zero for no limit
+   */
+  public void setSegmentBytes(int bytes) {
+    segmentBytes = bytes;
+  }
+
+  /**
+   * declare that the given table must not be loaded until the table it
+   * depends on has been loaded, such as when the table has a foreign key
+   * to the other. Dependencies on tables which have no BCPWriter are
+   * ignored. This only affects parallel loads since sequential loads are
+   * done in the order the BCPWriters were obtained.
+   * @assumes nothing
+   * @effects a dependency between the two tables will be recorded
+   * @param tableName the name of the dependent table
+   * @param dependsOn the name of the table which must be loaded first
+   */
+  public void addDependency(String tableName, String dependsOn) {
+    Vector v = (Vector)dependencies.get(tableName.toLowerCase());
+    if (v == null) {
+      v = new Vector();
+      dependencies.put(tableName.toLowerCase(), v);
+    }
+    v.add(dependsOn.toLowerCase());
+  }
+
   /**
    * get the field delimiter for the BCP file.
    * @assumes nothing
@@ -514,6 +678,60 @@ public class BCPManager {
     return okToAutoFlush;
   }
 
+  /**
+   * get the value of the option which designates whether to load bcp
+   * files with the COPY command over the existing connection.
+   * @assumes nothing
+   * @effects nothing
+   * @return true or false
+   */
+  public boolean getUseCopy() {
+    return useCopy;
+  }
+
+  /**
+   * get the value of the option which designates whether bcp files are
+   * written in the Postgres binary COPY format.
+   * @assumes nothing
+   * @effects nothing
+   * @return true or false
+   */
+  public boolean getBinaryFormat() {
+    return binaryFormat;
+  }
+
+  /**
+   * get the maximum number of tables to load at the same time.
+   * @assumes nothing
+   * @effects nothing
+   * @return the maximum number of tables to load at once
+   */
+  public int getMaxParallel() {
+    return maxParallel;
+  }
+
+  /**
+   * get the number of rows after which each BCPWriter starts a new
+   * segment file.
+   * @assumes nothing
+   * @effects nothing
+   * @return the number of rows per segment or zero for no limit
+   */
+  public int getSegmentRows() {
+    return segmentRows;
+  }
+
+  /**
+   * get the number of characters after which each BCPWriter starts a new
+   * segment file.
+   * @assumes nothing
+   * @effects nothing
+   * @return the number of characters per segment or zero for no limit
+   */
+  public int getSegmentBytes() {
+    return segmentBytes;
+  }
+
 
   /**
    * get a BCPWriter object for a given table
@@ -568,7 +786,9 @@ public class BCPManager {
   //}
 
   /**
-   * execute all the existing bcp files
+   * execute all the existing bcp files. If segments of any bcp files have
+   * been handed off for loading while writing, these loads are waited on
+   * first.
    * @throws BCPException thrown if there is some error handling the bcp
    * file or executing the bcp command
    * @throws DBException thrown if there is an error with the database
@@ -582,9 +802,27 @@ public class BCPManager {
       writer = (BCPWriter) it.next();
       writer.close();
     }
+    if (segmentLoader != null) {
+      SegmentLoader loader = segmentLoader;
+      segmentLoader = null;
+      Exception failure = loader.finish();
+      if (failure != null) {
+        invalidateWriters();
+        throwFailure(failure, SegmentLoadErr, loader.getFailedTable());
+      }
+    }
+    if (maxParallel > 1 && allWriters.size() > 1 && !preventExecute) {
+      try {
+        executeParallel();
+      }
+      finally {
+        invalidateWriters();
+      }
+      return;
+    }
     for (Iterator it = allWriters.iterator(); it.hasNext(); ) {
       writer = (BCPWriter) it.next();
-      executeBCP(writer);
+      executeBCP(writer, writer.getTable().getSQLDataManager());
       // invalidate the writer
       writer.setIsValid(false);
     }
@@ -592,6 +830,123 @@ public class BCPManager {
     allWriters = new Vector();
   }
 
+  /**
+   * hand off a completed segment of a bcp file to be loaded in the
+   * background while the BCPWriter continues writing to a new segment.
+   * This is called by a BCPWriter when its segment limits are reached.
+   * @assumes the segment file has been closed
+   * @effects the segment will be queued for loading and the background
+   * loader will be started if it is not already running
+   * @param writer the BCPWriter which wrote the segment
+   * @param filename the name of the segment file
+   * @throws BCPException thrown if a previously queued segment failed to
+   * load
+   */
+  protected void loadSegment(BCPWriter writer, String filename)
+      throws BCPException {
+    if (segmentLoader == null) {
+      segmentLoader = new SegmentLoader();
+      Thread t = new Thread(segmentLoader, "BCPManager-segments");
+      t.setDaemon(true);
+      segmentLoader.setThread(t);
+      t.start();
+    }
+    segmentLoader.add(writer, filename);
+  }
+
+  /**
+   * determine whether BCPWriters should roll over to new segment files
+   * which are loaded while writing continues
+   * @assumes nothing
+   * @effects nothing
+   * @return true if a segment limit is set and execution is not prevented
+   */
+  protected boolean isSegmenting() {
+    return !preventExecute && (segmentRows > 0 || segmentBytes > 0);
+  }
+
+  /**
+   * executes the bcp files for all writers using up to maxParallel
+   * threads, each with its own connections. A writer is not started until
+   * all writers for tables it depends on, and any earlier writer for the
+   * same table, have finished.
+   * @assumes the writers have been closed
+   * @effects data will be loaded into the database
+   * @throws BCPException thrown if a load failed or if the declared
+   * dependencies can not be satisfied
+   * @throws DBException thrown if there is a failure when trying to run
+   * sql commands or when obtaining new connections
+   * @throws DBSchemaException thrown if there is an error running DDL
+   * commands using the DBSchema product
+   */
+  private void executeParallel()
+      throws BCPException, DBException, DBSchemaException {
+    BCPScheduler scheduler = new BCPScheduler(allWriters);
+    int count = Math.min(maxParallel, allWriters.size());
+    Thread[] threads = new Thread[count];
+    for (int i = 0; i < count; i++) {
+      threads[i] = new Thread(new BCPWorker(scheduler),
+                              "BCPManager-" + (i + 1));
+      threads[i].start();
+    }
+    for (int i = 0; i < count; i++) {
+      boolean joined = false;
+      while (!joined) {
+        try {
+          threads[i].join();
+          joined = true;
+        }
+        catch (InterruptedException e) {
+          // keep waiting so that no load is left running unattended
+        }
+      }
+    }
+    Exception failure = scheduler.getFailure();
+    if (failure != null)
+      throwFailure(failure, ParallelExecuteErr, scheduler.getFailedTable());
+  }
+
+  /**
+   * rethrow an exception caught on a background thread. Exceptions of the
+   * types declared by executeBCP() are thrown as is and any others are
+   * nested within a BCPException.
+   * @assumes nothing
+   * @effects nothing
+   * @param failure the exception caught
+   * @param key the name of the BCPException to nest other exceptions in
+   * @param table the name of the table being loaded at the time
+   * @throws BCPException thrown if failure is a BCPException or is not a
+   * DBException
+   * @throws DBException thrown if failure is a DBException
+   * @throws DBSchemaException thrown if failure is a DBSchemaException
+   */
+  private void throwFailure(Exception failure, String key, String table)
+      throws BCPException, DBException, DBSchemaException {
+    if (failure instanceof BCPException)
+      throw (BCPException)failure;
+    if (failure instanceof DBSchemaException)
+      throw (DBSchemaException)failure;
+    if (failure instanceof DBException)
+      throw (DBException)failure;
+    BCPException e2 = (BCPException)
+        exceptionFactory.getException(key, failure);
+    e2.bind(table);
+    throw e2;
+  }
+
+  /**
+   * invalidate and clear all writers
+   * @assumes nothing
+   * @effects all writers will be invalid for further writes
+   */
+  private void invalidateWriters() {
+    for (Iterator it = allWriters.iterator(); it.hasNext(); ) {
+      ((BCPWriter) it.next()).setIsValid(false);
+    }
+    allWriters = new Vector();
+  }
+
+
   /**
    * sets all the attributes from the configuration object
    * @assumes nothing
@@ -613,13 +968,24 @@ public class BCPManager {
     this.okToTruncateTable = pConfig.getOkToTruncateTable().booleanValue();
     this.connectionClass = pConfig.getConnectionManagerClass();
     this.bcpCommand = pConfig.getBcpCommand();
+    this.useCopy = pConfig.getUseCopy().booleanValue();
+    this.binaryFormat = pConfig.getBinaryFormat().booleanValue();
+    this.maxParallel = pConfig.getMaxParallel().intValue();
+    this.segmentRows = pConfig.getSegmentRows().intValue();
+    this.segmentBytes = pConfig.getSegmentBytes().intValue();
+    this.indexConcurrency = pConfig.getIndexConcurrency().intValue();
+    this.concurrentIndexes = pConfig.getConcurrentIndexes().booleanValue();
   }
 
   /**
-   * executes the associated bcp file for the given BCPWriter.
+   * executes the associated bcp file for the given BCPWriter. If earlier
+   * segments of the file have already been loaded in the background then
+   * the table has already been prepared and only the final segment is
+   * loaded before the indexes and triggers are recreated.
    * @assumes nothing
    * @effects data will be loaded into the database
    * @param bcpWriter the BCPWiter object
+   * @param sqlmanager the SQLDataManager to load the table through
    * @throws BCPException throws if BCPWriters cannot be closed or if bcp
    * command fails or if an sql exception is thrown while running pre sql or
    * post sql.
@@ -628,79 +994,32 @@ public class BCPManager {
    * @throws DBSchemaException thrown if there is an error running DDL
    * commands using the DBSchema product
    */
-  private void executeBCP(BCPWriter bcpWriter) throws BCPException,
-      DBException, DBSchemaException {
+  private void executeBCP(BCPWriter bcpWriter, SQLDataManager sqlmanager)
+      throws BCPException, DBException, DBSchemaException {
       // check attributes to see if the bcp command should not be performed
       if (preventExecute)
         return;
-    SQLDataManager sqlmanager = bcpWriter.getTable().getSQLDataManager();
-    DBSchema dbSchema = new DBSchema(sqlmanager);
+    DBSchema dbSchema = newDBSchema(sqlmanager);
     String file = bcpWriter.getFilename();
     String table = bcpWriter.getTablename();
-    // execute any sql pre bcp as designated in the bcpWriter
-    if (logger != null)
-      logger.logInfo(table + ": Execute any configured pre-SQL statements");
-    executeSql(bcpWriter.getPreSql(), sqlmanager);
-    if (bcpWriter.getOkToTruncateTable()) {
-      if (logger != null)
-        logger.logInfo(table + ": Truncate table");
-      dbSchema.truncateTable(table);
-    }
+    boolean segmented = bcpWriter.getSegmentCount() > 0;
+    if (!segmented)
+      prepareTable(bcpWriter, sqlmanager, dbSchema);
     // Only drop indexes, run bcp and re-create indexes if the writer has
     // records to load.
-    if (bcpWriter.hasRecords()) {
-      // drop indexes on table if configured to do so
-      if (bcpWriter.getOkToDropIndexes()) {
-        if (logger != null)
-          logger.logInfo(table + ": Drop indexes on table");
-        dbSchema.dropIndexes(table);
-      }
-      if (bcpWriter.getOkToDropTriggers()) {
-        if (logger != null)
-          logger.logInfo(table + ": Drop triggers on table");
-        dbSchema.dropTriggers(table);
-      }
-      try {
-          FileImporter fileImporter = chooseFileImporter();
-          fileImporter.importFile(file, table,
-                                  convertDelimiter(delimiter),
-                                  sqlmanager, logger);
-      }
-      // if execeptions are caught, try and recreate any indexes or triggers
-      // that were dropped and throw the Exception
-      catch (BCPException e) {
-        // need to recreate indexes if they were dropped
-        if (bcpWriter.getOkToDropIndexes()) {
-          if (logger != null)
-            logger.logInfo(table + ": Create indexes on table");
-          dbSchema.createIndexes(table);
-        }
-        if (bcpWriter.getOkToDropTriggers()) {
-          if (logger != null)
-            logger.logInfo(table + ": Create triggers on table");
-          dbSchema.createTriggers(table);
-        }
-        throw e;
-      }
+    if (segmented || bcpWriter.hasRecords()) {
+      if (!segmented)
+        dropIndexes(bcpWriter, dbSchema);
+      if (bcpWriter.hasRecords())
+        importFile(bcpWriter, file, sqlmanager, dbSchema);
       // All is OK...The import ran without exception.
       // recreate indexes and triggers if they were dropped in advance
-      if (bcpWriter.getOkToDropIndexes()) {
-        if (logger != null)
-          logger.logInfo(table + ": Create indexes on table");
-        dbSchema.createIndexes(table);
-      }
-      if (bcpWriter.getOkToDropTriggers()) {
-        if (logger != null)
-          logger.logInfo(table + ": Create triggers on table");
-        dbSchema.createTriggers(table);
-      }
-
+      createIndexes(bcpWriter, dbSchema);
     }
     // execute any sql post bcp as designated in the bcpWriter
     if (logger != null)
       logger.logInfo(table + ": Execute any configured post-SQL statements");
-    executeSql(bcpWriter.getPostSql(),
-               bcpWriter.getTable().getSQLDataManager());
+    executeSql(bcpWriter.getPostSql(), sqlmanager);
     // truncate the log if configured to do so
     if (okToTruncateLog) {
       if (logger != null)
@@ -714,6 +1033,133 @@ public class BCPManager {
     }
   }
 
+  /**
+   * create a DBSchema for the given connection which recreates indexes as
+   * configured
+   * @assumes nothing
+   * @effects nothing
+   * @param sqlmanager the SQLDataManager to run DDL commands through
+   * @return the new DBSchema
+   */
+  private DBSchema newDBSchema(SQLDataManager sqlmanager) {
+    DBSchema dbSchema = new DBSchema(sqlmanager);
+    dbSchema.setIndexConcurrency(indexConcurrency);
+    dbSchema.setUseConcurrentIndexes(concurrentIndexes);
+    return dbSchema;
+  }
+
+  /**
+   * executes the pre sql for the given BCPWriter and truncates the table
+   * if configured to do so
+   * @assumes nothing
+   * @effects the table may be truncated
+   * @param bcpWriter the BCPWriter object
+   * @param sqlmanager the SQLDataManager to use
+   * @param dbSchema the DBSchema to use
+   * @throws DBException thrown if there is a failure when trying to run
+   * sql commands
+   * @throws DBSchemaException thrown if there is an error running DDL
+   * commands using the DBSchema product
+   */
+  private void prepareTable(BCPWriter bcpWriter, SQLDataManager sqlmanager,
+                            DBSchema dbSchema)
+      throws DBException, DBSchemaException {
+    String table = bcpWriter.getTablename();
+    // execute any sql pre bcp as designated in the bcpWriter
+    if (logger != null)
+      logger.logInfo(table + ": Execute any configured pre-SQL statements");
+    executeSql(bcpWriter.getPreSql(), sqlmanager);
+    if (bcpWriter.getOkToTruncateTable()) {
+      if (logger != null)
+        logger.logInfo(table + ": Truncate table");
+      dbSchema.truncateTable(table);
+    }
+  }
+
+  /**
+   * drops the indexes and triggers on the table of the given BCPWriter if
+   * configured to do so
+   * @assumes nothing
+   * @effects indexes and triggers may be dropped
+   * @param bcpWriter the BCPWriter object
+   * @param dbSchema the DBSchema to use
+   * @throws DBException thrown if there is an error with the database
+   * @throws DBSchemaException thrown if there is an error running DDL
+   * commands using the DBSchema product
+   */
+  private void dropIndexes(BCPWriter bcpWriter, DBSchema dbSchema)
+      throws DBException, DBSchemaException {
+    String table = bcpWriter.getTablename();
+    // drop indexes on table if configured to do so
+    if (bcpWriter.getOkToDropIndexes()) {
+      if (logger != null)
+        logger.logInfo(table + ": Drop indexes on table");
+      dbSchema.dropIndexes(table);
+    }
+    if (bcpWriter.getOkToDropTriggers()) {
+      if (logger != null)
+        logger.logInfo(table + ": Drop triggers on table");
+      dbSchema.dropTriggers(table);
+    }
+  }
+
+  /**
+   * recreates the indexes and triggers on the table of the given BCPWriter
+   * if they were configured to be dropped
+   * @assumes nothing
+   * @effects indexes and triggers may be created
+   * @param bcpWriter the BCPWriter object
+   * @param dbSchema the DBSchema to use
+   * @throws DBException thrown if there is an error with the database
+   * @throws DBSchemaException thrown if there is an error running DDL
+   * commands using the DBSchema product
+   */
+  private void createIndexes(BCPWriter bcpWriter, DBSchema dbSchema)
+      throws DBException, DBSchemaException {
+    String table = bcpWriter.getTablename();
+    if (bcpWriter.getOkToDropIndexes()) {
+      if (logger != null)
+        logger.logInfo(table + ": Create indexes on table");
+      dbSchema.createIndexes(table);
+    }
+    if (bcpWriter.getOkToDropTriggers()) {
+      if (logger != null)
+        logger.logInfo(table + ": Create triggers on table");
+      dbSchema.createTriggers(table);
+    }
+  }
+
+  /**
+   * imports the given file into the table of the given BCPWriter
+   * @assumes any indexes to be dropped have been dropped
+   * @effects data will be loaded into the database
+   * @param bcpWriter the BCPWriter object
+   * @param file the name of the file to import
+   * @param sqlmanager the SQLDataManager to use
+   * @param dbSchema the DBSchema to use
+   * @throws BCPException thrown if the import fails, in which case any
+   * dropped indexes and triggers are recreated first
+   * @throws DBException thrown if there is an error with the database
+   * @throws DBSchemaException thrown if there is an error running DDL
+   * commands using the DBSchema product
+   */
+  private void importFile(BCPWriter bcpWriter, String file,
+                          SQLDataManager sqlmanager, DBSchema dbSchema)
+      throws BCPException, DBException, DBSchemaException {
+    try {
+        FileImporter fileImporter = chooseFileImporter();
+        fileImporter.importFile(file, bcpWriter.getTablename(),
+                                convertDelimiter(delimiter),
+                                sqlmanager, logger);
+    }
+    // if execeptions are caught, try and recreate any indexes or triggers
+    // that were dropped and throw the Exception
+    catch (BCPException e) {
+      createIndexes(bcpWriter, dbSchema);
+      throw e;
+    }
+  }
+
   /**
    * executes a vector of sql strings
    * @assumes nothing
@@ -732,8 +1178,19 @@ public class BCPManager {
     }
   }
 
+  /**
+   * get the FileImporter used to load the bcp files
+   * @assumes nothing
+   * @effects nothing
+   * @return a FileImporterPostgresCopy if configured to use the COPY
+   * command or to write binary files, otherwise a FileImporterPostgres
+   */
   public FileImporter chooseFileImporter()
   {
+	if (binaryFormat)
+	    return new FileImporterPostgresCopy(true);
+	if (useCopy)
+	    return new FileImporterPostgresCopy();
 	return new FileImporterPostgres(bcpCommand);
   }
 
@@ -762,6 +1219,417 @@ public class BCPManager {
       return new String("'" + s + "'");
     }
   }
+
+  /**
+   * get a connection from the given set for the SQLDataManager of the given
+   * writer's table, creating a new connection on first use
+   * @assumes nothing
+   * @effects a new connection may be made and added to the set
+   * @param writer the writer
+   * @param connections the set of connections keyed by the SQLDataManager
+   * they were created from
+   * @return the SQLDataManager for the new connection
+   * @throws DBException thrown if a new connection could not be made
+   */
+  private SQLDataManager openConnection(BCPWriter writer,
+                                        HashMap connections)
+      throws DBException {
+    SQLDataManager shared = writer.getTable().getSQLDataManager();
+    SQLDataManager own = (SQLDataManager)connections.get(shared);
+    if (own == null) {
+      try {
+        own = shared.newConnection();
+      }
+      catch (ConfigException e) {
+        DBExceptionFactory eFactory = new DBExceptionFactory();
+        DBException e2 = (DBException)
+            eFactory.getException(ConfigErr, e);
+        throw e2;
+      }
+      own.setDBSchemaDir(shared.getDBSchemaDir());
+      own.setLogger(shared.getLogger());
+      connections.put(shared, own);
+    }
+    return own;
+  }
+
+  /**
+   * close all the connections in the given set
+   * @assumes nothing
+   * @effects the connections will be closed and errors will be logged
+   * @param connections the set of connections
+   */
+  private void closeConnections(HashMap connections) {
+    for (Iterator it = connections.values().iterator(); it.hasNext(); ) {
+      try {
+        ((SQLDataManager)it.next()).closeResources();
+      }
+      catch (DBException e) {
+        if (logger != null)
+          logger.logInfo("Could not close bcp connection: " +
+                         e.getMessage());
+      }
+    }
+    connections.clear();
+  }
+
+  /**
+   * An object which hands out BCPWriters to worker threads during a
+   * parallel execute
+   * @has the writers waiting to be loaded and the names of the tables
+   * currently loading and already loaded
+   * @does gives each worker the next writer whose dependencies have been
+   * loaded and records the first failure, after which no more writers are
+   * handed out
+   * @company Jackson Laboratory
+   * @author M. Walker
+   */
+  private class BCPScheduler {
+    private Vector pending = null;
+    private Vector running = new Vector();
+    private HashSet finished = new HashSet();
+    private Exception failure = null;
+    private String failedTable = null;
+
+    /**
+     * constructor
+     * @param writers the writers to load in the order they were obtained
+     */
+    protected BCPScheduler(Vector writers) {
+      pending = new Vector(writers);
+    }
+
+    /**
+     * get the next writer which can be loaded, waiting for running loads
+     * to finish if needed
+     * @assumes nothing
+     * @effects the returned writer will be marked as running
+     * @return the next writer or null if there are no more writers or a
+     * failure has occurred
+     */
+    protected synchronized BCPWriter next() {
+      while (true) {
+        if (failure != null || pending.isEmpty())
+          return null;
+        for (int i = 0; i < pending.size(); i++) {
+          BCPWriter writer = (BCPWriter)pending.get(i);
+          if (isReady(writer, i)) {
+            pending.remove(i);
+            running.add(writer.getTablename().toLowerCase());
+            return writer;
+          }
+        }
+        if (running.isEmpty()) {
+          // nothing is loading and nothing can start
+          StringBuffer tables = new StringBuffer();
+          for (Iterator it = pending.iterator(); it.hasNext(); ) {
+            if (tables.length() > 0)
+              tables.append(", ");
+            tables.append(((BCPWriter)it.next()).getTablename());
+          }
+          BCPException e = (BCPException)
+              exceptionFactory.getException(DependencyCycleErr);
+          e.bind(tables.toString());
+          failure = e;
+          return null;
+        }
+        try {
+          wait();
+        }
+        catch (InterruptedException e) {
+          // check again
+        }
+      }
+    }
+
+    /**
+     * record that the given writer has been loaded
+     * @assumes nothing
+     * @effects waiting workers will be woken
+     * @param writer the writer which was loaded
+     */
+    protected synchronized void done(BCPWriter writer) {
+      String table = writer.getTablename().toLowerCase();
+      running.remove(table);
+      finished.add(table);
+      notifyAll();
+    }
+
+    /**
+     * record that loading the given writer failed. Only the first failure
+     * is kept.
+     * @assumes nothing
+     * @effects no further writers will be handed out
+     * @param writer the writer which failed
+     * @param e the cause of the failure
+     */
+    protected synchronized void fail(BCPWriter writer, Exception e) {
+      running.remove(writer.getTablename().toLowerCase());
+      if (failure == null) {
+        failure = e;
+        failedTable = writer.getTablename();
+      }
+      notifyAll();
+    }
+
+    /**
+     * get the first failure
+     * @return the failure or null if there was none
+     */
+    protected synchronized Exception getFailure() {
+      return failure;
+    }
+
+    /**
+     * get the name of the table whose load failed first
+     * @return the table name or null if there was no failure
+     */
+    protected synchronized String getFailedTable() {
+      return failedTable;
+    }
+
+    /**
+     * determine whether the given pending writer can be started
+     * @param writer the writer
+     * @param index the position of the writer in the pending list
+     * @return true if nothing it waits on is pending or running
+     */
+    private boolean isReady(BCPWriter writer, int index) {
+      String table = writer.getTablename().toLowerCase();
+      if (running.contains(table) || isPending(table, index))
+        return false;
+      Vector parents = (Vector)dependencies.get(table);
+      if (parents == null)
+        return true;
+      for (Iterator it = parents.iterator(); it.hasNext(); ) {
+        String parent = (String)it.next();
+        if (running.contains(parent) || isPending(parent, pending.size()))
+          return false;
+      }
+      return true;
+    }
+
+    /**
+     * determine whether a writer for the given table is pending before the
+     * given position in the pending list
+     * @param table the lower case table name
+     * @param limit the position to search up to
+     * @return true if such a writer exists
+     */
+    private boolean isPending(String table, int limit) {
+      for (int i = 0; i < limit; i++) {
+        BCPWriter w = (BCPWriter)pending.get(i);
+        if (w.getTablename().toLowerCase().equals(table))
+          return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * A Runnable which loads writers obtained from a BCPScheduler, using its
+   * own connection for each SQLDataManager it encounters
+   * @has a BCPScheduler and a set of connections
+   * @does loads bcp files until the scheduler has no more writers
+   * @company Jackson Laboratory
+   * @author M. Walker
+   */
+  private class BCPWorker implements Runnable {
+    private BCPScheduler scheduler = null;
+    private HashMap connections = new HashMap();
+
+    /**
+     * constructor
+     * @param scheduler the scheduler to obtain writers from
+     */
+    protected BCPWorker(BCPScheduler scheduler) {
+      this.scheduler = scheduler;
+    }
+
+    public void run() {
+      BCPWriter writer = null;
+      try {
+        while ((writer = scheduler.next()) != null) {
+          try {
+            executeBCP(writer, getConnection(writer));
+            scheduler.done(writer);
+          }
+          catch (Exception e) {
+            scheduler.fail(writer, e);
+          }
+          catch (Error e) {
+            // release the scheduler so that no one waits on this table
+            scheduler.fail(writer, new RuntimeException(e));
+            throw e;
+          }
+        }
+      }
+      finally {
+        closeConnections(connections);
+      }
+    }
+
+    /**
+     * get this worker's connection for the SQLDataManager of the given
+     * writer's table, creating it on first use
+     * @param writer the writer
+     * @return the SQLDataManager for this worker
+     * @throws DBException thrown if a new connection could not be made
+     */
+    private SQLDataManager getConnection(BCPWriter writer)
+        throws DBException {
+      return openConnection(writer, connections);
+    }
+  }
+
+  /**
+   * A Runnable which loads completed bcp segments in the order they are
+   * handed off while the BCPWriters continue writing
+   * @has a queue of segments and a set of connections
+   * @does prepares each table before its first segment is loaded and
+   * loads segments until told to finish. After the first failure all
+   * remaining segments are skipped.
+   * @company Jackson Laboratory
+   * @author M. Walker
+   */
+  private class SegmentLoader implements Runnable {
+    private Vector queue = new Vector();
+    private HashSet prepared = new HashSet();
+    private HashMap connections = new HashMap();
+    private boolean finished = false;
+    private Exception failure = null;
+    private String failedTable = null;
+    private Thread thread = null;
+
+    /**
+     * set the thread running this loader
+     * @param t the thread
+     */
+    protected void setThread(Thread t) {
+      this.thread = t;
+    }
+
+    /**
+     * queue a segment to be loaded
+     * @assumes nothing
+     * @effects the loader thread will be woken
+     * @param writer the writer which wrote the segment
+     * @param filename the name of the segment file
+     * @throws BCPException thrown if an earlier segment failed to load
+     */
+    protected synchronized void add(BCPWriter writer, String filename)
+        throws BCPException {
+      if (failure != null) {
+        BCPException e = (BCPException)
+            exceptionFactory.getException(SegmentLoadErr, failure);
+        e.bind(failedTable);
+        throw e;
+      }
+      queue.add(new Object[] {writer, filename});
+      notifyAll();
+    }
+
+    /**
+     * wait for all queued segments to be loaded and stop the loader
+     * @assumes nothing
+     * @effects the loader thread will exit
+     * @return the first failure or null if there was none
+     */
+    protected Exception finish() {
+      synchronized (this) {
+        finished = true;
+        notifyAll();
+      }
+      boolean joined = false;
+      while (!joined) {
+        try {
+          thread.join();
+          joined = true;
+        }
+        catch (InterruptedException e) {
+          // keep waiting so that no load is left running unattended
+        }
+      }
+      return failure;
+    }
+
+    /**
+     * get the name of the table whose segment failed to load first
+     * @return the table name or null if there was no failure
+     */
+    protected synchronized String getFailedTable() {
+      return failedTable;
+    }
+
+    public void run() {
+      try {
+        while (true) {
+          Object[] segment = null;
+          synchronized (this) {
+            while (queue.isEmpty() && !finished) {
+              try {
+                wait();
+              }
+              catch (InterruptedException e) {
+                // check again
+              }
+            }
+            if (queue.isEmpty())
+              return;
+            segment = (Object[])queue.remove(0);
+            if (failure != null)
+              continue;
+          }
+          BCPWriter writer = (BCPWriter)segment[0];
+          try {
+            load(writer, (String)segment[1]);
+          }
+          catch (Exception e) {
+            synchronized (this) {
+              failure = e;
+              failedTable = writer.getTablename();
+            }
+          }
+          catch (Error e) {
+            // record the failure so that later segments are refused
+            synchronized (this) {
+              failure = new RuntimeException(e);
+              failedTable = writer.getTablename();
+            }
+            throw e;
+          }
+        }
+      }
+      finally {
+        closeConnections(connections);
+      }
+    }
+
+    /**
+     * load a single segment, preparing the table first if this is the
+     * first segment for the writer
+     * @param writer the writer which wrote the segment
+     * @param filename the name of the segment file
+     * @throws Exception thrown if the load fails
+     */
+    private void load(BCPWriter writer, String filename) throws Exception {
+      SQLDataManager sqlmanager = openConnection(writer, connections);
+      DBSchema dbSchema = newDBSchema(sqlmanager);
+      if (!prepared.contains(writer)) {
+        prepareTable(writer, sqlmanager, dbSchema);
+        dropIndexes(writer, dbSchema);
+        prepared.add(writer);
+      }
+      if (logger != null)
+        logger.logInfo(writer.getTablename() + ": Load segment " +
+                       filename);
+      importFile(writer, filename, sqlmanager, dbSchema);
+      if (removeAfterExecute) {
+        File f = new File(filename);
+        f.delete();
+      }
+    }
+  }
 }
 // $Log$
 // Revision 1.6.64.1  2015/03/11 17:33:00  mgiadmin
@@ -4,7 +4,9 @@
 package org.jax.mgi.shr.dbutils.bcp;
 
 import java.util.Vector;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.File;
 import java.io.IOException;
@@ -38,7 +40,11 @@ import org.jax.mgi.shr.dbutils.Table;
  * </UL>
  * @does writes records to a bcp file for a given table. It
  * validates the fields in advance of writing them in order to catch
- * database errors in advance of executing the bcp command.
+ * database errors in advance of executing the bcp command. If the
+ * BCPManager has segment limits set, the file is split into segments
+ * which are handed to the BCPManager to load while writing continues.
+ * If the BCPManager is set to use the binary format, rows are written in
+ * the Postgres binary COPY format instead of as delimited text.
  * @company Jackson Laboratory
  * @author M Walker
  */
@@ -69,6 +75,15 @@ public class BCPWriter {
    * a java buffered writer for buffering the writes
    */
   private BufferedWriter bufferedWriter = null;
+  /*
+   * the encoder used instead of the writers when writing the binary
+   * copy format
+   */
+  private BinaryCopyEncoder encoder = null;
+  /*
+   * the column definitions of the table, only read for the binary format
+   */
+  private Vector columns = null;
   /*
    * a logger instance
    */
@@ -97,6 +112,10 @@ public class BCPWriter {
    * option to replace newlines with spaces in text fields
    */
   private boolean okToRemoveNewlines = false;
+  /*
+   * option to skip validating rows against the table metadata
+   */
+  private boolean okToSkipValidation = false;
   /*
    * a vector of sql statements to execute before running bcp
    */
@@ -106,9 +125,46 @@ public class BCPWriter {
    */
   private Vector postSql = null;
   /*
-   * an indicator of whether any records were ever writen to the bcp file
+   * an indicator of whether any records were ever writen to the bcp file,
+   * or to the current segment of the bcp file if segmenting
    */
   private boolean hasRecords = false;
+  /*
+   * the buffer into which each line is encoded and the length of the
+   * current line
+   */
+  private char[] lineBuffer = new char[256];
+  private int lineLength = 0;
+  /*
+   * the delimiter of the BCPManager when last checked and its converted
+   * form for writing to the bcp file
+   */
+  private String managerDelimiter = null;
+  private String fileDelimiter = null;
+  /*
+   * the record stamp of the previous row and the time it was made
+   */
+  private String stamp = null;
+  private long stampTime = 0;
+  /*
+   * the record stamp of the previous row split into its fields for the
+   * binary format
+   */
+  private String[] stampFields = null;
+  private String splitStamp = null;
+
+  /*
+   * the number of segments handed off to the BCPManager for loading
+   */
+  private int segmentCount = 0;
+  /*
+   * the number of rows written to the current segment
+   */
+  private int segmentRows = 0;
+  /*
+   * the number of characters written to the current segment
+   */
+  private long segmentBytes = 0;
   /*
    * an indicator controlled by the BCPManager of whetjer the bcp file
    * has been executed. Once executed the BCPWriter instance is made
@@ -221,6 +277,20 @@ public class BCPWriter {
     okToRemoveNewlines = boolParam;
   }
 
+  /**
+   * set the option which designates whether to skip validating rows
+   * against the table metadata before writing them, overriding the value
+   * found in the configuration file or system properties. This is meant
+   * for trusted producers whose rows are known to be valid. Invalid rows
+   * will then only be detected when the bcp file is loaded.
+   * @assumes nothing
+   * @effects the internal value of the okToSkipValidation flag will be set.
+   * @param boolParam true or false
+   */
+  public void setOkToSkipValidation(boolean boolParam) {
+    okToSkipValidation = boolParam;
+  }
+
 
 
   /**
@@ -388,6 +458,17 @@ public class BCPWriter {
     return this.okToRemoveNewlines;
   }
 
+  /**
+   * get the value of the attribute which designates whether to skip
+   * validating rows against the table metadata.
+   * @assumes nothing
+   * @effects nothing
+   * @return true or false
+   */
+  public boolean getOkToSkipValidation() {
+    return this.okToSkipValidation;
+  }
+
 
 
 
@@ -431,7 +512,8 @@ public class BCPWriter {
               eFactoryBCP.getException(InvalidBCPVector);
           throw e;
         }
-        table.validateFields((Vector)current, okToRecordStamp);
+        if (!okToSkipValidation)
+          table.validateFields((Vector)current, okToRecordStamp);
         writeToBcpFile((Vector)current);
       }
     }
@@ -446,7 +528,8 @@ public class BCPWriter {
       }
       // validation will throw a DataException on a validation error
       if (fields.size() > 0) {
-        table.validateFields(fields, okToRecordStamp);
+        if (!okToSkipValidation)
+          table.validateFields(fields, okToRecordStamp);
         writeToBcpFile(fields);
       }
     }
@@ -510,8 +593,11 @@ public class BCPWriter {
     okToRecordStamp = pCfg.getOkToRecordStamp().booleanValue();
     okToAutoFlush = pCfg.getOkToAutoFlush().booleanValue();
     okToRemoveNewlines = pCfg.getOkToRemoveNewlines().booleanValue();
+    okToSkipValidation = pCfg.getOkToSkipValidation().booleanValue();
     preSql = pCfg.getPreSQL();
     postSql = pCfg.getPostSQL();
+    if (bcpmanager.getBinaryFormat())
+      columns = table.getColumnDefinitions();
     createBCPFile(table.getName());
   }
 
@@ -533,6 +619,10 @@ public class BCPWriter {
    * @throws BCPException throws if error occurs on close
    */
   protected void close() throws BCPException {
+    if (encoder != null) {
+      encoder.close();
+      return;
+    }
     try {
       bufferedWriter.close();
       fileWriter.close();
@@ -557,7 +647,24 @@ public class BCPWriter {
   }
 
   /**
-   * Writes a line to a bcp file.
+   * return the number of segments of the bcp file which have been handed
+   * off to the BCPManager to be loaded while writing
+   * @assumes nothing
+   * @effects nothing
+   * @return the number of segments
+   */
+  protected int getSegmentCount() {
+    return segmentCount;
+  }
+
+  /**
+   * Writes a line to a bcp file. The line is encoded into a buffer which
+   * is reused from row to row. Integer, Boolean and String fields are
+   * copied into the buffer directly without creating intermediate
+   * strings, and newlines are removed from strings in the same pass that
+   * copies them. The record stamp is only recomputed when the clock has
+   * moved on by at least a millisecond since the previous row, which
+   * gives the same values as computing it for every row.
    * @assumes nothing
    * @effects a bcp line will be written to the database
    * @param v the vector of strings which will be written to the bcp file as
@@ -566,67 +673,29 @@ public class BCPWriter {
    */
   private void writeToBcpFile(Vector v)
       throws BCPException {
-    // convert the delimiter to a string suitable for writing to the
-    // bcp file. This will convert special strings such as TAB and
-    // SPACE to their corresponding delimiters
-    String delimiter = convertDelimiter(bcpmanager.getDelimiter());
-    StringBuffer bcpLine = null;
-    Object currentObject = null;
-    String element = null;
-    for (Iterator it = v.iterator(); it.hasNext(); ) {
-      currentObject = it.next();
-      if (currentObject == null)
-        element = "";
-      else
-      {
-          if (this.okToRemoveNewlines && currentObject instanceof String)
-          {
-              currentObject = ((String)currentObject).replaceAll("\\n", " ");
-          }
-          try
-          {
-              element = Converter.objectToString(currentObject);
-          }
-          catch (TypesException e)
-          {
-              BCPExceptionFactory eFactory = new BCPExceptionFactory();
-              BCPException e2 = (BCPException)
-                  eFactory.getException(StringConversionErr, e);
-              throw e2;
-          }
-      }
-      if (bcpLine == null) { // it has not yet been written to
-        bcpLine = new StringBuffer();
-        bcpLine.append(element);
-      }
-      else { // bcp has already been written to, so just append to it
-        bcpLine.append(delimiter + element);
-      }
+    if (encoder != null) {
+      writeToBinaryFile(v);
+      return;
     }
-    // check if the bcp file had ever been written to
-    if (bcpLine == null) {
-      bcpLine = new StringBuffer(); // create an empty line
+    // get the delimiter suitable for writing to the bcp file. This will
+    // convert special strings such as TAB and SPACE to their corresponding
+    // delimiters
+    String delimiter = getFileDelimiter();
+    lineLength = 0;
+    int size = v.size();
+    for (int i = 0; i < size; i++) {
+      if (i > 0)
+        append(delimiter);
+      appendField(v.get(i));
     }
-    else {
-      if (okToRecordStamp) { // add user and time fields
-        // use the RecordStampFormatter object
-        try {
-          bcpLine =
-              bcpLine.append(table.getRecordStamp().getStamp(delimiter));
-        }
-        catch (DBException e) {
-          BCPExceptionFactory eFactory = new BCPExceptionFactory();
-          BCPException e2 = (BCPException)
-              eFactory.getException(RecordStampErr, e);
-          e2.bind(table.getName());
-          throw e2;
-        }
-      }
+    // an empty vector is written as an empty line
+    if (size > 0 && okToRecordStamp) { // add user and time fields
+      append(getRecordStamp(delimiter));
     }
-    bcpLine.append('\n');
+    append('\n');
     // write the line to the bcp file
     try {
-      bufferedWriter.write(new String(bcpLine));
+      bufferedWriter.write(lineBuffer, 0, lineLength);
       if (okToAutoFlush)
         bufferedWriter.flush();
       hasRecords = true;
@@ -638,6 +707,265 @@ public class BCPWriter {
       e2.bind(bcpFile.getName());
       throw e2;
     }
+    countSegment(lineLength);
+  }
+
+  /**
+   * Writes a row to a bcp file in the Postgres binary COPY format. Each
+   * value is encoded according to the type of its column. Newlines within
+   * strings are replaced as they are for text files.
+   * @assumes the BCPWriter was created for the binary format
+   * @effects a tuple will be written to the bcp file
+   * @param v the vector of values which will be written to the bcp file as
+   * a representation of one row of data
+   * @throws BCPException throws if a value cannot be encoded or if there
+   * is a file write error
+   */
+  private void writeToBinaryFile(Vector v) throws BCPException {
+    int start = encoder.size();
+    String[] extra = null;
+    if (v.size() > 0 && okToRecordStamp)
+      extra = getStampFields();
+    if (okToRemoveNewlines)
+      v = removeNewlines(v);
+    encoder.writeRow(v, extra);
+    if (okToAutoFlush)
+      encoder.flush();
+    hasRecords = true;
+    countSegment(encoder.size() - start);
+  }
+
+  /**
+   * replace the newlines within the string values of a row with spaces
+   * @assumes nothing
+   * @effects nothing
+   * @param v the row values
+   * @return the given vector if no string contains a newline or otherwise
+   * a copy with the newlines replaced
+   */
+  private Vector removeNewlines(Vector v) {
+    Vector copy = null;
+    for (int i = 0; i < v.size(); i++) {
+      Object o = v.get(i);
+      if (o instanceof String && ((String)o).indexOf('\n') >= 0) {
+        if (copy == null)
+          copy = new Vector(v);
+        copy.set(i, ((String)o).replace('\n', ' '));
+      }
+    }
+    return copy == null ? v : copy;
+  }
+
+  /**
+   * count a row written to the current segment and start a new segment if
+   * the limits of the BCPManager have been reached
+   * @assumes nothing
+   * @effects a new segment may be started
+   * @param length the size of the row that was written
+   * @throws BCPException thrown if the segment could not be rolled
+   */
+  private void countSegment(int length) throws BCPException {
+    if (bcpmanager.isSegmenting()) {
+      segmentRows++;
+      segmentBytes += length;
+      int maxRows = bcpmanager.getSegmentRows();
+      int maxBytes = bcpmanager.getSegmentBytes();
+      if ((maxRows > 0 && segmentRows >= maxRows) ||
+          (maxBytes > 0 && segmentBytes >= maxBytes))
+        rollSegment();
+    }
+  }
+
+  /**
+   * get the record stamp fields for the current row as separate values
+   * for the binary format
+   * @assumes nothing
+   * @effects the cached record stamp may be replaced
+   * @return the record stamp fields
+   * @throws BCPException thrown if the record stamp could not be made
+   */
+  private String[] getStampFields() throws BCPException {
+    String s = getRecordStamp("\t");
+    if (s != splitStamp) {
+      // the stamp starts with the delimiter unless it is empty
+      if (s.length() == 0)
+        stampFields = new String[0];
+      else
+        stampFields = s.substring(1).split("\t", -1);
+      splitStamp = s;
+    }
+    return stampFields;
+  }
+
+  /**
+   * get the delimiter to write to the bcp file, converting the delimiter
+   * of the BCPManager only when it has changed
+   * @assumes nothing
+   * @effects the cached delimiter and record stamp may be reset
+   * @return the delimiter
+   * @throws BCPException thrown if the delimiter is invalid
+   */
+  private String getFileDelimiter() throws BCPException {
+    String d = bcpmanager.getDelimiter();
+    if (fileDelimiter == null || d != managerDelimiter) {
+      fileDelimiter = convertDelimiter(d);
+      managerDelimiter = d;
+      stamp = null;
+    }
+    return fileDelimiter;
+  }
+
+  /**
+   * get the record stamp fields for the current row, reusing the stamp of
+   * the previous row if it was made within the same millisecond
+   * @assumes nothing
+   * @effects the cached record stamp may be replaced
+   * @param delimiter the delimiter to use between fields
+   * @return the record stamp fields including the leading delimiter
+   * @throws BCPException thrown if the record stamp could not be made
+   */
+  private String getRecordStamp(String delimiter) throws BCPException {
+    long now = System.currentTimeMillis();
+    if (stamp == null || now != stampTime) {
+      try {
+        stamp = table.getRecordStamp().getStamp(delimiter);
+        stampTime = now;
+      }
+      catch (DBException e) {
+        BCPExceptionFactory eFactory = new BCPExceptionFactory();
+        BCPException e2 = (BCPException)
+            eFactory.getException(RecordStampErr, e);
+        e2.bind(table.getName());
+        throw e2;
+      }
+    }
+    return stamp;
+  }
+
+  /**
+   * append the bcp representation of the given field to the line buffer.
+   * Null values are written as empty fields.
+   * @assumes nothing
+   * @effects the line buffer will be appended to
+   * @param o the field value
+   * @throws BCPException thrown if the value is of an unsupported type
+   */
+  private void appendField(Object o) throws BCPException {
+    if (o == null)
+      return;
+    if (o instanceof String) {
+      appendString((String)o, okToRemoveNewlines);
+    }
+    else if (o instanceof Integer) {
+      appendInt(((Integer)o).intValue());
+    }
+    else if (o instanceof Boolean) {
+      append(((Boolean)o).booleanValue() ? '1' : '0');
+    }
+    else {
+      try {
+        append(Converter.objectToString(o));
+      }
+      catch (TypesException e) {
+        BCPExceptionFactory eFactory = new BCPExceptionFactory();
+        BCPException e2 = (BCPException)
+            eFactory.getException(StringConversionErr, e);
+        throw e2;
+      }
+    }
+  }
+
+  /**
+   * append a string to the line buffer, optionally replacing newlines with
+   * spaces as it is copied
+   * @param s the string
+   * @param removeNewlines true if newlines should be replaced
+   */
+  private void appendString(String s, boolean removeNewlines) {
+    int len = s.length();
+    ensureCapacity(len);
+    s.getChars(0, len, lineBuffer, lineLength);
+    if (removeNewlines) {
+      for (int i = lineLength; i < lineLength + len; i++) {
+        if (lineBuffer[i] == '\n')
+          lineBuffer[i] = ' ';
+      }
+    }
+    lineLength += len;
+  }
+
+  /**
+   * append a string to the line buffer
+   * @param s the string
+   */
+  private void append(String s) {
+    appendString(s, false);
+  }
+
+  /**
+   * append a character to the line buffer
+   * @param c the character
+   */
+  private void append(char c) {
+    ensureCapacity(1);
+    lineBuffer[lineLength++] = c;
+  }
+
+  /**
+   * append the decimal digits of an int to the line buffer
+   * @param n the int
+   */
+  private void appendInt(int n) {
+    if (n == Integer.MIN_VALUE) {
+      append(String.valueOf(n));
+      return;
+    }
+    if (n < 0) {
+      append('-');
+      n = -n;
+    }
+    int digits = 1;
+    for (int i = n; i >= 10; i /= 10)
+      digits++;
+    ensureCapacity(digits);
+    int pos = lineLength + digits;
+    do {
+      lineBuffer[--pos] = (char)('0' + (n % 10));
+      n /= 10;
+    } while (n > 0);
+    lineLength += digits;
+  }
+
+  /**
+   * grow the line buffer if needed so that it can hold the given number of
+   * additional characters
+   * @param extra the number of additional characters
+   */
+  private void ensureCapacity(int extra) {
+    int needed = lineLength + extra;
+    if (needed > lineBuffer.length) {
+      char[] larger = new char[Math.max(needed, lineBuffer.length * 2)];
+      System.arraycopy(lineBuffer, 0, larger, 0, lineLength);
+      lineBuffer = larger;
+    }
+  }
+
+  /**
+   * close the current segment of the bcp file, hand it off to the
+   * BCPManager to be loaded and start a new segment
+   * @assumes nothing
+   * @effects a new bcp file will be created
+   * @throws BCPException thrown if there is an error closing or creating a
+   * file or if an earlier segment failed to load
+   */
+  private void rollSegment() throws BCPException {
+    close();
+    bcpmanager.loadSegment(this, bcpFile.getPath());
+    segmentCount++;
+    segmentRows = 0;
+    segmentBytes = 0;
+    hasRecords = false;
+    createBCPFile(table.getName() + "_seg" + (segmentCount + 1));
   }
 
   /**
@@ -677,8 +1005,13 @@ public class BCPWriter {
 
     }
     try {
-      fileWriter = new FileWriter(bcpFile);
-      bufferedWriter = new BufferedWriter(fileWriter);
+      if (columns != null)
+        encoder = new BinaryCopyEncoder(new BufferedOutputStream(
+            new FileOutputStream(bcpFile)), columns, bcpFile.getName());
+      else {
+        fileWriter = new FileWriter(bcpFile);
+        bufferedWriter = new BufferedWriter(fileWriter);
+      }
     }
     catch (IOException e) {
       BCPExceptionFactory eFactory = new BCPExceptionFactory();
@@ -0,0 +1,508 @@
+package org.jax.mgi.shr.dbutils.bcp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.TimeZone;
+import java.util.Vector;
+
+import org.jax.mgi.shr.dbutils.ColumnDef;
+import org.jax.mgi.shr.types.Converter;
+import org.jax.mgi.shr.types.TypesException;
+
+/**
+ * An object which writes rows in the Postgres binary COPY format. Each value
+ * is encoded according to the type of the corresponding column definition
+ * so that the server does not need to parse it from text.
+ * @has an output stream and the column definitions of the target table
+ * @does writes the binary COPY header, one tuple for each row and the
+ * trailer. Values may be given as the types produced by the Converter class
+ * or as strings which are converted to the column type. Empty strings and
+ * nulls are written as null.
+ * @company The Jackson Laboratory
+ * @author MWalker
+ */
+
+public class BinaryCopyEncoder
+{
+    /*
+     * the binary COPY file signature
+     */
+    private static final byte[] SIGNATURE =
+        {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte)0xff, '\r', '\n', 0};
+
+    /*
+     * the Postgres epoch of 2000-01-01 relative to the java epoch
+     */
+    private static final long PG_EPOCH_MILLIS = 946684800000L;
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    /*
+     * the binary representations used for each column
+     */
+    private static final int INT2 = 1;
+    private static final int INT4 = 2;
+    private static final int INT8 = 3;
+    private static final int FLOAT4 = 4;
+    private static final int FLOAT8 = 5;
+    private static final int NUMERIC = 6;
+    private static final int BOOL = 7;
+    private static final int TEXT = 8;
+    private static final int TIMESTAMP = 9;
+    private static final int TIMESTAMPTZ = 10;
+    private static final int DATE = 11;
+
+    /*
+     * the following constant definitions are exceptions thrown by this class
+     */
+    private static final String BinaryFormatErr =
+        BCPExceptionFactory.BinaryFormatErr;
+    private static final String FileWriteErr =
+        BCPExceptionFactory.FileWriteErr;
+
+    private DataOutputStream out = null;
+    // each row is encoded here first so that a refused row writes nothing
+    private ByteArrayOutputStream rowBytes = new ByteArrayOutputStream();
+    private DataOutputStream row = new DataOutputStream(rowBytes);
+    private String[] names = null;
+    private String[] typeNames = null;
+    private int[] formats = null;
+    private TimeZone timeZone = TimeZone.getDefault();
+    private String filename = null;
+
+    /**
+     * constructor which writes the binary COPY header to the given stream
+     * @assumes nothing
+     * @effects the header will be written
+     * @param out the stream to write to
+     * @param columns the ColumnDef objects for the target table in column
+     * order
+     * @param filename the name of the file being written, used in messages
+     * @throws BCPException thrown if a column type is not supported or if
+     * the header can not be written
+     */
+    public BinaryCopyEncoder(OutputStream out, Vector columns,
+                             String filename)
+        throws BCPException
+    {
+        this.out = new DataOutputStream(out);
+        this.filename = filename;
+        int count = columns.size();
+        names = new String[count];
+        typeNames = new String[count];
+        formats = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            ColumnDef c = (ColumnDef)columns.get(i);
+            names[i] = c.getName();
+            typeNames[i] = c.getTypeName();
+            formats[i] = getFormat(c);
+            if (formats[i] == 0)
+                throw getFormatException(null, i);
+        }
+        try
+        {
+            this.out.write(SIGNATURE);
+            this.out.writeInt(0); // flags
+            this.out.writeInt(0); // header extension length
+        }
+        catch (IOException e)
+        {
+            throw getWriteException(e);
+        }
+    }
+
+    /**
+     * get the number of bytes written so far
+     * @assumes nothing
+     * @effects nothing
+     * @return the number of bytes written
+     */
+    public int size()
+    {
+        return out.size();
+    }
+
+    /**
+     * write a row
+     * @assumes nothing
+     * @effects a tuple will be written to the stream, or nothing if the row
+     * is refused
+     * @param values the values for the leading columns
+     * @param extra values for the trailing columns, such as record stamp
+     * fields, or null if there are none
+     * @throws BCPException thrown if the number of values plus the number
+     * of extra values is not the number of columns, if a value can not be
+     * converted to the type of its column or if there is an error writing
+     */
+    public void writeRow(Vector values, String[] extra) throws BCPException
+    {
+        int size = values.size();
+        int extraSize = (extra == null ? 0 : extra.length);
+        // a tuple must have a field for every column
+        if (size + extraSize != formats.length)
+            throw getFormatException(String.valueOf(size + extraSize), -1);
+        rowBytes.reset();
+        try
+        {
+            row.writeShort(size + extraSize);
+            for (int i = 0; i < size; i++)
+                writeField(values.get(i), i);
+            for (int i = 0; i < extraSize; i++)
+                writeField(extra[i], size + i);
+            rowBytes.writeTo(out);
+        }
+        catch (IOException e)
+        {
+            throw getWriteException(e);
+        }
+    }
+
+    /**
+     * write the trailer and flush the stream
+     * @assumes nothing
+     * @effects the trailer will be written and the stream will be closed
+     * @throws BCPException thrown if there is an error writing
+     */
+    public void close() throws BCPException
+    {
+        try
+        {
+            out.writeShort(-1);
+            out.close();
+        }
+        catch (IOException e)
+        {
+            throw getWriteException(e);
+        }
+    }
+
+    /**
+     * flush the stream
+     * @assumes nothing
+     * @effects buffered data will be written
+     * @throws BCPException thrown if there is an error writing
+     */
+    public void flush() throws BCPException
+    {
+        try
+        {
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            throw getWriteException(e);
+        }
+    }
+
+    /**
+     * write a single field with its length prefix
+     * @param o the value
+     * @param col the column index
+     * @throws IOException thrown if there is an error writing
+     * @throws BCPException thrown if the value can not be converted
+     */
+    private void writeField(Object o, int col)
+        throws IOException, BCPException
+    {
+        if (o == null || (o instanceof String && ((String)o).equals("")))
+        {
+            row.writeInt(-1);
+            return;
+        }
+        try
+        {
+            switch (formats[col])
+            {
+                case INT2:
+                    row.writeInt(2);
+                    row.writeShort((int)toLong(o, Short.MIN_VALUE,
+                                               Short.MAX_VALUE));
+                    break;
+                case INT4:
+                    row.writeInt(4);
+                    row.writeInt((int)toLong(o, Integer.MIN_VALUE,
+                                             Integer.MAX_VALUE));
+                    break;
+                case INT8:
+                    row.writeInt(8);
+                    row.writeLong(toLong(o, Long.MIN_VALUE, Long.MAX_VALUE));
+                    break;
+                case FLOAT4:
+                    row.writeInt(4);
+                    row.writeFloat((float)toDouble(o));
+                    break;
+                case FLOAT8:
+                    row.writeInt(8);
+                    row.writeDouble(toDouble(o));
+                    break;
+                case NUMERIC:
+                    writeNumeric(toBigDecimal(o));
+                    break;
+                case BOOL:
+                    row.writeInt(1);
+                    row.writeByte(toBoolean(o) ? 1 : 0);
+                    break;
+                case TEXT:
+                    byte[] b = Converter.objectToString(o).getBytes("UTF-8");
+                    row.writeInt(b.length);
+                    row.write(b);
+                    break;
+                case TIMESTAMP:
+                    row.writeInt(8);
+                    row.writeLong(toMicros(toTimestamp(o), true));
+                    break;
+                case TIMESTAMPTZ:
+                    row.writeInt(8);
+                    row.writeLong(toMicros(toTimestamp(o), false));
+                    break;
+                case DATE:
+                    row.writeInt(4);
+                    row.writeInt((int)Math.floor(
+                        toMicros(toTimestamp(o), true) /
+                        (MILLIS_PER_DAY * 1000.0)));
+                    break;
+            }
+        }
+        catch (TypesException e)
+        {
+            throw getFormatException(o, col);
+        }
+        catch (NumberFormatException e)
+        {
+            throw getFormatException(o, col);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw getFormatException(o, col);
+        }
+        catch (ArithmeticException e)
+        {
+            throw getFormatException(o, col);
+        }
+    }
+
+    /**
+     * write a numeric value in the Postgres base 10000 representation
+     * @param d the value
+     * @throws IOException thrown if there is an error writing
+     */
+    private void writeNumeric(BigDecimal d) throws IOException
+    {
+        int sign = (d.signum() < 0 ? 0x4000 : 0);
+        int dscale = Math.max(d.scale(), 0);
+        String plain = d.abs().setScale(dscale).toPlainString();
+        int point = plain.indexOf('.');
+        String intPart = (point < 0 ? plain : plain.substring(0, point));
+        String fracPart = (point < 0 ? "" : plain.substring(point + 1));
+        // pad the integer part on the left and the fraction on the right
+        // to whole groups of four decimal digits
+        while (intPart.length() % 4 != 0)
+            intPart = "0" + intPart;
+        while (fracPart.length() % 4 != 0)
+            fracPart = fracPart + "0";
+        String all = intPart + fracPart;
+        int groups = all.length() / 4;
+        short[] digits = new short[groups];
+        for (int i = 0; i < groups; i++)
+            digits[i] = Short.parseShort(all.substring(i * 4, i * 4 + 4));
+        int weight = intPart.length() / 4 - 1;
+        int first = 0;
+        int last = groups;
+        while (first < last && digits[first] == 0)
+        {
+            first++;
+            weight--;
+        }
+        while (last > first && digits[last - 1] == 0)
+            last--;
+        int ndigits = last - first;
+        if (ndigits == 0)
+            weight = 0;
+        row.writeInt(8 + ndigits * 2);
+        row.writeShort(ndigits);
+        row.writeShort(weight);
+        row.writeShort(sign);
+        row.writeShort(dscale);
+        for (int i = first; i < last; i++)
+            row.writeShort(digits[i]);
+    }
+
+    /**
+     * convert a Timestamp to microseconds since the Postgres epoch
+     * @param t the Timestamp
+     * @param local true if the wall clock time in the default time zone is
+     * to be written, as for columns without a time zone
+     * @return the number of microseconds
+     */
+    private long toMicros(Timestamp t, boolean local)
+    {
+        long millis = t.getTime();
+        if (local)
+            millis += timeZone.getOffset(millis);
+        return (millis - PG_EPOCH_MILLIS) * 1000 +
+            (t.getNanos() / 1000) % 1000;
+    }
+
+    /**
+     * convert a value to a whole number within the range of a column type
+     * @param o the value
+     * @param min the smallest value of the column type
+     * @param max the largest value of the column type
+     * @return the value
+     * @throws TypesException thrown if the value can not be converted
+     * @throws NumberFormatException thrown if the value is not a whole
+     * number or is out of range
+     * @throws ArithmeticException thrown if a BigDecimal value has a
+     * fraction or is out of the range of a long
+     */
+    private long toLong(Object o, long min, long max) throws TypesException
+    {
+        long l = 0;
+        if (o instanceof Integer || o instanceof Long ||
+            o instanceof Short || o instanceof Byte)
+            l = ((Number)o).longValue();
+        else if (o instanceof Number)
+            // a fraction is refused as it would be by a text copy
+            l = new BigDecimal(o.toString()).longValueExact();
+        else if (o instanceof Boolean)
+            l = ((Boolean)o).booleanValue() ? 1 : 0;
+        else
+            l = Long.parseLong(Converter.objectToString(o).trim());
+        if (l < min || l > max)
+            throw new NumberFormatException("Value out of range: " + l);
+        return l;
+    }
+
+    private double toDouble(Object o) throws TypesException
+    {
+        if (o instanceof Number)
+            return ((Number)o).doubleValue();
+        return Double.parseDouble(Converter.objectToString(o).trim());
+    }
+
+    private BigDecimal toBigDecimal(Object o) throws TypesException
+    {
+        if (o instanceof BigDecimal)
+            return (BigDecimal)o;
+        if (o instanceof Integer)
+            return new BigDecimal(((Integer)o).intValue());
+        return new BigDecimal(Converter.objectToString(o).trim());
+    }
+
+    private boolean toBoolean(Object o) throws TypesException
+    {
+        if (o instanceof Boolean)
+            return ((Boolean)o).booleanValue();
+        if (o instanceof Number)
+            return ((Number)o).intValue() != 0;
+        return Converter.toPrimitiveBoolean(Converter.objectToString(o));
+    }
+
+    private Timestamp toTimestamp(Object o) throws TypesException
+    {
+        if (o instanceof Timestamp)
+            return (Timestamp)o;
+        String s = Converter.objectToString(o).trim();
+        try
+        {
+            // the format written by Timestamp.toString() as used by
+            // record stamps
+            return Timestamp.valueOf(s);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return Converter.toTimestamp(s);
+        }
+    }
+
+    /**
+     * get the binary representation to use for the given column
+     * @param c the column definition
+     * @return the representation or zero if it is not supported
+     */
+    private static int getFormat(ColumnDef c)
+    {
+        String typeName = c.getTypeName();
+        if (typeName == null)
+            typeName = "";
+        typeName = typeName.toLowerCase();
+        switch (c.getType())
+        {
+            case Types.SMALLINT:
+            case Types.TINYINT:
+                return INT2;
+            case Types.INTEGER:
+                return INT4;
+            case Types.BIGINT:
+                return INT8;
+            case Types.REAL:
+                return FLOAT4;
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return FLOAT8;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return NUMERIC;
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return BOOL;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+                return TEXT;
+            case Types.TIMESTAMP:
+                if (typeName.equals("timestamptz"))
+                    return TIMESTAMPTZ;
+                return TIMESTAMP;
+            case Types.DATE:
+                return DATE;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * get a BCPException for a value which can not be written
+     * @param o the value
+     * @param col the column index or -1 if there were too many values
+     * @return the exception
+     */
+    private BCPException getFormatException(Object o, int col)
+    {
+        BCPExceptionFactory eFactory = new BCPExceptionFactory();
+        BCPException e = (BCPException)
+            eFactory.getException(BinaryFormatErr);
+        e.bind(String.valueOf(o));
+        if (col < 0)
+        {
+            e.bind("(none)");
+            e.bind("(none)");
+        }
+        else
+        {
+            e.bind(names[col]);
+            e.bind(typeNames[col]);
+        }
+        return e;
+    }
+
+    /**
+     * get a BCPException for an error writing to the stream
+     * @param e the IOException
+     * @return the exception
+     */
+    private BCPException getWriteException(IOException e)
+    {
+        BCPExceptionFactory eFactory = new BCPExceptionFactory();
+        BCPException e2 = (BCPException)
+            eFactory.getException(FileWriteErr, e);
+        e2.bind(filename);
+        return e2;
+    }
+}
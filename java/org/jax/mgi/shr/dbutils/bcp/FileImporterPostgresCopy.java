@@ -0,0 +1,442 @@
+package org.jax.mgi.shr.dbutils.bcp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+import org.jax.mgi.shr.dbutils.SQLDataManager;
+import org.jax.mgi.shr.dbutils.DBException;
+import org.jax.mgi.shr.log.Logger;
+
+/**
+ * This class imports data from a file into a Postgres database by
+ * streaming the file over the existing JDBC connection of the given
+ * SQLDataManager with the Postgres COPY ... FROM STDIN command. Unlike
+ * FileImporterPostgres, no external process is run and no new database
+ * connection is made. The row count reported by the server is checked
+ * against the number of lines in the file, or against the number of
+ * tuples for files written in the binary COPY format.
+ * @has an indicator of whether the files are in the binary COPY format
+ * @does imports data from a file into a Postgres database
+ * @company The Jackson Laboratory
+ * @author MWalker
+ *
+ */
+
+
+public class FileImporterPostgresCopy
+    implements FileImporter
+{
+
+    /*
+     * the following constant definitions are exceptions thrown by this class
+     */
+    private static String LoadDataErr = BCPExceptionFactory.LoadDataErr;
+    private static String FileCreateErr = BCPExceptionFactory.FileCreateErr;
+    private static String CopyRowCountErr =
+        BCPExceptionFactory.CopyRowCountErr;
+
+    /*
+     * true if the files are in the binary copy format
+     */
+    private boolean binary = false;
+
+    /**
+     * default constructor for importing delimited text files
+     * @assumes nothing
+     * @effects nothing
+     */
+    public FileImporterPostgresCopy()
+    {
+    }
+
+    /**
+     * constructor
+     * @assumes nothing
+     * @effects nothing
+     * @param binary true if the files are in the binary copy format as
+     * written by the BinaryCopyEncoder, in which case the delimiter is
+     * ignored
+     */
+    public FileImporterPostgresCopy(boolean binary)
+    {
+        this.binary = binary;
+    }
+
+    /**
+     * import the file into the database
+     * @param filename the name of the file
+     * @param tablename the name of the table
+     * @param delimiter the delimieter to use which may be enclosed in single
+     * quotes as is done for the command line importers
+     * @param sqlMgr the SQLDataManager
+     * @param logger the Logger
+     * @throws BCPException thrown if there is an error importing
+     */
+
+    public void importFile(String filename,
+                           String tablename,
+                           String delimiter,
+                           SQLDataManager sqlMgr,
+                           Logger logger)
+        throws BCPException
+    {
+        String schema = sqlMgr.getSchema();
+        String target = tablename;
+        if (schema != null && !schema.equals(""))
+            target = schema + "." + tablename;
+        String sql = null;
+        if (binary)
+            sql = "COPY " + target + " FROM STDIN WITH BINARY";
+        else
+            sql = "COPY " + target + " FROM STDIN WITH DELIMITER " +
+                toCopyLiteral(delimiter) + " NULL ''";
+
+        if (logger != null)
+            logger.logInfo(tablename + ": Execute the copy command: " + sql);
+
+        LineCountingReader reader = null;
+        TupleCountingInputStream in = null;
+        try
+        {
+            if (binary)
+                in = new TupleCountingInputStream(
+                    new BufferedInputStream(new FileInputStream(filename)));
+            else
+                reader = new LineCountingReader(
+                    new BufferedReader(new FileReader(filename)));
+        }
+        catch (IOException e)
+        {
+            BCPExceptionFactory exceptionFactory = new BCPExceptionFactory();
+            BCPException e2 = (BCPException)
+                exceptionFactory.getException(FileCreateErr, e);
+            e2.bind(filename);
+            throw e2;
+        }
+
+        long rows = 0;
+        try
+        {
+            if (binary)
+                rows = sqlMgr.executeCopyIn(sql, in);
+            else
+                rows = sqlMgr.executeCopyIn(sql, reader);
+        }
+        catch (DBException e)
+        {
+            BCPExceptionFactory exceptionFactory = new BCPExceptionFactory();
+            BCPException e2 = (BCPException)
+                exceptionFactory.getException(LoadDataErr, e);
+            throw e2;
+        }
+        finally
+        {
+            try
+            {
+                if (binary)
+                    in.close();
+                else
+                    reader.close();
+            }
+            catch (IOException e)
+            {
+                // the data has already been sent so ignore
+            }
+        }
+
+        if (logger != null)
+            logger.logInfo(tablename + ": " + rows + " rows copied");
+
+        long expected = 0;
+        if (binary)
+            expected = in.getTupleCount();
+        else
+            expected = reader.getLineCount();
+        if (rows != expected)
+        {
+            BCPExceptionFactory exceptionFactory = new BCPExceptionFactory();
+            BCPException e2 = (BCPException)
+                exceptionFactory.getException(CopyRowCountErr);
+            e2.bind(tablename);
+            e2.bind(String.valueOf(rows));
+            e2.bind(String.valueOf(expected));
+            throw e2;
+        }
+    }
+
+    /**
+     * converts the delimiter into a postgres escape string literal
+     * @assumes nothing
+     * @effects nothing
+     * @param delimiter the delimiter which may be enclosed in single quotes
+     * @return the delimiter as a postgres string literal
+     */
+    private String toCopyLiteral(String delimiter)
+    {
+        String s = delimiter;
+        if (s.length() > 1 && s.startsWith("'") && s.endsWith("'"))
+            s = s.substring(1, s.length() - 1);
+        if (s.equals("\t") || s.equals("\\t"))
+            return "E'\\t'";
+        if (s.equals("'"))
+            return "''''";
+        return "'" + s + "'";
+    }
+
+    /**
+     * A Reader which counts the lines passed through it
+     * @has a nested Reader
+     * @does counts the number of lines read from the nested Reader
+     * @company The Jackson Laboratory
+     * @author MWalker
+     */
+    private static class LineCountingReader extends FilterReader
+    {
+        private long lineCount = 0;
+        private int lastChar = '\n';
+
+        /**
+         * constructor
+         * @param in the Reader to read from
+         */
+        protected LineCountingReader(Reader in)
+        {
+            super(in);
+        }
+
+        /**
+         * get the number of lines read so far. A final line without a
+         * trailing newline is counted.
+         * @return the number of lines read
+         */
+        public long getLineCount()
+        {
+            if (lastChar != '\n')
+                return lineCount + 1;
+            return lineCount;
+        }
+
+        public int read() throws IOException
+        {
+            int c = super.read();
+            if (c != -1)
+            {
+                if (c == '\n')
+                    lineCount++;
+                lastChar = c;
+            }
+            return c;
+        }
+
+        public int read(char[] cbuf, int off, int len) throws IOException
+        {
+            int n = super.read(cbuf, off, len);
+            for (int i = off; i < off + n; i++)
+            {
+                if (cbuf[i] == '\n')
+                    lineCount++;
+            }
+            if (n > 0)
+                lastChar = cbuf[off + n - 1];
+            return n;
+        }
+    }
+
+    /**
+     * An InputStream which counts the tuples of a binary copy file passed
+     * through it
+     * @has a nested InputStream
+     * @does follows the structure of the binary copy format as the bytes
+     * are read and counts each tuple up to the trailer
+     * @company The Jackson Laboratory
+     * @author MWalker
+     */
+    private static class TupleCountingInputStream extends FilterInputStream
+    {
+        /*
+         * the length of the signature, flags and header extension length
+         */
+        private static final int HEADER_LENGTH = 19;
+
+        /*
+         * the parts of the file which can be read next
+         */
+        private static final int HEADER = 0;
+        private static final int FIELD_COUNT = 1;
+        private static final int FIELD_LENGTH = 2;
+        private static final int FIELD_DATA = 3;
+        private static final int TRAILER = 4;
+
+        private long tupleCount = 0;
+        private int state = HEADER;
+        // the number of bytes still to be skipped or collected in the
+        // current part of the file
+        private long remaining = HEADER_LENGTH;
+        // the value collected so far for a count or length
+        private int value = 0;
+        // the number of fields left in the current tuple
+        private int fieldsLeft = 0;
+
+        /**
+         * constructor
+         * @param in the InputStream to read from
+         */
+        protected TupleCountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        /**
+         * get the number of tuples read so far
+         * @return the number of tuples read
+         */
+        public long getTupleCount()
+        {
+            return tupleCount;
+        }
+
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b != -1)
+                count(b);
+            return b;
+        }
+
+        public int read(byte[] buf, int off, int len) throws IOException
+        {
+            int n = super.read(buf, off, len);
+            int i = off;
+            while (i < off + n)
+            {
+                if (state == HEADER || state == FIELD_DATA)
+                {
+                    // skip over as much of the part as has been read
+                    int skip = (int)Math.min(remaining, off + n - i);
+                    remaining -= skip;
+                    i += skip;
+                    if (remaining == 0)
+                        nextPart();
+                }
+                else
+                    count(buf[i++] & 0xff);
+            }
+            return n;
+        }
+
+        public long skip(long n) throws IOException
+        {
+            // read the skipped bytes so that they are counted
+            byte[] buf = new byte[(int)Math.min(n, 8192)];
+            long total = 0;
+            while (total < n)
+            {
+                int r = read(buf, 0, (int)Math.min(buf.length, n - total));
+                if (r <= 0)
+                    break;
+                total += r;
+            }
+            return total;
+        }
+
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        /**
+         * follow the file structure for a single byte
+         * @param b the byte
+         */
+        private void count(int b)
+        {
+            switch (state)
+            {
+                case HEADER:
+                case FIELD_DATA:
+                    if (--remaining == 0)
+                        nextPart();
+                    break;
+                case FIELD_COUNT:
+                case FIELD_LENGTH:
+                    value = (value << 8) | b;
+                    if (--remaining == 0)
+                        nextPart();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * move on to the next part of the file once the current part has
+         * been read
+         */
+        private void nextPart()
+        {
+            switch (state)
+            {
+                case HEADER:
+                    expectFieldCount();
+                    break;
+                case FIELD_COUNT:
+                    short fields = (short)value;
+                    if (fields == -1)
+                    {
+                        state = TRAILER;
+                        break;
+                    }
+                    tupleCount++;
+                    fieldsLeft = fields;
+                    nextField();
+                    break;
+                case FIELD_LENGTH:
+                    // a length of -1 is a null with no data
+                    if (value > 0)
+                    {
+                        state = FIELD_DATA;
+                        remaining = value;
+                    }
+                    else
+                        nextField();
+                    break;
+                case FIELD_DATA:
+                    nextField();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * expect the length of the next field or the next tuple if there
+         * are no more fields
+         */
+        private void nextField()
+        {
+            if (fieldsLeft == 0)
+            {
+                expectFieldCount();
+                return;
+            }
+            fieldsLeft--;
+            state = FIELD_LENGTH;
+            remaining = 4;
+            value = 0;
+        }
+
+        private void expectFieldCount()
+        {
+            state = FIELD_COUNT;
+            remaining = 2;
+            value = 0;
+        }
+    }
+}
@@ -36,9 +36,18 @@ public class BCPStrategy
     private SQLDataManager sqlManager;
 
     /**
-     * a map of BCPWriters indexed by the targeted table names.
+     * the BCPWriters in the order they were created.
      */
     private Vector bcpWriters = new Vector();
+    /**
+     * a map of BCPWriters indexed by the targeted table names.
+     */
+    private HashMap writersByName = new HashMap();
+    /**
+     * a map of Table objects indexed by the table names given by the
+     * DAO objects, so each name is only resolved once
+     */
+    private HashMap tablesByName = new HashMap();
 
     /*
      * the following constant definitions are exceptions thrown by this class
@@ -85,6 +94,7 @@ public class BCPStrategy
                 new BCPWriterCfg(table.getName().toUpperCase());
             BCPWriter writer = bcpManager.getBCPWriter(table, cfg);
             bcpWriters.add(writer);
+            writersByName.put(table.getName(), writer);
         }
     }
 
@@ -115,7 +125,12 @@ public class BCPStrategy
             else if (o instanceof String)
             {
                 String s = (String) o;
-                table = Table.getInstance(s, sqlManager);
+                table = (Table)tablesByName.get(s);
+                if (table == null)
+                {
+                    table = Table.getInstance(s, sqlManager);
+                    tablesByName.put(s, table);
+                }
             }
             else
             {
@@ -156,19 +171,15 @@ public class BCPStrategy
         throws BCPException, DBException, ConfigException
     {
         String tablename = table.getName();
-        for (int i = 0; i < this.bcpWriters.size(); i++)
-        {
-            BCPWriter writer = (BCPWriter)this.bcpWriters.get(i);
-            if ((writer).getTablename().equals(tablename))
-            {
-                return writer;
-            }
-        }
-        // no writer found...create a new one and add it to the vector
+        BCPWriter writer = (BCPWriter)writersByName.get(tablename);
+        if (writer != null)
+            return writer;
+        // no writer found...create a new one and add it to the store
         BCPWriterCfg cfg =
             new BCPWriterCfg(tablename.toUpperCase());
-        BCPWriter writer = bcpManager.getBCPWriter(table, cfg);
+        writer = bcpManager.getBCPWriter(table, cfg);
         bcpWriters.add(writer);
+        writersByName.put(tablename, writer);
         return writer;
     }
 }
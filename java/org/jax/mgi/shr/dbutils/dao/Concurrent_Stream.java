@@ -0,0 +1,359 @@
+package org.jax.mgi.shr.dbutils.dao;
+
+import org.jax.mgi.shr.dbutils.DBException;
+import org.jax.mgi.shr.dbutils.DBExceptionFactory;
+
+/**
+ * A SQLStream which allows more than one thread to insert, update and
+ * delete DAO objects at the same time. The operations are placed on a
+ * bounded queue and a single writer thread passes them, in the order they
+ * were queued, to another SQLStream which does the actual work. This
+ * allows the creation of DAO objects to be spread across threads without
+ * changing the stream which persists them, since that stream is still only
+ * used from one thread.
+ * @has a SQLStream to write to, a bounded queue of operations and a writer
+ * thread
+ * @does queues DAO operations from any number of threads and writes them
+ * to the nested SQLStream from a single thread. A thread which queues an
+ * operation waits while the queue is full. If the writer thread fails then
+ * the error is thrown to the threads which queue later operations and from
+ * the close method.
+ * @company The Jackson Laboratory
+ * @author M Walker
+ */
+
+public class Concurrent_Stream
+    extends SQLStream
+{
+    /*
+     * the default number of operations which can be queued
+     */
+    private static final int DEFAULT_CAPACITY = 1000;
+
+    /*
+     * the kinds of operations
+     */
+    private static final int INSERT = 0;
+    private static final int UPDATE = 1;
+    private static final int DELETE = 2;
+
+    /**
+     * the SQLStream to write to
+     */
+    private SQLStream stream = null;
+
+    /*
+     * the queue of operations held as parallel circular arrays. Access is
+     * synchronized on this object.
+     */
+    private DAO[] daos = null;
+    private int[] operations = null;
+    private int head = 0;
+    private int count = 0;
+
+    /*
+     * indicator that no more operations will be queued
+     */
+    private boolean closed = false;
+
+    /*
+     * the error which stopped the writer thread, if any
+     */
+    private DBException failure = null;
+
+    /*
+     * the writer thread
+     */
+    private Thread writer = null;
+
+    // the following constant defintions are exceptions thrown by this class
+    private static final String StreamWriterErr =
+        DBExceptionFactory.StreamWriterErr;
+    private static final String StreamClosedErr =
+        DBExceptionFactory.StreamClosedErr;
+    private static final String UnexpectedCondition =
+        DBExceptionFactory.UnexpectedCondition;
+
+    /**
+     * constructor which uses the default queue size
+     * @assumes the given stream is not used by any other thread
+     * @effects the writer thread will be started
+     * @param stream the SQLStream to write to
+     */
+    public Concurrent_Stream(SQLStream stream)
+    {
+        this(stream, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * constructor
+     * @assumes the given stream is not used by any other thread
+     * @effects the writer thread will be started
+     * @param stream the SQLStream to write to
+     * @param capacity the number of operations which can be queued before
+     * threads which queue operations must wait
+     */
+    public Concurrent_Stream(SQLStream stream, int capacity)
+    {
+        super();
+        this.stream = stream;
+        if (capacity < 1)
+            capacity = 1;
+        this.daos = new DAO[capacity];
+        this.operations = new int[capacity];
+        this.writer = new Thread(new Writer(),
+                                 "Concurrent_Stream writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * return whether the nested SQLStream uses bcp for inserts
+     * @assumes nothing
+     * @effects nothing
+     * @return true if the nested stream uses bcp, false otherwise
+     */
+    public boolean isBCP()
+    {
+        return stream.isBCP();
+    }
+
+    /**
+     * queue the given DAO object to be deleted from the database
+     * @assumes nothing
+     * @effects the delete will be queued for the nested stream
+     * @param dao the object to delete
+     * @throws DBException thrown if the writer thread has failed or if the
+     * stream has been closed
+     */
+    public void delete(DAO dao) throws DBException
+    {
+        submit(DELETE, dao);
+    }
+
+    /**
+     * queue the given DAO object to be updated in the database
+     * @assumes nothing
+     * @effects the update will be queued for the nested stream
+     * @param dao the object to update
+     * @throws DBException thrown if the writer thread has failed or if the
+     * stream has been closed
+     */
+    public void update(DAO dao) throws DBException
+    {
+        submit(UPDATE, dao);
+    }
+
+    /**
+     * queue the given DAO object to be inserted into the database
+     * @assumes nothing
+     * @effects the insert will be queued for the nested stream
+     * @param dao the object to insert
+     * @throws DBException thrown if the writer thread has failed or if the
+     * stream has been closed
+     */
+    public void insert(DAO dao) throws DBException
+    {
+        submit(INSERT, dao);
+    }
+
+    /**
+     * wait for all queued operations to be written and then close the
+     * nested stream. If the writer thread failed then the nested stream is
+     * not closed and the error is thrown.
+     * @assumes no more operations are queued after this is called
+     * @effects the writer thread will end and the nested stream will be
+     * closed
+     * @throws DBException thrown if the writer thread failed or if the
+     * nested stream could not be closed
+     */
+    public void close() throws DBException
+    {
+        synchronized (this)
+        {
+            closed = true;
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while (writer.isAlive())
+        {
+            try
+            {
+                writer.join();
+            }
+            catch (InterruptedException e)
+            {
+                // the queue must still be drained
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        synchronized (this)
+        {
+            if (failure != null)
+                throw failure;
+        }
+        stream.close();
+    }
+
+    /**
+     * add an operation to the queue, waiting while the queue is full
+     * @assumes nothing
+     * @effects the operation will be queued
+     * @param operation the kind of operation
+     * @param dao the DAO object
+     * @throws DBException thrown if the writer thread has failed, if the
+     * stream has been closed or if the thread is interrupted while waiting
+     */
+    private synchronized void submit(int operation, DAO dao)
+        throws DBException
+    {
+        while (count == daos.length && failure == null && !closed)
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                DBExceptionFactory eFactory = new DBExceptionFactory();
+                DBException e2 = (DBException)
+                    eFactory.getException(UnexpectedCondition, e);
+                e2.bind("wait for room on the queue of the " +
+                        "concurrent SQLStream");
+                throw e2;
+            }
+        }
+        if (failure != null)
+            throw failure;
+        if (closed)
+        {
+            DBExceptionFactory eFactory = new DBExceptionFactory();
+            DBException e = (DBException)
+                eFactory.getException(StreamClosedErr);
+            e.bind(this.getClass().getName());
+            throw e;
+        }
+        int tail = (head + count) % daos.length;
+        daos[tail] = dao;
+        operations[tail] = operation;
+        count++;
+        notifyAll();
+    }
+
+    /**
+     * the body of the writer thread
+     * @has nothing
+     * @does takes operations from the queue and applies them to the nested
+     * stream until the stream is closed and the queue is empty or until an
+     * operation fails
+     * @company The Jackson Laboratory
+     * @author M Walker
+     */
+    private class Writer implements Runnable
+    {
+        public void run()
+        {
+            while (true)
+            {
+                DAO dao = null;
+                int operation = 0;
+                synchronized (Concurrent_Stream.this)
+                {
+                    while (count == 0 && !closed)
+                    {
+                        try
+                        {
+                            Concurrent_Stream.this.wait();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            // keep waiting until closed
+                        }
+                    }
+                    if (count == 0)
+                        return;
+                    dao = daos[head];
+                    operation = operations[head];
+                    daos[head] = null;
+                    head = (head + 1) % daos.length;
+                    count--;
+                    Concurrent_Stream.this.notifyAll();
+                }
+                try
+                {
+                    switch (operation)
+                    {
+                        case INSERT:
+                            stream.insert(dao);
+                            break;
+                        case UPDATE:
+                            stream.update(dao);
+                            break;
+                        default:
+                            stream.delete(dao);
+                            break;
+                    }
+                }
+                catch (Exception e)
+                {
+                    fail(dao, e);
+                    return;
+                }
+                catch (Error e)
+                {
+                    // release the producers waiting on a full queue
+                    fail(dao, new RuntimeException(e));
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * record the failure and discard the queue so that waiting
+         * threads are released
+         * @param dao the DAO object which failed
+         * @param e the exception
+         */
+        private void fail(DAO dao, Exception e)
+        {
+            DBExceptionFactory eFactory = new DBExceptionFactory();
+            DBException e2 = (DBException)
+                eFactory.getException(StreamWriterErr, e);
+            e2.bind(dao == null ? "null" : dao.getClass().getName());
+            synchronized (Concurrent_Stream.this)
+            {
+                failure = e2;
+                for (int i = 0; i < daos.length; i++)
+                    daos[i] = null;
+                count = 0;
+                Concurrent_Stream.this.notifyAll();
+            }
+        }
+    }
+}
+
+  /**************************************************************************
+   *
+   * Warranty Disclaimer and Copyright Notice
+   *
+   *  THE JACKSON LABORATORY MAKES NO REPRESENTATION ABOUT THE SUITABILITY OR
+   *  ACCURACY OF THIS SOFTWARE OR DATA FOR ANY PURPOSE, AND MAKES NO WARRANTIES,
+   *  EITHER EXPRESS OR IMPLIED, INCLUDING MERCHANTABILITY AND FITNESS FOR A
+   *  PARTICULAR PURPOSE OR THAT THE USE OF THIS SOFTWARE OR DATA WILL NOT
+   *  INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, TRADEMARKS, OR OTHER RIGHTS.
+   *  THE SOFTWARE AND DATA ARE PROVIDED "AS IS".
+   *
+   *  This software and data are provided to enhance knowledge and encourage
+   *  progress in the scientific community and are to be used only for research
+   *  and educational purposes.  Any reproduction or use for commercial purpose
+   *  is prohibited without the prior express written permission of The Jackson
+   *  Laboratory.
+   *
+   * Copyright \251 1996, 1999, 2002 by The Jackson Laboratory
+   *
+   * All Rights Reserved
+   *
+   **************************************************************************/
@@ -0,0 +1,241 @@
+package org.jax.mgi.shr.dbutils.dao;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Vector;
+
+import org.jax.mgi.shr.dbutils.SQLDataManager;
+import org.jax.mgi.shr.dbutils.BindableStatement;
+import org.jax.mgi.shr.dbutils.DBException;
+import org.jax.mgi.shr.dbutils.DBExceptionFactory;
+
+/**
+ * A class which implements the InsertStrategy, UpdateStrategy,
+ * and DeleteStrategy using parameterized JDBC batch. The DAO objects
+ * must implement SQLBindable. Each distinct sql template is prepared once
+ * and the bind values for each DAO are added to the batch for that
+ * template, so the database parses each statement only once and no
+ * values are quoted into sql strings.
+ * @has a SQLDataManager and a BindableStatement for each sql template
+ * seen so far.
+ * @does extracts sql templates and bind values from a DAO object and
+ * executes them in batch. Consecutive DAOs with the same template are
+ * batched together and the pending batch is executed whenever the
+ * template changes, so statements are always executed in the order in
+ * which the DAOs were submitted.
+ * @company The Jackson Laboratory
+ * @author M Walker
+ */
+public class PreparedBatchStrategy
+    implements DeleteStrategy, InsertStrategy, UpdateStrategy
+{
+
+    /**
+     * the SQLDataManager used to prepare statements
+     */
+    private SQLDataManager sqlMgr = null;
+
+    /**
+     * the prepared statements keyed by sql template
+     */
+    private HashMap statements = new HashMap();
+
+    /**
+     * the statement for the template of the most recently submitted DAO,
+     * which is the only statement that can have a pending batch
+     */
+    private BindableStatement current = null;
+
+    /**
+     * the number of parameter sets to batch up before executing the
+     * batch. A value of zero means no limit.
+     */
+    private int maxBatchCount = 0;
+
+    private static final String DAOErr =
+      DBExceptionFactory.DAOErr;
+
+
+    /**
+     * constructor
+     * @param sqlMgr the SQLDataManager to use
+     */
+    public PreparedBatchStrategy(SQLDataManager sqlMgr)
+    {
+        this.sqlMgr = sqlMgr;
+    }
+
+    /**
+     * set the number of parameter sets to batch up before the batch is
+     * executed
+     * @assumes nothing
+     * @effects the batch will be executed when it reaches the given count
+     * @param count the maximum count or zero for no limit
+     */
+    public void setMaxBatchCount(int count)
+    {
+        this.maxBatchCount = count;
+    }
+
+    /**
+     * update the given DAO object
+     * @assumes the DAO implements SQLBindable
+     * @effects the given DAO will be batched up for update into the
+     * database
+     * @param dao the dao object to update in the database
+     * @throws DBException thrown if there is an error with the database
+     */
+    public void update(DAO dao)
+        throws DBException
+    {
+        SQLBindable bindable = (SQLBindable)dao;
+        addBatch(dao, bindable.getUpdateTemplate(),
+                 bindable.getUpdateBindValues());
+    }
+
+    /**
+     * delete the given DAO object
+     * @assumes the DAO implements SQLBindable
+     * @effects the given DAO will be batched up for a delete from the
+     * database
+     * @param dao the dao object to delete
+     * @throws DBException thrown if there is an error accessing the database
+     */
+    public void delete(DAO dao)
+        throws DBException
+    {
+        SQLBindable bindable = (SQLBindable)dao;
+        addBatch(dao, bindable.getDeleteTemplate(),
+                 bindable.getDeleteBindValues());
+    }
+
+    /**
+     * insert the given DAO object
+     * @assumes the DAO implements SQLBindable
+     * @effects the given DAO will be batched up for insert into the
+     * database
+     * @param dao the dao object to insert
+     * @throws DBException thrown if there is an error accessing the database
+     */
+    public void insert(DAO dao)
+        throws DBException
+    {
+        SQLBindable bindable = (SQLBindable)dao;
+        addBatch(dao, bindable.getInsertTemplate(),
+                 bindable.getInsertBindValues());
+    }
+
+    /**
+     * execute the outstanding batch
+     * @assumes nothing
+     * @effects the batched statements will be executed in the database
+     * @return the number of parameter sets executed
+     * @throws DBException thrown if there is an error executing the batch
+     */
+    public int executeBatch()
+        throws DBException
+    {
+        if (current == null)
+            return 0;
+        int count = current.getBatchCount();
+        if (count > 0)
+            current.executeBatch();
+        return count;
+    }
+
+    /**
+     * close all the prepared statements held by this strategy
+     * @assumes nothing
+     * @effects JDBC resources will be freed and any batched statements
+     * not yet executed will be discarded
+     * @throws DBException thrown if there is an error closing a statement
+     */
+    public void close()
+        throws DBException
+    {
+        DBException closeErr = null;
+        for (Iterator it = statements.values().iterator(); it.hasNext();)
+        {
+            try
+            {
+                ((BindableStatement)it.next()).close();
+            }
+            catch (DBException e)
+            {
+                if (closeErr == null)
+                    closeErr = e;
+            }
+        }
+        statements.clear();
+        current = null;
+        if (closeErr != null)
+            throw closeErr;
+    }
+
+    /**
+     * add the bind values to the batch for the given template, preparing
+     * the template if it has not been seen before. If the template differs
+     * from that of the previous DAO then the pending batch is executed
+     * first.
+     * @assumes nothing
+     * @effects a parameter set will be added to the batch and the batch
+     * may be executed if the template changed or the maximum batch count
+     * has been reached
+     * @param dao the dao being persisted
+     * @param template the sql template
+     * @param values the values to bind to the template
+     * @throws DBException thrown if there is an error accessing the database
+     */
+    private void addBatch(DAO dao, String template, Vector values)
+        throws DBException
+    {
+        try
+        {
+            BindableStatement stmt =
+                (BindableStatement)statements.get(template);
+            if (stmt == null)
+            {
+                stmt = sqlMgr.getBindableStatement(template);
+                statements.put(template, stmt);
+            }
+            if (stmt != current)
+            {
+                executeBatch();
+                current = stmt;
+            }
+            stmt.addBatch(values);
+            if (maxBatchCount > 0 && stmt.getBatchCount() >= maxBatchCount)
+                executeBatch();
+        }
+        catch (DBException e)
+        {
+            DBExceptionFactory eFactory = new DBExceptionFactory();
+            DBException e2 = (DBException)eFactory.getException(DAOErr, e);
+            e2.bind(dao.getClass().getName());
+            throw e2;
+        }
+    }
+}
+
+  /**************************************************************************
+   *
+   * Warranty Disclaimer and Copyright Notice
+   *
+   *  THE JACKSON LABORATORY MAKES NO REPRESENTATION ABOUT THE SUITABILITY OR
+   *  ACCURACY OF THIS SOFTWARE OR DATA FOR ANY PURPOSE, AND MAKES NO WARRANTIES,
+   *  EITHER EXPRESS OR IMPLIED, INCLUDING MERCHANTABILITY AND FITNESS FOR A
+   *  PARTICULAR PURPOSE OR THAT THE USE OF THIS SOFTWARE OR DATA WILL NOT
+   *  INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, TRADEMARKS, OR OTHER RIGHTS.
+   *  THE SOFTWARE AND DATA ARE PROVIDED "AS IS".
+   *
+   *  This software and data are provided to enhance knowledge and encourage
+   *  progress in the scientific community and are to be used only for research
+   *  and educational purposes.  Any reproduction or use for commercial purpose
+   *  is prohibited without the prior express written permission of The Jackson
+   *  Laboratory.
+   *
+   * Copyright \251 1996, 1999, 2002 by The Jackson Laboratory
+   *
+   * All Rights Reserved
+   *
+   **************************************************************************/
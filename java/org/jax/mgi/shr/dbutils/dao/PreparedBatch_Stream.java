@@ -0,0 +1,103 @@
+package org.jax.mgi.shr.dbutils.dao;
+
+import org.jax.mgi.shr.dbutils.SQLDataManager;
+import org.jax.mgi.shr.dbutils.DBException;
+import org.jax.mgi.shr.dbutils.DBExceptionFactory;
+
+/**
+ * A SQLStream for doing inserts, updates and deletes through parameterized
+ * JDBC batch. The DAO objects passed to this stream must implement
+ * SQLBindable.
+ * @has a PreparedBatchStrategy for performing inserts, updates and deletes
+ * @does provides a set of update, insert and delete strategies for updating
+ * a given DAO object in a database
+ * @company The Jackson Laboratory
+ * @author M Walker
+ */
+public class PreparedBatch_Stream
+    extends SQLStream
+{
+    /**
+     * the PreparedBatchStrategy to use
+     */
+    private PreparedBatchStrategy batchStrategy = null;
+
+    // the following constant defintions are exceptions thrown by this class
+    private static final String ExecuteBatchErr =
+        DBExceptionFactory.ExecuteBatchErr;
+
+    /**
+     * constructor
+     * @param sqlMgr the SQLDataManager to use
+     */
+    public PreparedBatch_Stream(SQLDataManager sqlMgr)
+    {
+        super();
+        this.batchStrategy = new PreparedBatchStrategy(sqlMgr);
+        super.setUpdateStrategy(batchStrategy);
+        super.setInsertStrategy(batchStrategy);
+        super.setDeleteStrategy(batchStrategy);
+    }
+
+    /**
+     * set the number of parameter sets to batch up for any one sql
+     * template before the batches are executed
+     * @assumes nothing
+     * @effects batches will be executed when any one template reaches
+     * the given count
+     * @param count the maximum count or zero for no limit
+     */
+    public void setMaxBatchCount(int count)
+    {
+        this.batchStrategy.setMaxBatchCount(count);
+    }
+
+    /**
+     * execute the batch commands and free the prepared statements
+     * @assumes nothing
+     * @effects data will be modified in bulk within the database
+     * @throws DBException thrown if there is an error accessing the database
+     */
+    public void close()
+        throws DBException
+    {
+        try
+        {
+            batchStrategy.executeBatch();
+        }
+        catch (DBException e)
+        {
+            DBExceptionFactory eFactory = new DBExceptionFactory();
+            DBException e2 = (DBException)
+                eFactory.getException(ExecuteBatchErr, e);
+            throw e2;
+        }
+        finally
+        {
+            batchStrategy.close();
+        }
+    }
+}
+
+  /**************************************************************************
+   *
+   * Warranty Disclaimer and Copyright Notice
+   *
+   *  THE JACKSON LABORATORY MAKES NO REPRESENTATION ABOUT THE SUITABILITY OR
+   *  ACCURACY OF THIS SOFTWARE OR DATA FOR ANY PURPOSE, AND MAKES NO WARRANTIES,
+   *  EITHER EXPRESS OR IMPLIED, INCLUDING MERCHANTABILITY AND FITNESS FOR A
+   *  PARTICULAR PURPOSE OR THAT THE USE OF THIS SOFTWARE OR DATA WILL NOT
+   *  INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, TRADEMARKS, OR OTHER RIGHTS.
+   *  THE SOFTWARE AND DATA ARE PROVIDED "AS IS".
+   *
+   *  This software and data are provided to enhance knowledge and encourage
+   *  progress in the scientific community and are to be used only for research
+   *  and educational purposes.  Any reproduction or use for commercial purpose
+   *  is prohibited without the prior express written permission of The Jackson
+   *  Laboratory.
+   *
+   * Copyright \251 1996, 1999, 2002 by The Jackson Laboratory
+   *
+   * All Rights Reserved
+   *
+   **************************************************************************/
@@ -0,0 +1,110 @@
+package org.jax.mgi.shr.dbutils.dao;
+
+import java.util.Vector;
+
+import org.jax.mgi.shr.dbutils.DBException;
+
+/**
+ * An object which can describe its insert, update and delete operations
+ * as parameterized sql templates along with the values to bind to them.
+ * Unlike SQLTranslatable, the values are never formatted into the sql
+ * string, so the same template can be prepared once by the database and
+ * executed for many objects.
+ * @has nothing.
+ * @does provides sql templates and bind values for insert, update and
+ * delete.
+ * @company Jackson Laboratory
+ * @author M. Walker
+ */
+public interface SQLBindable
+{
+    /**
+     * get the parameterized sql for update where each value is
+     * represented by a ? placeholder
+     * @assumes nothing
+     * @effects nothing
+     * @return the update sql template
+     * @throws DBException thrown if there is an error accessing the database
+     */
+    String getUpdateTemplate()
+        throws DBException;
+
+    /**
+     * get the values to bind to the update template ordered to correspond
+     * to the template placeholders. See BindableStatement for the list of
+     * supported data types.
+     * @assumes nothing
+     * @effects nothing
+     * @return the vector of bind values
+     * @throws DBException thrown if there is an error accessing the database
+     */
+    Vector getUpdateBindValues()
+        throws DBException;
+
+    /**
+     * get the parameterized sql for delete where each value is
+     * represented by a ? placeholder
+     * @assumes nothing
+     * @effects nothing
+     * @return the delete sql template
+     * @throws DBException thrown if there is an error accessing the database
+     */
+    String getDeleteTemplate()
+        throws DBException;
+
+    /**
+     * get the values to bind to the delete template ordered to correspond
+     * to the template placeholders
+     * @assumes nothing
+     * @effects nothing
+     * @return the vector of bind values
+     * @throws DBException thrown if there is an error accessing the database
+     */
+    Vector getDeleteBindValues()
+        throws DBException;
+
+    /**
+     * get the parameterized sql for insert where each value is
+     * represented by a ? placeholder
+     * @assumes nothing
+     * @effects nothing
+     * @return the insert sql template
+     * @throws DBException thrown if there is an error accessing the database
+     */
+    String getInsertTemplate()
+        throws DBException;
+
+    /**
+     * get the values to bind to the insert template ordered to correspond
+     * to the template placeholders
+     * @assumes nothing
+     * @effects nothing
+     * @return the vector of bind values
+     * @throws DBException thrown if there is an error accessing the database
+     */
+    Vector getInsertBindValues()
+        throws DBException;
+}
+
+  /**************************************************************************
+   *
+   * Warranty Disclaimer and Copyright Notice
+   *
+   *  THE JACKSON LABORATORY MAKES NO REPRESENTATION ABOUT THE SUITABILITY OR
+   *  ACCURACY OF THIS SOFTWARE OR DATA FOR ANY PURPOSE, AND MAKES NO WARRANTIES,
+   *  EITHER EXPRESS OR IMPLIED, INCLUDING MERCHANTABILITY AND FITNESS FOR A
+   *  PARTICULAR PURPOSE OR THAT THE USE OF THIS SOFTWARE OR DATA WILL NOT
+   *  INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, TRADEMARKS, OR OTHER RIGHTS.
+   *  THE SOFTWARE AND DATA ARE PROVIDED "AS IS".
+   *
+   *  This software and data are provided to enhance knowledge and encourage
+   *  progress in the scientific community and are to be used only for research
+   *  and educational purposes.  Any reproduction or use for commercial purpose
+   *  is prohibited without the prior express written permission of The Jackson
+   *  Laboratory.
+   *
+   * Copyright \251 1996, 1999, 2002 by The Jackson Laboratory
+   *
+   * All Rights Reserved
+   *
+   **************************************************************************/
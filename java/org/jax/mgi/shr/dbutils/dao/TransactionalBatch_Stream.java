@@ -0,0 +1,562 @@
+package org.jax.mgi.shr.dbutils.dao;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.Savepoint;
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+import org.jax.mgi.shr.dbutils.BatchException;
+import org.jax.mgi.shr.dbutils.BatchProcessor;
+import org.jax.mgi.shr.dbutils.DBException;
+import org.jax.mgi.shr.dbutils.DBExceptionFactory;
+import org.jax.mgi.shr.dbutils.SQLDataManager;
+
+/**
+ * A TransactionalSQLStream for doing inserts, updates and deletes through
+ * JDBC batch within transactions. The sql is sent to the database in sub
+ * batches, each within a savepoint, and the transaction is committed after
+ * a given number of statements. If a sub batch fails then it is rolled back
+ * to its savepoint and its statements are retried one at a time, each
+ * within its own savepoint, so that only the statements which fail are
+ * lost. Failed statements are counted and written to a reject file if one
+ * has been set. The DAO objects passed to this stream must implement
+ * SQLTranslatable. Since the methods of TransactionalSQLStream do not
+ * declare DBException, errors from setTransactionOn(), commit() and
+ * rollback() are thrown as RuntimeExceptions whose cause is the
+ * DBException.
+ * @has a SQLDataManager, a BatchProcessor and an optional reject file
+ * @does batches up sql for DAO objects, executes it in savepoint protected
+ * sub batches, commits periodically and separates out the statements
+ * which fail
+ * @company The Jackson Laboratory
+ * @author M Walker
+ */
+
+public class TransactionalBatch_Stream
+    extends TransactionalSQLStream
+{
+    /**
+     * the SQLDataManager to use
+     */
+    private SQLDataManager sqlMgr = null;
+    /**
+     * the BatchProcessor to use
+     */
+    private BatchProcessor batch = null;
+    /**
+     * indicator of whether transactions are used
+     */
+    private boolean transactionOn = true;
+    /**
+     * the number of statements after which the transaction is committed.
+     * A value of zero means only commit when asked to or on close.
+     */
+    private int commitCount = 1000;
+    /**
+     * the number of statements sent to the database at a time
+     */
+    private int subBatchSize = 100;
+    /**
+     * the sql waiting to be sent to the database
+     */
+    private Vector pending = new Vector();
+    /**
+     * the number of statements executed since the last commit
+     */
+    private int uncommitted = 0;
+    /**
+     * the number of statements which have failed
+     */
+    private int rejectCount = 0;
+    /**
+     * the name of the reject file and the writer for it, which is opened
+     * when the first statement fails
+     */
+    private String rejectFilename = null;
+    private BufferedWriter rejectWriter = null;
+    /**
+     * the auto commit setting of the SQLDataManager before this stream
+     * changed it, which is restored on close
+     */
+    private boolean originalAutoCommit = true;
+
+    // the following constant defintions are exceptions thrown by this class
+    private static final String ExecuteBatchErr =
+        DBExceptionFactory.ExecuteBatchErr;
+    private static final String RejectFileErr =
+        DBExceptionFactory.RejectFileErr;
+
+    /**
+     * constructor. Auto commit is turned off on the given SQLDataManager
+     * until the stream is closed.
+     * @assumes nothing
+     * @effects auto commit will be turned off
+     * @param sqlMgr the SQLDataManager to use
+     * @throws DBException thrown if there is an error accessing the database
+     */
+    public TransactionalBatch_Stream(SQLDataManager sqlMgr)
+        throws DBException
+    {
+        super();
+        this.sqlMgr = sqlMgr;
+        this.originalAutoCommit = sqlMgr.getAutoCommit();
+        this.sqlMgr.setAutoCommit(false);
+        this.batch = sqlMgr.getBatchProcessor();
+        QueueStrategy strategy = new QueueStrategy();
+        super.setUpdateStrategy(strategy);
+        super.setInsertStrategy(strategy);
+        super.setDeleteStrategy(strategy);
+    }
+
+    /**
+     * set the number of statements after which the transaction is
+     * committed
+     * @assumes nothing
+     * @effects the transaction will be committed at the next sub batch
+     * which reaches the given count
+     * @param count the number of statements or zero to only commit when
+     * commit() or close() is called
+     */
+    public void setCommitCount(int count)
+    {
+        this.commitCount = count;
+    }
+
+    /**
+     * set the number of statements sent to the database at a time. Smaller
+     * sub batches lose less work to retries when a statement fails.
+     * @assumes nothing
+     * @effects later sub batches will be of the given size
+     * @param size the number of statements
+     */
+    public void setSubBatchSize(int size)
+    {
+        this.subBatchSize = (size < 1 ? 1 : size);
+    }
+
+    /**
+     * set the name of the file to which failed statements are written.
+     * Each statement is preceded by the error message as sql comments so
+     * that the file can be corrected and run as a script.
+     * @assumes nothing
+     * @effects the file will be created when the first statement fails
+     * @param filename the name of the reject file
+     */
+    public void setRejectFile(String filename)
+    {
+        this.rejectFilename = filename;
+    }
+
+    /**
+     * get the number of statements which have failed
+     * @assumes nothing
+     * @effects nothing
+     * @return the number of failed statements
+     */
+    public int getRejectCount()
+    {
+        return rejectCount;
+    }
+
+    /**
+     * set whether or not to use transactions. Without transactions auto
+     * commit is on, no savepoints are used and a failing sub batch is
+     * not retried, since part of it may already have been applied.
+     * @assumes nothing
+     * @effects any pending sql will be executed and committed when
+     * transactions are turned off
+     * @param bool true if transactions should be used, false otherwise
+     * @throws RuntimeException thrown with the DBException as its cause if
+     * there is an error accessing the database
+     */
+    public void setTransactionOn(boolean bool)
+    {
+        try
+        {
+            if (transactionOn && !bool)
+                commitPending();
+            transactionOn = bool;
+            sqlMgr.setAutoCommit(!bool);
+        }
+        catch (DBException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * execute any pending sql and commit the current transaction
+     * @assumes nothing
+     * @effects all outstanding sql will be commited to the database
+     * @throws RuntimeException thrown with the DBException as its cause if
+     * there is an error accessing the database
+     */
+    public void commit()
+    {
+        try
+        {
+            commitPending();
+        }
+        catch (DBException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * discard any pending sql and rollback the current transaction
+     * @assumes nothing
+     * @effects the sql executed since the last commit will be undone
+     * @throws RuntimeException thrown with the DBException as its cause if
+     * there is an error accessing the database
+     */
+    public void rollback()
+    {
+        pending.clear();
+        uncommitted = 0;
+        if (!transactionOn)
+            return;
+        try
+        {
+            sqlMgr.rollback();
+        }
+        catch (DBException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * execute and commit any pending sql, release resources and restore
+     * the auto commit setting of the SQLDataManager
+     * @assumes nothing
+     * @effects data will be modified within the database
+     * @throws DBException thrown if there is an error accessing the database
+     * or writing to the reject file
+     */
+    public void close()
+        throws DBException
+    {
+        boolean committed = false;
+        try
+        {
+            commitPending();
+            committed = true;
+        }
+        finally
+        {
+            try
+            {
+                batch.close();
+            }
+            catch (BatchException e)
+            {
+                // the statements have already been executed
+            }
+            try
+            {
+                closeRejectFile();
+            }
+            finally
+            {
+                restoreAutoCommit(committed);
+            }
+        }
+    }
+
+    /**
+     * restore the auto commit setting the SQLDataManager had before this
+     * stream changed it. If the last commit failed then the transaction is
+     * rolled back first, since turning auto commit on would commit it.
+     * @assumes nothing
+     * @effects the auto commit setting will be restored
+     * @param committed true if the last commit succeeded
+     * @throws DBException thrown if there is an error accessing the database
+     */
+    private void restoreAutoCommit(boolean committed)
+        throws DBException
+    {
+        if (sqlMgr.getAutoCommit() == originalAutoCommit)
+            return;
+        if (!committed)
+        {
+            try
+            {
+                sqlMgr.rollback();
+            }
+            catch (DBException e)
+            {
+                // the commit failure is already being thrown
+            }
+        }
+        sqlMgr.setAutoCommit(originalAutoCommit);
+    }
+
+    /**
+     * execute any pending sql and commit the current transaction
+     * @assumes nothing
+     * @effects all outstanding sql will be commited to the database
+     * @throws DBException thrown if there is an error accessing the database
+     */
+    private void commitPending()
+        throws DBException
+    {
+        executePending();
+        if (transactionOn)
+            sqlMgr.commit();
+        uncommitted = 0;
+    }
+
+    /**
+     * add sql to the pending sql and execute a sub batch if it is full
+     * @assumes nothing
+     * @effects a sub batch may be executed
+     * @param sql the sql
+     * @throws DBException thrown if there is an error accessing the database
+     */
+    private void add(String sql)
+        throws DBException
+    {
+        pending.add(sql);
+        if (pending.size() >= subBatchSize)
+            executePending();
+    }
+
+    /**
+     * execute the pending sql as a sub batch within a savepoint, retrying
+     * each statement separately if the sub batch fails, and commit if the
+     * commit count has been reached
+     * @assumes nothing
+     * @effects the pending sql will be executed
+     * @throws DBException thrown if there is an error accessing the database
+     */
+    private void executePending()
+        throws DBException
+    {
+        if (pending.isEmpty())
+            return;
+        int size = pending.size();
+        if (!transactionOn)
+        {
+            try
+            {
+                executeSubBatch();
+            }
+            catch (Exception e)
+            {
+                DBExceptionFactory eFactory = new DBExceptionFactory();
+                DBException e2 = (DBException)
+                    eFactory.getException(ExecuteBatchErr, e);
+                throw e2;
+            }
+            finally
+            {
+                pending.clear();
+            }
+            return;
+        }
+        Savepoint savepoint = sqlMgr.setSavepoint();
+        boolean succeeded = false;
+        try
+        {
+            executeSubBatch();
+            succeeded = true;
+        }
+        catch (BatchException e)
+        {
+            // retried below
+        }
+        catch (DBException e)
+        {
+            // retried below
+        }
+        if (succeeded)
+            sqlMgr.releaseSavepoint(savepoint);
+        else
+        {
+            sqlMgr.rollback(savepoint);
+            for (int i = 0; i < size; i++)
+                executeSingle((String)pending.get(i));
+        }
+        pending.clear();
+        uncommitted += size;
+        if (commitCount > 0 && uncommitted >= commitCount)
+        {
+            sqlMgr.commit();
+            uncommitted = 0;
+        }
+    }
+
+    /**
+     * send the pending sql to the database in one batch
+     * @assumes nothing
+     * @effects the pending sql will be executed
+     * @throws DBException thrown if there is an error accessing the database
+     * @throws BatchException thrown if any statement in the batch fails
+     */
+    private void executeSubBatch()
+        throws DBException, BatchException
+    {
+        for (int i = 0; i < pending.size(); i++)
+            batch.addBatch(
+                SQLStrategyHelper.convertToJDBCProc((String)pending.get(i)));
+        batch.executeBatch();
+    }
+
+    /**
+     * execute a statement within its own savepoint and reject it if it
+     * fails
+     * @assumes transactions are on
+     * @effects the statement will be executed or written to the reject
+     * file
+     * @param sql the sql
+     * @throws DBException thrown if there is an error setting or rolling
+     * back to the savepoint or writing to the reject file
+     */
+    private void executeSingle(String sql)
+        throws DBException
+    {
+        Savepoint savepoint = sqlMgr.setSavepoint();
+        try
+        {
+            sqlMgr.executeUpdate(SQLStrategyHelper.convertToJDBCProc(sql));
+        }
+        catch (DBException e)
+        {
+            sqlMgr.rollback(savepoint);
+            reject(sql, e);
+            return;
+        }
+        sqlMgr.releaseSavepoint(savepoint);
+    }
+
+    /**
+     * count a failed statement and write it to the reject file
+     * @assumes nothing
+     * @effects the reject count will be incremented
+     * @param sql the sql which failed
+     * @param e the exception
+     * @throws DBException thrown if there is an error writing to the
+     * reject file
+     */
+    private void reject(String sql, DBException e)
+        throws DBException
+    {
+        rejectCount++;
+        if (rejectFilename == null)
+            return;
+        try
+        {
+            if (rejectWriter == null)
+                rejectWriter =
+                    new BufferedWriter(new FileWriter(rejectFilename));
+            String msg = e.getMessage();
+            StringTokenizer t =
+                new StringTokenizer(msg == null ? "" : msg, "\n");
+            while (t.hasMoreTokens())
+            {
+                rejectWriter.write("-- ");
+                rejectWriter.write(t.nextToken());
+                rejectWriter.newLine();
+            }
+            rejectWriter.write(sql);
+            rejectWriter.write(";");
+            rejectWriter.newLine();
+        }
+        catch (IOException e2)
+        {
+            throw getRejectFileException(e2);
+        }
+    }
+
+    /**
+     * close the reject file if it was opened
+     * @assumes nothing
+     * @effects the reject file will be closed
+     * @throws DBException thrown if there is an error closing the file
+     */
+    private void closeRejectFile()
+        throws DBException
+    {
+        if (rejectWriter == null)
+            return;
+        try
+        {
+            rejectWriter.close();
+        }
+        catch (IOException e)
+        {
+            throw getRejectFileException(e);
+        }
+        finally
+        {
+            rejectWriter = null;
+        }
+    }
+
+    /**
+     * get a DBException for an error with the reject file
+     * @param e the IOException
+     * @return the DBException
+     */
+    private DBException getRejectFileException(IOException e)
+    {
+        DBExceptionFactory eFactory = new DBExceptionFactory();
+        DBException e2 = (DBException)
+            eFactory.getException(RejectFileErr, e);
+        e2.bind(rejectFilename);
+        return e2;
+    }
+
+    /**
+     * A strategy which adds the sql of DAO objects to the pending sql of
+     * the stream
+     * @has nothing
+     * @does extracts sql from DAO objects and passes it to the stream
+     * @company The Jackson Laboratory
+     * @author M Walker
+     */
+    private class QueueStrategy
+        implements InsertStrategy, UpdateStrategy, DeleteStrategy
+    {
+        public void insert(DAO dao) throws DBException
+        {
+            add(((SQLTranslatable)dao).getInsertSQL());
+        }
+
+        public void update(DAO dao) throws DBException
+        {
+            add(((SQLTranslatable)dao).getUpdateSQL());
+        }
+
+        public void delete(DAO dao) throws DBException
+        {
+            add(((SQLTranslatable)dao).getDeleteSQL());
+        }
+    }
+}
+
+  /**************************************************************************
+   *
+   * Warranty Disclaimer and Copyright Notice
+   *
+   *  THE JACKSON LABORATORY MAKES NO REPRESENTATION ABOUT THE SUITABILITY OR
+   *  ACCURACY OF THIS SOFTWARE OR DATA FOR ANY PURPOSE, AND MAKES NO WARRANTIES,
+   *  EITHER EXPRESS OR IMPLIED, INCLUDING MERCHANTABILITY AND FITNESS FOR A
+   *  PARTICULAR PURPOSE OR THAT THE USE OF THIS SOFTWARE OR DATA WILL NOT
+   *  INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, TRADEMARKS, OR OTHER RIGHTS.
+   *  THE SOFTWARE AND DATA ARE PROVIDED "AS IS".
+   *
+   *  This software and data are provided to enhance knowledge and encourage
+   *  progress in the scientific community and are to be used only for research
+   *  and educational purposes.  Any reproduction or use for commercial purpose
+   *  is prohibited without the prior express written permission of The Jackson
+   *  Laboratory.
+   *
+   * Copyright \251 1996, 1999, 2002 by The Jackson Laboratory
+   *
+   * All Rights Reserved
+   *
+   **************************************************************************/
@@ -0,0 +1,525 @@
+package org.jax.mgi.shr.dbutils.dao;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Vector;
+
+import org.jax.mgi.shr.dbutils.ColumnDef;
+import org.jax.mgi.shr.dbutils.DBException;
+import org.jax.mgi.shr.dbutils.DBExceptionFactory;
+import org.jax.mgi.shr.dbutils.ResultsNavigator;
+import org.jax.mgi.shr.dbutils.RowReference;
+import org.jax.mgi.shr.dbutils.SQLDataManager;
+import org.jax.mgi.shr.dbutils.Table;
+import org.jax.mgi.shr.dbutils.bcp.BCPTranslatable;
+import org.jax.mgi.shr.exception.MGIException;
+import org.jax.mgi.shr.types.Converter;
+
+/**
+ * A class which implements the InsertStrategy and UpdateStrategy by
+ * upserting rows in bulk into a Postgres database. The rows of each DAO
+ * are obtained through the BCPTranslatable interface, as for bcp, and
+ * staged in memory for each target table. When a table has a full batch,
+ * or when executeUpsert() is called, the rows are copied into a temporary
+ * table with the COPY command and applied to the target table with one
+ * INSERT ... ON CONFLICT statement on its primary key. New rows are
+ * inserted and existing rows have their staged columns updated. If the
+ * same key is staged more than once in a batch then the last row wins.
+ * Columns after those given by the DAO objects, such as record stamp
+ * columns, take their defaults on insert and are left alone on update.
+ * Empty strings are staged as nulls, as they are in bcp files.
+ * @has a SQLDataManager and the rows staged for each table
+ * @does stages rows from DAO objects and upserts them in batches, counting
+ * the rows inserted and updated
+ * @company The Jackson Laboratory
+ * @author M Walker
+ */
+
+public class UpsertStrategy
+    implements InsertStrategy, UpdateStrategy
+{
+    /**
+     * the default number of rows staged for a table before they are
+     * upserted
+     */
+    private static final int DEFAULT_BATCH_SIZE = 10000;
+
+    /**
+     * the SQLDataManager to use
+     */
+    private SQLDataManager sqlManager = null;
+    /**
+     * the number of rows staged for a table before they are upserted
+     */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    /**
+     * the staged rows indexed by table name and the table names in the
+     * order they were first seen
+     */
+    private HashMap stagingByName = new HashMap();
+    private Vector tableOrder = new Vector();
+    /**
+     * the total number of rows inserted and updated
+     */
+    private int insertCount = 0;
+    private int updateCount = 0;
+
+    /*
+     * the following constant definitions are exceptions thrown by this class
+     */
+    private static final String DAOErr = DBExceptionFactory.DAOErr;
+    private static final String UnexpectedType =
+        DBExceptionFactory.UnexpectedType;
+    private static final String UpsertErr = DBExceptionFactory.UpsertErr;
+    private static final String UpsertKeyErr =
+        DBExceptionFactory.UpsertKeyErr;
+    private static final String UpsertColumnErr =
+        DBExceptionFactory.UpsertColumnErr;
+
+    /**
+     * constructor
+     * @assumes nothing
+     * @effects nothing
+     * @param sqlMgr the SQLDataManager to use
+     */
+    public UpsertStrategy(SQLDataManager sqlMgr)
+    {
+        this.sqlManager = sqlMgr;
+    }
+
+    /**
+     * set the number of rows staged for a table before they are upserted
+     * @assumes nothing
+     * @effects later batches will be of the given size
+     * @param size the number of rows
+     */
+    public void setBatchSize(int size)
+    {
+        this.batchSize = (size < 1 ? 1 : size);
+    }
+
+    /**
+     * get the number of rows inserted so far
+     * @assumes nothing
+     * @effects nothing
+     * @return the number of rows inserted
+     */
+    public int getInsertCount()
+    {
+        return insertCount;
+    }
+
+    /**
+     * get the number of existing rows updated so far
+     * @assumes nothing
+     * @effects nothing
+     * @return the number of rows updated
+     */
+    public int getUpdateCount()
+    {
+        return updateCount;
+    }
+
+    /**
+     * stage the rows of the given DAO object for upsert
+     * @assumes nothing
+     * @effects the rows will be staged and a batch may be upserted
+     * @param dao the DAO object which must implement BCPTranslatable
+     * @throws DBException thrown if the rows could not be obtained or if
+     * there is an error upserting a batch
+     */
+    public void insert(DAO dao)
+        throws DBException
+    {
+        stage(dao);
+    }
+
+    /**
+     * stage the rows of the given DAO object for upsert
+     * @assumes nothing
+     * @effects the rows will be staged and a batch may be upserted
+     * @param dao the DAO object which must implement BCPTranslatable
+     * @throws DBException thrown if the rows could not be obtained or if
+     * there is an error upserting a batch
+     */
+    public void update(DAO dao)
+        throws DBException
+    {
+        stage(dao);
+    }
+
+    /**
+     * upsert all staged rows
+     * @assumes nothing
+     * @effects the staged rows will be applied to the database
+     * @throws DBException thrown if there is an error upserting
+     */
+    public void executeUpsert()
+        throws DBException
+    {
+        for (int i = 0; i < tableOrder.size(); i++)
+        {
+            Staging staging =
+                (Staging)stagingByName.get(tableOrder.get(i));
+            upsert(staging);
+        }
+    }
+
+    /**
+     * stage the rows of a DAO object for each of its tables
+     * @param dao the DAO object
+     * @throws DBException thrown if the rows could not be obtained or if
+     * there is an error upserting a batch
+     */
+    private void stage(DAO dao)
+        throws DBException
+    {
+        BCPTranslatable trans = (BCPTranslatable) dao;
+        Vector tables = trans.getBCPSupportedTables();
+        for (Iterator i = tables.iterator(); i.hasNext(); )
+        {
+            Object o = i.next();
+            Table table = null;
+            if (o instanceof Table)
+                table = (Table) o;
+            else if (o instanceof String)
+            {
+                Staging staging = (Staging)stagingByName.get(o);
+                if (staging != null)
+                    table = staging.table;
+                else
+                    table = Table.getInstance((String) o, sqlManager);
+            }
+            else
+            {
+                DBExceptionFactory eFactory = new DBExceptionFactory();
+                DBException e = (DBException)
+                    eFactory.getException(UnexpectedType);
+                throw e;
+            }
+            Vector row = null;
+            try
+            {
+                row = trans.getBCPVector(table);
+            }
+            catch (MGIException e)
+            {
+                DBExceptionFactory eFactory = new DBExceptionFactory();
+                DBException e2 = (DBException)
+                    eFactory.getException(DAOErr, e);
+                e2.bind(dao.getClass().getName());
+                throw e2;
+            }
+            Staging staging = getStaging(table, row.size());
+            staging.addRow(row);
+            if (staging.rowCount >= batchSize)
+                upsert(staging);
+        }
+    }
+
+    /**
+     * get the staging area for a table, creating it for the first row
+     * @param table the target table
+     * @param width the number of values in the row
+     * @return the staging area
+     * @throws DBException thrown if the row does not have the same number
+     * of values as earlier rows or if the table metadata can not be read
+     */
+    private Staging getStaging(Table table, int width)
+        throws DBException
+    {
+        String name = table.getName();
+        Staging staging = (Staging)stagingByName.get(name);
+        if (staging == null)
+        {
+            staging = new Staging(table, width);
+            stagingByName.put(name, staging);
+            tableOrder.add(name);
+        }
+        if (staging.columns.length != width)
+        {
+            DBExceptionFactory eFactory = new DBExceptionFactory();
+            DBException e = (DBException)
+                eFactory.getException(UpsertColumnErr);
+            e.bind(name);
+            e.bind(width);
+            e.bind(staging.columns.length);
+            throw e;
+        }
+        return staging;
+    }
+
+    /**
+     * copy the staged rows for a table into its temporary table and apply
+     * them to the target table
+     * @param staging the staging area
+     * @throws DBException thrown if there is an error upserting
+     */
+    private void upsert(Staging staging)
+        throws DBException
+    {
+        if (staging.rowCount == 0)
+            return;
+        try
+        {
+            if (!staging.created)
+            {
+                // replace any staging table left by an earlier strategy
+                // on this connection
+                sqlManager.executeUpdate(
+                    "DROP TABLE IF EXISTS pg_temp." + staging.tempName);
+                sqlManager.executeUpdate(
+                    "CREATE TEMP TABLE " + staging.tempName +
+                    " AS SELECT " + staging.columnList + " FROM " +
+                    staging.target + " WITH NO DATA");
+                staging.created = true;
+            }
+            sqlManager.executeUpdate("TRUNCATE " + staging.tempName);
+            sqlManager.executeCopyIn(
+                "COPY " + staging.tempName + " (" + staging.columnList +
+                ") FROM STDIN WITH DELIMITER E'\\t' NULL ''",
+                new StringReader(staging.rows.toString()));
+            ResultsNavigator it =
+                sqlManager.executeUpdateQuery(staging.upsertSql);
+            try
+            {
+                if (it.next())
+                {
+                    RowReference row = (RowReference)it.getCurrent();
+                    insertCount += row.getInt(1).intValue();
+                    updateCount += row.getInt(2).intValue();
+                }
+            }
+            finally
+            {
+                it.close();
+            }
+        }
+        catch (DBException e)
+        {
+            DBExceptionFactory eFactory = new DBExceptionFactory();
+            DBException e2 = (DBException)
+                eFactory.getException(UpsertErr, e);
+            e2.bind(staging.table.getName());
+            throw e2;
+        }
+        finally
+        {
+            staging.clear();
+        }
+    }
+
+    /**
+     * The rows staged for a table and the sql used to upsert them
+     * @has the target table, its column and key names and the staged rows
+     * in COPY text format
+     * @does stages rows and builds the upsert sql
+     * @company The Jackson Laboratory
+     * @author M Walker
+     */
+    private class Staging
+    {
+        private Table table = null;
+        private String target = null;
+        private String tempName = null;
+        private String[] columns = null;
+        private String columnList = null;
+        private String upsertSql = null;
+        private StringBuffer rows = new StringBuffer();
+        private int rowCount = 0;
+        private boolean created = false;
+
+        /**
+         * constructor
+         * @param table the target table
+         * @param width the number of columns given by the DAO objects
+         * @throws DBException thrown if the table metadata can not be read
+         * or if the table has no primary key within the given columns
+         */
+        private Staging(Table table, int width)
+            throws DBException
+        {
+            this.table = table;
+            String name = table.getName();
+            String schema = sqlManager.getSchema();
+            target = name;
+            if (schema != null && !schema.equals(""))
+                target = schema + "." + name;
+            tempName = "upsert_" + name.toLowerCase();
+
+            Vector defs = table.getColumnDefinitions();
+            if (width > defs.size())
+                width = defs.size();
+            columns = new String[width];
+            StringBuffer list = new StringBuffer();
+            for (int i = 0; i < width; i++)
+            {
+                columns[i] = ((ColumnDef)defs.get(i)).getName();
+                if (i > 0)
+                    list.append(", ");
+                list.append(columns[i]);
+            }
+            columnList = list.toString();
+
+            // the primary key columns must all be staged
+            Vector keyDefs = table.getPrimaryKeyDefinitions();
+            StringBuffer keys = new StringBuffer();
+            boolean[] isKey = new boolean[width];
+            for (int k = 0; k < keyDefs.size(); k++)
+            {
+                String key = ((ColumnDef)keyDefs.get(k)).getName();
+                int found = -1;
+                for (int i = 0; i < width; i++)
+                {
+                    if (columns[i].equalsIgnoreCase(key))
+                        found = i;
+                }
+                if (found < 0)
+                {
+                    keys.setLength(0);
+                    break;
+                }
+                isKey[found] = true;
+                if (keys.length() > 0)
+                    keys.append(", ");
+                keys.append(columns[found]);
+            }
+            if (keys.length() == 0)
+            {
+                DBExceptionFactory eFactory = new DBExceptionFactory();
+                DBException e = (DBException)
+                    eFactory.getException(UpsertKeyErr);
+                e.bind(name);
+                throw e;
+            }
+
+            StringBuffer set = new StringBuffer();
+            for (int i = 0; i < width; i++)
+            {
+                if (isKey[i])
+                    continue;
+                if (set.length() > 0)
+                    set.append(", ");
+                set.append(columns[i] + " = EXCLUDED." + columns[i]);
+            }
+            String action = "DO NOTHING";
+            if (set.length() > 0)
+                action = "DO UPDATE SET " + set;
+
+            // rows inserted have no xmax. Duplicate keys within a batch
+            // are reduced to the last row staged.
+            upsertSql = "WITH r AS (INSERT INTO " + target + " (" +
+                columnList + ") SELECT DISTINCT ON (" + keys + ") " +
+                columnList + " FROM " + tempName + " ORDER BY " + keys +
+                ", ctid DESC ON CONFLICT (" + keys + ") " + action +
+                " RETURNING (xmax = 0) AS inserted) " +
+                "SELECT (count(*) FILTER (WHERE inserted))::int, " +
+                "(count(*) FILTER (WHERE NOT inserted))::int FROM r";
+        }
+
+        /**
+         * add a row in COPY text format
+         * @param row the values of the row
+         * @throws DBException thrown if a value can not be converted to a
+         * string
+         */
+        private void addRow(Vector row)
+            throws DBException
+        {
+            for (int i = 0; i < columns.length; i++)
+            {
+                if (i > 0)
+                    rows.append('\t');
+                Object o = row.get(i);
+                if (o == null)
+                    continue;
+                String s = null;
+                if (o instanceof Boolean)
+                    s = ((Boolean)o).booleanValue() ? "1" : "0";
+                else
+                {
+                    try
+                    {
+                        s = Converter.objectToString(o);
+                    }
+                    catch (MGIException e)
+                    {
+                        DBExceptionFactory eFactory =
+                            new DBExceptionFactory();
+                        DBException e2 = (DBException)
+                            eFactory.getException(UpsertErr, e);
+                        e2.bind(table.getName());
+                        throw e2;
+                    }
+                }
+                appendEscaped(s);
+            }
+            rows.append('\n');
+            rowCount++;
+        }
+
+        /**
+         * append a value escaping the characters which are special in
+         * COPY text format
+         * @param s the value
+         */
+        private void appendEscaped(String s)
+        {
+            int length = s.length();
+            for (int i = 0; i < length; i++)
+            {
+                char c = s.charAt(i);
+                switch (c)
+                {
+                    case '\\':
+                        rows.append("\\\\");
+                        break;
+                    case '\t':
+                        rows.append("\\t");
+                        break;
+                    case '\n':
+                        rows.append("\\n");
+                        break;
+                    case '\r':
+                        rows.append("\\r");
+                        break;
+                    default:
+                        rows.append(c);
+                }
+            }
+        }
+
+        /**
+         * discard the staged rows
+         */
+        private void clear()
+        {
+            rows.setLength(0);
+            rowCount = 0;
+        }
+    }
+}
+
+  /**************************************************************************
+   *
+   * Warranty Disclaimer and Copyright Notice
+   *
+   *  THE JACKSON LABORATORY MAKES NO REPRESENTATION ABOUT THE SUITABILITY OR
+   *  ACCURACY OF THIS SOFTWARE OR DATA FOR ANY PURPOSE, AND MAKES NO WARRANTIES,
+   *  EITHER EXPRESS OR IMPLIED, INCLUDING MERCHANTABILITY AND FITNESS FOR A
+   *  PARTICULAR PURPOSE OR THAT THE USE OF THIS SOFTWARE OR DATA WILL NOT
+   *  INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, TRADEMARKS, OR OTHER RIGHTS.
+   *  THE SOFTWARE AND DATA ARE PROVIDED "AS IS".
+   *
+   *  This software and data are provided to enhance knowledge and encourage
+   *  progress in the scientific community and are to be used only for research
+   *  and educational purposes.  Any reproduction or use for commercial purpose
+   *  is prohibited without the prior express written permission of The Jackson
+   *  Laboratory.
+   *
+   * Copyright \251 1996, 1999, 2002 by The Jackson Laboratory
+   *
+   * All Rights Reserved
+   *
+   **************************************************************************/
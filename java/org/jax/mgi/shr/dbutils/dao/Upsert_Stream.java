@@ -0,0 +1,104 @@
+package org.jax.mgi.shr.dbutils.dao;
+
+import org.jax.mgi.shr.dbutils.SQLDataManager;
+import org.jax.mgi.shr.dbutils.DBException;
+
+/**
+ * A SQLStream for doing bulk upserts into a Postgres database. Inserts and
+ * updates are both applied as upserts on the primary key of each table.
+ * The DAO objects passed to this stream must implement BCPTranslatable.
+ * @has an UpsertStrategy for performing inserts and updates
+ * @does stages DAO objects and upserts them in batches, counting the rows
+ * inserted and updated
+ * @company The Jackson Laboratory
+ * @author M Walker
+ */
+
+public class Upsert_Stream
+    extends SQLStream
+{
+    /**
+     * the UpsertStrategy to use
+     */
+    private UpsertStrategy upsertStrategy = null;
+
+    /**
+     * constructor
+     * @param sqlMgr the SQLDataManager to use
+     */
+    public Upsert_Stream(SQLDataManager sqlMgr)
+    {
+        super();
+        this.upsertStrategy = new UpsertStrategy(sqlMgr);
+        super.setInsertStrategy(upsertStrategy);
+        super.setUpdateStrategy(upsertStrategy);
+    }
+
+    /**
+     * set the number of rows staged for a table before they are upserted
+     * @assumes nothing
+     * @effects later batches will be of the given size
+     * @param size the number of rows
+     */
+    public void setBatchSize(int size)
+    {
+        this.upsertStrategy.setBatchSize(size);
+    }
+
+    /**
+     * get the number of rows inserted so far
+     * @assumes nothing
+     * @effects nothing
+     * @return the number of rows inserted
+     */
+    public int getInsertCount()
+    {
+        return upsertStrategy.getInsertCount();
+    }
+
+    /**
+     * get the number of existing rows updated so far
+     * @assumes nothing
+     * @effects nothing
+     * @return the number of rows updated
+     */
+    public int getUpdateCount()
+    {
+        return upsertStrategy.getUpdateCount();
+    }
+
+    /**
+     * upsert any rows still staged
+     * @assumes nothing
+     * @effects data will be modified in bulk within the database
+     * @throws DBException thrown if there is an error accessing the database
+     */
+    public void close()
+        throws DBException
+    {
+        upsertStrategy.executeUpsert();
+    }
+}
+
+  /**************************************************************************
+   *
+   * Warranty Disclaimer and Copyright Notice
+   *
+   *  THE JACKSON LABORATORY MAKES NO REPRESENTATION ABOUT THE SUITABILITY OR
+   *  ACCURACY OF THIS SOFTWARE OR DATA FOR ANY PURPOSE, AND MAKES NO WARRANTIES,
+   *  EITHER EXPRESS OR IMPLIED, INCLUDING MERCHANTABILITY AND FITNESS FOR A
+   *  PARTICULAR PURPOSE OR THAT THE USE OF THIS SOFTWARE OR DATA WILL NOT
+   *  INFRINGE ANY THIRD PARTY PATENTS, COPYRIGHTS, TRADEMARKS, OR OTHER RIGHTS.
+   *  THE SOFTWARE AND DATA ARE PROVIDED "AS IS".
+   *
+   *  This software and data are provided to enhance knowledge and encourage
+   *  progress in the scientific community and are to be used only for research
+   *  and educational purposes.  Any reproduction or use for commercial purpose
+   *  is prohibited without the prior express written permission of The Jackson
+   *  Laboratory.
+   *
+   * Copyright \251 1996, 1999, 2002 by The Jackson Laboratory
+   *
+   * All Rights Reserved
+   *
+   **************************************************************************/
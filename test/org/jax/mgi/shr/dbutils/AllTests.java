@@ -21,6 +21,14 @@ public class AllTests
     suite.addTestSuite(org.jax.mgi.shr.dbutils.TestBatchProcessor.class);
     suite.addTestSuite(org.jax.mgi.shr.dbutils.TestMultiRowIterator.class);
     suite.addTestSuite(org.jax.mgi.shr.dbutils.TestRecordStamp.class);
+    suite.addTestSuite(org.jax.mgi.shr.dbutils.TestMergeJoinIterator.class);
+    suite.addTestSuite(org.jax.mgi.shr.dbutils.TestSQLMetrics.class);
+    suite.addTestSuite(org.jax.mgi.shr.dbutils.TestRetryPolicy.class);
+    suite.addTestSuite(org.jax.mgi.shr.dbutils.TestColumnarResults.class);
+    suite.addTestSuite(org.jax.mgi.shr.dbutils.TestSpillingRowStore.class);
+    suite.addTestSuite(org.jax.mgi.shr.dbutils.bcp.TestBinaryCopyEncoder.class);
+    suite.addTestSuite(
+        org.jax.mgi.shr.dbutils.dao.TestPreparedBatchStrategy.class);
     return suite;
   }
 }
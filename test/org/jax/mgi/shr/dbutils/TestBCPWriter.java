@@ -129,6 +129,31 @@ public class TestBCPWriter
     assertEquals(pointer.getBoolean(7).booleanValue(), false);
   }
 
+  public void testRemoveNewlines() throws Exception  {
+    bCPWriter.setOkToRemoveNewlines(true);
+    DateFormat formatter = new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss");
+    java.util.Date date = formatter.parse("2003.07.04.00.00.00");
+    v.add(new String("hello\nthere"));
+    v.add(new Timestamp(date.getTime()));
+    v.add(-12345);
+    v.add(new String("-"));
+    v.add(new String("good\nbye"));
+    v.add((float)1.1);
+    v.add(true);
+    BCPTranslatable translator = new Data(v);
+    bCPWriter.write(translator);
+    manager.executeBCP();
+    ResultsNavigator i = sqlman.executeQuery("select * from TEST_DBTypes");
+    i.next();
+    RowReference pointer = (RowReference) i.getCurrent();
+    assertEquals(pointer.getString(1), "hello there");
+    assertEquals(pointer.getTimestamp(2), new Timestamp(date.getTime()));
+    assertEquals(pointer.getInt(3).intValue(), -12345);
+    assertEquals(pointer.getString(4), "-");
+    assertEquals(pointer.getString(5), "good bye");
+    assertEquals(pointer.getBoolean(7).booleanValue(), true);
+  }
+
 
   private class Data implements BCPTranslatable {
     Vector v = null;
@@ -52,6 +52,41 @@ public class TestBatchProcessor
         assertEquals(row.getString(2), "uno");
     }
 
+    public void testChunkedExecuteBatch()
+        throws Exception
+    {
+        BatchProcessor bp = sqlMgr.getBatchProcessor();
+        bp.setMaxBatchCount(2);
+        bp.addBatch("insert into TEST_DBsimple values (1, 'uno')");
+        bp.addBatch("insert into TEST_DBsimple values (2, 'deuce')");
+        bp.addBatch("insert into TEST_DBsimple values (3, 'tres')");
+        int[] results = bp.executeBatch();
+        assertEquals(3, results.length);
+        ResultsNavigator nav = sqlMgr.executeQuery(
+            "select count(*) from TEST_DBsimple");
+        nav.next();
+        RowReference row = nav.getRowReference();
+        assertEquals(row.getInt(1).intValue(), 3);
+    }
+
+    public void testPipelinedExecuteBatch()
+        throws Exception
+    {
+        BatchProcessor bp = sqlMgr.getBatchProcessor();
+        bp.setMaxBatchCount(2);
+        bp.setPipelined(true);
+        for (int i = 1; i < 6; i++)
+            bp.addBatch("insert into TEST_DBsimple values (" + i + ", 'x')");
+        int[] results = bp.executeBatch();
+        assertEquals(5, results.length);
+        ResultsNavigator nav = sqlMgr.executeQuery(
+            "select count(*) from TEST_DBsimple");
+        nav.next();
+        RowReference row = nav.getRowReference();
+        assertEquals(row.getInt(1).intValue(), 5);
+        bp.close();
+    }
+
     public void testRollback()
         throws Exception
     {
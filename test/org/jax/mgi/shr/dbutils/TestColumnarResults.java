@@ -0,0 +1,241 @@
+package org.jax.mgi.shr.dbutils;
+
+import junit.framework.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+public class TestColumnarResults
+    extends TestCase {
+
+  private static final String[] NAMES =
+      {"id", "big", "score", "flag", "made", "name"};
+  private static final int[] TYPES =
+      {Types.INTEGER, Types.BIGINT, Types.DOUBLE, Types.BIT,
+       Types.TIMESTAMP, Types.VARCHAR};
+
+  private ColumnarResults results = null;
+
+  public TestColumnarResults(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    results = new ColumnarResults(navigator(new Object[][] {
+        {new Integer(10), new Long(5000000000L), new Double(1.5),
+         Boolean.TRUE, new Timestamp(1000), "red"},
+        {new Integer(20), null, new Double(2.5),
+         Boolean.FALSE, null, "blue"},
+        {null, new Long(7), null,
+         null, new Timestamp(3000), "red"},
+        {new Integer(40), new Long(-1), new Double(-3.0),
+         Boolean.TRUE, new Timestamp(2000), null},
+        {new Integer(20), new Long(7), new Double(2.5),
+         Boolean.FALSE, new Timestamp(1000), "green"}}));
+  }
+
+  protected void tearDown() throws Exception {
+    results = null;
+    super.tearDown();
+  }
+
+  public void testKinds() throws Exception {
+    assertEquals(5, results.getRowCount());
+    assertEquals(6, results.getColumnCount());
+    assertEquals(ColumnarResults.INT, results.getColumnKind(1));
+    assertEquals(ColumnarResults.LONG, results.getColumnKind(2));
+    assertEquals(ColumnarResults.DOUBLE, results.getColumnKind(3));
+    assertEquals(ColumnarResults.BOOLEAN, results.getColumnKind(4));
+    assertEquals(ColumnarResults.TIMESTAMP, results.getColumnKind(5));
+    assertEquals(ColumnarResults.STRING, results.getColumnKind(6));
+    assertEquals(6, results.findColumn("NAME"));
+  }
+
+  public void testNulls() throws Exception {
+    assertTrue(results.isNull(2, 1));
+    assertFalse(results.isNull(1, 1));
+    assertTrue(results.isNull(1, 2));
+    assertTrue(results.isNull(2, 4));
+    assertFalse(results.isNull(1, 4));
+    assertTrue(results.isNull(3, 6));
+    assertNull(results.getObject(2, 1));
+    assertNull(results.getString(3, 6));
+    assertNull(results.getTimestamp(1, 5));
+    assertEquals(new Integer(10), results.getObject(0, 1));
+    assertEquals(new Long(5000000000L), results.getObject(0, 2));
+    assertEquals(new Timestamp(2000), results.getTimestamp(3, 5));
+    assertTrue(results.getBoolean(3, 4));
+    assertFalse(results.getBoolean(1, 4));
+    assertRows(new int[] {2}, results.selectNull(1));
+    assertRows(new int[] {1}, results.selectNull(2));
+    assertRows(new int[] {3}, results.selectNull(6));
+  }
+
+  public void testNoNulls() throws Exception {
+    results = new ColumnarResults(navigator(new Object[][] {
+        {new Integer(1), new Long(1), new Double(1), Boolean.TRUE,
+         new Timestamp(1), "a"}}));
+    for (int c = 1; c <= 6; c++) {
+      assertFalse(results.isNull(0, c));
+      assertEquals(0, results.selectNull(c).length);
+    }
+  }
+
+  public void testDictionary() throws Exception {
+    String[] dictionary = results.getDictionary(6);
+    assertEquals(3, dictionary.length);
+    assertEquals("red", dictionary[0]);
+    assertEquals("blue", dictionary[1]);
+    assertEquals("green", dictionary[2]);
+    int[] codes = results.getIntColumn(6);
+    assertEquals(codes[0], codes[2]);
+    assertEquals("red", results.getString(2, 6));
+    assertEquals("green", results.getString(4, 6));
+    assertRows(new int[] {0, 2}, results.selectEquals(6, "red"));
+    assertRows(new int[0], results.selectEquals(6, "black"));
+  }
+
+  public void testSelectRange() throws Exception {
+    // the null row is left out although its int value is 0
+    assertRows(new int[] {0, 1, 4}, results.selectRange(1, 0, 30));
+    assertRows(new int[] {2, 3, 4}, results.selectRange(2, -1, 7));
+    assertRows(new int[] {1, 4}, results.selectRange(3, 2.5, 2.5));
+    assertRows(new int[] {0, 2, 3, 4}, results.selectRange(5, 1000, 3000));
+    assertRows(new int[] {3}, results.selectRange(5, 1500, 2500));
+    assertRows(new int[] {1, 4}, results.selectEquals(1, 20));
+    assertRows(new int[] {2, 4}, results.selectEquals(2, 7));
+    assertRows(new int[0], results.selectEquals(1, 5000000000L));
+  }
+
+  public void testLookup() throws Exception {
+    assertEquals(0, results.lookup(1, 10));
+    assertEquals(1, results.lookup(1, 20));
+    assertEquals(3, results.lookup(1, 40));
+    // the null row is not in the index
+    assertEquals(-1, results.lookup(1, 0));
+    assertEquals(-1, results.lookup(1, 30));
+    assertEquals(0, results.lookup(6, "red"));
+    assertEquals(4, results.lookup(6, "green"));
+    assertEquals(-1, results.lookup(6, "black"));
+  }
+
+  public void testLookupWrongKind() throws Exception {
+    try {
+      results.lookup(2, 7);
+      fail("lookup on a LONG column did not fail");
+    }
+    catch (DBException e) {
+      assertTrue(e.getMessage().indexOf("LONG") >= 0);
+    }
+    try {
+      results.lookup(5, 1000);
+      fail("lookup on a TIMESTAMP column did not fail");
+    }
+    catch (DBException e) {
+      assertTrue(e.getMessage().indexOf("TIMESTAMP") >= 0);
+    }
+    try {
+      results.lookup(1, "10");
+      fail("string lookup on an INT column did not fail");
+    }
+    catch (DBException e) {
+      assertTrue(e.getMessage().indexOf("INT") >= 0);
+    }
+    try {
+      results.selectEquals(3, "1.5");
+      fail("string select on a DOUBLE column did not fail");
+    }
+    catch (DBException e) {
+      assertTrue(e.getMessage().indexOf("DOUBLE") >= 0);
+    }
+  }
+
+  public void testGrow() throws Exception {
+    Object[][] rows = new Object[3000][];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = new Object[] {
+          new Integer(rows.length - i), i % 100 == 0 ? null : new Long(i),
+          new Double(i / 2.0), Boolean.valueOf(i % 2 == 0),
+          new Timestamp(i), "s" + (i % 10)};
+    }
+    results = new ColumnarResults(navigator(rows));
+    assertEquals(3000, results.getRowCount());
+    assertEquals(10, results.getDictionary(6).length);
+    assertEquals(30, results.selectNull(2).length);
+    assertTrue(results.isNull(2900, 2));
+    assertFalse(results.isNull(2901, 2));
+    assertEquals(2901L, results.getLong(2901, 2));
+    assertEquals(2999, results.lookup(1, 1));
+    assertEquals(0, results.lookup(1, 3000));
+    assertEquals(7, results.lookup(6, "s7"));
+    assertEquals(1500, results.selectRange(4, 1, 1).length);
+  }
+
+  private static void assertRows(int[] expected, int[] actual) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++)
+      assertEquals(expected[i], actual[i]);
+  }
+
+  /*
+   * a ResultsNavigator over a ResultSet holding the given rows of the
+   * columns in NAMES
+   */
+  private static ResultsNavigator navigator(final Object[][] rows)
+      throws Exception {
+    final ResultSetMetaData meta = (ResultSetMetaData)proxy(
+        ResultSetMetaData.class, new InvocationHandler() {
+      public Object invoke(Object p, Method m, Object[] args) {
+        String name = m.getName();
+        if (name.equals("getColumnCount"))
+          return new Integer(NAMES.length);
+        if (name.equals("getColumnName") || name.equals("getColumnLabel"))
+          return NAMES[((Integer)args[0]).intValue() - 1];
+        if (name.equals("getColumnType"))
+          return new Integer(TYPES[((Integer)args[0]).intValue() - 1]);
+        return null;
+      }
+    });
+    ResultSet rs = (ResultSet)proxy(ResultSet.class,
+                                    new InvocationHandler() {
+      private int row = -1;
+      private boolean wasNull = false;
+      public Object invoke(Object p, Method m, Object[] args) {
+        String name = m.getName();
+        if (name.equals("next"))
+          return Boolean.valueOf(++row < rows.length);
+        if (name.equals("getMetaData"))
+          return meta;
+        if (name.equals("wasNull"))
+          return Boolean.valueOf(wasNull);
+        if (name.equals("close"))
+          return null;
+        Object o = rows[row][((Integer)args[0]).intValue() - 1];
+        wasNull = (o == null);
+        if (name.equals("getInt"))
+          return new Integer(o == null ? 0 : ((Number)o).intValue());
+        if (name.equals("getLong"))
+          return new Long(o == null ? 0 : ((Number)o).longValue());
+        if (name.equals("getDouble"))
+          return new Double(o == null ? 0 : ((Number)o).doubleValue());
+        if (name.equals("getBoolean"))
+          return Boolean.valueOf(o != null && ((Boolean)o).booleanValue());
+        if (name.equals("getString"))
+          return o == null ? null : o.toString();
+        return o;
+      }
+    });
+    return new ResultsNavigator(rs);
+  }
+
+  private static Object proxy(Class c, InvocationHandler h) {
+    return Proxy.newProxyInstance(TestColumnarResults.class.getClassLoader(),
+                                  new Class[] {c}, h);
+  }
+}
@@ -0,0 +1,186 @@
+package org.jax.mgi.shr.dbutils;
+
+import junit.framework.*;
+
+import java.util.Vector;
+
+import org.jax.mgi.shr.exception.MGIException;
+
+public class TestMergeJoinIterator
+    extends TestCase {
+
+  public TestMergeJoinIterator(String name) {
+    super(name);
+  }
+
+  public void testInnerJoin() throws Exception {
+    DataIterator left = rows(new Object[][] {
+        {new Integer(1), "a"}, {new Integer(2), "b"},
+        {new Integer(4), "c"}, {new Integer(5), "d"}});
+    DataIterator right = rows(new Object[][] {
+        {new Integer(2), "x"}, {new Integer(3), "y"},
+        {new Integer(5), "z1"}, {new Integer(5), "z2"},
+        {new Integer(6), "w"}});
+    MergeJoinIterator it =
+        new MergeJoinIterator(left, right, new Joiner());
+    assertEquals("b:x", it.next());
+    assertEquals("d:z1,z2", it.next());
+    assertFalse(it.hasNext());
+  }
+
+  public void testOuterJoin() throws Exception {
+    DataIterator left = rows(new Object[][] {
+        {new Integer(1), "a"}, {new Integer(2), "b"},
+        {new Integer(3), "c"}});
+    DataIterator right = rows(new Object[][] {
+        {new Integer(2), "x"}});
+    MergeJoinIterator it =
+        new MergeJoinIterator(left, right, new Joiner(), true);
+    assertEquals("a:", it.next());
+    assertEquals("b:x", it.next());
+    assertEquals("c:", it.next());
+    assertFalse(it.hasNext());
+  }
+
+  public void testDuplicateLeftKeys() throws Exception {
+    DataIterator left = rows(new Object[][] {
+        {new Integer(1), "a1"}, {new Integer(1), "a2"},
+        {new Integer(2), "b"}});
+    DataIterator right = rows(new Object[][] {
+        {new Integer(1), "x1"}, {new Integer(1), "x2"},
+        {new Integer(2), "y"}});
+    MergeJoinIterator it =
+        new MergeJoinIterator(left, right, new Joiner());
+    assertEquals("a1:x1,x2", it.next());
+    assertEquals("a2:x1,x2", it.next());
+    assertEquals("b:y", it.next());
+    assertFalse(it.hasNext());
+  }
+
+  public void testNullKeys() throws Exception {
+    DataIterator left = rows(new Object[][] {
+        {null, "a"}, {new Integer(1), "b"}});
+    DataIterator right = rows(new Object[][] {
+        {null, "x"}, {new Integer(1), "y"}});
+    MergeJoinIterator it =
+        new MergeJoinIterator(left, right, new Joiner());
+    assertEquals("b:y", it.next());
+    assertFalse(it.hasNext());
+    left = rows(new Object[][] {{null, "a"}, {new Integer(1), "b"}});
+    right = rows(new Object[][] {{null, "x"}, {new Integer(1), "y"}});
+    it = new MergeJoinIterator(left, right, new Joiner(), true);
+    assertEquals("a:", it.next());
+    assertEquals("b:y", it.next());
+    assertFalse(it.hasNext());
+  }
+
+  public void testMixedNumericKeys() throws Exception {
+    DataIterator left = rows(new Object[][] {
+        {new Integer(9), "a"}, {new Integer(10), "b"}});
+    DataIterator right = rows(new Object[][] {
+        {new Long(9), "x"}, {new Long(10), "y"}});
+    MergeJoinIterator it =
+        new MergeJoinIterator(left, right, new Joiner());
+    assertEquals("a:x", it.next());
+    assertEquals("b:y", it.next());
+    assertFalse(it.hasNext());
+  }
+
+  public void testIncomparableKeys() throws Exception {
+    DataIterator left = rows(new Object[][] {{new Integer(1), "a"}});
+    DataIterator right = rows(new Object[][] {{"1", "x"}});
+    try {
+      new MergeJoinIterator(left, right, new Joiner());
+      fail("expected a DBException");
+    }
+    catch (DBException e) {
+      // this is what we expect
+    }
+  }
+
+  public void testOutOfOrder() throws Exception {
+    DataIterator left = rows(new Object[][] {
+        {new Integer(1), "a"}, {new Integer(3), "b"},
+        {new Integer(2), "c"}});
+    DataIterator right = rows(new Object[][] {
+        {new Integer(1), "x"}, {new Integer(2), "y"},
+        {new Integer(3), "z"}});
+    MergeJoinIterator it =
+        new MergeJoinIterator(left, right, new Joiner());
+    assertEquals("a:x", it.next());
+    try {
+      it.next();
+      fail("expected a DBException");
+    }
+    catch (DBException e) {
+      // this is what we expect
+    }
+  }
+
+  public void testPastEnd() throws Exception {
+    MergeJoinIterator it = new MergeJoinIterator(
+        rows(new Object[0][]), rows(new Object[0][]), new Joiner());
+    assertFalse(it.hasNext());
+    try {
+      it.next();
+      fail("expected a DBException");
+    }
+    catch (DBException e) {
+      // this is what we expect
+    }
+  }
+
+  private DataIterator rows(Object[][] rows) {
+    return new ArrayIterator(rows);
+  }
+
+  /**
+   * a DataIterator over an array of rows
+   */
+  private static class ArrayIterator
+      implements DataIterator {
+    private Object[][] rows = null;
+    private int position = 0;
+
+    public ArrayIterator(Object[][] rows) {
+      this.rows = rows;
+    }
+
+    public boolean hasNext() {
+      return position < rows.length;
+    }
+
+    public Object next() throws MGIException {
+      return rows[position++];
+    }
+
+    public void close() {
+    }
+  }
+
+  /**
+   * joins rows of a key and a value into a string of the left value and
+   * the right values
+   */
+  private static class Joiner
+      implements MergeJoinInterpreter {
+    public Object interpretLeftKey(Object left) {
+      return ((Object[])left)[0];
+    }
+
+    public Object interpretRightKey(Object right) {
+      return ((Object[])right)[0];
+    }
+
+    public Object interpretJoin(Object left, Vector rights) {
+      StringBuffer s = new StringBuffer();
+      s.append(((Object[])left)[1]).append(':');
+      for (int i = 0; i < rights.size(); i++) {
+        if (i > 0)
+          s.append(',');
+        s.append(((Object[])rights.get(i))[1]);
+      }
+      return s.toString();
+    }
+  }
+}
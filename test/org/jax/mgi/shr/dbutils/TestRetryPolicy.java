@@ -0,0 +1,110 @@
+package org.jax.mgi.shr.dbutils;
+
+import junit.framework.*;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+public class TestRetryPolicy
+    extends TestCase {
+
+  private RetryPolicy policy = null;
+
+  public TestRetryPolicy(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    policy = new RetryPolicy();
+  }
+
+  protected void tearDown() throws Exception {
+    policy = null;
+    super.tearDown();
+  }
+
+  public void testConnectionFailures() throws Exception {
+    assertEquals(RetryPolicy.RECONNECT, classify("08000"));
+    assertEquals(RetryPolicy.RECONNECT, classify("08006"));
+    assertEquals(RetryPolicy.RECONNECT, classify("08001"));
+  }
+
+  public void testTransientFailures() throws Exception {
+    // serialization failure, deadlock and lock not available
+    assertEquals(RetryPolicy.RETRY, classify("40001"));
+    assertEquals(RetryPolicy.RETRY, classify("40P01"));
+    assertEquals(RetryPolicy.RETRY, classify("55P03"));
+  }
+
+  public void testServerFailures() throws Exception {
+    // too many connections and server shutdown, crash or startup
+    assertEquals(RetryPolicy.RECONNECT, classify("53300"));
+    assertEquals(RetryPolicy.RECONNECT, classify("57P01"));
+    assertEquals(RetryPolicy.RECONNECT, classify("57P02"));
+    assertEquals(RetryPolicy.RECONNECT, classify("57P03"));
+  }
+
+  public void testFatalFailures() throws Exception {
+    // unique violation, syntax error, other transaction rollbacks and
+    // other operator interventions
+    assertEquals(RetryPolicy.FATAL, classify("23505"));
+    assertEquals(RetryPolicy.FATAL, classify("42601"));
+    assertEquals(RetryPolicy.FATAL, classify("40002"));
+    assertEquals(RetryPolicy.FATAL, classify("57014"));
+    assertEquals(RetryPolicy.FATAL, classify(null));
+    assertEquals(RetryPolicy.FATAL, classify("080"));
+  }
+
+  public void testChainedExceptions() throws Exception {
+    SQLException e = new SQLException("no state");
+    e.setNextException(new SQLException("deadlock", "40P01"));
+    assertEquals(RetryPolicy.RETRY, policy.classify(e));
+    e = new SQLException("i/o error");
+    e.initCause(new IOException("connection reset"));
+    assertEquals(RetryPolicy.RECONNECT, policy.classify(e));
+  }
+
+  public void testShouldRetry() throws Exception {
+    assertFalse(policy.shouldRetry(RetryPolicy.RETRY, 1, false));
+    policy.setMaxAttempts(3);
+    assertTrue(policy.shouldRetry(RetryPolicy.RETRY, 1, false));
+    assertTrue(policy.shouldRetry(RetryPolicy.RECONNECT, 2, false));
+    assertFalse(policy.shouldRetry(RetryPolicy.RETRY, 3, false));
+    assertFalse(policy.shouldRetry(RetryPolicy.FATAL, 1, false));
+    assertFalse(policy.shouldRetry(RetryPolicy.RETRY, 1, true));
+    policy.setRetryWrites(true);
+    assertTrue(policy.shouldRetry(RetryPolicy.RETRY, 1, true));
+    policy.setMaxAttempts(0);
+    assertEquals(1, policy.getMaxAttempts());
+  }
+
+  public void testDelayBounds() throws Exception {
+    policy.setDelays(100, 1000);
+    for (int i = 0; i < 200; i++) {
+      assertBetween(1, 100, policy.getDelay(1));
+      assertBetween(1, 200, policy.getDelay(2));
+      assertBetween(1, 400, policy.getDelay(3));
+      assertBetween(1, 800, policy.getDelay(4));
+      assertBetween(1, 1000, policy.getDelay(5));
+      assertBetween(1, 1000, policy.getDelay(50));
+    }
+  }
+
+  public void testDelayLimits() throws Exception {
+    policy.setDelays(0, 0);
+    assertEquals(1, policy.getDelay(1));
+    policy.setDelays(500, 100);
+    for (int i = 0; i < 200; i++)
+      assertBetween(1, 500, policy.getDelay(3));
+  }
+
+  private int classify(String state) {
+    return policy.classify(new SQLException("failure", state));
+  }
+
+  private void assertBetween(long low, long high, long value) {
+    assertTrue(value + " is not between " + low + " and " + high,
+               value >= low && value <= high);
+  }
+}
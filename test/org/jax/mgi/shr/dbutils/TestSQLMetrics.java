@@ -0,0 +1,89 @@
+package org.jax.mgi.shr.dbutils;
+
+import junit.framework.*;
+
+public class TestSQLMetrics
+    extends TestCase {
+
+  public TestSQLMetrics(String name) {
+    super(name);
+  }
+
+  public void testNumericLiterals() throws Exception {
+    assertEquals("select * from t where id = ? and score > ?",
+                 SQLMetrics.normalize(
+                     "select * from t where id = 5 and score > 1.25"));
+    assertEquals("select a from t where b = -?",
+                 SQLMetrics.normalize("select a from t where b = -7"));
+  }
+
+  public void testStringLiterals() throws Exception {
+    assertEquals("select * from t where name = ?",
+                 SQLMetrics.normalize(
+                     "select * from t where name = 'Smith'"));
+    assertEquals("select * from t where name = ?",
+                 SQLMetrics.normalize("select * from t where name = ''"));
+  }
+
+  public void testDoubledQuotes() throws Exception {
+    assertEquals("select * from t where name = ? and id = ?",
+                 SQLMetrics.normalize(
+                     "select * from t where name = 'O''Brien' and id = 3"));
+    assertEquals("select * from t where a = ? and b = ?",
+                 SQLMetrics.normalize(
+                     "select * from t where a = '''' and b = 'x'''"));
+  }
+
+  public void testInListFolding() throws Exception {
+    String shape = "select * from t where id in (?, ...)";
+    assertEquals(shape, SQLMetrics.normalize(
+        "select * from t where id in (1, 2, 3)"));
+    assertEquals(shape, SQLMetrics.normalize(
+        "select * from t where id in (1,2,3,4,5,6,7,8)"));
+    assertEquals(shape, SQLMetrics.normalize(
+        "select * from t where id in ('a', 'b')"));
+    assertEquals("select * from t where id in (?)",
+                 SQLMetrics.normalize("select * from t where id in (1)"));
+  }
+
+  public void testValuesAndPlaceholders() throws Exception {
+    assertEquals("insert into t values (?, ...)",
+                 SQLMetrics.normalize(
+                     "insert into t values (1, 'a', ?, 2.5)"));
+    assertEquals("update t set a = ? where b = ?",
+                 SQLMetrics.normalize("update t set a = ? where b = ?"));
+  }
+
+  public void testListsWithColumns() throws Exception {
+    assertEquals("select coalesce(a, ?) from t",
+                 SQLMetrics.normalize("select coalesce(a, 0) from t"));
+    assertEquals("insert into t (a, b) values (?, ...)",
+                 SQLMetrics.normalize(
+                     "insert into t (a, b) values (1, 2)"));
+  }
+
+  public void testIdentifiersWithDigits() throws Exception {
+    assertEquals("select col1, t2.x9 from tab2 t2 where a1_b = ?",
+                 SQLMetrics.normalize(
+                     "select col1, t2.x9 from tab2 t2 where a1_b = 10"));
+    assertEquals("select * from mrk_marker where _marker_key = ?",
+                 SQLMetrics.normalize(
+                     "select * from mrk_marker where _marker_key = 12345"));
+  }
+
+  public void testWhitespace() throws Exception {
+    assertEquals("select a from t where b = ?",
+                 SQLMetrics.normalize(
+                     "  select\n  a\tfrom   t\r\n where b =\n 1  "));
+  }
+
+  public void testLongStatement() throws Exception {
+    StringBuffer sql = new StringBuffer("select ");
+    for (int i = 0; i < 200; i++)
+      sql.append("column_" + i + "_name, ");
+    sql.append("x from t");
+    String shape = SQLMetrics.normalize(sql.toString());
+    assertTrue(shape.length() <= 501);
+    assertTrue(sql.toString().startsWith(shape));
+  }
+}
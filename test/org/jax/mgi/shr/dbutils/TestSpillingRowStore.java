@@ -0,0 +1,244 @@
+package org.jax.mgi.shr.dbutils;
+
+import junit.framework.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+public class TestSpillingRowStore
+    extends TestCase {
+
+  private static final String[] NAMES =
+      {"id", "big", "made", "name", "mixed", "flag"};
+  private static final int[] TYPES =
+      {Types.INTEGER, Types.BIGINT, Types.TIMESTAMP, Types.VARCHAR,
+       Types.OTHER, Types.BIT};
+  private static final int BLOCK = SpillingRowStore.BLOCK_ROWS;
+  // four full blocks and part of a fifth
+  private static final int ROWS = BLOCK * 4 + 500;
+  // the row from which the mixed column holds strings rather than doubles
+  private static final int MIXED_FROM = BLOCK * 2 + 302;
+
+  private SpillingRowStore store = null;
+  private SnapshotRowReference.Layout layout = null;
+
+  public TestSpillingRowStore(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    ResultsNavigator nav = navigator(ROWS);
+    RowReference source = nav.getRowReference();
+    layout = new SnapshotRowReference.Layout(source);
+    // only one block is held in memory so that the others are spilled
+    store = new SpillingRowStore(layout, BLOCK + BLOCK / 2);
+    while (nav.next())
+      store.add(source);
+    nav.close();
+  }
+
+  protected void tearDown() throws Exception {
+    store.close();
+    store = null;
+    layout = null;
+    super.tearDown();
+  }
+
+  public void testRoundTrip() throws Exception {
+    assertEquals(ROWS, store.size());
+    SnapshotRowReference row = newRow();
+    for (int i = 0; i < ROWS; i++) {
+      store.read(i, row);
+      assertRow(i, row);
+    }
+    for (int i = ROWS - 1; i >= 0; i -= 7) {
+      store.read(i, row);
+      assertRow(i, row);
+    }
+  }
+
+  public void testMixedColumn() throws Exception {
+    SnapshotRowReference row = newRow();
+    // the block in which the column changes type is held as objects
+    store.read(MIXED_FROM - 1, row);
+    assertEquals(new Double(MIXED_FROM - 1), row.getObject(5));
+    assertEquals(String.valueOf((double)(MIXED_FROM - 1)),
+                 row.getString(5));
+    store.read(MIXED_FROM, row);
+    assertEquals("x" + MIXED_FROM, row.getObject(5));
+    store.read(BLOCK * 2 + 1, row);
+    assertEquals(new Double(BLOCK * 2 + 1), row.getObject(5));
+    store.read(BLOCK * 2 + 28, row);
+    assertNull(row.getObject(5));
+    assertTrue(row.wasNull());
+  }
+
+  public void testNullsAtWordBoundary() throws Exception {
+    SnapshotRowReference row = newRow();
+    // rows 63 and 64 of each block fall either side of a bitmap word
+    for (int b = 0; b <= ROWS / BLOCK; b++) {
+      int base = b * BLOCK;
+      store.read(base + 62, row);
+      assertEquals(new Integer(base + 62), row.getObject(1));
+      store.read(base + 63, row);
+      assertNull(row.getObject(1));
+      assertTrue(row.isNull(1));
+      store.read(base + 64, row);
+      assertNull(row.getInt(1));
+      assertEquals(0, row.getIntValue(1));
+      assertTrue(row.wasNull());
+      store.read(base + 65, row);
+      assertEquals(base + 65, row.getIntValue(1));
+      assertFalse(row.wasNull());
+    }
+  }
+
+  public void testTimestampNanos() throws Exception {
+    SnapshotRowReference row = newRow();
+    int[] rows = {1, BLOCK + 2, ROWS - 2};
+    for (int i = 0; i < rows.length; i++) {
+      store.read(rows[i], row);
+      Timestamp t = row.getTimestamp(3);
+      assertEquals(timestamp(rows[i]), t);
+      assertEquals(rows[i] * 1000 + 7, t.getNanos());
+    }
+  }
+
+  public void testSpilledBlockAfterAnotherDecoded() throws Exception {
+    SnapshotRowReference row = newRow();
+    int[] order = {10, BLOCK + 10, 20, BLOCK * 2 + 10, BLOCK + 20,
+                   ROWS - 1, 30, BLOCK * 3 + 5, 40};
+    for (int i = 0; i < order.length; i++) {
+      store.read(order[i], row);
+      assertRow(order[i], row);
+    }
+  }
+
+  public void testNavigator() throws Exception {
+    ResultsNavigator nav = navigator(ROWS);
+    nav.materialize(BLOCK);
+    // the reference follows the navigator as it moves
+    RowReference ref = nav.getRowReference();
+    int count = 0;
+    while (nav.next()) {
+      assertEquals(count, ref.getLongValue(2) / 3000000000L);
+      count++;
+    }
+    assertEquals(ROWS, count);
+    assertTrue(nav.isAfterLast());
+    assertTrue(nav.absolute(BLOCK + 1));
+    assertRow(BLOCK, ref);
+    assertTrue(nav.previous());
+    assertRow(BLOCK - 1, ref);
+    assertTrue(nav.relative(-BLOCK + 1));
+    assertTrue(nav.isFirst());
+    assertRow(0, ref);
+    assertTrue(nav.last());
+    assertTrue(nav.isLast());
+    assertRow(ROWS - 1, ref);
+    assertTrue(nav.absolute(-2));
+    assertRow(ROWS - 2, ref);
+    assertFalse(nav.absolute(ROWS + 1));
+    nav.close();
+  }
+
+  private SnapshotRowReference newRow() {
+    return layout.restore(new Object[NAMES.length], null);
+  }
+
+  private static void assertRow(int i, RowReference row) throws Exception {
+    for (int c = 1; c <= NAMES.length; c++) {
+      Object expected = value(i, c);
+      if (expected == null) {
+        assertTrue("row " + i + " column " + c, row.getObject(c) == null);
+        continue;
+      }
+      assertEquals("row " + i + " column " + c, expected, row.getObject(c));
+      assertEquals("row " + i + " column " + c,
+                   expected.toString(), row.getString(c));
+    }
+  }
+
+  private static Timestamp timestamp(int i) {
+    Timestamp t = new Timestamp(i * 1000L);
+    t.setNanos(i * 1000 + 7);
+    return t;
+  }
+
+  /*
+   * the value of a column of a row
+   */
+  private static Object value(int i, int column) {
+    switch (column) {
+      case 1:
+        int r = i % BLOCK;
+        return r == 63 || r == 64 ? null : new Integer(i);
+      case 2:
+        return new Long(i * 3000000000L);
+      case 3:
+        return i % 5 == 0 ? null : timestamp(i);
+      case 4:
+        return i % 7 == 0 ? null : "s" + i;
+      case 5:
+        if (i % 4 == 0)
+          return null;
+        return i < MIXED_FROM ? (Object)new Double(i) : (Object)("x" + i);
+      default:
+        return Boolean.valueOf(i % 3 == 0);
+    }
+  }
+
+  /*
+   * a ResultsNavigator over a ResultSet holding the given number of rows
+   * with the values from value()
+   */
+  private static ResultsNavigator navigator(final int rows)
+      throws Exception {
+    final ResultSetMetaData meta = (ResultSetMetaData)proxy(
+        ResultSetMetaData.class, new InvocationHandler() {
+      public Object invoke(Object p, Method m, Object[] args) {
+        String name = m.getName();
+        if (name.equals("getColumnCount"))
+          return new Integer(NAMES.length);
+        if (name.equals("getColumnName") || name.equals("getColumnLabel"))
+          return NAMES[((Integer)args[0]).intValue() - 1];
+        if (name.equals("getColumnType"))
+          return new Integer(TYPES[((Integer)args[0]).intValue() - 1]);
+        return null;
+      }
+    });
+    ResultSet rs = (ResultSet)proxy(ResultSet.class,
+                                    new InvocationHandler() {
+      private int row = -1;
+      private boolean wasNull = false;
+      public Object invoke(Object p, Method m, Object[] args) {
+        String name = m.getName();
+        if (name.equals("next"))
+          return Boolean.valueOf(++row < rows);
+        if (name.equals("getMetaData"))
+          return meta;
+        if (name.equals("wasNull"))
+          return Boolean.valueOf(wasNull);
+        if (name.equals("close"))
+          return null;
+        Object o = value(row, ((Integer)args[0]).intValue());
+        wasNull = (o == null);
+        if (name.equals("getString"))
+          return o == null ? null : o.toString();
+        return o;
+      }
+    });
+    return new ResultsNavigator(rs);
+  }
+
+  private static Object proxy(Class c, InvocationHandler h) {
+    return Proxy.newProxyInstance(
+        TestSpillingRowStore.class.getClassLoader(), new Class[] {c}, h);
+  }
+}
@@ -0,0 +1,317 @@
+package org.jax.mgi.shr.dbutils.bcp;
+
+import junit.framework.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Vector;
+
+import org.jax.mgi.shr.dbutils.ColumnDef;
+
+public class TestBinaryCopyEncoder
+    extends TestCase {
+
+  private ByteArrayOutputStream bytes = null;
+
+  public TestBinaryCopyEncoder(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    bytes = new ByteArrayOutputStream();
+  }
+
+  protected void tearDown() throws Exception {
+    bytes = null;
+    super.tearDown();
+  }
+
+  public void testHeaderAndTrailer() throws Exception {
+    BinaryCopyEncoder encoder = newEncoder(new Column[] {
+        new Column(Types.INTEGER, "int4")});
+    assertEquals(19, encoder.size());
+    encoder.close();
+    DataInputStream in = readHeader();
+    assertEquals(-1, in.readShort());
+    assertEquals(-1, in.read());
+  }
+
+  public void testIntegers() throws Exception {
+    BinaryCopyEncoder encoder = newEncoder(new Column[] {
+        new Column(Types.SMALLINT, "int2"),
+        new Column(Types.INTEGER, "int4"),
+        new Column(Types.BIGINT, "int8")});
+    Vector v = new Vector();
+    v.add(new Integer(-2));
+    v.add("12345");
+    v.add(new Long(1L << 40));
+    encoder.writeRow(v, null);
+    encoder.close();
+    DataInputStream in = readHeader();
+    assertEquals(3, in.readShort());
+    assertEquals(2, in.readInt());
+    assertEquals(-2, in.readShort());
+    assertEquals(4, in.readInt());
+    assertEquals(12345, in.readInt());
+    assertEquals(8, in.readInt());
+    assertEquals(1L << 40, in.readLong());
+    assertEquals(-1, in.readShort());
+  }
+
+  public void testNullsAndEmptyStrings() throws Exception {
+    BinaryCopyEncoder encoder = newEncoder(new Column[] {
+        new Column(Types.INTEGER, "int4"),
+        new Column(Types.VARCHAR, "varchar")});
+    Vector v = new Vector();
+    v.add(null);
+    v.add("");
+    encoder.writeRow(v, null);
+    encoder.close();
+    DataInputStream in = readHeader();
+    assertEquals(2, in.readShort());
+    assertEquals(-1, in.readInt());
+    assertEquals(-1, in.readInt());
+  }
+
+  public void testTextBooleanAndExtra() throws Exception {
+    BinaryCopyEncoder encoder = newEncoder(new Column[] {
+        new Column(Types.VARCHAR, "varchar"),
+        new Column(Types.BIT, "bool"),
+        new Column(Types.VARCHAR, "varchar")});
+    Vector v = new Vector();
+    v.add("caf\u00e9");
+    v.add(Boolean.TRUE);
+    encoder.writeRow(v, new String[] {"stamp"});
+    encoder.close();
+    DataInputStream in = readHeader();
+    assertEquals(3, in.readShort());
+    assertEquals(5, in.readInt());
+    byte[] b = new byte[5];
+    in.readFully(b);
+    assertEquals("caf\u00e9", new String(b, "UTF-8"));
+    assertEquals(1, in.readInt());
+    assertEquals(1, in.readByte());
+    assertEquals(5, in.readInt());
+    b = new byte[5];
+    in.readFully(b);
+    assertEquals("stamp", new String(b, "UTF-8"));
+  }
+
+  public void testNumeric() throws Exception {
+    BinaryCopyEncoder encoder = newEncoder(new Column[] {
+        new Column(Types.NUMERIC, "numeric"),
+        new Column(Types.NUMERIC, "numeric"),
+        new Column(Types.NUMERIC, "numeric")});
+    Vector v = new Vector();
+    v.add(new BigDecimal("-12345.678"));
+    v.add(new BigDecimal("0.0001"));
+    v.add(new Integer(0));
+    encoder.writeRow(v, null);
+    encoder.close();
+    DataInputStream in = readHeader();
+    assertEquals(3, in.readShort());
+    // -12345.678 is the base 10000 digits 1 2345 6780
+    assertEquals(14, in.readInt());
+    assertEquals(3, in.readShort());
+    assertEquals(1, in.readShort());
+    assertEquals(0x4000, in.readShort());
+    assertEquals(3, in.readShort());
+    assertEquals(1, in.readShort());
+    assertEquals(2345, in.readShort());
+    assertEquals(6780, in.readShort());
+    // 0.0001 is the single digit 1 with a weight of -1
+    assertEquals(10, in.readInt());
+    assertEquals(1, in.readShort());
+    assertEquals(-1, in.readShort());
+    assertEquals(0, in.readShort());
+    assertEquals(4, in.readShort());
+    assertEquals(1, in.readShort());
+    // zero has no digits
+    assertEquals(8, in.readInt());
+    assertEquals(0, in.readShort());
+    assertEquals(0, in.readShort());
+    assertEquals(0, in.readShort());
+    assertEquals(0, in.readShort());
+  }
+
+  public void testDates() throws Exception {
+    BinaryCopyEncoder encoder = newEncoder(new Column[] {
+        new Column(Types.TIMESTAMP, "timestamp"),
+        new Column(Types.DATE, "date")});
+    Vector v = new Vector();
+    v.add(Timestamp.valueOf("2000-01-01 00:00:01.5"));
+    v.add("2000-01-03 00:00:00.0");
+    encoder.writeRow(v, null);
+    encoder.close();
+    DataInputStream in = readHeader();
+    assertEquals(2, in.readShort());
+    assertEquals(8, in.readInt());
+    assertEquals(1500000L, in.readLong());
+    assertEquals(4, in.readInt());
+    assertEquals(2, in.readInt());
+  }
+
+  public void testConversionError() throws Exception {
+    BinaryCopyEncoder encoder = newEncoder(new Column[] {
+        new Column(Types.INTEGER, "int4")});
+    Vector v = new Vector();
+    v.add("not a number");
+    try {
+      encoder.writeRow(v, null);
+      fail("expected a BCPException");
+    }
+    catch (BCPException e) {
+      // this is what we expect
+    }
+  }
+
+  public void testTooManyValues() throws Exception {
+    BinaryCopyEncoder encoder = newEncoder(new Column[] {
+        new Column(Types.INTEGER, "int4")});
+    Vector v = new Vector();
+    v.add(new Integer(1));
+    v.add(new Integer(2));
+    try {
+      encoder.writeRow(v, null);
+      fail("expected a BCPException");
+    }
+    catch (BCPException e) {
+      // this is what we expect
+    }
+  }
+
+  public void testTooFewValues() throws Exception {
+    BinaryCopyEncoder encoder = newEncoder(new Column[] {
+        new Column(Types.INTEGER, "int4"),
+        new Column(Types.INTEGER, "int4"),
+        new Column(Types.VARCHAR, "varchar")});
+    Vector v = new Vector();
+    v.add(new Integer(1));
+    assertRowRefused(encoder, v, new String[] {"stamp"});
+    assertRowRefused(encoder, v, null);
+  }
+
+  public void testIntegerOverflow() throws Exception {
+    BinaryCopyEncoder encoder = newEncoder(new Column[] {
+        new Column(Types.SMALLINT, "int2")});
+    assertRowRefused(encoder, row(new Integer(70000)), null);
+    assertRowRefused(encoder, row(new Integer(-32769)), null);
+    assertRowRefused(encoder, row("70000"), null);
+    encoder = newEncoder(new Column[] {
+        new Column(Types.INTEGER, "int4")});
+    assertRowRefused(encoder, row(new Long(1L << 40)), null);
+    assertRowRefused(encoder, row(new BigDecimal("2147483648")), null);
+    encoder = newEncoder(new Column[] {
+        new Column(Types.BIGINT, "int8")});
+    assertRowRefused(encoder, row(new BigDecimal("1e19")), null);
+  }
+
+  public void testIntegerLimits() throws Exception {
+    BinaryCopyEncoder encoder = newEncoder(new Column[] {
+        new Column(Types.SMALLINT, "int2"),
+        new Column(Types.SMALLINT, "int2"),
+        new Column(Types.INTEGER, "int4")});
+    Vector v = new Vector();
+    v.add(new Integer(32767));
+    v.add(new Integer(-32768));
+    v.add(new Long(Integer.MIN_VALUE));
+    encoder.writeRow(v, null);
+    encoder.close();
+    DataInputStream in = readHeader();
+    assertEquals(3, in.readShort());
+    assertEquals(2, in.readInt());
+    assertEquals(32767, in.readShort());
+    assertEquals(2, in.readInt());
+    assertEquals(-32768, in.readShort());
+    assertEquals(4, in.readInt());
+    assertEquals(Integer.MIN_VALUE, in.readInt());
+  }
+
+  public void testFractionalInteger() throws Exception {
+    BinaryCopyEncoder encoder = newEncoder(new Column[] {
+        new Column(Types.INTEGER, "int4")});
+    assertRowRefused(encoder, row(new Double(1.5)), null);
+    assertRowRefused(encoder, row(new BigDecimal("2.5")), null);
+    assertRowRefused(encoder, row("3.5"), null);
+    assertRowRefused(encoder, row(new Double(Double.NaN)), null);
+    // whole numbers held as decimals are accepted
+    encoder.writeRow(row(new Double(3.0)), null);
+    encoder.writeRow(row(new BigDecimal("4.00")), null);
+    encoder.close();
+    DataInputStream in = readHeader();
+    assertEquals(1, in.readShort());
+    assertEquals(4, in.readInt());
+    assertEquals(3, in.readInt());
+    assertEquals(1, in.readShort());
+    assertEquals(4, in.readInt());
+    assertEquals(4, in.readInt());
+    assertEquals(-1, in.readShort());
+  }
+
+  public void testUnsupportedType() throws Exception {
+    try {
+      newEncoder(new Column[] {new Column(Types.BLOB, "blob")});
+      fail("expected a BCPException");
+    }
+    catch (BCPException e) {
+      // this is what we expect
+    }
+  }
+
+  private static Vector row(Object o) {
+    Vector v = new Vector();
+    v.add(o);
+    return v;
+  }
+
+  private static void assertRowRefused(BinaryCopyEncoder encoder, Vector v,
+                                       String[] extra) {
+    try {
+      encoder.writeRow(v, extra);
+      fail("expected a BCPException for " + v);
+    }
+    catch (BCPException e) {
+      // this is what we expect
+    }
+  }
+
+  private BinaryCopyEncoder newEncoder(Column[] columns)
+      throws BCPException {
+    Vector v = new Vector();
+    for (int i = 0; i < columns.length; i++)
+      v.add(columns[i]);
+    return new BinaryCopyEncoder(bytes, v, "test.bcp");
+  }
+
+  /**
+   * read past the header of the written bytes, checking it on the way
+   */
+  private DataInputStream readHeader() throws Exception {
+    DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray()));
+    byte[] signature = new byte[11];
+    in.readFully(signature);
+    assertEquals("PGCOPY\n\u00ff\r\n\u0000",
+                 new String(signature, "ISO-8859-1"));
+    assertEquals(0, in.readInt());
+    assertEquals(0, in.readInt());
+    return in;
+  }
+
+  /**
+   * a column definition of a given type
+   */
+  private static class Column
+      extends ColumnDef {
+    public Column(int type, String typeName) {
+      setName("col");
+      setType(type);
+      setTypeName(typeName);
+    }
+  }
+}
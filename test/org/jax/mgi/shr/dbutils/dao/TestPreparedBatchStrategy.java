@@ -0,0 +1,188 @@
+package org.jax.mgi.shr.dbutils.dao;
+
+import junit.framework.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Vector;
+
+import org.jax.mgi.shr.dbutils.ConnectionManager;
+import org.jax.mgi.shr.dbutils.SQLDataManager;
+import org.jax.mgi.shr.dbutils.Table;
+
+public class TestPreparedBatchStrategy
+    extends TestCase {
+
+  private static final String INSERT = "INSERT INTO TEST VALUES (?)";
+  private static final String DELETE = "DELETE FROM TEST WHERE id = ?";
+
+  private PreparedBatchStrategy strategy = null;
+  private SQLDataManager sqlMgr = null;
+  // the sql of each executed batch followed by its parameter count
+  private Vector executed = new Vector();
+
+  public TestPreparedBatchStrategy(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    sqlMgr = new SQLDataManager(new MockConnectionManager(),
+                                "server", "database", "user",
+                                "password", "url");
+    strategy = new PreparedBatchStrategy(sqlMgr);
+  }
+
+  protected void tearDown() throws Exception {
+    strategy = null;
+    sqlMgr = null;
+    super.tearDown();
+  }
+
+  public void testSubmissionOrder() throws Exception {
+    strategy.insert(new TestDAO(1));
+    strategy.delete(new TestDAO(1));
+    strategy.insert(new TestDAO(1));
+    assertEquals(1, strategy.executeBatch());
+    assertEquals(6, executed.size());
+    assertEquals(INSERT, executed.get(0));
+    assertEquals("1", executed.get(1));
+    assertEquals(DELETE, executed.get(2));
+    assertEquals("1", executed.get(3));
+    assertEquals(INSERT, executed.get(4));
+    assertEquals("1", executed.get(5));
+  }
+
+  public void testConsecutiveDAOsBatched() throws Exception {
+    strategy.insert(new TestDAO(1));
+    strategy.insert(new TestDAO(2));
+    strategy.insert(new TestDAO(3));
+    strategy.delete(new TestDAO(2));
+    assertEquals(1, strategy.executeBatch());
+    assertEquals(4, executed.size());
+    assertEquals(INSERT, executed.get(0));
+    assertEquals("3", executed.get(1));
+    assertEquals(DELETE, executed.get(2));
+    assertEquals("1", executed.get(3));
+    assertEquals(0, strategy.executeBatch());
+  }
+
+  public void testMaxBatchCount() throws Exception {
+    strategy.setMaxBatchCount(2);
+    strategy.insert(new TestDAO(1));
+    strategy.insert(new TestDAO(2));
+    strategy.insert(new TestDAO(3));
+    assertEquals(2, executed.size());
+    assertEquals("2", executed.get(1));
+    assertEquals(1, strategy.executeBatch());
+  }
+
+  /**
+   * a ConnectionManager whose connections record the batches executed
+   */
+  private class MockConnectionManager
+      implements ConnectionManager {
+    public Connection getConnection(String database, String user,
+                                    String password, String url) {
+      return (Connection)Proxy.newProxyInstance(
+          Connection.class.getClassLoader(),
+          new Class[] {Connection.class},
+          new InvocationHandler() {
+        public Object invoke(Object proxy, Method m, Object[] args) {
+          if (m.getName().equals("prepareStatement"))
+            return newStatement((String)args[0]);
+          return defaultValue(m);
+        }
+      });
+    }
+
+    private PreparedStatement newStatement(final String sql) {
+      return (PreparedStatement)Proxy.newProxyInstance(
+          PreparedStatement.class.getClassLoader(),
+          new Class[] {PreparedStatement.class},
+          new InvocationHandler() {
+        private int count = 0;
+        public Object invoke(Object proxy, Method m, Object[] args) {
+          if (m.getName().equals("addBatch"))
+            count++;
+          else if (m.getName().equals("executeBatch")) {
+            executed.add(sql);
+            executed.add(String.valueOf(count));
+            int[] rtn = new int[count];
+            count = 0;
+            return rtn;
+          }
+          return defaultValue(m);
+        }
+      });
+    }
+
+    private Object defaultValue(Method m) {
+      Class type = m.getReturnType();
+      if (type == Boolean.TYPE)
+        return Boolean.FALSE;
+      if (type == Integer.TYPE)
+        return new Integer(0);
+      return null;
+    }
+  }
+
+  /**
+   * a DAO which binds a single id
+   */
+  private static class TestDAO
+      extends DAO implements SQLBindable {
+    private Vector values = new Vector();
+
+    public TestDAO(int id) {
+      values.add(new Integer(id));
+    }
+
+    public Vector getBCPVector(Table table) {
+      return null;
+    }
+
+    public Vector getBCPSupportedTables() {
+      return null;
+    }
+
+    public String getUpdateSQL() {
+      return null;
+    }
+
+    public String getDeleteSQL() {
+      return null;
+    }
+
+    public String getInsertSQL() {
+      return null;
+    }
+
+    public String getUpdateTemplate() {
+      return null;
+    }
+
+    public Vector getUpdateBindValues() {
+      return null;
+    }
+
+    public String getDeleteTemplate() {
+      return DELETE;
+    }
+
+    public Vector getDeleteBindValues() {
+      return values;
+    }
+
+    public String getInsertTemplate() {
+      return INSERT;
+    }
+
+    public Vector getInsertBindValues() {
+      return values;
+    }
+  }
+}